@@ -0,0 +1,150 @@
+package benchmarks;
+
+import entities.Book;
+import org.apache.commons.lang3.RandomUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import service.BookTextIndex;
+import service.LibraryManagementSystemImpl;
+import utils.DatabaseConnector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * fuzzy title search through the trigram index against the LIKE '%x%'
+ * path. the index* and scan benchmarks stay in process: a lookup in the
+ * index and a full scan with String.contains, i.e. what LIKE does per row.
+ * the query* benchmarks run queryBook on an in-memory h2 database with and
+ * without the index, e.g. -Djmh.args="BookTextIndexBenchmark.query -p books=100000".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookTextIndexBenchmark {
+
+    private static final int PATTERNS = 200;
+
+    @Param({"10000", "100000", "1000000"})
+    public int books;
+
+    private Dataset dataset;
+    private List<String> patterns;
+    private BookTextIndex index;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataset = new Dataset(books);
+        patterns = new ArrayList<>();
+        /* mostly selective patterns (a volume number), some matching a common word */
+        for (int i = 0; i < PATTERNS; i++) {
+            String title = dataset.books.get(RandomUtils.nextInt(0, books)).getTitle();
+            if (i % 4 == 0) {
+                int from = RandomUtils.nextInt(0, title.indexOf(" Vol.") - 4);
+                patterns.add(title.substring(from, from + 4));
+            } else {
+                patterns.add(title.substring(title.indexOf("Vol.") + 2));
+            }
+        }
+        index = new BookTextIndex();
+        index.rebuild(() -> dataset.books);
+        for (String pattern : patterns) {
+            if (index.search(BookTextIndex.Field.TITLE, pattern).length != scan(pattern)) {
+                throw new IllegalStateException("index and scan disagree on " + pattern);
+            }
+        }
+    }
+
+    private String anyPattern() {
+        return patterns.get(next++ % patterns.size());
+    }
+
+    private int scan(String pattern) {
+        String lower = pattern.toLowerCase(Locale.ROOT);
+        int hits = 0;
+        for (Book book : dataset.books) {
+            if (book.getTitle().toLowerCase(Locale.ROOT).contains(lower)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int indexSearch() {
+        return index.search(BookTextIndex.Field.TITLE, anyPattern()).length;
+    }
+
+    @Benchmark
+    public int scan() {
+        return scan(anyPattern());
+    }
+
+    /* the books of the outer state in h2, queried by two libraries on the same pool */
+    @State(Scope.Benchmark)
+    public static class Database {
+        private DatabaseConnector connector;
+        private LibraryManagementSystemImpl withIndex;
+        private LibraryManagementSystemImpl withLike;
+
+        @Setup(Level.Trial)
+        public void setUp(BookTextIndexBenchmark bench) throws Exception {
+            connector = new DatabaseConnector(Dataset.inMemoryConfig("h2"));
+            if (!connector.connect()) {
+                throw new IllegalStateException("Failed to connect database.");
+            }
+            withIndex = new LibraryManagementSystemImpl(connector, true);
+            withLike = new LibraryManagementSystemImpl(connector, false);
+            Dataset.check(withIndex.resetDatabase());
+            for (int i = 0; i < bench.dataset.books.size(); i += 1000) {
+                List<Book> chunk = new ArrayList<>();
+                for (Book b : bench.dataset.books.subList(i, Math.min(bench.books, i + 1000))) {
+                    chunk.add(b.clone());
+                }
+                Dataset.check(withIndex.storeBook(chunk));
+            }
+            Dataset.check(withIndex.buildTextIndex());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            connector.release();
+        }
+    }
+
+    private ApiResult queryTitle(LibraryManagementSystemImpl library) {
+        BookQueryConditions conditions = new BookQueryConditions();
+        conditions.setTitle(anyPattern());
+        conditions.setPageSize(100);
+        return library.queryBook(conditions);
+    }
+
+    @Benchmark
+    public ApiResult queryWithIndex(Database db) {
+        return queryTitle(db.withIndex);
+    }
+
+    @Benchmark
+    public ApiResult queryWithLike(Database db) {
+        return queryTitle(db.withLike);
+    }
+}
@@ -0,0 +1,120 @@
+package benchmarks;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import queries.ApiResult;
+import service.LibraryManagementSystem;
+import service.LibraryManagementSystemImpl;
+import service.LibraryManagementSystems;
+import utils.BorrowStrategy;
+import utils.DatabaseConnector;
+import utils.RandomData;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * the locking and the conditional borrowBook strategies on h2, and the
+ * in-memory library, with every benchmark thread borrowing (and, if it
+ * got a copy, returning) the same book. the stock is half the number of
+ * threads, so about half of the borrows find it empty. sampled, so the
+ * result has the percentiles of the latency. the threads* benchmarks are
+ * the same at 16, 64 and 256 threads, e.g.
+ * -Djmh.args="BorrowContentionBenchmark.threads64 -p strategy=locking".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BorrowContentionBenchmark {
+
+    /* a BorrowStrategy name, or "memory" for the in-memory library */
+    @Param({"conditional", "locking", "memory"})
+    public String strategy;
+
+    private DatabaseConnector connector;
+    private LibraryManagementSystem library;
+    private Book book;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkParams params) throws Exception {
+        boolean memory = "memory".equals(strategy);
+        /* a connection per thread, so they all reach the database */
+        connector = new DatabaseConnector(Dataset.inMemoryConfig(memory ? "memory" : "h2", params.getThreads()));
+        if (!connector.connect()) {
+            throw new IllegalStateException("Failed to connect database.");
+        }
+        library = memory ? LibraryManagementSystems.open(connector)
+                : new LibraryManagementSystemImpl(connector, false, BorrowStrategy.instance(strategy));
+        Dataset.check(library.resetDatabase());
+        book = RandomData.randomBook();
+        book.setStock(Math.max(1, params.getThreads() / 2));
+        Dataset.check(library.storeBook(book));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        connector.release();
+    }
+
+    /* the card of a benchmark thread */
+    @State(Scope.Thread)
+    public static class Borrower {
+        private Card card;
+        /* borrow times must be unique per card and book */
+        private long clock = System.currentTimeMillis();
+
+        @Setup(Level.Trial)
+        public void setUp(BorrowContentionBenchmark bench) {
+            card = RandomData.randomCard();
+            card.setName(card.getName() + Thread.currentThread().getId());
+            Dataset.check(bench.library.registerCard(card));
+        }
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean threads16(Borrower borrower) {
+        return borrowAndReturn(borrower);
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean threads64(Borrower borrower) {
+        return borrowAndReturn(borrower);
+    }
+
+    @Benchmark
+    @Threads(256)
+    public boolean threads256(Borrower borrower) {
+        return borrowAndReturn(borrower);
+    }
+
+    private boolean borrowAndReturn(Borrower borrower) {
+        Borrow borrow = new Borrow(book, borrower.card);
+        borrow.setBorrowTime(++borrower.clock);
+        ApiResult borrowed = library.borrowBook(borrow);
+        if (borrowed.ok) {
+            borrow.setReturnTime(++borrower.clock);
+            Dataset.check(library.returnBook(borrow));
+        }
+        return borrowed.ok;
+    }
+}
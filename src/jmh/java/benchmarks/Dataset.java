@@ -0,0 +1,108 @@
+package benchmarks;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import org.apache.commons.lang3.RandomUtils;
+import queries.ApiResult;
+import queries.BorrowHistories;
+import service.LibraryManagementSystem;
+import utils.ConnectConfig;
+import utils.RandomData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * books, cards and borrows generated with {@link RandomData}, plus the
+ * config of a fresh in-memory database to load them into.
+ */
+final class Dataset {
+
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    final List<Book> books = new ArrayList<>();
+    final List<Card> cards = new ArrayList<>();
+    final List<Borrow> borrows = new ArrayList<>();
+
+    /* one card per 10 books and two (returned) borrows per card */
+    Dataset(int nBooks) {
+        for (int i = 0; i < nBooks; i++) {
+            Book book = RandomData.randomBook();
+            /* numbered so that the unique key never collides */
+            book.setTitle(book.getTitle() + " Vol." + i);
+            book.setBookId(i + 1);
+            books.add(book);
+        }
+        int nCards = Math.max(1, nBooks / 10);
+        for (int i = 0; i < nCards; i++) {
+            Card card = RandomData.randomCard();
+            card.setName(String.format("User%07d", i));
+            card.setCardId(i + 1);
+            cards.add(card);
+        }
+        for (Card card : cards) {
+            for (int i = 0; i < 2; i++) {
+                Borrow borrow = new Borrow(books.get(RandomUtils.nextInt(0, books.size())), card);
+                borrow.setBorrowTime(RandomData.randomTime());
+                borrow.setReturnTime(borrow.getBorrowTime() + RandomUtils.nextLong(1, 1_000_000_000L));
+                borrows.add(borrow);
+            }
+        }
+    }
+
+    /* an empty database of its own (h2 or memory), sized for single-threaded benchmarks */
+    static ConnectConfig inMemoryConfig(String type) throws ClassNotFoundException {
+        return inMemoryConfig(type, 4);
+    }
+
+    /* an empty database of its own with a pool of poolSize connections */
+    static ConnectConfig inMemoryConfig(String type, int poolSize) throws ClassNotFoundException {
+        Map<String, Object> map = new HashMap<>();
+        map.put("type", type);
+        map.put("db", "bench" + databases.incrementAndGet());
+        map.put("pool", Map.of("maxSize", poolSize, "minIdle", 1));
+        return new ConnectConfig(map);
+    }
+
+    /* store everything; book and card ids are assigned in insertion order */
+    void load(LibraryManagementSystem library) {
+        check(library.resetDatabase());
+        for (int i = 0; i < books.size(); i += 1000) {
+            List<Book> chunk = new ArrayList<>();
+            for (Book b : books.subList(i, Math.min(books.size(), i + 1000))) {
+                chunk.add(b.clone());
+            }
+            check(library.storeBook(chunk));
+        }
+        for (Card card : cards) {
+            check(library.registerCard(card));
+        }
+        for (Borrow borrow : borrows) {
+            check(library.borrowBook(borrow));
+            check(library.returnBook(borrow));
+        }
+    }
+
+    /* a history of the given size, for the serialization benchmarks */
+    List<BorrowHistories.Item> historyItems(int size) {
+        List<BorrowHistories.Item> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Borrow borrow = borrows.get(i % borrows.size());
+            Book book = books.get(borrow.getBookId() - 1);
+            items.add(new BorrowHistories.Item(borrow.getCardId(), book, borrow));
+        }
+        return items;
+    }
+
+    /* result, if the call succeeded */
+    static ApiResult check(ApiResult result) {
+        if (!result.ok) {
+            throw new IllegalStateException(result.message);
+        }
+        return result;
+    }
+}
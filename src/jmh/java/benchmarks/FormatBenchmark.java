@@ -0,0 +1,110 @@
+package benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import entities.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import queries.ApiResult;
+import queries.BookQueryCursor;
+import queries.BookQueryResults;
+import queries.BorrowHistories;
+import queries.CardList;
+import queries.SortOrder;
+import utils.BodyFormat;
+import utils.JsonUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * throughput of writing and reading each response payload, wrapped in an
+ * ApiResult as the server sends it, in every BodyFormat, through the tuned
+ * JsonUtil mappers (Blackbird accessors) and through plain reflective ones.
+ * add -prof gc to -Djmh.args for the allocation per operation, e.g.
+ * -Djmh.args="FormatBenchmark -p size=1000 -prof gc".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatBenchmark {
+
+    @Param({"books", "histories", "cards"})
+    public String payload;
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    public BodyFormat format;
+
+    @Param({"tuned", "reflective"})
+    public String mapper;
+
+    /* number of items in the list */
+    @Param({"100", "1000"})
+    public int size;
+
+    private ApiResult result;
+    private Class<?> payloadType;
+    private ObjectWriter writer;
+    private ObjectMapper reader;
+    private ByteArrayOutputStream out;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        Dataset dataset = new Dataset(size * 10);
+        Book last = dataset.books.get(size - 1);
+        switch (payload) {
+            case "books" -> {
+                result = new ApiResult(true, new BookQueryResults(dataset.books.subList(0, size),
+                        BookQueryCursor.after(last, Book.SortColumn.BOOK_ID, SortOrder.ASC).encode()));
+                payloadType = BookQueryResults.class;
+            }
+            case "histories" -> {
+                result = new ApiResult(true, new BorrowHistories(dataset.historyItems(size)));
+                payloadType = BorrowHistories.class;
+            }
+            case "cards" -> {
+                result = new ApiResult(true, new CardList(dataset.cards.subList(0, size)));
+                payloadType = CardList.class;
+            }
+            default -> throw new IllegalArgumentException("unknown payload " + payload);
+        }
+        ObjectMapper tuned = JsonUtil.mapper(format);
+        reader = "tuned".equals(mapper) ? tuned : new ObjectMapper(tuned.getFactory().copy());
+        writer = reader.writer();
+        out = new ByteArrayOutputStream(1 << 20);
+        encoded = writer.writeValueAsBytes(result.payload);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        out.reset();
+        writer.writeValue(out, result);
+        return out.size();
+    }
+
+    @Benchmark
+    public Object read() throws IOException {
+        return reader.readValue(new ByteArrayInputStream(encoded), payloadType);
+    }
+
+    /* bytes per payload, to set against the time: the same for every benchmark of a format */
+    @Benchmark
+    public int encodedSize() {
+        return encoded.length;
+    }
+}
@@ -0,0 +1,159 @@
+package benchmarks;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import entities.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import queries.BookQueryCursor;
+import queries.BookQueryResults;
+import queries.BorrowHistories;
+import queries.CardList;
+import queries.SortOrder;
+import utils.BookJsonCache;
+import utils.JsonBytes;
+import utils.JsonUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JsonUtil encode and decode of the three list responses, and the rows of
+ * book and history listings written through Jackson against spliced from
+ * a warm BookJsonCache. the spliced rows are copies with strings of their
+ * own, like rows fresh from the database, so checking them against the
+ * cache costs what it does in the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    /* number of items in each list */
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    private BookQueryResults books;
+    private BorrowHistories histories;
+    private CardList cards;
+    private String booksJson;
+    private String historiesJson;
+    private String cardsJson;
+    private List<Book> bookRows;
+    private List<BorrowHistories.Item> itemRows;
+    private BookJsonCache fragments;
+    private ByteArrayOutputStream jacksonOut;
+    private JsonBytes splicedOut;
+
+    @Setup
+    public void setUp() {
+        /* ten times as many books as cards, so size cards need size * 10 books */
+        Dataset dataset = new Dataset(size * 10);
+        Book last = dataset.books.get(size - 1);
+        books = new BookQueryResults(dataset.books.subList(0, size),
+                BookQueryCursor.after(last, Book.SortColumn.BOOK_ID, SortOrder.ASC).encode());
+        histories = new BorrowHistories(dataset.historyItems(size));
+        cards = new CardList(dataset.cards.subList(0, size));
+        booksJson = JsonUtil.toJson(books);
+        historiesJson = JsonUtil.toJson(histories);
+        cardsJson = JsonUtil.toJson(cards);
+        bookRows = new ArrayList<>(size);
+        for (Book book : books.getResults()) {
+            Book row = new Book(new String(book.getCategory()), new String(book.getTitle()),
+                    new String(book.getPress()), book.getPublishYear(), new String(book.getAuthor()),
+                    book.getPrice(), book.getStock());
+            row.setBookId(book.getBookId());
+            bookRows.add(row);
+        }
+        itemRows = JsonUtil.fromJson(historiesJson, BorrowHistories.class).getItems();
+        fragments = new BookJsonCache(size * 10);
+        jacksonOut = new ByteArrayOutputStream(1 << 20);
+        splicedOut = new JsonBytes(1 << 20);
+        writeBookRowsSpliced();
+        writeHistoryRowsSpliced();
+    }
+
+    @Benchmark
+    public String encodeBookQueryResults() {
+        return JsonUtil.toJson(books);
+    }
+
+    @Benchmark
+    public BookQueryResults decodeBookQueryResults() {
+        return JsonUtil.fromJson(booksJson, BookQueryResults.class);
+    }
+
+    @Benchmark
+    public String encodeBorrowHistories() {
+        return JsonUtil.toJson(histories);
+    }
+
+    @Benchmark
+    public BorrowHistories decodeBorrowHistories() {
+        return JsonUtil.fromJson(historiesJson, BorrowHistories.class);
+    }
+
+    @Benchmark
+    public int writeBookRowsJackson() throws IOException {
+        jacksonOut.reset();
+        try (JsonGenerator generator = JsonUtil.createGenerator(jacksonOut)) {
+            for (Book book : bookRows) {
+                generator.writeObject(book);
+            }
+        }
+        return jacksonOut.size();
+    }
+
+    @Benchmark
+    public int writeBookRowsSpliced() {
+        splicedOut.reset();
+        for (Book book : bookRows) {
+            fragments.appendBook(book, splicedOut);
+        }
+        return splicedOut.size();
+    }
+
+    @Benchmark
+    public int writeHistoryRowsJackson() throws IOException {
+        jacksonOut.reset();
+        try (JsonGenerator generator = JsonUtil.createGenerator(jacksonOut)) {
+            for (BorrowHistories.Item item : itemRows) {
+                generator.writeObject(item);
+            }
+        }
+        return jacksonOut.size();
+    }
+
+    @Benchmark
+    public int writeHistoryRowsSpliced() {
+        splicedOut.reset();
+        for (BorrowHistories.Item item : itemRows) {
+            fragments.appendItem(item, splicedOut);
+        }
+        return splicedOut.size();
+    }
+
+    @Benchmark
+    public String encodeCardList() {
+        return JsonUtil.toJson(cards);
+    }
+
+    @Benchmark
+    public CardList decodeCardList() {
+        return JsonUtil.fromJson(cardsJson, CardList.class);
+    }
+}
@@ -0,0 +1,227 @@
+package benchmarks;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import service.InMemoryLibraryManagementSystem;
+import utils.MemoryConfig;
+import utils.RandomData;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * what the journal of the memory database costs. borrowAndReturn is the
+ * sustained write throughput per sync mode, every thread borrowing and
+ * returning books with its own card (two log records per operation);
+ * raise the writers with -t. recover is the time from opening a data
+ * directory to serving requests, from the log alone or from a snapshot.
+ *
+ * the data directories are created under -Dbench.dir (default: the temp
+ * directory), which should be on the disk the server would use, since
+ * fsync dominates, e.g.
+ * -Djmh.args="MemoryJournalBenchmark -t 64 -jvmArgsAppend -Dbench.dir=/data".
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryJournalBenchmark {
+
+    private static final int FSYNC_INTERVAL = 5;
+
+    private static Path base() {
+        return Path.of(System.getProperty("bench.dir", System.getProperty("java.io.tmpdir")));
+    }
+
+    private static MemoryConfig config(Path dir, String mode) {
+        Map<String, Object> section = new HashMap<>();
+        section.put("dataDir", dir == null ? "" : dir.toString());
+        section.put("syncMode", mode);
+        section.put("fsyncInterval", FSYNC_INTERVAL);
+        section.put("snapshotInterval", 0);
+        return new MemoryConfig(section);
+    }
+
+    /* a library with 1000 books, each with a copy per thread */
+    @State(Scope.Benchmark)
+    public static class Journal {
+        /* a sync mode, or "off" for a library without a data directory */
+        @Param({"off", "always", "group", "interval"})
+        public String syncMode;
+
+        private Path dir;
+        private InMemoryLibraryManagementSystem library;
+        private final List<Book> books = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkParams params) throws IOException {
+            boolean off = "off".equals(syncMode);
+            dir = off ? null : Files.createTempDirectory(base(), "journal-bench");
+            library = InMemoryLibraryManagementSystem.open(config(dir, off ? "group" : syncMode));
+            for (int i = 0; i < 1000; i++) {
+                Book book = RandomData.randomBook();
+                book.setTitle(book.getTitle() + " Vol." + i);
+                book.setStock(params.getThreads());
+                books.add(book);
+            }
+            Dataset.check(library.storeBook(books));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            library.close();
+            delete(dir);
+        }
+    }
+
+    /* the card of a benchmark thread */
+    @State(Scope.Thread)
+    public static class Writer {
+        private Card card;
+        private int next;
+        /* borrow times must be unique per card and book */
+        private long time = 1;
+
+        @Setup(Level.Trial)
+        public void setUp(Journal journal) {
+            card = RandomData.randomCard();
+            card.setName(card.getName() + Thread.currentThread().getId());
+            Dataset.check(journal.library.registerCard(card));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(16)
+    public void borrowAndReturn(Journal journal, Writer writer) {
+        Borrow borrow = new Borrow(journal.books.get(writer.next++ % journal.books.size()), writer.card);
+        borrow.setBorrowTime(writer.time++);
+        borrow.setReturnTime(writer.time++);
+        Dataset.check(journal.library.borrowBook(borrow));
+        Dataset.check(journal.library.returnBook(borrow));
+    }
+
+    /* a data directory with the given number of books and 1.5 times as many loan records */
+    @State(Scope.Benchmark)
+    public static class DataDir {
+        @Param({"100000", "1000000"})
+        public int books;
+
+        /* "log": only log segments to replay, "snapshot": a snapshot of everything */
+        @Param({"log", "snapshot"})
+        public String from;
+
+        private Path filled;
+        /* a copy of filled per invocation, since opening starts a new segment */
+        private Path copy;
+        private InMemoryLibraryManagementSystem opened;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            filled = Files.createTempDirectory(base(), "journal-bench");
+            InMemoryLibraryManagementSystem library = InMemoryLibraryManagementSystem.open(config(filled, "interval"));
+            List<Card> cards = new ArrayList<>();
+            for (int i = 0; i < Math.max(1, books / 100); i++) {
+                Card card = RandomData.randomCard();
+                card.setName(card.getName() + i);
+                Dataset.check(library.registerCard(card));
+                cards.add(card);
+            }
+            List<Book> all = new ArrayList<>(books);
+            List<Book> chunk = new ArrayList<>();
+            for (int i = 0; i < books; i++) {
+                Book book = RandomData.randomBook();
+                book.setTitle(book.getTitle() + " Vol." + i);
+                book.setStock(2);
+                chunk.add(book);
+                all.add(book);
+                if (chunk.size() == 1000) {
+                    Dataset.check(library.storeBook(chunk));
+                    chunk = new ArrayList<>();
+                }
+            }
+            Dataset.check(library.storeBook(chunk));
+            for (int i = 0; i < books; i++) {
+                Borrow borrow = new Borrow(all.get(i), cards.get(i % cards.size()));
+                borrow.setBorrowTime(i + 1);
+                Dataset.check(library.borrowBook(borrow));
+                if (i % 2 == 0) {
+                    borrow.setReturnTime(i + 2);
+                    Dataset.check(library.returnBook(borrow));
+                }
+            }
+            if ("snapshot".equals(from)) {
+                library.close();
+            } else {
+                // let the flusher write everything out, then leave it like a crash would
+                Thread.sleep(FSYNC_INTERVAL * 20L);
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void copy() throws IOException {
+            copy = Files.createTempDirectory(base(), "journal-bench");
+            try (Stream<Path> files = Files.list(filled)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.copy(file, copy.resolve(file.getFileName()));
+                }
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void drop() throws IOException {
+            opened.close();
+            opened = null;
+            delete(copy);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            delete(filled);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Threads(1)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 5)
+    public InMemoryLibraryManagementSystem recover(DataDir data) throws IOException {
+        data.opened = InMemoryLibraryManagementSystem.open(config(data.copy, "interval"));
+        return data.opened;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (dir == null) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+        }
+    }
+}
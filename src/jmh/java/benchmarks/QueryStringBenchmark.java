@@ -0,0 +1,92 @@
+package benchmarks;
+
+import entities.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import queries.SortOrder;
+import utils.QueryString;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QueryString against the split and URLDecoder parsing it replaced, on
+ * query strings the frontend sends. the typed benchmarks also read the
+ * parameters GET /book reads. add -prof gc to -Djmh.args to compare the
+ * allocation per query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryStringBenchmark {
+
+    @Param({
+        "cardId=42",
+        "title=Database%20System&minPrice=10.5&maxPrice=99&sortBy=PRICE&sortOrder=DESC&pageSize=100",
+        "category=%E8%AE%A1%E7%AE%97%E6%9C%BA&press=Press-A&author=Coco&minPublishYear=2001&maxPublishYear=2020"
+    })
+    public String query;
+
+    @Benchmark
+    public Map<String, String> splitDecode() throws UnsupportedEncodingException {
+        return extractParams(query);
+    }
+
+    @Benchmark
+    public void splitDecodeTyped(Blackhole blackhole) throws UnsupportedEncodingException {
+        Map<String, String> params = extractParams(query);
+        blackhole.consume(params.get("title"));
+        blackhole.consume(params.containsKey("pageSize") ? Integer.parseInt(params.get("pageSize")) : 100);
+        blackhole.consume(params.containsKey("minPublishYear") ? Integer.parseInt(params.get("minPublishYear")) : 0);
+        blackhole.consume(params.containsKey("minPrice") ? Double.parseDouble(params.get("minPrice")) : 0);
+        blackhole.consume(params.containsKey("sortBy") ? Book.SortColumn.valueOf(params.get("sortBy")) : null);
+        blackhole.consume(params.containsKey("sortOrder") ? SortOrder.valueOf(params.get("sortOrder")) : null);
+    }
+
+    @Benchmark
+    public QueryString queryString() {
+        return new QueryString(query);
+    }
+
+    @Benchmark
+    public void queryStringTyped(Blackhole blackhole) {
+        QueryString params = new QueryString(query);
+        blackhole.consume(params.get("title"));
+        blackhole.consume(params.getInt("pageSize", 100));
+        blackhole.consume(params.getInt("minPublishYear", 0));
+        blackhole.consume(params.getDouble("minPrice", 0));
+        blackhole.consume(params.getEnum("sortBy", Book.SortColumn.class, null));
+        blackhole.consume(params.getEnum("sortOrder", SortOrder.class, null));
+    }
+
+    /* what HttpUtil.extractParams did before QueryString */
+    private static Map<String, String> extractParams(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query != null && !query.isEmpty()) {
+            for (String pair : query.split("&")) {
+                String[] keyValue = pair.split("=", 2);
+                if (keyValue.length == 2) {
+                    params.put(URLDecoder.decode(keyValue[0], "UTF-8"), URLDecoder.decode(keyValue[1], "UTF-8"));
+                } else if (keyValue.length == 1) {
+                    params.put(URLDecoder.decode(keyValue[0], "UTF-8"), "");
+                }
+            }
+        }
+        return params;
+    }
+}
@@ -0,0 +1,185 @@
+package benchmarks;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import queries.SortOrder;
+import service.LibraryManagementSystem;
+import service.LibraryManagementSystemImpl;
+import service.LibraryManagementSystems;
+import utils.DatabaseConnector;
+import utils.RandomData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * every LibraryManagementSystem operation except resetDatabase, run
+ * against an in-memory h2 database or the in-process "memory" library,
+ * loaded with a {@link Dataset}.
+ * operations that add rows undo them in the same invocation, so the
+ * dataset keeps its size across iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceBenchmark {
+
+    @Param({"1000", "10000"})
+    public int books;
+
+    /* a DatabaseType name */
+    @Param({"h2", "memory"})
+    public String type;
+
+    private Dataset dataset;
+    private DatabaseConnector connector;
+    private LibraryManagementSystem library;
+    private int next = 0;
+    /* borrow times must be unique per card and book */
+    private long clock = System.currentTimeMillis();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataset = new Dataset(books);
+        connector = new DatabaseConnector(Dataset.inMemoryConfig(type));
+        if (!connector.connect()) {
+            throw new IllegalStateException("Failed to connect database.");
+        }
+        library = LibraryManagementSystems.open(connector);
+        dataset.load(library);
+        if (library instanceof LibraryManagementSystemImpl impl && connector.getConf().getSearch().isNgramIndex()) {
+            Dataset.check(impl.buildTextIndex());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        connector.release();
+    }
+
+    private Book anyBook() {
+        return dataset.books.get(next++ % dataset.books.size());
+    }
+
+    private Card anyCard() {
+        return dataset.cards.get(next++ % dataset.cards.size());
+    }
+
+    @Benchmark
+    public ApiResult queryBookByCategory() {
+        BookQueryConditions conditions = new BookQueryConditions();
+        conditions.setCategory(anyBook().getCategory());
+        conditions.setPageSize(100);
+        return library.queryBook(conditions);
+    }
+
+    @Benchmark
+    public ApiResult queryBookByTitle() {
+        BookQueryConditions conditions = new BookQueryConditions();
+        String title = anyBook().getTitle();
+        conditions.setTitle(title.substring(title.indexOf("Vol.")));
+        conditions.setPageSize(100);
+        return library.queryBook(conditions);
+    }
+
+    @Benchmark
+    public ApiResult queryBookSortedPage() {
+        BookQueryConditions conditions = new BookQueryConditions();
+        conditions.setMinPrice(50.0);
+        conditions.setSortBy(Book.SortColumn.PRICE);
+        conditions.setSortOrder(SortOrder.DESC);
+        conditions.setPageSize(100);
+        return library.queryBook(conditions);
+    }
+
+    @Benchmark
+    public ApiResult storeAndRemoveBook() {
+        Book book = RandomData.randomBook();
+        book.setTitle(book.getTitle() + " New." + next++);
+        Dataset.check(library.storeBook(book));
+        return library.removeBook(book.getBookId());
+    }
+
+    @Benchmark
+    public ApiResult storeAndRemoveBooks() {
+        List<Book> batch = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            Book book = RandomData.randomBook();
+            book.setTitle(book.getTitle() + " New." + next++);
+            batch.add(book);
+        }
+        Dataset.check(library.storeBook(batch));
+        ApiResult result = null;
+        for (Book book : batch) {
+            result = library.removeBook(book.getBookId());
+        }
+        return result;
+    }
+
+    @Benchmark
+    public ApiResult incBookStock() {
+        return library.incBookStock(anyBook().getBookId(), 1);
+    }
+
+    @Benchmark
+    public ApiResult modifyBookInfo() {
+        Book book = anyBook().clone();
+        book.setPrice(RandomData.randomPrice());
+        return library.modifyBookInfo(book);
+    }
+
+    @Benchmark
+    public ApiResult borrowAndReturnBook() {
+        Borrow borrow = new Borrow(anyBook(), anyCard());
+        borrow.setBorrowTime(++clock);
+        Dataset.check(library.borrowBook(borrow));
+        borrow.setReturnTime(++clock);
+        return library.returnBook(borrow);
+    }
+
+    @Benchmark
+    public ApiResult showBorrowHistory() {
+        return library.showBorrowHistory(anyCard().getCardId());
+    }
+
+    @Benchmark
+    public ApiResult registerAndRemoveCard() {
+        Card card = RandomData.randomCard();
+        card.setName(String.format("New%07d", next++));
+        Dataset.check(library.registerCard(card));
+        return library.removeCard(card.getCardId());
+    }
+
+    @Benchmark
+    public ApiResult modifyCardInfo() {
+        Card card = anyCard();
+        /* an unchanged card is rejected as a duplicate of itself */
+        Card modified = new Card(card.getCardId(), card.getName(), "Department " + next++, card.getType());
+        return Dataset.check(library.modifyCardInfo(modified));
+    }
+
+    @Benchmark
+    public ApiResult showCards() {
+        return library.showCards();
+    }
+}
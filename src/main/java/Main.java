@@ -1,16 +1,40 @@
+import utils.AdmissionConfig;
+import utils.BookJsonCache;
 import utils.ConnectConfig;
 import utils.DatabaseConnector;
+import utils.ExecutorType;
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import handlers.AdmissionFilter;
 import handlers.CardHandler;
 import handlers.BookHandler;
 import handlers.BorrowHandler;
 import handlers.CorsFilter;
+import handlers.MetricsFilter;
+import handlers.MetricsHandler;
+import handlers.Router;
+import handlers.StatsHandler;
+import handlers.StatusHandler;
+import service.BookCache;
+import service.InMemoryLibraryManagementSystem;
+import service.InstrumentedLibraryManagementSystem;
 import service.LibraryManagementSystem;
 import service.LibraryManagementSystemImpl;
+import service.LibraryManagementSystems;
+import service.TableVersions;
+import service.TransactionRetry;
+import service.VersionedLibraryManagementSystem;
+import queries.ApiResult;
 import java.util.logging.Logger;
 import java.util.logging.ConsoleHandler;
 import utils.LogFormatter;
+import utils.InstrumentedExecutor;
+import utils.HttpUtil;
+import utils.MetricsRegistry;
+import utils.ResponseCompression;
+import utils.ServerConfig;
 import java.util.logging.LogManager;
 // import utils.RandomData;
 // import entities.Book;
@@ -57,25 +81,154 @@ public class Main {
                 System.exit(1);
             }
 
-            LibraryManagementSystem lms = new LibraryManagementSystemImpl(connector);
+            LibraryManagementSystem lms = LibraryManagementSystems.open(connector);
+            BookCache bookCache = null;
+            TransactionRetry retry = null;
+            if (lms instanceof LibraryManagementSystemImpl impl) {
+                bookCache = impl.getBookCache();
+                retry = impl.getTransactionRetry();
+                if (conf.getSearch().isNgramIndex()) {
+                    ApiResult indexed = impl.buildTextIndex();
+                    if (indexed.ok) {
+                        log.info("Success to build book text index.");
+                    } else {
+                        log.warning("Failed to build book text index, fuzzy search uses LIKE: " + indexed.message);
+                    }
+                }
+                if (conf.getService().isStatistics()) {
+                    ApiResult counted = impl.rebuildStatistics();
+                    if (counted.ok) {
+                        log.info("Success to count borrow statistics.");
+                    } else {
+                        log.warning("Failed to count borrow statistics: " + counted.message);
+                    }
+                }
+            }
+
+            ServerConfig serverConf = conf.getServer();
+            if (retry != null && serverConf.getExecutor() == ExecutorType.DISPATCHER) {
+                // a backoff would sleep the only thread that serves requests
+                retry.setBackoff(false);
+                log.info("Transaction retries run without backoff on the dispatcher executor.");
+            }
+            HttpServer server = HttpServer.create(new InetSocketAddress(serverConf.getPort()), serverConf.getBacklog());
+            InstrumentedExecutor executor = new InstrumentedExecutor(serverConf);
+            server.setExecutor(executor);
+            ResponseCompression compression = new ResponseCompression(serverConf);
+            HttpUtil.setCompression(compression);
+            HttpUtil.setBinaryFormats(serverConf.isBinaryFormats());
 
-            HttpServer server = HttpServer.create(new InetSocketAddress(8000), 0);
-            server.createContext("/card", new CorsFilter(new CardHandler(lms)));
-            server.createContext("/borrow", new CorsFilter(new BorrowHandler(lms)));
-            server.createContext("/book", new CorsFilter(new BookHandler(lms)));
+            BookJsonCache fragments = conf.getCache().isFragments()
+                    ? new BookJsonCache(conf.getCache().getMaxSize()) : null;
+            MetricsRegistry metrics = new MetricsRegistry();
+            registerGauges(metrics, executor, connector, bookCache, fragments, retry, compression);
+            TableVersions versions = new TableVersions();
+            LibraryManagementSystem api = new InstrumentedLibraryManagementSystem(
+                    new VersionedLibraryManagementSystem(lms, versions), metrics);
+            Router router = routes(api, versions, fragments);
+            AdmissionConfig admission = conf.getAdmission();
+            if (admission.isEnabled() && serverConf.getExecutor() == ExecutorType.DISPATCHER) {
+                log.warning("Admission control waits on the dispatcher thread, use the virtual or pool executor.");
+            }
+            server.createContext("/card", new CorsFilter(new MetricsFilter(
+                    admit(router, admission, metrics, "/card"), metrics, "/card")));
+            server.createContext("/borrow", new CorsFilter(new MetricsFilter(
+                    admit(router, admission, metrics, "/borrow"), metrics,
+                    "/borrow", "/borrow/batch")));
+            server.createContext("/book", new CorsFilter(new MetricsFilter(
+                    admit(router, admission, metrics, "/book"), metrics,
+                    "/book", "/book/batch", "/book/info", "/book/stock")));
+            server.createContext("/stats", new CorsFilter(new MetricsFilter(router, metrics, "/stats")));
+            server.createContext("/status", new CorsFilter(new StatusHandler(executor, connector, bookCache)));
+            server.createContext("/metrics", new MetricsHandler(metrics));
             server.start();
-            log.info("Server is listening on port 8000");
+            log.info("Server is listening on port " + serverConf.getPort() + " with "
+                    + serverConf.getExecutor().getTypeName() + " executor");
 
-            // release database connection handler
+            // stop accepting requests, then release database connection handler
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(1);
+                executor.shutdown();
+                if (lms instanceof InMemoryLibraryManagementSystem memory) {
+                    try {
+                        memory.close();
+                        log.info("Success to save the memory database.");
+                    } catch (IOException e) {
+                        log.warning("Failed to save the memory database: " + e.getMessage());
+                    }
+                }
                 if (connector.release()) {
-                    log.info("Success to release connection.");
+                    log.info("Success to release connection pool.");
                 } else {
-                    log.warning("Failed to release connection.");
+                    log.warning("Failed to release connection pool.");
                 }
             }));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    /* every endpoint of the library api, the contexts above share them */
+    private static Router routes(LibraryManagementSystem api, TableVersions versions, BookJsonCache fragments) {
+        BookHandler book = new BookHandler(api, versions, fragments);
+        CardHandler card = new CardHandler(api, versions);
+        BorrowHandler borrow = new BorrowHandler(api, fragments);
+        StatsHandler stats = new StatsHandler(api);
+        return new Router()
+                .get("/book", book::handleGetRequest)
+                .post("/book", book::handlePostRequest)
+                .delete("/book", book::handleDeleteRequest)
+                .delete("/book/{bookId}", book::handleDeleteByIdRequest)
+                .post("/book/batch", book::handleBatchPostRequest)
+                .put("/book/info", book::handlePutInfoRequest)
+                .put("/book/stock", book::handlePutStockRequest)
+                .get("/card", card::handleGetRequest)
+                .post("/card", card::handlePostRequest)
+                .put("/card", card::handlePutRequest)
+                .delete("/card", card::handleDeleteRequest)
+                .delete("/card/{cardId}", card::handleDeleteByIdRequest)
+                .get("/borrow", borrow::handleGetRequest)
+                .post("/borrow", borrow::handlePostRequest)
+                .delete("/borrow", borrow::handleDeleteRequest)
+                .post("/borrow/batch", borrow::handleBatchPostRequest)
+                .delete("/borrow/batch", borrow::handleBatchDeleteRequest)
+                .get("/stats", stats::handleGetRequest);
+    }
+
+    /* handler behind admission control of its own, unless that is disabled */
+    private static HttpHandler admit(HttpHandler handler, AdmissionConfig conf, MetricsRegistry metrics, String route) {
+        return conf.isEnabled() ? new AdmissionFilter(handler, conf, metrics, route) : handler;
+    }
+
+    /* the numbers of GET /status, for /metrics */
+    private static void registerGauges(MetricsRegistry metrics, InstrumentedExecutor executor,
+                                       DatabaseConnector connector, BookCache bookCache, BookJsonCache fragments,
+                                       TransactionRetry retry, ResponseCompression compression) {
+        metrics.gauge("http_queued_requests", "requests waiting for a worker", executor::getQueueDepth);
+        metrics.gauge("http_active_handlers", "handlers running", executor::getActiveCount);
+        metrics.gauge("db_pool_active_connections", "connections leased out", connector::getActiveCount);
+        metrics.gauge("db_pool_idle_connections", "connections idle in the pool", connector::getIdleCount);
+        metrics.gauge("db_statement_cache_hits", "prepared statements reused", connector::getStatementCacheHits);
+        metrics.gauge("db_statement_cache_misses", "prepared statements created", connector::getStatementCacheMisses);
+        metrics.gauge("http_compressed_responses", "responses sent gzip or deflate", compression::getResponses);
+        metrics.gauge("http_compression_bytes_in", "body bytes before compression", compression::getBytesIn);
+        metrics.gauge("http_compression_bytes_out", "body bytes after compression", compression::getBytesOut);
+        metrics.gauge("http_compression_bytes_saved", "body bytes not sent thanks to compression", compression::getBytesSaved);
+        metrics.gauge("http_compression_cpu_seconds", "time spent compressing bodies", compression::getCpuSeconds);
+        if (retry != null) {
+            metrics.gauge("db_transaction_retries", "transactions run again after a deadlock or serialization failure",
+                    retry::getRetries);
+            metrics.gauge("db_transaction_aborts", "transient failures given up on", retry::getAborts);
+        }
+        if (bookCache != null) {
+            metrics.gauge("book_cache_size", "books in the metadata cache", bookCache::size);
+            metrics.gauge("book_cache_hit_ratio", "share of metadata lookups answered by the cache", bookCache::getHitRatio);
+            metrics.gauge("book_cache_evictions", "books evicted to make room", bookCache::getEvictions);
+        }
+        if (fragments != null) {
+            metrics.gauge("book_json_cache_size", "books with their metadata JSON cached", fragments::size);
+            metrics.gauge("book_json_cache_hit_ratio", "share of rows written from cached JSON",
+                    fragments::getHitRatio);
+        }
+    }
 }
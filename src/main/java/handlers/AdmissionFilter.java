@@ -0,0 +1,76 @@
+package handlers;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import queries.ApiResult;
+import utils.AdmissionConfig;
+import utils.ConcurrencyLimiter;
+import utils.HttpUtil;
+import utils.LatencyHistogram;
+import utils.MetricsRegistry;
+
+/**
+ * admission control of one route: requests beyond the limit of its
+ * {@link ConcurrencyLimiter} wait for a slot, and are answered with
+ * 503 and Retry-After when the queue is full or the wait too long.
+ *
+ * the wait is recorded in the http_admission_wait histograms (rejections
+ * count as errors), the time a request holds its slot in http_service,
+ * so that queueing in front of a route and slowness behind it can be
+ * told apart.
+ */
+public class AdmissionFilter implements HttpHandler {
+    private final HttpHandler delegate;
+    private final ConcurrencyLimiter limiter;
+    private final long maxWait;
+    private final String retryAfter;
+    private final LatencyHistogram waitHistogram;
+    private final LatencyHistogram serviceHistogram;
+
+    public AdmissionFilter(HttpHandler delegate, AdmissionConfig conf, MetricsRegistry metrics, String route) {
+        this.delegate = delegate;
+        this.limiter = new ConcurrencyLimiter(conf);
+        this.maxWait = conf.getMaxWait();
+        this.retryAfter = Integer.toString(conf.getRetryAfter());
+        this.waitHistogram = metrics.histogram("http_admission_wait", "HTTP requests waiting for admission",
+                "route", route);
+        this.serviceHistogram = metrics.histogram("http_service", "HTTP requests admitted", "route", route);
+        metrics.gauge("http_admission_limit", "requests of the route allowed at once", "route", route,
+                limiter::getLimit);
+        metrics.gauge("http_admission_in_flight", "requests of the route being handled", "route", route,
+                limiter::getInFlight);
+        metrics.gauge("http_admission_queued", "requests of the route waiting for admission", "route", route,
+                limiter::getWaiting);
+        metrics.gauge("http_admission_rejected", "requests of the route answered with 503", "route", route,
+                limiter::getRejected);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        boolean admitted;
+        try {
+            admitted = limiter.acquire(maxWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            admitted = false;
+        }
+        waitHistogram.record(start, !admitted);
+        if (!admitted) {
+            exchange.getResponseHeaders().set("Retry-After", retryAfter);
+            HttpUtil.jsonResponse(exchange, 503, new ApiResult(false, "服务繁忙，请稍后再试"));
+            return;
+        }
+        long serviceStart = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.handle(exchange);
+            failed = exchange.getResponseCode() >= 500;
+        } finally {
+            limiter.release(System.nanoTime() - serviceStart);
+            serviceHistogram.record(serviceStart, failed);
+        }
+    }
+}
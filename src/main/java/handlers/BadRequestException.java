@@ -0,0 +1,28 @@
+package handlers;
+
+import queries.ParameterError;
+
+/**
+ * a request the client has to fix, e.g. a missing or malformed parameter.
+ * the {@link Router} answers it with 400, the message and, if a parameter
+ * is to blame, a {@link ParameterError} as payload.
+ */
+public class BadRequestException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final ParameterError error;
+
+    public BadRequestException(String message) {
+        this(message, null);
+    }
+
+    public BadRequestException(String message, ParameterError error) {
+        super(message);
+        this.error = error;
+    }
+
+    /* null unless a single parameter is to blame */
+    public ParameterError getError() {
+        return error;
+    }
+}
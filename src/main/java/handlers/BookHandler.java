@@ -1,18 +1,22 @@
 package handlers;
 
-import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
 import java.util.logging.Logger;
 import service.LibraryManagementSystem;
+import service.TableVersions;
 import queries.ApiResult;
+import utils.BookJsonCache;
 import utils.HttpUtil;
+import utils.JsonUtil;
 import queries.BookQueryConditions;
+import queries.ImportSummary;
+import queries.RowSource;
 import entities.Book;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import java.util.Map;
-import java.util.List;
-import java.util.ArrayList;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import queries.SortOrder;
 
 record BookPostRequest(
@@ -51,143 +55,113 @@ record BookStockRequest(
     @JsonProperty(required = true) int deltaStock
 ) {}
 
-record BookBatchPostRequest(
-    @JsonProperty(required = true) List<BookPostRequest> books
-) {}
+/**
+ * the endpoints of /book, routed by the {@link Router} set up in Main.
+ */
+public class BookHandler {
+    /* GET /book returns at most this many books unless pageSize is given */
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
 
-public class BookHandler implements HttpHandler {
-    private final Logger log = Logger.getLogger(CardHandler.class.getName());
+    private final Logger log = Logger.getLogger(BookHandler.class.getName());
     private final LibraryManagementSystem lms;
+    private final TableVersions versions;
+    /* null if books are serialized through Jackson */
+    private final BookJsonCache fragments;
     
-    public BookHandler(LibraryManagementSystem lms) {
+    public BookHandler(LibraryManagementSystem lms, TableVersions versions, BookJsonCache fragments) {
         this.lms = lms;
-    }
-    
-    @Override
-    public void handle(HttpExchange exchange) throws IOException {
-        String requestMethod = exchange.getRequestMethod();
-        String path = exchange.getRequestURI().getPath();
-        
-        try {
-            switch (requestMethod) {
-                case "GET":
-                    this.handleGetRequest(exchange);
-                    break;  
-                case "POST":
-                    if (path.endsWith("/batch")) {
-                        this.handleBatchPostRequest(exchange);
-                    } else {
-                        this.handlePostRequest(exchange);
-                    }
-                    break;
-                case "DELETE":
-                    this.handleDeleteRequest(exchange);
-                    break;
-                case "PUT":
-                    if (path.endsWith("/info")) {
-                        this.handlePutInfoRequest(exchange);
-                    } else if (path.endsWith("/stock")) {
-                        this.handlePutStockRequest(exchange);
-                    } else {
-                        exchange.sendResponseHeaders(404, 0);
-                        HttpUtil.jsonResponse(exchange, new ApiResult(false, "invalid paths"));
-                    }
-                    break;
-                default:
-                    exchange.sendResponseHeaders(405, -1);
-            }
-        } catch (Exception e) {
-            exchange.sendResponseHeaders(500, 0);
-            log.severe(e.getMessage());
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, e.getMessage()));
-        }
+        this.versions = versions;
+        this.fragments = fragments;
     }
 
-    private void handleGetRequest(HttpExchange exchange) throws IOException {
-        String query = exchange.getRequestURI().getQuery();
-        Map<String, String> params = HttpUtil.extractParams(query);
-        log.info("GET /book with params: " + params.toString());
+    public void handleGetRequest(HttpExchange exchange, RouteParams params) throws IOException {
+        log.info("GET /book with params: " + params);
         BookQueryConditions conditions = new BookQueryConditions();
-        try {
-            if (params.containsKey("category")) {
-                conditions.setCategory(params.get("category"));
-            }
-            if (params.containsKey("title")) {
-                conditions.setTitle(params.get("title"));
-            }
-            if (params.containsKey("press")) {
-                conditions.setPress(params.get("press"));
-            }
-            if (params.containsKey("minPublishYear")) {
-                int minPublishYear = Integer.parseInt(params.get("minPublishYear"));
-                conditions.setMinPublishYear(minPublishYear);
-            }
-            if (params.containsKey("maxPublishYear")) {
-                int maxPublishYear = Integer.parseInt(params.get("maxPublishYear"));
-                conditions.setMaxPublishYear(maxPublishYear);
-            }
-            if (params.containsKey("author")) {
-                conditions.setAuthor(params.get("author"));
-            }
-            if (params.containsKey("minPrice")) {
-                double minPrice = Double.parseDouble(params.get("minPrice"));
-                conditions.setMinPrice(minPrice);
-            }
-            if (params.containsKey("maxPrice")) {
-                double maxPrice = Double.parseDouble(params.get("maxPrice"));
-                conditions.setMaxPrice(maxPrice);
-            }
-        } catch (NumberFormatException e) {
-            exchange.sendResponseHeaders(400, 0);
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, "数字格式不正确"));
+        if (params.has("category")) {
+            conditions.setCategory(params.get("category"));
         }
-        try {
-            if (params.containsKey("sortBy")) {
-                conditions.setSortBy(Book.SortColumn.valueOf(params.get("sortBy")));
-            }
-            if (params.containsKey("sortOrder")) {
-                conditions.setSortOrder(SortOrder.valueOf(params.get("sortOrder")));
-            }
-        } catch (IllegalArgumentException e) {
-            exchange.sendResponseHeaders(400, 0);
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, "排序格式不正确"));
+        if (params.has("title")) {
+            conditions.setTitle(params.get("title"));
+        }
+        if (params.has("press")) {
+            conditions.setPress(params.get("press"));
+        }
+        if (params.has("minPublishYear")) {
+            conditions.setMinPublishYear(params.getInt("minPublishYear"));
+        }
+        if (params.has("maxPublishYear")) {
+            conditions.setMaxPublishYear(params.getInt("maxPublishYear"));
+        }
+        if (params.has("author")) {
+            conditions.setAuthor(params.get("author"));
         }
-        ApiResult result = this.lms.queryBook(conditions);
-        exchange.sendResponseHeaders(200, 0);
-        HttpUtil.jsonResponse(exchange, result);
+        if (params.has("minPrice")) {
+            conditions.setMinPrice(params.getDouble("minPrice"));
+        }
+        if (params.has("maxPrice")) {
+            conditions.setMaxPrice(params.getDouble("maxPrice"));
+        }
+        int pageSize = params.getInt("pageSize", DEFAULT_PAGE_SIZE);
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            HttpUtil.jsonResponse(exchange, 400, new ApiResult(false, "pageSize必须在1到" + MAX_PAGE_SIZE + "之间"));
+            return;
+        }
+        conditions.setPageSize(pageSize);
+        if (params.has("offset")) {
+            conditions.setOffset(params.getInt("offset"));
+        }
+        if (params.has("cursor")) {
+            conditions.setCursor(params.get("cursor"));
+        }
+        conditions.setSortBy(params.getEnum("sortBy", Book.SortColumn.class, conditions.getSortBy()));
+        conditions.setSortOrder(params.getEnum("sortOrder", SortOrder.class, conditions.getSortOrder()));
+        // no book changed since the client got this page
+        String etag = versions.etag('b', versions.getBookVersion(), params.query(), HttpUtil.responseFormat(exchange));
+        if (HttpUtil.notModified(exchange, etag)) {
+            return;
+        }
+        // books are written out while they are read from the database
+        JsonStreamWriter<Book> writer = new JsonStreamWriter<>(exchange, "results", true,
+                fragments == null ? null : fragments::appendBook);
+        writer.finish(this.lms.queryBook(conditions, writer));
     }
 
-    private void handlePostRequest(HttpExchange exchange) throws IOException {
+    public void handlePostRequest(HttpExchange exchange, RouteParams params) throws IOException {
         BookPostRequest request = HttpUtil.jsonRequest(exchange, BookPostRequest.class);
         log.info("POST /book with body: " + request);
         // stock must be greater than 0
         if (request.stock() <= 0) {
-            exchange.sendResponseHeaders(400, 0);
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, "库存不能为负"));
+            HttpUtil.jsonResponse(exchange, 400, new ApiResult(false, "库存不能为负"));
             return;
         }
         Book newBook = new Book(request.category(), request.title(), request.press(), request.publishYear(), request.author(), request.price(), request.stock());
         ApiResult result = this.lms.storeBook(newBook);
-        exchange.sendResponseHeaders(200, 0);
-        HttpUtil.jsonResponse(exchange, result);
+        HttpUtil.jsonResponse(exchange, 200, result);
     }
 
-    private void handleDeleteRequest(HttpExchange exchange) throws IOException {
-        String query = exchange.getRequestURI().getQuery();
-        Map<String, String> params = HttpUtil.extractParams(query);
-        log.info("DELETE /book with params: " + params.toString());
-        if (!params.containsKey("bookId")) {
-            exchange.sendResponseHeaders(400, 0);
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, "bookId is required"));
-        }
-        String bookIdStr = params.get("bookId");
-        int bookId = Integer.parseInt(bookIdStr);
+    /* DELETE /book?bookId=... */
+    public void handleDeleteRequest(HttpExchange exchange, RouteParams params) throws IOException {
+        log.info("DELETE /book with params: " + params);
+        removeBook(exchange, params.getInt("bookId"));
+    }
+
+    /* DELETE /book/{bookId} */
+    public void handleDeleteByIdRequest(HttpExchange exchange, RouteParams params) throws IOException {
+        int bookId = params.pathInt("bookId");
+        log.info("DELETE /book/" + bookId);
+        removeBook(exchange, bookId);
+    }
+
+    private void removeBook(HttpExchange exchange, int bookId) {
         ApiResult result = this.lms.removeBook(bookId);
-        exchange.sendResponseHeaders(200, 0);
-        HttpUtil.jsonResponse(exchange, result);
+        if (fragments != null) {
+            fragments.invalidate(bookId);
+        }
+        HttpUtil.jsonResponse(exchange, 200, result);
     }
 
-    private void handlePutInfoRequest(HttpExchange exchange) throws IOException {
+    public void handlePutInfoRequest(HttpExchange exchange, RouteParams params) throws IOException {
         BookInfoRequest request = HttpUtil.jsonRequest(exchange, BookInfoRequest.class);
         log.info("PUT /book/info with body: " + request);
         
@@ -203,39 +177,117 @@ public class BookHandler implements HttpHandler {
         mBook.setBookId(request.bookId());
         
         ApiResult result = this.lms.modifyBookInfo(mBook);
-        exchange.sendResponseHeaders(200, 0);
-        HttpUtil.jsonResponse(exchange, result);
+        if (fragments != null) {
+            fragments.invalidate(request.bookId());
+        }
+        HttpUtil.jsonResponse(exchange, 200, result);
     }
 
-    private void handlePutStockRequest(HttpExchange exchange) throws IOException {
+    public void handlePutStockRequest(HttpExchange exchange, RouteParams params) throws IOException {
         BookStockRequest request = HttpUtil.jsonRequest(exchange, BookStockRequest.class);
         log.info("PUT /book/stock with body: " + request);
         
         ApiResult result = this.lms.incBookStock(request.bookId(), request.deltaStock());
-        exchange.sendResponseHeaders(200, 0);
-        HttpUtil.jsonResponse(exchange, result);
+        HttpUtil.jsonResponse(exchange, 200, result);
     }
 
-    private void handleBatchPostRequest(HttpExchange exchange) throws IOException {
-        BookBatchPostRequest request = HttpUtil.jsonRequest(exchange, BookBatchPostRequest.class);
-        log.info("POST /book/batch with " + request.books().size() + " books");
-        
-        List<Book> books = new ArrayList<>();
-        for (BookPostRequest bookRequest : request.books()) {
-            Book newBook = new Book(
-                bookRequest.category(), 
-                bookRequest.title(), 
-                bookRequest.press(), 
-                bookRequest.publishYear(), 
-                bookRequest.author(), 
-                bookRequest.price(), 
-                bookRequest.stock()
-            );
-            books.add(newBook);
+    /**
+     * POST /book/batch[?atomic=false]. the body is {"books": [...]} or just
+     * the array, e.g. import_books_example.json. books are stored while the
+     * body is parsed, so it may be larger than memory.
+     */
+    public void handleBatchPostRequest(HttpExchange exchange, RouteParams params) throws IOException {
+        boolean atomic = !"false".equals(params.get("atomic", null));
+        log.info("POST /book/batch with atomic: " + atomic);
+
+        try (JsonParser parser = JsonUtil.createParser(exchange.getRequestBody(), HttpUtil.requestFormat(exchange))) {
+            boolean found;
+            try {
+                found = enterBookArray(parser);
+            } catch (JsonProcessingException e) {
+                found = false;
+            }
+            if (!found) {
+                HttpUtil.jsonResponse(exchange, 400, new ApiResult(false, "请求体应为图书数组"));
+                return;
+            }
+            BookArraySource source = new BookArraySource(parser, atomic);
+            ApiResult result = this.lms.importBooks(source, atomic);
+            if (result.payload instanceof ImportSummary summary) {
+                summary.addReceived(source.invalid);
+                summary.addInvalid(source.invalid);
+            }
+            HttpUtil.jsonResponse(exchange, 200, result);
+        }
+    }
+
+    /* move parser into the array of books: the body itself or its "books" field */
+    private static boolean enterBookArray(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY) {
+            return true;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            return false;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("books".equals(field)) {
+                return value == JsonToken.START_ARRAY;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    /**
+     * hands out the books of the array the parser is in. a book that does
+     * not match BookPostRequest fails an atomic import, otherwise it is
+     * counted and skipped.
+     */
+    private static final class BookArraySource implements RowSource<Book> {
+        private final JsonParser parser;
+        private final boolean atomic;
+        private long index = 0;
+        private long invalid = 0;
+
+        BookArraySource(JsonParser parser, boolean atomic) {
+            this.parser = parser;
+            this.atomic = atomic;
+        }
+
+        @Override
+        public Book next() throws IOException {
+            while (true) {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.END_ARRAY) {
+                    return null;
+                }
+                if (token == null) {
+                    throw new IOException("请求体不完整");
+                }
+                index++;
+                BookPostRequest request;
+                try {
+                    request = JsonUtil.readElement(parser, BookPostRequest.class);
+                } catch (IllegalArgumentException e) {
+                    if (atomic) {
+                        throw new IOException("第" + index + "本图书格式不正确: " + e.getMessage());
+                    }
+                    invalid++;
+                    continue;
+                }
+                return new Book(
+                    request.category(),
+                    request.title(),
+                    request.press(),
+                    request.publishYear(),
+                    request.author(),
+                    request.price(),
+                    request.stock()
+                );
+            }
         }
-        
-        ApiResult result = this.lms.storeBook(books);
-        exchange.sendResponseHeaders(200, 0);
-        HttpUtil.jsonResponse(exchange, result);
     }
 }
\ No newline at end of file
@@ -1,13 +1,16 @@
 package handlers;
 
-import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
 import service.LibraryManagementSystem;
+import utils.BookJsonCache;
 import utils.HttpUtil;
 import java.util.logging.Logger;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 import queries.ApiResult;
+import queries.BorrowHistories;
+import queries.BorrowHistoryConditions;
 import entities.Borrow;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -17,95 +20,118 @@ record BorrowPostRequest(
     @JsonProperty(required = true) long borrowTime
 ) {};
 
-public class BorrowHandler implements HttpHandler {
+record BorrowBatchPostRequest(
+    @JsonProperty(required = true) List<BorrowPostRequest> borrows
+) {};
+
+record ReturnRequest(
+    @JsonProperty(required = true) int bookId,
+    @JsonProperty(required = true) int cardId,
+    @JsonProperty(required = true) long returnTime
+) {};
+
+record BorrowBatchDeleteRequest(
+    @JsonProperty(required = true) List<ReturnRequest> returns
+) {};
+
+/**
+ * the endpoints of /borrow, routed by the {@link Router} set up in Main.
+ */
+public class BorrowHandler {
     private final Logger log = Logger.getLogger(BorrowHandler.class.getName());
 
+    /* GET /borrow returns at most this many records unless pageSize is given */
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    /* items of one POST or DELETE /borrow/batch, all of them are one transaction */
+    private static final int MAX_BATCH_SIZE = 1000;
+
     private final LibraryManagementSystem lms;
+    /* null if the history is serialized through Jackson */
+    private final BookJsonCache fragments;
 
-    public BorrowHandler(LibraryManagementSystem lms) {
+    public BorrowHandler(LibraryManagementSystem lms, BookJsonCache fragments) {
         this.lms = lms;
+        this.fragments = fragments;
     }
     
-    @Override
-    public void handle(HttpExchange exchange) throws IOException {
-        String requestMethod = exchange.getRequestMethod();
-        try {
-            switch (requestMethod) {
-                case "GET":
-                    this.handleGetRequest(exchange);
-                break;
-            case "POST":
-                this.handlePostRequest(exchange);
-                break;
-            case "DELETE":
-                this.handleDeleteRequest(exchange);
-                break;
-            default:
-                exchange.sendResponseHeaders(405, -1);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            log.severe(e.getMessage());
-            exchange.sendResponseHeaders(500, 0);
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, e.getMessage()));
+    public void handleGetRequest(HttpExchange exchange, RouteParams params) throws IOException {
+        log.info("GET /borrow with params: " + params);
+        int cardId = params.getInt("cardId");
+        BorrowHistoryConditions conditions = new BorrowHistoryConditions();
+        if (params.has("from")) {
+            conditions.setFrom(params.getLong("from"));
         }
-    }
-
-    private void handleGetRequest(HttpExchange exchange) throws IOException {
-        String query = exchange.getRequestURI().getQuery();
-        Map<String, String> params = HttpUtil.extractParams(query);
-        log.info("GET /borrow with params: " + params.toString());
-        // check if params contains "cardId"
-        if (!params.containsKey("cardId")) {
-            exchange.sendResponseHeaders(400, 0);
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, "cardId is required"));
+        if (params.has("to")) {
+            conditions.setTo(params.getLong("to"));
+        }
+        int pageSize = params.getInt("pageSize", DEFAULT_PAGE_SIZE);
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            HttpUtil.jsonResponse(exchange, 400, new ApiResult(false, "pageSize必须在1到" + MAX_PAGE_SIZE + "之间"));
             return;
         }
-        String cardIdStr = params.get("cardId");
-        try {
-            int cardId = Integer.parseInt(cardIdStr);
-            ApiResult result = this.lms.showBorrowHistory(cardId);
-            exchange.sendResponseHeaders(200, 0);
-            HttpUtil.jsonResponse(exchange, result);
-        } catch (NumberFormatException e) {
-            exchange.sendResponseHeaders(400, 0);
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, "cardId is not a valid integer"));
+        conditions.setPageSize(pageSize);
+        conditions.setOpenOnly(Boolean.parseBoolean(params.get("openOnly", null)));
+        if (params.has("cursor")) {
+            conditions.setCursor(params.get("cursor"));
         }
+        JsonStreamWriter<BorrowHistories.Item> writer = new JsonStreamWriter<>(exchange, "items", true,
+                fragments == null ? null : fragments::appendItem);
+        writer.finish(this.lms.showBorrowHistory(cardId, conditions, writer));
     }
 
-    private void handlePostRequest(HttpExchange exchange) throws IOException {
+    public void handlePostRequest(HttpExchange exchange, RouteParams params) throws IOException {
         BorrowPostRequest request = HttpUtil.jsonRequest(exchange, BorrowPostRequest.class);
         log.info("POST /borrow with request body: " + request);
         Borrow borrow = new Borrow(request.bookId(), request.cardId());
         borrow.setBorrowTime(request.borrowTime());
         ApiResult result = this.lms.borrowBook(borrow);
-        exchange.sendResponseHeaders(200, 0);
-        HttpUtil.jsonResponse(exchange, result);
+        HttpUtil.jsonResponse(exchange, 200, result);
+    }
+
+    /* POST /borrow/batch with {"borrows": [{"bookId", "cardId", "borrowTime"}, ...]} */
+    public void handleBatchPostRequest(HttpExchange exchange, RouteParams params) throws IOException {
+        BorrowBatchPostRequest request = HttpUtil.jsonRequest(exchange, BorrowBatchPostRequest.class);
+        log.info("POST /borrow/batch with " + request.borrows().size() + " items");
+        if (request.borrows().size() > MAX_BATCH_SIZE) {
+            HttpUtil.jsonResponse(exchange, 400, new ApiResult(false, "一次最多借" + MAX_BATCH_SIZE + "本书"));
+            return;
+        }
+        List<Borrow> borrows = new ArrayList<>(request.borrows().size());
+        for (BorrowPostRequest item : request.borrows()) {
+            Borrow borrow = new Borrow(item.bookId(), item.cardId());
+            borrow.setBorrowTime(item.borrowTime());
+            borrows.add(borrow);
+        }
+        HttpUtil.jsonResponse(exchange, 200, this.lms.borrowBooks(borrows));
     }
 
-    private void handleDeleteRequest(HttpExchange exchange) throws IOException {
-        String query = exchange.getRequestURI().getQuery();
-        Map<String, String> params = HttpUtil.extractParams(query);
-        log.info("DELETE /borrow with params: " + params.toString());
-        if (!params.containsKey("bookId") || !params.containsKey("cardId") || !params.containsKey("returnTime")) {
-            exchange.sendResponseHeaders(400, 0);
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, "图书ID、借书证ID和归还时间是不能为空"));
+    /* DELETE /borrow/batch with {"returns": [{"bookId", "cardId", "returnTime"}, ...]} */
+    public void handleBatchDeleteRequest(HttpExchange exchange, RouteParams params) throws IOException {
+        BorrowBatchDeleteRequest request = HttpUtil.jsonRequest(exchange, BorrowBatchDeleteRequest.class);
+        log.info("DELETE /borrow/batch with " + request.returns().size() + " items");
+        if (request.returns().size() > MAX_BATCH_SIZE) {
+            HttpUtil.jsonResponse(exchange, 400, new ApiResult(false, "一次最多还" + MAX_BATCH_SIZE + "本书"));
             return;
         }
-        ApiResult result = null;
-        try {
-            int bookId = Integer.parseInt(params.get("bookId"));
-            int cardId = Integer.parseInt(params.get("cardId"));
-            long returnTime = Long.parseLong(params.get("returnTime"));
-            Borrow borrow = new Borrow(bookId, cardId);
-            borrow.setReturnTime(returnTime);
-            result = this.lms.returnBook(borrow);
-        } catch (NumberFormatException e) {
-            exchange.sendResponseHeaders(400, 0);
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, "图书ID、借书证ID和归还时间必须是整数"));
+        List<Borrow> borrows = new ArrayList<>(request.returns().size());
+        for (ReturnRequest item : request.returns()) {
+            Borrow borrow = new Borrow(item.bookId(), item.cardId());
+            borrow.setReturnTime(item.returnTime());
+            borrows.add(borrow);
+        }
+        HttpUtil.jsonResponse(exchange, 200, this.lms.returnBooks(borrows));
+    }
+
+    public void handleDeleteRequest(HttpExchange exchange, RouteParams params) throws IOException {
+        log.info("DELETE /borrow with params: " + params);
+        if (!params.has("bookId") || !params.has("cardId") || !params.has("returnTime")) {
+            HttpUtil.jsonResponse(exchange, 400, new ApiResult(false, "图书ID、借书证ID和归还时间是不能为空"));
             return;
         }
-        exchange.sendResponseHeaders(200, 0);
-        HttpUtil.jsonResponse(exchange, result);
+        Borrow borrow = new Borrow(params.getInt("bookId"), params.getInt("cardId"));
+        borrow.setReturnTime(params.getLong("returnTime"));
+        ApiResult result = this.lms.returnBook(borrow);
+        HttpUtil.jsonResponse(exchange, 200, result);
     }
 }
\ No newline at end of file
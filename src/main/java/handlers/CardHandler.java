@@ -1,12 +1,12 @@
 package handlers;
 
-import com.sun.net.httpserver.HttpHandler;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.sun.net.httpserver.HttpExchange;
 import java.io.IOException;
 import java.util.logging.Logger;
 import java.util.Map;
 import service.LibraryManagementSystem;
+import service.TableVersions;
 import queries.ApiResult;
 import utils.HttpUtil;
 import entities.Card;
@@ -24,54 +24,38 @@ record CardPutRequest(
     @JsonProperty(required = true) String type
 ) {}
 
-public class CardHandler implements HttpHandler {
+/**
+ * the endpoints of /card, routed by the {@link Router} set up in Main.
+ */
+public class CardHandler {
     private final Logger log = Logger.getLogger(CardHandler.class.getName());
     private final LibraryManagementSystem lms;
+    private final TableVersions versions;
     
-    public CardHandler(LibraryManagementSystem lms) {
+    public CardHandler(LibraryManagementSystem lms, TableVersions versions) {
         this.lms = lms;
-    }
-    
-    @Override
-    public void handle(HttpExchange exchange) throws IOException {
-        String requestMethod = exchange.getRequestMethod();
-        try {
-            switch (requestMethod) {
-                case "GET":
-                    this.handleGetRequest(exchange);
-                    break;          
-                case "POST":
-                    this.handlePostRequest(exchange);
-                    break;
-                case "PUT":
-                    this.handlePutRequest(exchange);
-                    break;
-                case "DELETE":
-                    this.handleDeleteRequest(exchange);
-                    break;
-                default:
-                    exchange.sendResponseHeaders(405, -1);
-            }
-        } catch (Exception e) {
-            exchange.sendResponseHeaders(500, 0);
-            log.severe(String.format("%s /card error: %s", requestMethod, e.getMessage()));
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, e.getMessage()));
-        }
+        this.versions = versions;
     }
 
-    private void handleGetRequest(HttpExchange exchange) throws IOException {
+    public void handleGetRequest(HttpExchange exchange, RouteParams params) throws IOException {
+        // the card list did not change since the client got it
+        String etag = versions.etag('c', versions.getCardVersion(), Map.of(), HttpUtil.responseFormat(exchange));
+        if (HttpUtil.notModified(exchange, etag)) {
+            return;
+        }
         ApiResult result = this.lms.showCards();
-        exchange.sendResponseHeaders(200, 0);
-        HttpUtil.jsonResponse(exchange, result);
+        if (!result.ok) {
+            exchange.getResponseHeaders().remove("ETag");
+        }
+        HttpUtil.jsonResponse(exchange, 200, result);
     }
 
-    private void handlePostRequest(HttpExchange exchange) throws IOException {
+    public void handlePostRequest(HttpExchange exchange, RouteParams params) throws IOException {
         CardPostRequest request = HttpUtil.jsonRequest(exchange, CardPostRequest.class);
         log.info("POST /card with body: " + request);
         Card.CardType type = Card.CardType.valueOf(request.type());
         if (type == null) {
-            exchange.sendResponseHeaders(400, 0);
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, "Invalid card type"));
+            HttpUtil.jsonResponse(exchange, 400, new ApiResult(false, "Invalid card type"));
             return;
         }
         Card card = new Card(0, 
@@ -80,39 +64,37 @@ public class CardHandler implements HttpHandler {
             type
         );
         ApiResult result = this.lms.registerCard(card);
-        exchange.sendResponseHeaders(200, 0);
-        HttpUtil.jsonResponse(exchange, result);
+        HttpUtil.jsonResponse(exchange, 200, result);
     }
 
-    private void handlePutRequest(HttpExchange exchange) throws IOException {
+    public void handlePutRequest(HttpExchange exchange, RouteParams params) throws IOException {
         CardPutRequest request = HttpUtil.jsonRequest(exchange, CardPutRequest.class);
         log.info("PUT /card with query: " + request);
         Card.CardType type = Card.CardType.valueOf(request.type());
         if (type == null) {
-            exchange.sendResponseHeaders(400, 0);
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, "Invalid card type"));
+            HttpUtil.jsonResponse(exchange, 400, new ApiResult(false, "Invalid card type"));
             return;
         }
         Card card = new Card(request.cardId(), request.name(), request.department(), type);
         ApiResult result = this.lms.modifyCardInfo(card);
-        exchange.sendResponseHeaders(200, 0);
-        HttpUtil.jsonResponse(exchange, result);
+        HttpUtil.jsonResponse(exchange, 200, result);
     }
 
-    private void handleDeleteRequest(HttpExchange exchange) throws IOException {
-        String query = exchange.getRequestURI().getQuery();
-        Map<String, String> params = HttpUtil.extractParams(query);
+    /* DELETE /card?cardId=... */
+    public void handleDeleteRequest(HttpExchange exchange, RouteParams params) throws IOException {
         log.info("DELETE /card with params: " + params);
-        // check cardId
-        if (!params.containsKey("cardId")) {
-            exchange.sendResponseHeaders(400, 0);
-            HttpUtil.jsonResponse(exchange, new ApiResult(false, "cardId is required"));
-            return;
-        }
-        String cardIdStr = params.get("cardId");
-        int cardId = Integer.parseInt(cardIdStr);
+        removeCard(exchange, params.getInt("cardId"));
+    }
+
+    /* DELETE /card/{cardId} */
+    public void handleDeleteByIdRequest(HttpExchange exchange, RouteParams params) throws IOException {
+        int cardId = params.pathInt("cardId");
+        log.info("DELETE /card/" + cardId);
+        removeCard(exchange, cardId);
+    }
+
+    private void removeCard(HttpExchange exchange, int cardId) {
         ApiResult result = this.lms.removeCard(cardId);
-        exchange.sendResponseHeaders(200, 0);
-        HttpUtil.jsonResponse(exchange, result);
+        HttpUtil.jsonResponse(exchange, 200, result);
     }
 }
\ No newline at end of file
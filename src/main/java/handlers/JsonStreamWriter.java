@@ -0,0 +1,135 @@
+package handlers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+import queries.ApiResult;
+import queries.RowSink;
+import utils.BodyFormat;
+import utils.HttpUtil;
+import utils.JsonBytes;
+import utils.JsonUtil;
+import utils.ResponseBody;
+
+/**
+ * writes a list result to the response body row by row, in the same
+ * shape as an ApiResult carrying BookQueryResults or BorrowHistories.
+ *
+ * nothing is sent before the service calls begin(), and the headers are
+ * held back until the body grows past the compression threshold, so a
+ * failure up to that point is answered with a normal error response by
+ * {@link #finish}. the body is chunked since its length is not known in
+ * advance, and compressed on the fly if the client accepts it.
+ *
+ * with an encoder, JSON rows are appended to a buffer as raw bytes, e.g. by a
+ * {@link utils.BookJsonCache}, and written to the body a few kilobytes at
+ * a time instead of going through the generator.
+ */
+class JsonStreamWriter<T> implements RowSink<T> {
+    private static final Logger log = Logger.getLogger(JsonStreamWriter.class.getName());
+    /* encoded rows are written to the body once this many bytes are buffered */
+    private static final int ROWS_BUFFER_SIZE = 8192;
+
+    private final HttpExchange exchange;
+    /* name of the row array in the payload, e.g. "results" */
+    private final String rowsField;
+    private final boolean withCursor;
+    /* appends a row as JSON, null to let the generator write it */
+    private final BiConsumer<T, JsonBytes> encoder;
+    private ResponseBody body;
+    private JsonGenerator generator;
+    private JsonBytes rows;
+    private int count = 0;
+
+    JsonStreamWriter(HttpExchange exchange, String rowsField, boolean withCursor) {
+        this(exchange, rowsField, withCursor, null);
+    }
+
+    JsonStreamWriter(HttpExchange exchange, String rowsField, boolean withCursor, BiConsumer<T, JsonBytes> encoder) {
+        this.exchange = exchange;
+        this.rowsField = rowsField;
+        this.withCursor = withCursor;
+        this.encoder = encoder;
+    }
+
+    @Override
+    public void begin() throws IOException {
+        body = HttpUtil.openBody(exchange, 200, true);
+        generator = JsonUtil.createGenerator(body, body.getFormat());
+        generator.writeStartObject();
+        generator.writeBooleanField("ok", true);
+        generator.writeNullField("message");
+        generator.writeObjectFieldStart("payload");
+        generator.writeArrayFieldStart(rowsField);
+        if (encoder != null && body.getFormat() == BodyFormat.JSON) {
+            // the rows go around the generator, so it must not hold anything back
+            generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            generator.flush();
+            rows = new JsonBytes(ROWS_BUFFER_SIZE + 1024);
+        }
+    }
+
+    @Override
+    public void row(T row) throws IOException {
+        if (rows == null) {
+            generator.writeObject(row);
+        } else {
+            if (count > 0) {
+                rows.append((byte) ',');
+            }
+            encoder.accept(row, rows);
+            if (rows.size() >= ROWS_BUFFER_SIZE) {
+                rows.writeTo(body);
+                rows.reset();
+            }
+        }
+        count++;
+    }
+
+    @Override
+    public void end(String nextCursor) throws IOException {
+        if (rows != null) {
+            rows.writeTo(body);
+            rows.reset();
+        }
+        generator.writeEndArray();
+        generator.writeNumberField("count", count);
+        if (withCursor) {
+            generator.writeStringField("nextCursor", nextCursor);
+        }
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    /**
+     * complete the exchange with the service's result. if rows were
+     * already being sent when it failed, the body is cut off, which the
+     * client sees as malformed JSON.
+     */
+    void finish(ApiResult result) throws IOException {
+        if (!result.ok) {
+            // an error must not be revalidated as if it were the listing
+            exchange.getResponseHeaders().remove("ETag");
+        }
+        if (generator == null) {
+            HttpUtil.jsonResponse(exchange, 200, result);
+            return;
+        }
+        if (!result.ok && !body.isCommitted()) {
+            body.discard();
+            HttpUtil.jsonResponse(exchange, 200, result);
+            return;
+        }
+        try {
+            if (result.ok) {
+                generator.close();
+            } else {
+                log.severe("Response aborted after " + count + " rows: " + result.message);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package handlers;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import utils.LatencyHistogram;
+import utils.MetricsRegistry;
+
+/**
+ * records the latency of every request to a context in the http_route
+ * histograms. the route label is the request path if it is one of the
+ * given routes, otherwise the first route, i.e. the context itself.
+ * a request counts as failed if it throws or is answered with a 5xx.
+ */
+public class MetricsFilter implements HttpHandler {
+    private final HttpHandler delegate;
+    private final String[] routes;
+    private final LatencyHistogram[] histograms;
+
+    public MetricsFilter(HttpHandler delegate, MetricsRegistry metrics, String... routes) {
+        this.delegate = delegate;
+        this.routes = routes;
+        this.histograms = new LatencyHistogram[routes.length];
+        for (int i = 0; i < routes.length; i++) {
+            histograms[i] = metrics.histogram("http_route", "HTTP requests", "route", routes[i]);
+        }
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.handle(exchange);
+            failed = exchange.getResponseCode() >= 500;
+        } finally {
+            histograms[routeOf(exchange.getRequestURI().getPath())].record(start, failed);
+        }
+    }
+
+    private int routeOf(String path) {
+        for (int i = 1; i < routes.length; i++) {
+            if (routes[i].equals(path)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+}
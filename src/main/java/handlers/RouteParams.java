@@ -0,0 +1,129 @@
+package handlers;
+
+import java.util.Map;
+import queries.ParameterError;
+import utils.QueryString;
+
+/**
+ * the parameters of a routed request: those in its path, named by the
+ * {name} segments of the route, and those in its query string, which are
+ * read by a {@link QueryString}. the typed getters throw
+ * {@link BadRequestException} naming the parameter for a missing or
+ * malformed value, so handlers need no checks of their own.
+ */
+public class RouteParams {
+    /* name, value, name, value, ... of the path parameters */
+    private final String[] path;
+    private final QueryString query;
+
+    RouteParams(String[] path, String rawQuery) {
+        this.path = path;
+        this.query = new QueryString(rawQuery);
+    }
+
+    /* the value of the path segment {name} */
+    public String path(String name) {
+        for (int i = 0; i < path.length; i += 2) {
+            if (path[i].equals(name)) {
+                return path[i + 1];
+            }
+        }
+        throw new IllegalArgumentException("no path parameter " + name);
+    }
+
+    public int pathInt(String name) {
+        try {
+            return Integer.parseInt(path(name));
+        } catch (NumberFormatException e) {
+            throw invalid(name, "integer");
+        }
+    }
+
+    /* all query parameters decoded, e.g. for a cache key */
+    public Map<String, String> query() {
+        try {
+            return query.toMap();
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("query string is malformed");
+        }
+    }
+
+    public boolean has(String name) {
+        return query.has(name);
+    }
+
+    public String get(String name) {
+        require(name);
+        return get(name, null);
+    }
+
+    public String get(String name, String defaultValue) {
+        String value;
+        try {
+            value = query.get(name);
+        } catch (IllegalArgumentException e) {
+            throw invalid(name, "percent-encoded string");
+        }
+        return value == null ? defaultValue : value;
+    }
+
+    public int getInt(String name) {
+        require(name);
+        return getInt(name, 0);
+    }
+
+    public int getInt(String name, int defaultValue) {
+        try {
+            return query.getInt(name, defaultValue);
+        } catch (IllegalArgumentException e) {
+            throw invalid(name, "integer");
+        }
+    }
+
+    public long getLong(String name) {
+        require(name);
+        return getLong(name, 0);
+    }
+
+    public long getLong(String name, long defaultValue) {
+        try {
+            return query.getLong(name, defaultValue);
+        } catch (IllegalArgumentException e) {
+            throw invalid(name, "integer");
+        }
+    }
+
+    public double getDouble(String name) {
+        require(name);
+        try {
+            return query.getDouble(name, 0);
+        } catch (IllegalArgumentException e) {
+            throw invalid(name, "number");
+        }
+    }
+
+    /* the constant of type named by the parameter, defaultValue if it is absent */
+    public <E extends Enum<E>> E getEnum(String name, Class<E> type, E defaultValue) {
+        try {
+            return query.getEnum(name, type, defaultValue);
+        } catch (IllegalArgumentException e) {
+            throw invalid(name, type.getSimpleName());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return query.toString();
+    }
+
+    private void require(String name) {
+        if (!query.has(name)) {
+            throw new BadRequestException(name + " is required", new ParameterError(name, "present"));
+        }
+    }
+
+    private static BadRequestException invalid(String name, String expected) {
+        return new BadRequestException(name + " is not a valid " + expected,
+                new ParameterError(name, expected));
+    }
+}
@@ -0,0 +1,200 @@
+package handlers;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import queries.ApiResult;
+import utils.HttpUtil;
+
+/**
+ * dispatches requests by method and path to the endpoints registered for
+ * them. routes are path templates like "/book/info" or "/book/{bookId}",
+ * kept in a trie of path segments, so finding the route of a request takes
+ * one map lookup per segment however many routes there are. a literal
+ * segment is preferred over a {name} segment at the same place.
+ *
+ * a path without a route is answered with 404, a method the route does not
+ * have with 405 and Allow, a {@link BadRequestException} with 400 and any
+ * other failure with 500, unless the response is already under way.
+ *
+ * routes must be registered before the server starts, after that the
+ * router is only read and may be shared by several contexts.
+ */
+public class Router implements HttpHandler {
+    private static final Logger log = Logger.getLogger(Router.class.getName());
+    private static final String[] NO_PARAMS = new String[0];
+
+    @FunctionalInterface
+    public interface Endpoint {
+        void handle(HttpExchange exchange, RouteParams params) throws IOException;
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        /* the child for a {name} segment and its name */
+        private Node param;
+        private String paramName;
+        private final Map<String, Endpoint> endpoints = new LinkedHashMap<>();
+        private String allow;
+    }
+
+    private final Node root = new Node();
+
+    public Router get(String template, Endpoint endpoint) {
+        return route("GET", template, endpoint);
+    }
+
+    public Router post(String template, Endpoint endpoint) {
+        return route("POST", template, endpoint);
+    }
+
+    public Router put(String template, Endpoint endpoint) {
+        return route("PUT", template, endpoint);
+    }
+
+    public Router delete(String template, Endpoint endpoint) {
+        return route("DELETE", template, endpoint);
+    }
+
+    /**
+     * @throws IllegalArgumentException if method and template already have
+     *         an endpoint, or a {name} segment is named differently than one
+     *         registered at the same place before
+     */
+    public Router route(String method, String template, Endpoint endpoint) {
+        Node node = root;
+        for (String segment : template.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            if (segment.startsWith("{") && segment.endsWith("}")) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (node.param == null) {
+                    node.param = new Node();
+                    node.paramName = name;
+                } else if (!node.paramName.equals(name)) {
+                    throw new IllegalArgumentException("{" + name + "} of " + template
+                            + " conflicts with {" + node.paramName + "}");
+                }
+                node = node.param;
+            } else {
+                node = node.children.computeIfAbsent(segment, s -> new Node());
+            }
+        }
+        if (node.endpoints.putIfAbsent(method, endpoint) != null) {
+            throw new IllegalArgumentException("duplicate route " + method + " " + template);
+        }
+        node.allow = String.join(", ", node.endpoints.keySet());
+        return this;
+    }
+
+    /* the route of path, or null if there is none */
+    public Match match(String path) {
+        List<String> captured = new ArrayList<>(0);
+        Node node = find(root, path, 0, captured);
+        if (node == null) {
+            return null;
+        }
+        return new Match(node, captured.isEmpty() ? NO_PARAMS : captured.toArray(NO_PARAMS));
+    }
+
+    /* the node with endpoints below node that matches path from index from on */
+    private static Node find(Node node, String path, int from, List<String> captured) {
+        while (from < path.length() && path.charAt(from) == '/') {
+            from++;
+        }
+        if (from == path.length()) {
+            return node.endpoints.isEmpty() ? null : node;
+        }
+        int end = path.indexOf('/', from);
+        if (end < 0) {
+            end = path.length();
+        }
+        String segment = path.substring(from, end);
+        Node child = node.children.get(segment);
+        if (child != null) {
+            Node found = find(child, path, end, captured);
+            if (found != null) {
+                return found;
+            }
+        }
+        if (node.param != null) {
+            int size = captured.size();
+            captured.add(node.paramName);
+            captured.add(segment);
+            Node found = find(node.param, path, end, captured);
+            if (found != null) {
+                return found;
+            }
+            captured.subList(size, captured.size()).clear();
+        }
+        return null;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        Match match = match(path);
+        if (match == null) {
+            HttpUtil.jsonResponse(exchange, 404, new ApiResult(false, "invalid paths"));
+            return;
+        }
+        Endpoint endpoint = match.endpoint(method);
+        if (endpoint == null) {
+            exchange.getResponseHeaders().set("Allow", match.allow());
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        try {
+            endpoint.handle(exchange, match.params(exchange.getRequestURI().getRawQuery()));
+        } catch (BadRequestException e) {
+            log.info(String.format("%s %s rejected: %s", method, path, e.getMessage()));
+            fail(exchange, 400, new ApiResult(false, e.getMessage(), e.getError()));
+        } catch (Exception e) {
+            log.severe(String.format("%s %s error: %s", method, path, e.getMessage()));
+            fail(exchange, 500, new ApiResult(false, e.getMessage()));
+        }
+    }
+
+    /* answer with an error unless the headers are already sent, then the body is just cut off */
+    private static void fail(HttpExchange exchange, int code, ApiResult result) {
+        if (exchange.getResponseCode() == -1) {
+            HttpUtil.jsonResponse(exchange, code, result);
+        } else {
+            exchange.close();
+        }
+    }
+
+    /** a route found for a path, with the values of its {name} segments */
+    public static final class Match {
+        private final Node node;
+        private final String[] params;
+
+        private Match(Node node, String[] params) {
+            this.node = node;
+            this.params = params;
+        }
+
+        /* the endpoint for method, or null if the route does not have it */
+        public Endpoint endpoint(String method) {
+            return node.endpoints.get(method);
+        }
+
+        /* the methods of the route, as the Allow header lists them */
+        public String allow() {
+            return node.allow;
+        }
+
+        public RouteParams params(String rawQuery) {
+            return new RouteParams(params, rawQuery);
+        }
+    }
+}
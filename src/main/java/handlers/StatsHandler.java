@@ -0,0 +1,44 @@
+package handlers;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.util.logging.Logger;
+import service.LibraryManagementSystem;
+import queries.ApiResult;
+import queries.StatsPeriod;
+import utils.HttpUtil;
+
+/**
+ * GET /stats[?period=month][&time=...][&limit=10]: the most borrowed books
+ * and the circulation per category of the day, month, year or all time
+ * around time (milliseconds, default now).
+ */
+public class StatsHandler {
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 100;
+
+    private final Logger log = Logger.getLogger(StatsHandler.class.getName());
+    private final LibraryManagementSystem lms;
+
+    public StatsHandler(LibraryManagementSystem lms) {
+        this.lms = lms;
+    }
+
+    public void handleGetRequest(HttpExchange exchange, RouteParams params) throws IOException {
+        log.info("GET /stats with params: " + params);
+        StatsPeriod period;
+        try {
+            period = StatsPeriod.instance(params.get("period", "month"));
+        } catch (IllegalArgumentException e) {
+            HttpUtil.jsonResponse(exchange, 400, new ApiResult(false, "period必须是day、month、year或all"));
+            return;
+        }
+        long time = params.getLong("time", System.currentTimeMillis());
+        int limit = params.getInt("limit", DEFAULT_LIMIT);
+        if (limit <= 0 || limit > MAX_LIMIT) {
+            HttpUtil.jsonResponse(exchange, 400, new ApiResult(false, "limit必须在1到" + MAX_LIMIT + "之间"));
+            return;
+        }
+        HttpUtil.jsonResponse(exchange, 200, this.lms.showBorrowStats(period, time, limit));
+    }
+}
@@ -0,0 +1,67 @@
+package handlers;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import queries.ApiResult;
+import service.BookCache;
+import utils.DatabaseConnector;
+import utils.HttpUtil;
+import utils.InstrumentedExecutor;
+
+record ServerStatus(
+    String executor,
+    int queuedRequests,
+    int activeHandlers,
+    int peakActiveHandlers,
+    long completedRequests,
+    int activeConnections,
+    int idleConnections,
+    long statementCacheHits,
+    long statementCacheMisses,
+    int bookCacheSize,
+    long bookCacheHits,
+    long bookCacheMisses,
+    double bookCacheHitRatio,
+    long bookCacheEvictions,
+    long bookCacheExpirations
+) {}
+
+public class StatusHandler implements HttpHandler {
+    private final InstrumentedExecutor executor;
+    private final DatabaseConnector connector;
+    /* null if the book cache is disabled */
+    private final BookCache bookCache;
+
+    public StatusHandler(InstrumentedExecutor executor, DatabaseConnector connector, BookCache bookCache) {
+        this.executor = executor;
+        this.connector = connector;
+        this.bookCache = bookCache;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+        ServerStatus status = new ServerStatus(
+            executor.getType().getTypeName(),
+            executor.getQueueDepth(),
+            executor.getActiveCount(),
+            executor.getPeakActiveCount(),
+            executor.getCompletedCount(),
+            connector.getActiveCount(),
+            connector.getIdleCount(),
+            connector.getStatementCacheHits(),
+            connector.getStatementCacheMisses(),
+            bookCache == null ? 0 : bookCache.size(),
+            bookCache == null ? 0 : bookCache.getHits(),
+            bookCache == null ? 0 : bookCache.getMisses(),
+            bookCache == null ? 0 : bookCache.getHitRatio(),
+            bookCache == null ? 0 : bookCache.getEvictions(),
+            bookCache == null ? 0 : bookCache.getExpirations()
+        );
+        HttpUtil.jsonResponse(exchange, 200, new ApiResult(true, status));
+    }
+}
@@ -28,6 +28,12 @@ public class BookQueryConditions {
     private Book.SortColumn sortBy;
     /* default sort by PK */
     private SortOrder sortOrder;
+    /* max number of results, null means no limit */
+    private Integer pageSize;
+    /* opaque keyset cursor returned by the previous page, see {@link BookQueryCursor} */
+    private String cursor;
+    /* number of results to skip, used when no cursor is given */
+    private Integer offset;
 
     public BookQueryConditions() {
         this.category = null;
@@ -40,6 +46,9 @@ public class BookQueryConditions {
         this.maxPrice = null;
         sortBy = Book.SortColumn.BOOK_ID;
         sortOrder = SortOrder.ASC;
+        this.pageSize = null;
+        this.cursor = null;
+        this.offset = null;
     }
 
     public String getCategory() {
@@ -121,4 +130,28 @@ public class BookQueryConditions {
     public void setSortOrder(SortOrder sortOrder) {
         this.sortOrder = sortOrder;
     }
+
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public Integer getOffset() {
+        return offset;
+    }
+
+    public void setOffset(Integer offset) {
+        this.offset = offset;
+    }
 }
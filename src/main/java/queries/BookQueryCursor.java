@@ -0,0 +1,109 @@
+package queries;
+
+import entities.Book;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * keyset position in a book query, i.e. the sort value and book_id of
+ * the last row of a page. clients only see it as an opaque string and
+ * pass it back to fetch the next page.
+ */
+public final class BookQueryCursor {
+
+    private static final String VERSION = "v1";
+
+    private final Book.SortColumn sortBy;
+    private final SortOrder sortOrder;
+    private final int bookId;
+    /* Integer, BigDecimal or String, depending on sortBy */
+    private final Object sortValue;
+
+    private BookQueryCursor(Book.SortColumn sortBy, SortOrder sortOrder, int bookId, Object sortValue) {
+        this.sortBy = sortBy;
+        this.sortOrder = sortOrder;
+        this.bookId = bookId;
+        this.sortValue = sortValue;
+    }
+
+    /* the cursor pointing right after the given book */
+    public static BookQueryCursor after(Book book, Book.SortColumn sortBy, SortOrder sortOrder) {
+        Object value;
+        switch (sortBy) {
+            case CATEGORY:
+                value = book.getCategory();
+                break;
+            case TITLE:
+                value = book.getTitle();
+                break;
+            case PRESS:
+                value = book.getPress();
+                break;
+            case AUTHOR:
+                value = book.getAuthor();
+                break;
+            case PUBLISH_YEAR:
+                value = book.getPublishYear();
+                break;
+            case PRICE:
+                value = BigDecimal.valueOf(book.getPrice());
+                break;
+            case STOCK:
+                value = book.getStock();
+                break;
+            case BOOK_ID:
+            default:
+                value = book.getBookId();
+        }
+        return new BookQueryCursor(sortBy, sortOrder, book.getBookId(), value);
+    }
+
+    public String encode() {
+        /* the sort value goes last since strings may contain the separator */
+        String raw = VERSION + "|" + sortBy.name() + "|" + sortOrder.name() + "|" + bookId + "|" + sortValue;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static BookQueryCursor decode(String cursor) throws IllegalArgumentException {
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        String[] parts = raw.split("\\|", 5);
+        if (parts.length != 5 || !VERSION.equals(parts[0])) {
+            throw new IllegalArgumentException("Invalid cursor.");
+        }
+        Book.SortColumn sortBy = Book.SortColumn.valueOf(parts[1]);
+        SortOrder sortOrder = SortOrder.valueOf(parts[2]);
+        int bookId = Integer.parseInt(parts[3]);
+        Object value;
+        switch (sortBy) {
+            case BOOK_ID:
+            case PUBLISH_YEAR:
+            case STOCK:
+                value = Integer.parseInt(parts[4]);
+                break;
+            case PRICE:
+                value = new BigDecimal(parts[4]);
+                break;
+            default:
+                value = parts[4];
+        }
+        return new BookQueryCursor(sortBy, sortOrder, bookId, value);
+    }
+
+    public Book.SortColumn getSortBy() {
+        return sortBy;
+    }
+
+    public SortOrder getSortOrder() {
+        return sortOrder;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public Object getSortValue() {
+        return sortValue;
+    }
+}
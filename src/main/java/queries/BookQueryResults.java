@@ -8,10 +8,21 @@ public class BookQueryResults {
 
     private int count;   /* number of results, equal to results.size() */
     private List<Book> results;
+    /* cursor of the next page, null if this is the last page */
+    private String nextCursor;
+
+    /* for json decoding */
+    public BookQueryResults() {
+    }
 
     public BookQueryResults(List<Book> results) {
+        this(results, null);
+    }
+
+    public BookQueryResults(List<Book> results, String nextCursor) {
         this.count = results.size();
         this.results = results;
+        this.nextCursor = nextCursor;
     }
 
     public int getCount() {
@@ -29,4 +40,12 @@ public class BookQueryResults {
     public void setResults(List<Book> results) {
         this.results = results;
     }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
@@ -0,0 +1,111 @@
+package queries;
+
+import entities.Borrow;
+
+import java.util.List;
+
+/**
+ * what became of every item of a batch borrow or batch return, in the
+ * order of the request. the items that succeeded were committed together,
+ * the failed ones changed nothing.
+ */
+public class BorrowBatchResults {
+
+    public static class Item {
+        private int cardId;
+        private int bookId;
+        private boolean ok;
+        /* why the item failed, null if it succeeded */
+        private String message;
+
+        /* for json decoding */
+        public Item() {
+        }
+
+        public Item(Borrow borrow, String message) {
+            this.cardId = borrow.getCardId();
+            this.bookId = borrow.getBookId();
+            this.ok = message == null;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return "Item {" + "cardId=" + cardId +
+                    ", bookId=" + bookId +
+                    ", ok=" + ok +
+                    ", message='" + message + '\'' +
+                    '}';
+        }
+
+        public int getCardId() {
+            return cardId;
+        }
+
+        public void setCardId(int cardId) {
+            this.cardId = cardId;
+        }
+
+        public int getBookId() {
+            return bookId;
+        }
+
+        public void setBookId(int bookId) {
+            this.bookId = bookId;
+        }
+
+        public boolean isOk() {
+            return ok;
+        }
+
+        public void setOk(boolean ok) {
+            this.ok = ok;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public void setMessage(String message) {
+            this.message = message;
+        }
+    }
+
+    private int count;
+    private int succeeded;
+    private List<Item> items;
+
+    /* for json decoding */
+    public BorrowBatchResults() {
+    }
+
+    public BorrowBatchResults(List<Item> items) {
+        this.count = items.size();
+        this.succeeded = (int) items.stream().filter(Item::isOk).count();
+        this.items = items;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public int getSucceeded() {
+        return succeeded;
+    }
+
+    public void setSucceeded(int succeeded) {
+        this.succeeded = succeeded;
+    }
+
+    public List<Item> getItems() {
+        return items;
+    }
+
+    public void setItems(List<Item> items) {
+        this.items = items;
+    }
+}
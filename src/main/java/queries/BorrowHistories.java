@@ -133,10 +133,21 @@ public class BorrowHistories {
 
     private int count;
     private List<Item> items;
+    /* cursor of the next page, null if this is the last page */
+    private String nextCursor;
+
+    /* for json decoding */
+    public BorrowHistories() {
+    }
 
     public BorrowHistories(List<Item> items) {
+        this(items, null);
+    }
+
+    public BorrowHistories(List<Item> items, String nextCursor) {
         this.count = items.size();
         this.items = items;
+        this.nextCursor = nextCursor;
     }
 
     public int getCount() {
@@ -154,4 +165,12 @@ public class BorrowHistories {
     public void setItems(List<Item> items) {
         this.items = items;
     }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
 }
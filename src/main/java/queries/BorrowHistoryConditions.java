@@ -0,0 +1,80 @@
+package queries;
+
+/**
+ * which part of a card's borrow history to return. all non-null
+ * attributes are connected by "AND", the borrow time window is closed
+ * like the ranges of {@link BookQueryConditions}:
+ *     from=x, to=y ==> x <= borrow_time <= y
+ */
+public class BorrowHistoryConditions {
+    /* earliest borrow_time, null means no lower bound */
+    private Long from;
+    /* latest borrow_time, null means no upper bound */
+    private Long to;
+    /* only books that are not returned yet */
+    private boolean openOnly;
+    /* max number of records, null means no limit */
+    private Integer pageSize;
+    /* opaque keyset cursor returned by the previous page, see {@link BorrowHistoryCursor} */
+    private String cursor;
+
+    public BorrowHistoryConditions() {
+        this.from = null;
+        this.to = null;
+        this.openOnly = false;
+        this.pageSize = null;
+        this.cursor = null;
+    }
+
+    /* whether a record passes the window and the open loans filter, the cursor is checked apart */
+    public boolean matches(long borrowTime, long returnTime) {
+        return (from == null || borrowTime >= from)
+                && (to == null || borrowTime <= to)
+                && (!openOnly || returnTime == 0);
+    }
+
+    /* the decoded cursor, null if there is none */
+    public BorrowHistoryCursor decodeCursor() throws IllegalArgumentException {
+        return cursor == null ? null : BorrowHistoryCursor.decode(cursor);
+    }
+
+    public Long getFrom() {
+        return from;
+    }
+
+    public void setFrom(Long from) {
+        this.from = from;
+    }
+
+    public Long getTo() {
+        return to;
+    }
+
+    public void setTo(Long to) {
+        this.to = to;
+    }
+
+    public boolean isOpenOnly() {
+        return openOnly;
+    }
+
+    public void setOpenOnly(boolean openOnly) {
+        this.openOnly = openOnly;
+    }
+
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+}
@@ -0,0 +1,50 @@
+package queries;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * keyset position in a borrow history, i.e. the borrow_time and book_id
+ * of the last record of a page. histories are sorted by borrow_time DESC,
+ * book_id ASC, so the next page holds the records with an earlier
+ * borrow_time, or the same one and a greater book_id.
+ */
+public final class BorrowHistoryCursor {
+
+    private static final String VERSION = "h1";
+
+    private final long borrowTime;
+    private final int bookId;
+
+    public BorrowHistoryCursor(long borrowTime, int bookId) {
+        this.borrowTime = borrowTime;
+        this.bookId = bookId;
+    }
+
+    /* whether a record comes after the cursor */
+    public boolean isBefore(long borrowTime, int bookId) {
+        return borrowTime < this.borrowTime || (borrowTime == this.borrowTime && bookId > this.bookId);
+    }
+
+    public String encode() {
+        String raw = VERSION + "|" + borrowTime + "|" + bookId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static BorrowHistoryCursor decode(String cursor) throws IllegalArgumentException {
+        String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        String[] parts = raw.split("\\|");
+        if (parts.length != 3 || !VERSION.equals(parts[0])) {
+            throw new IllegalArgumentException("Invalid cursor.");
+        }
+        return new BorrowHistoryCursor(Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+    }
+
+    public long getBorrowTime() {
+        return borrowTime;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+}
@@ -0,0 +1,186 @@
+package queries;
+
+import java.util.List;
+
+/**
+ * the most borrowed books and the circulation per category of one
+ * period, returned in ApiResult.payload. the period covers borrow
+ * times from "from" (inclusive) to "to" (exclusive), in milliseconds.
+ */
+public class BorrowStats {
+
+    public static class BookCount {
+        private int bookId;
+        private String category;
+        private String title;
+        private String author;
+        private long borrows;
+
+        /* for json decoding */
+        public BookCount() {
+        }
+
+        public BookCount(int bookId, long borrows) {
+            this.bookId = bookId;
+            this.borrows = borrows;
+        }
+
+        @Override
+        public String toString() {
+            return "BookCount {" + "bookId=" + bookId +
+                    ", category='" + category + '\'' +
+                    ", title='" + title + '\'' +
+                    ", author='" + author + '\'' +
+                    ", borrows=" + borrows +
+                    '}';
+        }
+
+        public int getBookId() {
+            return bookId;
+        }
+
+        public void setBookId(int bookId) {
+            this.bookId = bookId;
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public void setCategory(String category) {
+            this.category = category;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public void setAuthor(String author) {
+            this.author = author;
+        }
+
+        public long getBorrows() {
+            return borrows;
+        }
+
+        public void setBorrows(long borrows) {
+            this.borrows = borrows;
+        }
+    }
+
+    public static class CategoryCount {
+        private String category;
+        private long borrows;
+        private long returns;
+
+        /* for json decoding */
+        public CategoryCount() {
+        }
+
+        public CategoryCount(String category, long borrows, long returns) {
+            this.category = category;
+            this.borrows = borrows;
+            this.returns = returns;
+        }
+
+        @Override
+        public String toString() {
+            return "CategoryCount {" + "category='" + category + '\'' +
+                    ", borrows=" + borrows +
+                    ", returns=" + returns +
+                    '}';
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public void setCategory(String category) {
+            this.category = category;
+        }
+
+        public long getBorrows() {
+            return borrows;
+        }
+
+        public void setBorrows(long borrows) {
+            this.borrows = borrows;
+        }
+
+        public long getReturns() {
+            return returns;
+        }
+
+        public void setReturns(long returns) {
+            this.returns = returns;
+        }
+    }
+
+    private StatsPeriod period;
+    private long from;
+    private long to;
+    /* most borrowed first */
+    private List<BookCount> books;
+    /* most borrowed first */
+    private List<CategoryCount> categories;
+
+    /* for json decoding */
+    public BorrowStats() {
+    }
+
+    public BorrowStats(StatsPeriod period, long from, long to, List<BookCount> books, List<CategoryCount> categories) {
+        this.period = period;
+        this.from = from;
+        this.to = to;
+        this.books = books;
+        this.categories = categories;
+    }
+
+    public StatsPeriod getPeriod() {
+        return period;
+    }
+
+    public void setPeriod(StatsPeriod period) {
+        this.period = period;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public void setFrom(long from) {
+        this.from = from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public void setTo(long to) {
+        this.to = to;
+    }
+
+    public List<BookCount> getBooks() {
+        return books;
+    }
+
+    public void setBooks(List<BookCount> books) {
+        this.books = books;
+    }
+
+    public List<CategoryCount> getCategories() {
+        return categories;
+    }
+
+    public void setCategories(List<CategoryCount> categories) {
+        this.categories = categories;
+    }
+}
@@ -9,6 +9,10 @@ public class CardList {
     private int count;
     private List<Card> cards;
 
+    /* for json decoding */
+    public CardList() {
+    }
+
     public CardList(List<Card> cards) {
         this.count = cards.size();
         this.cards = cards;
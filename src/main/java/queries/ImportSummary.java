@@ -0,0 +1,94 @@
+package queries;
+
+/**
+ * how a bulk import of books went, returned in ApiResult.payload.
+ * rejected books were either already in the library (or twice in the
+ * import), could not be inserted, or could not be parsed.
+ */
+public class ImportSummary {
+
+    private boolean atomic;
+    private long received;
+    private long inserted;
+    private long duplicates;
+    private long failed;
+    private long invalid;
+    private int batches;
+
+    /* for json decoding */
+    public ImportSummary() {
+    }
+
+    public ImportSummary(boolean atomic) {
+        this.atomic = atomic;
+    }
+
+    public void addReceived(long n) {
+        received += n;
+    }
+
+    public void addInserted(long n) {
+        inserted += n;
+    }
+
+    public void addDuplicates(long n) {
+        duplicates += n;
+    }
+
+    public void addFailed(long n) {
+        failed += n;
+    }
+
+    public void addInvalid(long n) {
+        invalid += n;
+    }
+
+    public void addBatch() {
+        batches++;
+    }
+
+    public boolean isAtomic() {
+        return atomic;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getInserted() {
+        return inserted;
+    }
+
+    public long getRejected() {
+        return duplicates + failed + invalid;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+
+    public long getInvalid() {
+        return invalid;
+    }
+
+    public int getBatches() {
+        return batches;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportSummary{" +
+                "atomic=" + atomic +
+                ", received=" + received +
+                ", inserted=" + inserted +
+                ", duplicates=" + duplicates +
+                ", failed=" + failed +
+                ", invalid=" + invalid +
+                ", batches=" + batches +
+                '}';
+    }
+}
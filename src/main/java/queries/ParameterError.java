@@ -0,0 +1,40 @@
+package queries;
+
+import java.io.Serializable;
+
+/**
+ * the query or path parameter a request was rejected for, returned in
+ * ApiResult.payload with status 400. serializable, since a
+ * BadRequestException carries it.
+ */
+public class ParameterError implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String parameter;
+    /* what the value should have been, e.g. "integer", or "present" if it is missing */
+    private String expected;
+
+    /* for json decoding */
+    public ParameterError() {
+    }
+
+    public ParameterError(String parameter, String expected) {
+        this.parameter = parameter;
+        this.expected = expected;
+    }
+
+    public String getParameter() {
+        return parameter;
+    }
+
+    public String getExpected() {
+        return expected;
+    }
+
+    @Override
+    public String toString() {
+        return "ParameterError {" + "parameter='" + parameter + '\'' +
+                ", expected='" + expected + '\'' +
+                '}';
+    }
+}
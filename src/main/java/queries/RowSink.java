@@ -0,0 +1,19 @@
+package queries;
+
+import java.io.IOException;
+
+/**
+ * receives the rows of a list query one at a time, so that a large
+ * result can be written out while it is read instead of being
+ * collected into a list first.
+ */
+public interface RowSink<T> {
+
+    /* the query succeeded, called once before the first row */
+    void begin() throws IOException;
+
+    void row(T row) throws IOException;
+
+    /* called after the last row. nextCursor is only set for a paged query with more rows */
+    void end(String nextCursor) throws IOException;
+}
@@ -0,0 +1,15 @@
+package queries;
+
+import java.io.IOException;
+
+/**
+ * hands out the rows of a bulk write one at a time, so that e.g. a large
+ * request body can be parsed while it is stored instead of being read
+ * into a list first. the counterpart of {@link RowSink}.
+ */
+@FunctionalInterface
+public interface RowSource<T> {
+
+    /* the next row, or null after the last one */
+    T next() throws IOException;
+}
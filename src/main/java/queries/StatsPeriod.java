@@ -0,0 +1,32 @@
+package queries;
+
+/**
+ * the time span borrow statistics are counted over, see
+ * {@link service.LibraryManagementSystem#showBorrowStats}.
+ */
+public enum StatsPeriod {
+    DAY("day"),
+    MONTH("month"),
+    YEAR("year"),
+    /* every borrow ever */
+    ALL("all");
+
+    StatsPeriod(String typeName) {
+        this.typeName = typeName;
+    }
+
+    public static StatsPeriod instance(String typeName) throws IllegalArgumentException {
+        for (StatsPeriod type : StatsPeriod.values()) {
+            if (type.typeName.equals(typeName.toLowerCase())) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Invalid stats period name.");
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    private final String typeName;
+}
@@ -0,0 +1,238 @@
+package service;
+
+import entities.Book;
+import utils.CacheConfig;
+import utils.EvictionPolicy;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * a bounded cache of book metadata keyed by book_id.
+ *
+ * only category, title, press, publish year, author and price are kept;
+ * the stock changes with every borrow and is always read from the
+ * database, so borrowing and returning never touch the cache. callers
+ * must {@link #invalidate} a book after committing any other change to
+ * it. entries are handed out as copies with stock 0.
+ */
+public final class BookCache {
+
+    private final int maxSize;
+    private final long ttl;
+    private final EvictionPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    /* use count -> book_ids with that count, least recently used first.
+       with LRU every entry keeps a count of 1 */
+    private final Map<Integer, LinkedHashSet<Integer>> buckets = new HashMap<>();
+    private int minCount = 1;
+    /* bumped by every invalidation, see put */
+    private long generation = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+
+    public BookCache(CacheConfig conf) {
+        this.maxSize = conf.getMaxSize();
+        this.ttl = conf.getTtl();
+        this.policy = conf.getEviction();
+    }
+
+    private static final class Entry {
+        private final Book book;
+        private final long expiresAt;
+        private int count = 1;
+
+        private Entry(Book book, long expiresAt) {
+            this.book = book;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /* a copy of the cached metadata, or null */
+    public Book get(int bookId) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(bookId);
+            if (entry != null && ttl > 0 && System.currentTimeMillis() >= entry.expiresAt) {
+                removeLocked(bookId);
+                expirations++;
+                entry = null;
+            }
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            touchLocked(bookId, entry);
+            hits++;
+            return entry.book.clone();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the current generation. read it before loading books from the
+     * database and pass it to {@link #put}.
+     */
+    public long generation() {
+        lock.lock();
+        try {
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * cache a book loaded from the database. it is dropped if any book was
+     * invalidated since generation was read, since the load may have
+     * raced with that write.
+     */
+    public void put(Book book, long generation) {
+        Book copy = book.clone();
+        copy.setStock(0);
+        lock.lock();
+        try {
+            if (generation != this.generation) {
+                return;
+            }
+            removeLocked(copy.getBookId());
+            if (entries.size() >= maxSize) {
+                evictLocked();
+            }
+            entries.put(copy.getBookId(), new Entry(copy, System.currentTimeMillis() + ttl));
+            buckets.computeIfAbsent(1, k -> new LinkedHashSet<>()).add(copy.getBookId());
+            minCount = 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(int bookId) {
+        lock.lock();
+        try {
+            generation++;
+            removeLocked(bookId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            generation++;
+            entries.clear();
+            buckets.clear();
+            minCount = 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        lock.lock();
+        try {
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMisses() {
+        lock.lock();
+        try {
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* share of lookups answered from the cache, 0 before the first lookup */
+    public double getHitRatio() {
+        lock.lock();
+        try {
+            return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* entries dropped to make room */
+    public long getEvictions() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* entries dropped because their ttl passed */
+    public long getExpirations() {
+        lock.lock();
+        try {
+            return expirations;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void touchLocked(int bookId, Entry entry) {
+        LinkedHashSet<Integer> bucket = buckets.get(entry.count);
+        bucket.remove(bookId);
+        if (policy == EvictionPolicy.LFU) {
+            if (bucket.isEmpty()) {
+                buckets.remove(entry.count);
+                if (minCount == entry.count) {
+                    minCount++;
+                }
+            }
+            entry.count++;
+            buckets.computeIfAbsent(entry.count, k -> new LinkedHashSet<>()).add(bookId);
+        } else {
+            /* move to the most recently used end */
+            bucket.add(bookId);
+        }
+    }
+
+    private void evictLocked() {
+        LinkedHashSet<Integer> bucket = buckets.get(minCount);
+        if (bucket == null) {
+            /* the smallest count went away through an invalidation */
+            minCount = Collections.min(buckets.keySet());
+            bucket = buckets.get(minCount);
+        }
+        removeLocked(bucket.iterator().next());
+        evictions++;
+    }
+
+    private void removeLocked(int bookId) {
+        Entry entry = entries.remove(bookId);
+        if (entry == null) {
+            return;
+        }
+        LinkedHashSet<Integer> bucket = buckets.get(entry.count);
+        bucket.remove(bookId);
+        if (bucket.isEmpty()) {
+            buckets.remove(entry.count);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package service;
+
+import entities.Book;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * an in-memory inverted trigram index over the title, press and author
+ * of all books, used to narrow the fuzzy (substring) conditions of
+ * queryBook to a book_id IN list instead of a full table scan.
+ *
+ * matching folds case with Locale.ROOT, so the results are a superset of
+ * a case-sensitive LIKE '%x%' (H2, SQL Server) and equal to a
+ * case-insensitive one; queryBook keeps the LIKE to decide. they miss
+ * rows under an accent-insensitive collation (MySQL *_ai_ci matches
+ * "cafe" with "café"), and books written by another process, since the
+ * index only sees the writes of this one through {@link #put} and
+ * {@link #remove}. it is therefore off unless search.ngramIndex is set.
+ */
+public final class BookTextIndex {
+
+    public enum Field {
+        TITLE, PRESS, AUTHOR
+    }
+
+    private static final int N = 3;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /* per field: trigram -> sorted book_ids whose text contains it */
+    private final List<Map<Long, Postings>> postings = new ArrayList<>();
+    /* book_id -> lower-cased title, press, author */
+    private final Map<Integer, String[]> documents = new HashMap<>();
+    private boolean ready = false;
+
+    public BookTextIndex() {
+        for (int i = 0; i < Field.values().length; i++) {
+            postings.add(new HashMap<>());
+        }
+    }
+
+    /* reads all books, e.g. from the database */
+    @FunctionalInterface
+    public interface Loader {
+        Iterable<Book> load() throws Exception;
+    }
+
+    /**
+     * replace the whole index with the loaded books and start answering
+     * queries. the loader runs under the write lock, so writes committed
+     * while it runs are applied to the index after it has been built.
+     */
+    public void rebuild(Loader loader) throws Exception {
+        lock.writeLock().lock();
+        try {
+            clearLocked();
+            ready = false;
+            for (Book book : loader.load()) {
+                putLocked(book.getBookId(), book);
+            }
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * drop everything and start answering queries for an empty table.
+     */
+    public void reset() {
+        lock.writeLock().lock();
+        try {
+            clearLocked();
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * drop everything and match with LIKE until the next rebuild, for
+     * when a write could not be applied to the index.
+     */
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            clearLocked();
+            ready = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /* add a book, or replace the indexed text of an existing one */
+    public void put(Book book) {
+        lock.writeLock().lock();
+        try {
+            if (ready) {
+                putLocked(book.getBookId(), book);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void putAll(List<Book> books) {
+        lock.writeLock().lock();
+        try {
+            if (ready) {
+                for (Book book : books) {
+                    putLocked(book.getBookId(), book);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int bookId) {
+        lock.writeLock().lock();
+        try {
+            if (ready) {
+                removeLocked(bookId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * book_ids (ascending) of books whose field contains pattern.
+     *
+     * @return null if the index cannot answer, i.e. it is not built yet,
+     *         the pattern is shorter than a trigram or contains LIKE
+     *         wildcards, which callers should then match in the database.
+     */
+    public int[] search(Field field, String pattern) {
+        if (pattern == null || pattern.length() < N || hasWildcard(pattern)) {
+            return null;
+        }
+        String p = pattern.toLowerCase(Locale.ROOT);
+        lock.readLock().lock();
+        try {
+            if (!ready) {
+                return null;
+            }
+            Map<Long, Postings> index = postings.get(field.ordinal());
+            List<Postings> lists = new ArrayList<>();
+            for (long gram : trigrams(p)) {
+                Postings list = index.get(gram);
+                if (list == null) {
+                    return new int[0];
+                }
+                lists.add(list);
+            }
+            lists.sort((x, y) -> Integer.compare(x.size, y.size));
+            Postings smallest = lists.get(0);
+            int[] result = new int[smallest.size];
+            int n = 0;
+            for (int i = 0; i < smallest.size; i++) {
+                int id = smallest.ids[i];
+                boolean all = true;
+                for (int j = 1; j < lists.size() && all; j++) {
+                    all = lists.get(j).contains(id);
+                }
+                /* trigrams may appear out of order, check the real text */
+                if (all && documents.get(id)[field.ordinal()].contains(p)) {
+                    result[n++] = id;
+                }
+            }
+            return Arrays.copyOf(result, n);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        lock.readLock().lock();
+        try {
+            return ready;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /* intersection of two ascending id arrays, either may be null (= everything) */
+    public static int[] intersect(int[] a, int[] b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private void clearLocked() {
+        postings.forEach(Map::clear);
+        documents.clear();
+    }
+
+    private void putLocked(int bookId, Book book) {
+        removeLocked(bookId);
+        String[] doc = new String[] {
+            book.getTitle().toLowerCase(Locale.ROOT),
+            book.getPress().toLowerCase(Locale.ROOT),
+            book.getAuthor().toLowerCase(Locale.ROOT)
+        };
+        documents.put(bookId, doc);
+        for (int f = 0; f < doc.length; f++) {
+            Map<Long, Postings> index = postings.get(f);
+            for (long gram : trigrams(doc[f])) {
+                index.computeIfAbsent(gram, k -> new Postings()).add(bookId);
+            }
+        }
+    }
+
+    private void removeLocked(int bookId) {
+        String[] doc = documents.remove(bookId);
+        if (doc == null) {
+            return;
+        }
+        for (int f = 0; f < doc.length; f++) {
+            Map<Long, Postings> index = postings.get(f);
+            for (long gram : trigrams(doc[f])) {
+                Postings list = index.get(gram);
+                if (list != null && list.remove(bookId) && list.size == 0) {
+                    index.remove(gram);
+                }
+            }
+        }
+    }
+
+    /* distinct trigrams of s, each packed into a long */
+    private static long[] trigrams(String s) {
+        if (s.length() < N) {
+            return new long[0];
+        }
+        long[] grams = new long[s.length() - N + 1];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+        }
+        return Arrays.stream(grams).distinct().toArray();
+    }
+
+    private static boolean hasWildcard(String pattern) {
+        return pattern.indexOf('%') >= 0 || pattern.indexOf('_') >= 0 || pattern.indexOf('[') >= 0;
+    }
+
+    /* a sorted, growable set of book_ids */
+    private static final class Postings {
+        private int[] ids = new int[4];
+        private int size = 0;
+
+        void add(int id) {
+            /* ids are auto-increment, so appending is the common case */
+            if (size == 0 || ids[size - 1] < id) {
+                grow();
+                ids[size++] = id;
+                return;
+            }
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -pos - 1;
+            grow();
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+            return true;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+
+        private void grow() {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            }
+        }
+    }
+}
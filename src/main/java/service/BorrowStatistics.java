@@ -0,0 +1,243 @@
+package service;
+
+import queries.BorrowStats;
+import queries.StatsPeriod;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * borrow counters per book and per category, kept up to date by the
+ * library as borrows and returns commit, so that the popular books of a
+ * day, a month or a year are read from memory instead of aggregating the
+ * borrow table.
+ *
+ * every borrow is counted in the day and the month of its borrow time
+ * (in the time zone of the server) and in the totals, a return in those
+ * of its return time. years are summed up from their months when asked
+ * for. days are kept for DAYS_KEPT days back from the latest one seen,
+ * months and totals for good.
+ */
+public final class BorrowStatistics {
+
+    static final int DAYS_KEPT = 62;
+
+    /* more borrows first, then the smaller book_id */
+    private static final Comparator<BorrowStats.BookCount> RANKING =
+            Comparator.comparingLong(BorrowStats.BookCount::getBorrows).reversed()
+                    .thenComparingInt(BorrowStats.BookCount::getBookId);
+
+    /* a day (epoch day), a month (months since year 0) or the totals (0) */
+    private record Bucket(StatsPeriod period, long index) {
+    }
+
+    private static final class Circulation {
+        private final LongAdder borrows = new LongAdder();
+        private final LongAdder returns = new LongAdder();
+    }
+
+    private final ZoneId zone;
+    /* bucket -> book_id -> borrows */
+    private final Map<Bucket, Map<Integer, LongAdder>> books = new ConcurrentHashMap<>();
+    /* bucket -> category -> borrows and returns */
+    private final Map<Bucket, Map<String, Circulation>> categories = new ConcurrentHashMap<>();
+    private final AtomicLong latestDay = new AtomicLong(Long.MIN_VALUE);
+
+    public BorrowStatistics() {
+        this(ZoneId.systemDefault());
+    }
+
+    public BorrowStatistics(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    /* count a committed borrow */
+    public void recordBorrow(int bookId, String category, long borrowTime) {
+        for (Bucket bucket : buckets(borrowTime)) {
+            Map<Integer, LongAdder> counts = counters(books, bucket);
+            Map<String, Circulation> circulation = counters(categories, bucket);
+            if (counts != null && circulation != null) {
+                counts.computeIfAbsent(bookId, id -> new LongAdder()).increment();
+                circulation.computeIfAbsent(category, c -> new Circulation()).borrows.increment();
+            }
+        }
+    }
+
+    /* count a committed return */
+    public void recordReturn(String category, long returnTime) {
+        for (Bucket bucket : buckets(returnTime)) {
+            Map<String, Circulation> circulation = counters(categories, bucket);
+            if (circulation != null) {
+                circulation.computeIfAbsent(category, c -> new Circulation()).returns.increment();
+            }
+        }
+    }
+
+    /* forget a deleted book, its borrows stay in the numbers of its category */
+    public void removeBook(int bookId) {
+        for (Map<Integer, LongAdder> counts : books.values()) {
+            counts.remove(bookId);
+        }
+    }
+
+    public void clear() {
+        books.clear();
+        categories.clear();
+        latestDay.set(Long.MIN_VALUE);
+    }
+
+    /**
+     * the limit most borrowed books of the period that contains time, most
+     * borrowed first. only book_id and borrows are filled in.
+     *
+     * the counts are pushed through a min-heap of limit entries, so this
+     * costs O(b log limit) for b books borrowed in the period.
+     */
+    public List<BorrowStats.BookCount> topBooks(StatsPeriod period, long time, int limit) {
+        PriorityQueue<BorrowStats.BookCount> heap = new PriorityQueue<>(limit + 1, RANKING.reversed());
+        for (Map.Entry<Integer, Long> count : bookCounts(period, time).entrySet()) {
+            BorrowStats.BookCount candidate = new BorrowStats.BookCount(count.getKey(), count.getValue());
+            if (heap.size() < limit) {
+                heap.add(candidate);
+            } else if (RANKING.compare(candidate, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+        List<BorrowStats.BookCount> top = new ArrayList<>(heap);
+        top.sort(RANKING);
+        return top;
+    }
+
+    /* borrows and returns of every category in the period that contains time, most borrowed first */
+    public List<BorrowStats.CategoryCount> categories(StatsPeriod period, long time) {
+        Map<String, BorrowStats.CategoryCount> sums = new HashMap<>();
+        for (Bucket bucket : covering(period, time)) {
+            Map<String, Circulation> counts = categories.get(bucket);
+            if (counts == null) {
+                continue;
+            }
+            counts.forEach((category, c) -> {
+                BorrowStats.CategoryCount sum = sums.computeIfAbsent(category,
+                        k -> new BorrowStats.CategoryCount(k, 0, 0));
+                sum.setBorrows(sum.getBorrows() + c.borrows.sum());
+                sum.setReturns(sum.getReturns() + c.returns.sum());
+            });
+        }
+        List<BorrowStats.CategoryCount> result = new ArrayList<>(sums.values());
+        result.sort(Comparator.comparingLong(BorrowStats.CategoryCount::getBorrows).reversed()
+                .thenComparing(BorrowStats.CategoryCount::getCategory));
+        return result;
+    }
+
+    /* start (inclusive) and end (exclusive) in milliseconds of the period that contains time */
+    public long[] range(StatsPeriod period, long time) {
+        LocalDate date = date(time);
+        LocalDate start;
+        LocalDate end;
+        switch (period) {
+            case DAY:
+                start = date;
+                end = date.plusDays(1);
+                break;
+            case MONTH:
+                start = date.withDayOfMonth(1);
+                end = start.plusMonths(1);
+                break;
+            case YEAR:
+                start = date.withDayOfYear(1);
+                end = start.plusYears(1);
+                break;
+            case ALL:
+            default:
+                return new long[] {Long.MIN_VALUE, Long.MAX_VALUE};
+        }
+        return new long[] {
+                start.atStartOfDay(zone).toInstant().toEpochMilli(),
+                end.atStartOfDay(zone).toInstant().toEpochMilli()
+        };
+    }
+
+    private Map<Integer, Long> bookCounts(StatsPeriod period, long time) {
+        Map<Integer, Long> sums = new HashMap<>();
+        for (Bucket bucket : covering(period, time)) {
+            Map<Integer, LongAdder> counts = books.get(bucket);
+            if (counts != null) {
+                counts.forEach((bookId, n) -> sums.merge(bookId, n.sum(), Long::sum));
+            }
+        }
+        return sums;
+    }
+
+    /* the stored buckets that make up the period */
+    private List<Bucket> covering(StatsPeriod period, long time) {
+        LocalDate date = date(time);
+        switch (period) {
+            case DAY:
+                return List.of(new Bucket(StatsPeriod.DAY, date.toEpochDay()));
+            case MONTH:
+                return List.of(new Bucket(StatsPeriod.MONTH, monthIndex(date)));
+            case YEAR:
+                List<Bucket> months = new ArrayList<>(12);
+                long first = monthIndex(date.withDayOfYear(1));
+                for (int i = 0; i < 12; i++) {
+                    months.add(new Bucket(StatsPeriod.MONTH, first + i));
+                }
+                return months;
+            case ALL:
+            default:
+                return List.of(new Bucket(StatsPeriod.ALL, 0));
+        }
+    }
+
+    /* the buckets a record at time goes into, dropping days that fell out of the window */
+    private List<Bucket> buckets(long time) {
+        LocalDate date = date(time);
+        long day = date.toEpochDay();
+        List<Bucket> result = new ArrayList<>(3);
+        long previous = latestDay.getAndAccumulate(day, Math::max);
+        long latest = Math.max(previous, day);
+        if (day > latest - DAYS_KEPT) {
+            result.add(new Bucket(StatsPeriod.DAY, day));
+        }
+        if (day > previous) {
+            books.keySet().removeIf(this::expired);
+            categories.keySet().removeIf(this::expired);
+        }
+        result.add(new Bucket(StatsPeriod.MONTH, monthIndex(date)));
+        result.add(new Bucket(StatsPeriod.ALL, 0));
+        return result;
+    }
+
+    /*
+     * the counters of bucket, null for a day that fell out of the window
+     * since buckets() let it through: created now, a concurrent prune might
+     * already have passed it, and it would never be dropped.
+     */
+    private <K, V> Map<K, V> counters(Map<Bucket, Map<K, V>> buckets, Bucket bucket) {
+        return buckets.computeIfAbsent(bucket, b -> expired(b) ? null : new ConcurrentHashMap<>());
+    }
+
+    private boolean expired(Bucket bucket) {
+        long latest = latestDay.get();
+        return bucket.period() == StatsPeriod.DAY && latest != Long.MIN_VALUE && bucket.index() <= latest - DAYS_KEPT;
+    }
+
+    private LocalDate date(long time) {
+        return Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+    }
+
+    private static long monthIndex(LocalDate date) {
+        return date.getYear() * 12L + date.getMonthValue() - 1;
+    }
+}
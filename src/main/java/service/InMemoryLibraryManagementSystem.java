@@ -0,0 +1,1153 @@
+package service;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import queries.BookQueryCursor;
+import queries.BookQueryResults;
+import queries.BorrowBatchResults;
+import queries.BorrowStats;
+import queries.BorrowHistories;
+import queries.BorrowHistoryConditions;
+import queries.BorrowHistoryCursor;
+import queries.CardList;
+import queries.ImportSummary;
+import queries.RowSource;
+import queries.SortOrder;
+import queries.StatsPeriod;
+import utils.MemoryConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * a library that lives in the memory of this process, for kiosks without
+ * a database server and for load tests. selected with type "memory" in
+ * "resources/application.yaml", see {@link LibraryManagementSystems}.
+ *
+ * books and cards are kept in arrays indexed by their id, next to hash
+ * indexes on their unique columns. adding, modifying and removing books
+ * and cards takes the write lock of the catalog, everything else its read
+ * lock. borrowing, returning and stock changes also lock the stripes of
+ * the book and the card, so they only wait for each other if they touch
+ * the same book or card.
+ *
+ * with a data directory in the "memory" section of the config, every
+ * write is also recorded by a {@link LibraryJournal} before the call
+ * returns, so that the library survives a restart. a write is applied
+ * first and logged after, so until the log has it on disk other calls can
+ * already read it, and a crash in between loses it although they saw it.
+ * if the log fails, the writes waiting for it fail as well but stay
+ * visible until a restart drops them; every later write is refused before
+ * it is applied, i.e. the library is read-only until it is restarted.
+ *
+ * failures return the same messages as {@link LibraryManagementSystemImpl}.
+ */
+public class InMemoryLibraryManagementSystem implements LibraryManagementSystem {
+
+    private static final int STRIPES = 64;
+    private static final int INITIAL_CAPACITY = 1024;
+    /* books stored per write lock by a non-atomic import */
+    private static final int IMPORT_BATCH_SIZE = 1000;
+    /* cards counted per task when the statistics are rebuilt */
+    private static final int STATS_CHUNK_SIZE = 4096;
+
+    /* named databases, shared by everyone opening the same name */
+    private static final Map<String, InMemoryLibraryManagementSystem> databases = new ConcurrentHashMap<>();
+
+    private final ReentrantReadWriteLock catalog = new ReentrantReadWriteLock();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    /* guarded by the catalog lock. index = id, null for removed or unused ids */
+    private BookRow[] books;
+    private CardRow[] cards;
+    private int nextBookId;
+    private int nextCardId;
+    private final Map<BookKey, BookRow> bookKeys = new HashMap<>();
+    private final Map<CardKey, CardRow> cardKeys = new HashMap<>();
+
+    private LibraryJournal journal;
+    private final BorrowStatistics statistics = new BorrowStatistics();
+
+    /* an empty library that is not persisted */
+    public InMemoryLibraryManagementSystem() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        clear();
+        journal = LibraryJournal.disabled(this);
+    }
+
+    /**
+     * the library kept in the data directory of conf, recovered from what
+     * is there. without a data directory it is empty and not persisted.
+     */
+    public static InMemoryLibraryManagementSystem open(MemoryConfig conf) throws IOException {
+        InMemoryLibraryManagementSystem library = new InMemoryLibraryManagementSystem();
+        library.journal = LibraryJournal.open(library, conf);
+        library.rebuildStatistics();
+        return library;
+    }
+
+    /* the database called name, created empty when it is opened first */
+    public static InMemoryLibraryManagementSystem named(String name) {
+        return named(name, new MemoryConfig(null));
+    }
+
+    /* the database called name, opened with conf when it is opened first */
+    public static InMemoryLibraryManagementSystem named(String name, MemoryConfig conf) {
+        return databases.computeIfAbsent(name, k -> {
+            try {
+                return open(conf);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to recover the memory database " + name, e);
+            }
+        });
+    }
+
+    /**
+     * make everything durable and stop the background work of the
+     * journal. a named database is forgotten, opening it again recovers it.
+     */
+    public void close() throws IOException {
+        databases.values().remove(this);
+        journal.close();
+    }
+
+    /* the columns that make a book unique */
+    private record BookKey(String category, String title, String press, int publishYear, String author) {
+        static BookKey of(Book book) {
+            return new BookKey(book.getCategory(), book.getTitle(), book.getPress(),
+                    book.getPublishYear(), book.getAuthor());
+        }
+    }
+
+    /* the columns that make a card unique */
+    private record CardKey(String name, String department, Card.CardType type) {
+        static CardKey of(Card card) {
+            return new CardKey(card.getName(), card.getDepartment(), card.getType());
+        }
+    }
+
+    private static final class BookRow {
+        final int bookId;
+        /* guarded by the catalog lock */
+        String category;
+        String title;
+        String press;
+        int publishYear;
+        String author;
+        double price;
+        /* lower-cased for fuzzy matching */
+        String lowerTitle;
+        String lowerPress;
+        String lowerAuthor;
+        /* guarded by the stripe of bookId, queries read the stock without it */
+        volatile int stock;
+        int openLoans;
+
+        BookRow(int bookId, Book book) {
+            this.bookId = bookId;
+            this.stock = book.getStock();
+            setInfo(book);
+        }
+
+        void setInfo(Book book) {
+            category = book.getCategory();
+            title = book.getTitle();
+            press = book.getPress();
+            publishYear = book.getPublishYear();
+            author = book.getAuthor();
+            // stored like the decimal(7, 2) column
+            price = Math.round(book.getPrice() * 100) / 100.0;
+            lowerTitle = title.toLowerCase(Locale.ROOT);
+            lowerPress = press.toLowerCase(Locale.ROOT);
+            lowerAuthor = author.toLowerCase(Locale.ROOT);
+        }
+
+        BookKey key() {
+            return new BookKey(category, title, press, publishYear, author);
+        }
+
+        Book toBook() {
+            Book book = new Book(category, title, press, publishYear, author, price, stock);
+            book.setBookId(bookId);
+            return book;
+        }
+    }
+
+    private static final class CardRow {
+        final int cardId;
+        /* guarded by the catalog lock */
+        String name;
+        String department;
+        Card.CardType type;
+        /* guarded by the stripe of cardId. every loan in borrow order, and the open ones */
+        final List<Loan> loans = new ArrayList<>();
+        final List<Loan> openLoans = new ArrayList<>(4);
+
+        CardRow(int cardId, Card card) {
+            this.cardId = cardId;
+            setInfo(card);
+        }
+
+        void setInfo(Card card) {
+            name = card.getName();
+            department = card.getDepartment();
+            type = card.getType();
+        }
+
+        Loan openLoan(int bookId) {
+            for (Loan loan : openLoans) {
+                if (loan.bookId == bookId) {
+                    return loan;
+                }
+            }
+            return null;
+        }
+
+        CardKey key() {
+            return new CardKey(name, department, type);
+        }
+
+        Card toCard() {
+            return new Card(cardId, name, department, type);
+        }
+    }
+
+    private static final class Loan {
+        final int bookId;
+        final long borrowTime;
+        /* 0 until the book is returned */
+        long returnTime;
+
+        Loan(int bookId, long borrowTime) {
+            this.bookId = bookId;
+            this.borrowTime = borrowTime;
+        }
+    }
+
+    @Override
+    public ApiResult storeBook(Book book) {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        if (!isComplete(book)) {
+            return new ApiResult(false, "图书信息不完整");
+        }
+        long seq;
+        catalog.writeLock().lock();
+        try {
+            if (bookKeys.containsKey(BookKey.of(book))) {
+                return new ApiResult(false, "图书已存在");
+            }
+            insertBook(book);
+            seq = journal.storeBooks(List.of(book));
+        } finally {
+            catalog.writeLock().unlock();
+        }
+        return committed(seq);
+    }
+
+    @Override
+    public ApiResult incBookStock(int bookId, int deltaStock) {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        long seq;
+        catalog.readLock().lock();
+        try {
+            BookRow row = book(bookId);
+            if (row == null) {
+                return new ApiResult(false, "Book not found");
+            }
+            ReentrantLock stripe = stripe(bookId);
+            stripe.lock();
+            try {
+                int newStock = row.stock + deltaStock;
+                if (newStock < 0) {
+                    return new ApiResult(false, "库存不能为负");
+                }
+                addStock(bookId, deltaStock);
+                seq = journal.incBookStock(bookId, deltaStock);
+            } finally {
+                stripe.unlock();
+            }
+        } finally {
+            catalog.readLock().unlock();
+        }
+        return committed(seq);
+    }
+
+    @Override
+    public ApiResult storeBook(List<Book> books) {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        if (books == null || books.isEmpty()) {
+            return new ApiResult(true, null);
+        }
+        for (Book book : books) {
+            if (!isComplete(book)) {
+                return new ApiResult(false, "图书信息不完整");
+            }
+        }
+        long seq;
+        catalog.writeLock().lock();
+        try {
+            Set<BookKey> seen = new HashSet<>();
+            for (Book book : books) {
+                BookKey key = BookKey.of(book);
+                if (bookKeys.containsKey(key) || !seen.add(key)) {
+                    return new ApiResult(false, "新增图书与已存在图书重复");
+                }
+            }
+            books.forEach(this::insertBook);
+            // one record, so that a crash keeps all or none of them
+            seq = journal.storeBooks(books);
+        } finally {
+            catalog.writeLock().unlock();
+        }
+        return committed(seq);
+    }
+
+    @Override
+    public ApiResult importBooks(RowSource<Book> source, boolean atomic) {
+        if (atomic) {
+            // everything ends up in memory anyway, so collect it first
+            return LibraryManagementSystem.super.importBooks(source, true);
+        }
+        ImportSummary summary = new ImportSummary(false);
+        List<Book> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+        try {
+            for (Book book = source.next(); book != null; book = source.next()) {
+                summary.addReceived(1);
+                batch.add(book);
+                if (batch.size() == IMPORT_BATCH_SIZE) {
+                    importBatch(batch, summary);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                importBatch(batch, summary);
+            }
+        } catch (IOException e) {
+            // a bad request body, or the journal failed
+            return new ApiResult(false, e.getMessage(), summary);
+        }
+        return new ApiResult(true, summary);
+    }
+
+    private void importBatch(List<Book> batch, ImportSummary summary) throws IOException {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            throw new IOException(readOnly.message);
+        }
+        summary.addBatch();
+        List<Book> inserted = new ArrayList<>(batch.size());
+        long seq;
+        catalog.writeLock().lock();
+        try {
+            for (Book book : batch) {
+                if (!isComplete(book)) {
+                    summary.addFailed(1);
+                } else if (bookKeys.containsKey(BookKey.of(book))) {
+                    summary.addDuplicates(1);
+                } else {
+                    insertBook(book);
+                    inserted.add(book);
+                }
+            }
+            seq = journal.storeBooks(inserted);
+        } finally {
+            catalog.writeLock().unlock();
+        }
+        journal.await(seq);
+        summary.addInserted(inserted.size());
+    }
+
+    @Override
+    public ApiResult removeBook(int bookId) {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        long seq;
+        catalog.writeLock().lock();
+        try {
+            BookRow row = book(bookId);
+            if (row == null) {
+                return new ApiResult(false, "Book not found");
+            }
+            if (row.openLoans > 0) {
+                return new ApiResult(false, "图书有未归还记录，不能删除");
+            }
+            // its loans are skipped by showBorrowHistory, like the cascading delete
+            dropBook(bookId);
+            seq = journal.removeBook(bookId);
+            statistics.removeBook(bookId);
+        } finally {
+            catalog.writeLock().unlock();
+        }
+        return committed(seq);
+    }
+
+    @Override
+    public ApiResult modifyBookInfo(Book book) {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        if (!isComplete(book)) {
+            return new ApiResult(false, "图书信息不完整");
+        }
+        long seq;
+        catalog.writeLock().lock();
+        try {
+            BookRow row = book(book.getBookId());
+            if (row == null) {
+                return new ApiResult(false, "Book not found");
+            }
+            BookKey key = BookKey.of(book);
+            BookRow other = bookKeys.get(key);
+            if (other != null && other != row) {
+                return new ApiResult(false, "Book with same info already exists");
+            }
+            setBookInfo(row.bookId, book);
+            seq = journal.modifyBookInfo(book);
+        } finally {
+            catalog.writeLock().unlock();
+        }
+        return committed(seq);
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions) {
+        Integer pageSize = conditions.getPageSize();
+        Integer offset = conditions.getOffset();
+        if ((pageSize != null && pageSize <= 0) || (offset != null && offset < 0)) {
+            return new ApiResult(false, "pageSize must be positive and offset must not be negative");
+        }
+        Book.SortColumn sortBy = conditions.getSortBy() == null ? Book.SortColumn.BOOK_ID : conditions.getSortBy();
+        SortOrder sortOrder = conditions.getSortOrder() == SortOrder.ASC ? SortOrder.ASC : SortOrder.DESC;
+        BookQueryCursor cursor = null;
+        if (conditions.getCursor() != null) {
+            try {
+                cursor = BookQueryCursor.decode(conditions.getCursor());
+            } catch (IllegalArgumentException e) {
+                return new ApiResult(false, e.getMessage());
+            }
+            if (cursor.getSortBy() != sortBy || cursor.getSortOrder() != sortOrder) {
+                return new ApiResult(false, "cursor does not match the sort order");
+            }
+        }
+
+        Predicate<String> title = like(conditions.getTitle());
+        Predicate<String> press = like(conditions.getPress());
+        Predicate<String> author = like(conditions.getAuthor());
+        List<Book> matches = new ArrayList<>();
+        catalog.readLock().lock();
+        try {
+            for (int id = 1; id < nextBookId; id++) {
+                BookRow row = books[id];
+                if (row != null && matches(row, conditions, title, press, author)) {
+                    matches.add(row.toBook());
+                }
+            }
+        } finally {
+            catalog.readLock().unlock();
+        }
+
+        // ties on the sort column are broken by book_id ASC
+        Comparator<Book> order = sortBy.getComparator();
+        if (sortOrder == SortOrder.DESC) {
+            order = order.reversed();
+        }
+        if (sortBy != Book.SortColumn.BOOK_ID) {
+            order = order.thenComparingInt(Book::getBookId);
+        }
+        matches.sort(order);
+
+        int from = 0;
+        if (cursor != null) {
+            while (from < matches.size() && !isAfter(matches.get(from), cursor)) {
+                from++;
+            }
+        } else if (offset != null) {
+            from = Math.min(offset, matches.size());
+        }
+        int to = pageSize == null ? matches.size() : (int) Math.min(matches.size(), (long) from + pageSize);
+        String nextCursor = null;
+        if (to < matches.size()) {
+            nextCursor = BookQueryCursor.after(matches.get(to - 1), sortBy, sortOrder).encode();
+        }
+        return new ApiResult(true, new BookQueryResults(new ArrayList<>(matches.subList(from, to)), nextCursor));
+    }
+
+    private static boolean matches(BookRow row, BookQueryConditions c, Predicate<String> title,
+                                   Predicate<String> press, Predicate<String> author) {
+        return (c.getCategory() == null || c.getCategory().equals(row.category))
+                && (title == null || title.test(row.lowerTitle))
+                && (press == null || press.test(row.lowerPress))
+                && (author == null || author.test(row.lowerAuthor))
+                && (c.getMinPublishYear() == null || row.publishYear >= c.getMinPublishYear())
+                && (c.getMaxPublishYear() == null || row.publishYear <= c.getMaxPublishYear())
+                && (c.getMinPrice() == null || row.price >= c.getMinPrice())
+                && (c.getMaxPrice() == null || row.price <= c.getMaxPrice());
+    }
+
+    /* whether book comes after the cursor in the order it was created for */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static boolean isAfter(Book book, BookQueryCursor cursor) {
+        boolean asc = cursor.getSortOrder() == SortOrder.ASC;
+        if (cursor.getSortBy() == Book.SortColumn.BOOK_ID) {
+            return asc ? book.getBookId() > cursor.getBookId() : book.getBookId() < cursor.getBookId();
+        }
+        Comparable value = (Comparable) BookQueryCursor.after(book, cursor.getSortBy(), cursor.getSortOrder())
+                .getSortValue();
+        int cmp = value.compareTo(cursor.getSortValue());
+        return (asc ? cmp > 0 : cmp < 0) || (cmp == 0 && book.getBookId() > cursor.getBookId());
+    }
+
+    /* case-insensitive LIKE '%pattern%' on lower-cased text, null if there is no pattern */
+    private static Predicate<String> like(String pattern) {
+        if (pattern == null) {
+            return null;
+        }
+        String p = pattern.toLowerCase(Locale.ROOT);
+        if (p.indexOf('%') < 0 && p.indexOf('_') < 0) {
+            return s -> s.contains(p);
+        }
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < p.length(); i++) {
+            char c = p.charAt(i);
+            if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        Pattern compiled = Pattern.compile(regex.toString(), Pattern.DOTALL);
+        return s -> compiled.matcher(s).find();
+    }
+
+    @Override
+    public ApiResult borrowBook(Borrow borrow) {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        long seq;
+        catalog.readLock().lock();
+        try {
+            CardRow card = card(borrow.getCardId());
+            if (card == null) {
+                return new ApiResult(false, "此卡不存在");
+            }
+            BookRow book = book(borrow.getBookId());
+            if (book == null) {
+                return new ApiResult(false, "图书不存在");
+            }
+            lockStripes(book.bookId, card.cardId);
+            try {
+                if (book.stock <= 0) {
+                    return new ApiResult(false, "图书库存不足");
+                }
+                if (card.openLoan(book.bookId) != null) {
+                    return new ApiResult(false, "图书已被此卡借出，不能重复借书");
+                }
+                openLoan(card.cardId, book.bookId, borrow.getBorrowTime());
+                seq = journal.borrowBook(card.cardId, book.bookId, borrow.getBorrowTime());
+                statistics.recordBorrow(book.bookId, book.category, borrow.getBorrowTime());
+            } finally {
+                unlockStripes(book.bookId, card.cardId);
+            }
+        } finally {
+            catalog.readLock().unlock();
+        }
+        return committed(seq);
+    }
+
+    @Override
+    public ApiResult returnBook(Borrow borrow) {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        long seq;
+        catalog.readLock().lock();
+        try {
+            CardRow card = card(borrow.getCardId());
+            BookRow book = book(borrow.getBookId());
+            if (card == null || book == null) {
+                return new ApiResult(false, "此卡没有借阅此书或已归还");
+            }
+            lockStripes(book.bookId, card.cardId);
+            try {
+                Loan loan = card.openLoan(book.bookId);
+                if (loan == null) {
+                    return new ApiResult(false, "此卡没有借阅此书或已归还");
+                }
+                if (borrow.getReturnTime() <= loan.borrowTime) {
+                    return new ApiResult(false, "归还时间无效");
+                }
+                closeLoan(card.cardId, book.bookId, borrow.getReturnTime());
+                seq = journal.returnBook(card.cardId, book.bookId, borrow.getReturnTime());
+                statistics.recordReturn(book.category, borrow.getReturnTime());
+            } finally {
+                unlockStripes(book.bookId, card.cardId);
+            }
+        } finally {
+            catalog.readLock().unlock();
+        }
+        return committed(seq);
+    }
+
+    /*
+     * the write lock keeps every other borrow and return out, so the batch
+     * is applied as a whole and waits for the log once.
+     */
+    @Override
+    public ApiResult borrowBooks(List<Borrow> borrows) {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        List<BorrowBatchResults.Item> items = new ArrayList<>(borrows.size());
+        long seq = 0;
+        catalog.writeLock().lock();
+        try {
+            for (Borrow borrow : borrows) {
+                CardRow card = card(borrow.getCardId());
+                BookRow book = book(borrow.getBookId());
+                String message = null;
+                if (card == null) {
+                    message = "此卡不存在";
+                } else if (book == null) {
+                    message = "图书不存在";
+                } else if (book.stock <= 0) {
+                    message = "图书库存不足";
+                } else if (card.openLoan(book.bookId) != null) {
+                    message = "图书已被此卡借出，不能重复借书";
+                } else {
+                    openLoan(card.cardId, book.bookId, borrow.getBorrowTime());
+                    seq = journal.borrowBook(card.cardId, book.bookId, borrow.getBorrowTime());
+                    statistics.recordBorrow(book.bookId, book.category, borrow.getBorrowTime());
+                }
+                items.add(new BorrowBatchResults.Item(borrow, message));
+            }
+        } finally {
+            catalog.writeLock().unlock();
+        }
+        ApiResult result = committed(seq);
+        return result.ok ? new ApiResult(true, new BorrowBatchResults(items)) : result;
+    }
+
+    @Override
+    public ApiResult returnBooks(List<Borrow> borrows) {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        List<BorrowBatchResults.Item> items = new ArrayList<>(borrows.size());
+        long seq = 0;
+        catalog.writeLock().lock();
+        try {
+            for (Borrow borrow : borrows) {
+                CardRow card = card(borrow.getCardId());
+                Loan loan = card == null || book(borrow.getBookId()) == null ? null : card.openLoan(borrow.getBookId());
+                String message = null;
+                if (loan == null) {
+                    message = "此卡没有借阅此书或已归还";
+                } else if (borrow.getReturnTime() <= loan.borrowTime) {
+                    message = "归还时间无效";
+                } else {
+                    closeLoan(card.cardId, borrow.getBookId(), borrow.getReturnTime());
+                    seq = journal.returnBook(card.cardId, borrow.getBookId(), borrow.getReturnTime());
+                    statistics.recordReturn(book(borrow.getBookId()).category, borrow.getReturnTime());
+                }
+                items.add(new BorrowBatchResults.Item(borrow, message));
+            }
+        } finally {
+            catalog.writeLock().unlock();
+        }
+        ApiResult result = committed(seq);
+        return result.ok ? new ApiResult(true, new BorrowBatchResults(items)) : result;
+    }
+
+    @Override
+    public ApiResult showBorrowStats(StatsPeriod period, long time, int limit) {
+        if (limit <= 0) {
+            return new ApiResult(false, "limit must be positive");
+        }
+        List<BorrowStats.BookCount> top = statistics.topBooks(period, time, limit);
+        long[] range = statistics.range(period, time);
+        catalog.readLock().lock();
+        try {
+            for (BorrowStats.BookCount count : top) {
+                BookRow book = book(count.getBookId());
+                if (book != null) {
+                    count.setCategory(book.category);
+                    count.setTitle(book.title);
+                    count.setAuthor(book.author);
+                }
+            }
+        } finally {
+            catalog.readLock().unlock();
+        }
+        return new ApiResult(true, new BorrowStats(period, range[0], range[1], top,
+                statistics.categories(period, time)));
+    }
+
+    /* count every loan into the statistics, the cards are split into chunks counted in parallel */
+    public void rebuildStatistics() {
+        statistics.clear();
+        catalog.readLock().lock();
+        try {
+            int chunks = (nextCardId + STATS_CHUNK_SIZE - 1) / STATS_CHUNK_SIZE;
+            IntStream.range(0, chunks).parallel().forEach(chunk -> {
+                int end = Math.min(nextCardId, (chunk + 1) * STATS_CHUNK_SIZE);
+                for (int cardId = chunk * STATS_CHUNK_SIZE; cardId < end; cardId++) {
+                    CardRow card = card(cardId);
+                    if (card == null) {
+                        continue;
+                    }
+                    ReentrantLock stripe = stripe(cardId);
+                    stripe.lock();
+                    try {
+                        for (Loan loan : card.loans) {
+                            BookRow book = book(loan.bookId);
+                            if (book == null) {
+                                continue;
+                            }
+                            statistics.recordBorrow(book.bookId, book.category, loan.borrowTime);
+                            if (loan.returnTime != 0) {
+                                statistics.recordReturn(book.category, loan.returnTime);
+                            }
+                        }
+                    } finally {
+                        stripe.unlock();
+                    }
+                }
+            });
+        } finally {
+            catalog.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId) {
+        return showBorrowHistory(cardId, new BorrowHistoryConditions());
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId, BorrowHistoryConditions conditions) {
+        Integer pageSize = conditions.getPageSize();
+        if (pageSize != null && pageSize <= 0) {
+            return new ApiResult(false, "pageSize must be positive");
+        }
+        BorrowHistoryCursor cursor;
+        try {
+            cursor = conditions.decodeCursor();
+        } catch (IllegalArgumentException e) {
+            return new ApiResult(false, e.getMessage());
+        }
+        List<BorrowHistories.Item> items = new ArrayList<>();
+        String nextCursor = null;
+        catalog.readLock().lock();
+        try {
+            CardRow card = card(cardId);
+            if (card == null) {
+                return new ApiResult(false, "此卡不存在");
+            }
+            // copy the matching loans, the stripe only guards the list
+            List<Loan> loans = new ArrayList<>();
+            List<Long> returnTimes = new ArrayList<>();
+            ReentrantLock stripe = stripe(cardId);
+            stripe.lock();
+            try {
+                for (Loan loan : card.loans) {
+                    if (conditions.matches(loan.borrowTime, loan.returnTime)
+                            && (cursor == null || cursor.isBefore(loan.borrowTime, loan.bookId))) {
+                        loans.add(loan);
+                        returnTimes.add(loan.returnTime);
+                    }
+                }
+            } finally {
+                stripe.unlock();
+            }
+            Integer[] order = new Integer[loans.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            // borrow_time DESC, book_id ASC
+            Arrays.sort(order, (x, y) -> loans.get(x).borrowTime != loans.get(y).borrowTime
+                    ? Long.compare(loans.get(y).borrowTime, loans.get(x).borrowTime)
+                    : Integer.compare(loans.get(x).bookId, loans.get(y).bookId));
+            for (int i : order) {
+                BookRow book = book(loans.get(i).bookId);
+                if (book == null) {
+                    continue;
+                }
+                if (pageSize != null && items.size() == pageSize) {
+                    BorrowHistories.Item last = items.get(pageSize - 1);
+                    nextCursor = new BorrowHistoryCursor(last.getBorrowTime(), last.getBookId()).encode();
+                    break;
+                }
+                Borrow borrow = new Borrow(book.bookId, cardId);
+                borrow.setBorrowTime(loans.get(i).borrowTime);
+                borrow.setReturnTime(returnTimes.get(i));
+                items.add(new BorrowHistories.Item(cardId, book.toBook(), borrow));
+            }
+        } finally {
+            catalog.readLock().unlock();
+        }
+        return new ApiResult(true, new BorrowHistories(items, nextCursor));
+    }
+
+    @Override
+    public ApiResult registerCard(Card card) {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        if (!isComplete(card)) {
+            return new ApiResult(false, "借书证信息不完整");
+        }
+        long seq;
+        catalog.writeLock().lock();
+        try {
+            if (cardKeys.containsKey(CardKey.of(card))) {
+                return new ApiResult(false, "Card already exists");
+            }
+            card.setCardId(nextCardId);
+            putCard(nextCardId, card);
+            seq = journal.registerCard(card);
+        } finally {
+            catalog.writeLock().unlock();
+        }
+        return committed(seq);
+    }
+
+    @Override
+    public ApiResult removeCard(int cardId) {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        long seq;
+        catalog.writeLock().lock();
+        try {
+            CardRow row = card(cardId);
+            if (row == null) {
+                return new ApiResult(false, "此卡不存在");
+            }
+            if (!row.openLoans.isEmpty()) {
+                return new ApiResult(false, "借书证有未归还图书，不能删除");
+            }
+            dropCard(cardId);
+            seq = journal.removeCard(cardId);
+        } finally {
+            catalog.writeLock().unlock();
+        }
+        return committed(seq);
+    }
+
+    @Override
+    public ApiResult modifyCardInfo(Card card) {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        if (!isComplete(card)) {
+            return new ApiResult(false, "借书证信息不完整");
+        }
+        long seq;
+        catalog.writeLock().lock();
+        try {
+            CardRow row = card(card.getCardId());
+            if (row == null) {
+                return new ApiResult(false, "此卡不存在");
+            }
+            CardKey key = CardKey.of(card);
+            if (cardKeys.containsKey(key)) {
+                return new ApiResult(false, "Card with same info already exists");
+            }
+            setCardInfo(row.cardId, card);
+            seq = journal.modifyCardInfo(card);
+        } finally {
+            catalog.writeLock().unlock();
+        }
+        return committed(seq);
+    }
+
+    @Override
+    public ApiResult showCards() {
+        List<Card> result = new ArrayList<>();
+        catalog.readLock().lock();
+        try {
+            for (int id = 1; id < nextCardId; id++) {
+                if (cards[id] != null) {
+                    result.add(cards[id].toCard());
+                }
+            }
+        } finally {
+            catalog.readLock().unlock();
+        }
+        return new ApiResult(true, new CardList(result));
+    }
+
+    @Override
+    public ApiResult resetDatabase() {
+        ApiResult readOnly = refuseAfterLogFailure();
+        if (readOnly != null) {
+            return readOnly;
+        }
+        long seq;
+        catalog.writeLock().lock();
+        try {
+            clear();
+            seq = journal.reset();
+            statistics.clear();
+        } finally {
+            catalog.writeLock().unlock();
+        }
+        return committed(seq);
+    }
+
+    /* the failure of a write that comes after the log failed, null while it works */
+    private ApiResult refuseAfterLogFailure() {
+        IOException failure = journal.getFailure();
+        if (failure == null) {
+            return null;
+        }
+        return new ApiResult(false, "Failed to write the log earlier, the library is read-only: "
+                + failure.getMessage());
+    }
+
+    /* success once the journal has made the write with sequence number seq durable */
+    private ApiResult committed(long seq) {
+        try {
+            journal.await(seq);
+        } catch (IOException e) {
+            return new ApiResult(false, "Failed to write the log: " + e.getMessage());
+        }
+        return new ApiResult(true, null);
+    }
+
+    /* the records of a snapshot and the generation of the log segment it precedes */
+    record Checkpoint(long generation, List<byte[]> records) {
+    }
+
+    /**
+     * copy everything into snapshot records and start a new log segment,
+     * under the write lock so that the copy is exactly the state before it.
+     *
+     * @return null if nothing was written since the last checkpoint
+     */
+    Checkpoint checkpoint() throws IOException {
+        catalog.writeLock().lock();
+        try {
+            if (!journal.hasNewRecords()) {
+                return null;
+            }
+            LibraryJournal.SnapshotWriter out = new LibraryJournal.SnapshotWriter(nextBookId, nextCardId);
+            for (int id = 1; id < nextBookId; id++) {
+                if (books[id] != null) {
+                    out.book(books[id].toBook());
+                }
+            }
+            for (int id = 1; id < nextCardId; id++) {
+                CardRow row = cards[id];
+                if (row == null) {
+                    continue;
+                }
+                out.card(row.toCard());
+                for (Loan loan : row.loans) {
+                    // loans of removed books are never shown again, drop them
+                    if (book(loan.bookId) != null) {
+                        out.loan(row.cardId, loan.bookId, loan.borrowTime, loan.returnTime);
+                    }
+                }
+            }
+            return new Checkpoint(journal.rotate(), out.finish());
+        } finally {
+            catalog.writeLock().unlock();
+        }
+    }
+
+    /* empty tables, ids start at 1 again */
+    void clear() {
+        books = new BookRow[INITIAL_CAPACITY];
+        cards = new CardRow[INITIAL_CAPACITY];
+        nextBookId = 1;
+        nextCardId = 1;
+        bookKeys.clear();
+        cardKeys.clear();
+    }
+
+    /* needs the write lock, the book must be complete and not stored yet */
+    private void insertBook(Book book) {
+        book.setBookId(nextBookId);
+        putBook(nextBookId, book);
+    }
+
+    /*
+     * the changes themselves, made by the calls above once they are
+     * checked and replayed by the journal. they need the write lock, or
+     * the read lock and the stripes of the rows they touch.
+     */
+
+    void putBook(int bookId, Book book) {
+        books = ensureCapacity(books, bookId);
+        BookRow row = new BookRow(bookId, book);
+        books[bookId] = row;
+        bookKeys.put(row.key(), row);
+        nextBookId = Math.max(nextBookId, bookId + 1);
+    }
+
+    void addStock(int bookId, int deltaStock) {
+        books[bookId].stock += deltaStock;
+    }
+
+    void dropBook(int bookId) {
+        bookKeys.remove(books[bookId].key());
+        books[bookId] = null;
+    }
+
+    void setBookInfo(int bookId, Book book) {
+        BookRow row = books[bookId];
+        bookKeys.remove(row.key());
+        row.setInfo(book);
+        bookKeys.put(row.key(), row);
+    }
+
+    void openLoan(int cardId, int bookId, long borrowTime) {
+        Loan loan = new Loan(bookId, borrowTime);
+        cards[cardId].loans.add(loan);
+        cards[cardId].openLoans.add(loan);
+        books[bookId].stock--;
+        books[bookId].openLoans++;
+    }
+
+    void closeLoan(int cardId, int bookId, long returnTime) {
+        CardRow card = cards[cardId];
+        Loan loan = card.openLoan(bookId);
+        loan.returnTime = returnTime;
+        card.openLoans.remove(loan);
+        books[bookId].stock++;
+        books[bookId].openLoans--;
+    }
+
+    /* a loan from a snapshot, where the stock already accounts for it */
+    void restoreLoan(int cardId, int bookId, long borrowTime, long returnTime) {
+        Loan loan = new Loan(bookId, borrowTime);
+        loan.returnTime = returnTime;
+        cards[cardId].loans.add(loan);
+        if (returnTime == 0) {
+            cards[cardId].openLoans.add(loan);
+            books[bookId].openLoans++;
+        }
+    }
+
+    void putCard(int cardId, Card card) {
+        cards = ensureCapacity(cards, cardId);
+        CardRow row = new CardRow(cardId, card);
+        cards[cardId] = row;
+        cardKeys.put(row.key(), row);
+        nextCardId = Math.max(nextCardId, cardId + 1);
+    }
+
+    void dropCard(int cardId) {
+        cardKeys.remove(cards[cardId].key());
+        cards[cardId] = null;
+    }
+
+    void setCardInfo(int cardId, Card card) {
+        CardRow row = cards[cardId];
+        cardKeys.remove(row.key());
+        row.setInfo(card);
+        cardKeys.put(row.key(), row);
+    }
+
+    /* ids of removed rows are not reused, so the next ids are part of the state */
+    void setNextIds(int nextBookId, int nextCardId) {
+        books = ensureCapacity(books, nextBookId);
+        cards = ensureCapacity(cards, nextCardId);
+        this.nextBookId = nextBookId;
+        this.nextCardId = nextCardId;
+    }
+
+    private static <T> T[] ensureCapacity(T[] rows, int id) {
+        int length = rows.length;
+        while (length <= id) {
+            length *= 2;
+        }
+        return length == rows.length ? rows : Arrays.copyOf(rows, length);
+    }
+
+    /* needs the catalog lock */
+    private BookRow book(int bookId) {
+        return bookId > 0 && bookId < nextBookId ? books[bookId] : null;
+    }
+
+    /* needs the catalog lock */
+    private CardRow card(int cardId) {
+        return cardId > 0 && cardId < nextCardId ? cards[cardId] : null;
+    }
+
+    private ReentrantLock stripe(int id) {
+        return stripes[id & (STRIPES - 1)];
+    }
+
+    /* lock both stripes in index order, so that two borrowers cannot deadlock */
+    private void lockStripes(int bookId, int cardId) {
+        int a = bookId & (STRIPES - 1);
+        int b = cardId & (STRIPES - 1);
+        stripes[Math.min(a, b)].lock();
+        if (a != b) {
+            stripes[Math.max(a, b)].lock();
+        }
+    }
+
+    private void unlockStripes(int bookId, int cardId) {
+        int a = bookId & (STRIPES - 1);
+        int b = cardId & (STRIPES - 1);
+        if (a != b) {
+            stripes[Math.max(a, b)].unlock();
+        }
+        stripes[Math.min(a, b)].unlock();
+    }
+
+    /* the not null columns */
+    private static boolean isComplete(Book book) {
+        return book.getCategory() != null && book.getTitle() != null
+                && book.getPress() != null && book.getAuthor() != null;
+    }
+
+    private static boolean isComplete(Card card) {
+        return card.getName() != null && card.getDepartment() != null && card.getType() != null;
+    }
+}
@@ -0,0 +1,208 @@
+package service;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import queries.BorrowHistories;
+import queries.BorrowHistoryConditions;
+import queries.RowSink;
+import queries.RowSource;
+import queries.StatsPeriod;
+import utils.LatencyHistogram;
+import utils.MetricsRegistry;
+
+import java.util.List;
+
+/**
+ * records the latency and failures of every call into the delegate in
+ * the library_operation histograms, labelled with the method name.
+ * a call counts as failed when it returns a result that is not ok.
+ */
+public class InstrumentedLibraryManagementSystem implements LibraryManagementSystem {
+
+    private static final String NAME = "library_operation";
+    private static final String HELP = "LibraryManagementSystem calls";
+
+    private final LibraryManagementSystem delegate;
+
+    private final LatencyHistogram storeBook;
+    private final LatencyHistogram storeBooks;
+    private final LatencyHistogram importBooks;
+    private final LatencyHistogram incBookStock;
+    private final LatencyHistogram removeBook;
+    private final LatencyHistogram modifyBookInfo;
+    private final LatencyHistogram queryBook;
+    private final LatencyHistogram borrowBook;
+    private final LatencyHistogram returnBook;
+    private final LatencyHistogram borrowBooks;
+    private final LatencyHistogram returnBooks;
+    private final LatencyHistogram showBorrowHistory;
+    private final LatencyHistogram showBorrowStats;
+    private final LatencyHistogram registerCard;
+    private final LatencyHistogram removeCard;
+    private final LatencyHistogram modifyCardInfo;
+    private final LatencyHistogram showCards;
+    private final LatencyHistogram resetDatabase;
+
+    public InstrumentedLibraryManagementSystem(LibraryManagementSystem delegate, MetricsRegistry metrics) {
+        this.delegate = delegate;
+        storeBook = metrics.histogram(NAME, HELP, "operation", "storeBook");
+        storeBooks = metrics.histogram(NAME, HELP, "operation", "storeBooks");
+        importBooks = metrics.histogram(NAME, HELP, "operation", "importBooks");
+        incBookStock = metrics.histogram(NAME, HELP, "operation", "incBookStock");
+        removeBook = metrics.histogram(NAME, HELP, "operation", "removeBook");
+        modifyBookInfo = metrics.histogram(NAME, HELP, "operation", "modifyBookInfo");
+        queryBook = metrics.histogram(NAME, HELP, "operation", "queryBook");
+        borrowBook = metrics.histogram(NAME, HELP, "operation", "borrowBook");
+        returnBook = metrics.histogram(NAME, HELP, "operation", "returnBook");
+        borrowBooks = metrics.histogram(NAME, HELP, "operation", "borrowBooks");
+        returnBooks = metrics.histogram(NAME, HELP, "operation", "returnBooks");
+        showBorrowHistory = metrics.histogram(NAME, HELP, "operation", "showBorrowHistory");
+        showBorrowStats = metrics.histogram(NAME, HELP, "operation", "showBorrowStats");
+        registerCard = metrics.histogram(NAME, HELP, "operation", "registerCard");
+        removeCard = metrics.histogram(NAME, HELP, "operation", "removeCard");
+        modifyCardInfo = metrics.histogram(NAME, HELP, "operation", "modifyCardInfo");
+        showCards = metrics.histogram(NAME, HELP, "operation", "showCards");
+        resetDatabase = metrics.histogram(NAME, HELP, "operation", "resetDatabase");
+    }
+
+    private static ApiResult record(LatencyHistogram histogram, long start, ApiResult result) {
+        histogram.record(start, !result.ok);
+        return result;
+    }
+
+    @Override
+    public ApiResult storeBook(Book book) {
+        long start = System.nanoTime();
+        return record(storeBook, start, delegate.storeBook(book));
+    }
+
+    @Override
+    public ApiResult incBookStock(int bookId, int deltaStock) {
+        long start = System.nanoTime();
+        return record(incBookStock, start, delegate.incBookStock(bookId, deltaStock));
+    }
+
+    @Override
+    public ApiResult storeBook(List<Book> books) {
+        long start = System.nanoTime();
+        return record(storeBooks, start, delegate.storeBook(books));
+    }
+
+    @Override
+    public ApiResult importBooks(RowSource<Book> source, boolean atomic) {
+        long start = System.nanoTime();
+        return record(importBooks, start, delegate.importBooks(source, atomic));
+    }
+
+    @Override
+    public ApiResult removeBook(int bookId) {
+        long start = System.nanoTime();
+        return record(removeBook, start, delegate.removeBook(bookId));
+    }
+
+    @Override
+    public ApiResult modifyBookInfo(Book book) {
+        long start = System.nanoTime();
+        return record(modifyBookInfo, start, delegate.modifyBookInfo(book));
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions) {
+        long start = System.nanoTime();
+        return record(queryBook, start, delegate.queryBook(conditions));
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, RowSink<Book> sink) {
+        long start = System.nanoTime();
+        return record(queryBook, start, delegate.queryBook(conditions, sink));
+    }
+
+    @Override
+    public ApiResult borrowBook(Borrow borrow) {
+        long start = System.nanoTime();
+        return record(borrowBook, start, delegate.borrowBook(borrow));
+    }
+
+    @Override
+    public ApiResult returnBook(Borrow borrow) {
+        long start = System.nanoTime();
+        return record(returnBook, start, delegate.returnBook(borrow));
+    }
+
+    @Override
+    public ApiResult borrowBooks(List<Borrow> borrows) {
+        long start = System.nanoTime();
+        return record(borrowBooks, start, delegate.borrowBooks(borrows));
+    }
+
+    @Override
+    public ApiResult returnBooks(List<Borrow> borrows) {
+        long start = System.nanoTime();
+        return record(returnBooks, start, delegate.returnBooks(borrows));
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId) {
+        long start = System.nanoTime();
+        return record(showBorrowHistory, start, delegate.showBorrowHistory(cardId));
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId, RowSink<BorrowHistories.Item> sink) {
+        long start = System.nanoTime();
+        return record(showBorrowHistory, start, delegate.showBorrowHistory(cardId, sink));
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId, BorrowHistoryConditions conditions) {
+        long start = System.nanoTime();
+        return record(showBorrowHistory, start, delegate.showBorrowHistory(cardId, conditions));
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId, BorrowHistoryConditions conditions,
+                                       RowSink<BorrowHistories.Item> sink) {
+        long start = System.nanoTime();
+        return record(showBorrowHistory, start, delegate.showBorrowHistory(cardId, conditions, sink));
+    }
+
+    @Override
+    public ApiResult showBorrowStats(StatsPeriod period, long time, int limit) {
+        long start = System.nanoTime();
+        return record(showBorrowStats, start, delegate.showBorrowStats(period, time, limit));
+    }
+
+    @Override
+    public ApiResult registerCard(Card card) {
+        long start = System.nanoTime();
+        return record(registerCard, start, delegate.registerCard(card));
+    }
+
+    @Override
+    public ApiResult removeCard(int cardId) {
+        long start = System.nanoTime();
+        return record(removeCard, start, delegate.removeCard(cardId));
+    }
+
+    @Override
+    public ApiResult modifyCardInfo(Card card) {
+        long start = System.nanoTime();
+        return record(modifyCardInfo, start, delegate.modifyCardInfo(card));
+    }
+
+    @Override
+    public ApiResult showCards() {
+        long start = System.nanoTime();
+        return record(showCards, start, delegate.showCards());
+    }
+
+    @Override
+    public ApiResult resetDatabase() {
+        long start = System.nanoTime();
+        return record(resetDatabase, start, delegate.resetDatabase());
+    }
+}
@@ -0,0 +1,496 @@
+package service;
+
+import entities.Book;
+import entities.Card;
+import utils.MemoryConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * makes an {@link InMemoryLibraryManagementSystem} survive restarts: every
+ * write it commits is appended to a {@link WriteAheadLog} as a redo record,
+ * and a snapshot of the whole store is taken every snapshotInterval.
+ *
+ * a snapshot "snapshot-<g>.snap" holds the state right before log segment
+ * g, written as the same records a log would replay to reach it, so it is
+ * the log compacted. once it is on disk every older segment and snapshot
+ * is deleted. opening loads the latest snapshot and replays the segments
+ * from its generation on.
+ */
+final class LibraryJournal implements Closeable {
+
+    private static final Logger log = Logger.getLogger(LibraryJournal.class.getName());
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    /* snapshot rows are written in records of about this size */
+    private static final int SNAPSHOT_RECORD_SIZE = 64 << 10;
+
+    /* redo records of the log */
+    private static final byte STORE_BOOK = 1;
+    private static final byte INC_STOCK = 2;
+    private static final byte REMOVE_BOOK = 3;
+    private static final byte MODIFY_BOOK = 4;
+    private static final byte BORROW = 5;
+    private static final byte RETURN = 6;
+    private static final byte REGISTER_CARD = 7;
+    private static final byte REMOVE_CARD = 8;
+    private static final byte MODIFY_CARD = 9;
+    private static final byte RESET = 10;
+    /* only in snapshots */
+    private static final byte NEXT_IDS = 11;
+    private static final byte LOAN = 12;
+    private static final byte END = 13;
+
+    private final InMemoryLibraryManagementSystem store;
+    private final Path dir;
+    /* null when nothing is persisted */
+    private final WriteAheadLog wal;
+    private final ScheduledExecutorService snapshots;
+    /* whether a log was replayed on opening that the next snapshot can replace */
+    private volatile boolean replayed;
+
+    private LibraryJournal(InMemoryLibraryManagementSystem store, Path dir, WriteAheadLog wal, long snapshotInterval) {
+        this.store = store;
+        this.dir = dir;
+        this.wal = wal;
+        if (wal == null || snapshotInterval == 0) {
+            snapshots = null;
+        } else {
+            snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "library-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            snapshots.scheduleWithFixedDelay(this::checkpoint, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /* a journal that records nothing */
+    static LibraryJournal disabled(InMemoryLibraryManagementSystem store) {
+        return new LibraryJournal(store, null, null, 0);
+    }
+
+    /**
+     * recover store, which must be empty and not shared yet, from the
+     * data directory of conf and start logging its writes there.
+     */
+    static LibraryJournal open(InMemoryLibraryManagementSystem store, MemoryConfig conf) throws IOException {
+        if (!conf.isPersistent()) {
+            return disabled(store);
+        }
+        long t0 = System.nanoTime();
+        Path dir = Paths.get(conf.getDataDir());
+        Files.createDirectories(dir);
+        List<Long> snapshotGenerations = WriteAheadLog.generations(dir, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        List<Long> segments = WriteAheadLog.generations(dir, WriteAheadLog.PREFIX, WriteAheadLog.SUFFIX);
+
+        LibraryJournal recovering = disabled(store);
+        long base = 0;
+        if (!snapshotGenerations.isEmpty()) {
+            base = snapshotGenerations.get(snapshotGenerations.size() - 1);
+            Path snapshot = WriteAheadLog.file(dir, SNAPSHOT_PREFIX, base, SNAPSHOT_SUFFIX);
+            boolean[] complete = {false};
+            WriteAheadLog.replay(snapshot, false, payload -> complete[0] = recovering.apply(payload));
+            if (!complete[0]) {
+                throw new IOException("Incomplete snapshot " + snapshot);
+            }
+        }
+        long records = 0;
+        long last = base;
+        for (int i = 0; i < segments.size(); i++) {
+            long generation = segments.get(i);
+            if (generation >= base) {
+                records += WriteAheadLog.replay(WriteAheadLog.file(dir, WriteAheadLog.PREFIX, generation, WriteAheadLog.SUFFIX),
+                        i == segments.size() - 1, recovering::apply);
+                last = generation;
+            }
+        }
+        log.info(String.format("Recovered the memory database from %s in %d ms: snapshot %d, %d log records.",
+                dir, (System.nanoTime() - t0) / 1_000_000, base, records));
+
+        // continue in a fresh segment, the last one may have been cut off
+        WriteAheadLog wal = new WriteAheadLog(dir, last + 1, conf.getSyncMode(), conf.getFsyncInterval());
+        LibraryJournal journal = new LibraryJournal(store, dir, wal, conf.getSnapshotInterval());
+        journal.replayed = records > 0;
+        return journal;
+    }
+
+    /* books that were just stored, with their ids */
+    long storeBooks(List<Book> books) {
+        if (wal == null || books.isEmpty()) {
+            return 0;
+        }
+        return append(out -> {
+            for (Book book : books) {
+                out.writeByte(STORE_BOOK);
+                out.writeInt(book.getBookId());
+                writeBookInfo(out, book);
+                out.writeInt(book.getStock());
+            }
+        });
+    }
+
+    long incBookStock(int bookId, int deltaStock) {
+        if (wal == null) {
+            return 0;
+        }
+        return append(out -> {
+            out.writeByte(INC_STOCK);
+            out.writeInt(bookId);
+            out.writeInt(deltaStock);
+        });
+    }
+
+    long removeBook(int bookId) {
+        if (wal == null) {
+            return 0;
+        }
+        return append(out -> {
+            out.writeByte(REMOVE_BOOK);
+            out.writeInt(bookId);
+        });
+    }
+
+    long modifyBookInfo(Book book) {
+        if (wal == null) {
+            return 0;
+        }
+        return append(out -> {
+            out.writeByte(MODIFY_BOOK);
+            out.writeInt(book.getBookId());
+            writeBookInfo(out, book);
+        });
+    }
+
+    long borrowBook(int cardId, int bookId, long borrowTime) {
+        if (wal == null) {
+            return 0;
+        }
+        return append(out -> {
+            out.writeByte(BORROW);
+            out.writeInt(cardId);
+            out.writeInt(bookId);
+            out.writeLong(borrowTime);
+        });
+    }
+
+    long returnBook(int cardId, int bookId, long returnTime) {
+        if (wal == null) {
+            return 0;
+        }
+        return append(out -> {
+            out.writeByte(RETURN);
+            out.writeInt(cardId);
+            out.writeInt(bookId);
+            out.writeLong(returnTime);
+        });
+    }
+
+    /* a card that was just registered, with its id */
+    long registerCard(Card card) {
+        if (wal == null) {
+            return 0;
+        }
+        return append(out -> {
+            out.writeByte(REGISTER_CARD);
+            out.writeInt(card.getCardId());
+            writeCardInfo(out, card);
+        });
+    }
+
+    long removeCard(int cardId) {
+        if (wal == null) {
+            return 0;
+        }
+        return append(out -> {
+            out.writeByte(REMOVE_CARD);
+            out.writeInt(cardId);
+        });
+    }
+
+    long modifyCardInfo(Card card) {
+        if (wal == null) {
+            return 0;
+        }
+        return append(out -> {
+            out.writeByte(MODIFY_CARD);
+            out.writeInt(card.getCardId());
+            writeCardInfo(out, card);
+        });
+    }
+
+    long reset() {
+        if (wal == null) {
+            return 0;
+        }
+        return append(out -> out.writeByte(RESET));
+    }
+
+    /* wait until the record with sequence number seq, as returned above, is durable */
+    void await(long seq) throws IOException {
+        if (wal != null && seq > 0) {
+            wal.await(seq);
+        }
+    }
+
+    /* why nothing can be recorded any more, null while the log works */
+    IOException getFailure() {
+        return wal == null ? null : wal.getFailure();
+    }
+
+    /* whether there is anything a new snapshot would compact */
+    boolean hasNewRecords() {
+        return wal != null && (replayed || wal.hasNewRecords());
+    }
+
+    /* see WriteAheadLog#rotate, needs the write lock of the store */
+    long rotate() throws IOException {
+        long generation = wal.rotate();
+        replayed = false;
+        return generation;
+    }
+
+    /* collects the records of a snapshot, see InMemoryLibraryManagementSystem#checkpoint */
+    static final class SnapshotWriter {
+        private final List<byte[]> records = new ArrayList<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(SNAPSHOT_RECORD_SIZE + 1024);
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        SnapshotWriter(int nextBookId, int nextCardId) throws IOException {
+            out.writeByte(NEXT_IDS);
+            out.writeInt(nextBookId);
+            out.writeInt(nextCardId);
+        }
+
+        void book(Book book) throws IOException {
+            out.writeByte(STORE_BOOK);
+            out.writeInt(book.getBookId());
+            writeBookInfo(out, book);
+            out.writeInt(book.getStock());
+            cut();
+        }
+
+        void card(Card card) throws IOException {
+            out.writeByte(REGISTER_CARD);
+            out.writeInt(card.getCardId());
+            writeCardInfo(out, card);
+            cut();
+        }
+
+        /* a loan of card, returnTime 0 if it is open */
+        void loan(int cardId, int bookId, long borrowTime, long returnTime) throws IOException {
+            out.writeByte(LOAN);
+            out.writeInt(cardId);
+            out.writeInt(bookId);
+            out.writeLong(borrowTime);
+            out.writeLong(returnTime);
+            cut();
+        }
+
+        List<byte[]> finish() throws IOException {
+            out.writeByte(END);
+            records.add(bytes.toByteArray());
+            return records;
+        }
+
+        private void cut() {
+            if (bytes.size() >= SNAPSHOT_RECORD_SIZE) {
+                records.add(bytes.toByteArray());
+                bytes.reset();
+            }
+        }
+    }
+
+    /**
+     * take a snapshot and delete what it replaces. the state is copied
+     * under the write lock of the store, the copy is written without it.
+     */
+    void checkpoint() {
+        try {
+            long t0 = System.nanoTime();
+            InMemoryLibraryManagementSystem.Checkpoint checkpoint = store.checkpoint();
+            if (checkpoint == null) {
+                return;
+            }
+            long generation = checkpoint.generation();
+            WriteAheadLog.writeAtomically(WriteAheadLog.file(dir, SNAPSHOT_PREFIX, generation, SNAPSHOT_SUFFIX),
+                    checkpoint.records());
+            for (long g : WriteAheadLog.generations(dir, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+                if (g < generation) {
+                    Files.deleteIfExists(WriteAheadLog.file(dir, SNAPSHOT_PREFIX, g, SNAPSHOT_SUFFIX));
+                }
+            }
+            for (long g : WriteAheadLog.generations(dir, WriteAheadLog.PREFIX, WriteAheadLog.SUFFIX)) {
+                if (g < generation) {
+                    Files.deleteIfExists(WriteAheadLog.file(dir, WriteAheadLog.PREFIX, g, WriteAheadLog.SUFFIX));
+                }
+            }
+            log.info(String.format("Took snapshot %d of the memory database in %d ms.",
+                    generation, (System.nanoTime() - t0) / 1_000_000));
+        } catch (IOException e) {
+            log.severe("Failed to take a snapshot of the memory database: " + e.getMessage());
+        }
+    }
+
+    /* stop the background work and take a last snapshot, so that the next start has no log to replay */
+    @Override
+    public void close() throws IOException {
+        if (wal == null) {
+            return;
+        }
+        if (snapshots != null) {
+            snapshots.shutdown();
+            try {
+                snapshots.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkpoint();
+        wal.close();
+    }
+
+    @FunctionalInterface
+    private interface Encoder {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private long append(Encoder encoder) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            encoder.write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            // cannot happen, it is all in memory
+            throw new UncheckedIOException(e);
+        }
+        return wal.append(bytes.toByteArray());
+    }
+
+    /**
+     * redo the records of one log record or snapshot chunk.
+     *
+     * @return whether it ended with the end of a snapshot
+     */
+    private boolean apply(ByteBuffer in) throws IOException {
+        boolean end = false;
+        while (in.hasRemaining()) {
+            byte type = in.get();
+            end = type == END;
+            switch (type) {
+                case STORE_BOOK: {
+                    int bookId = in.getInt();
+                    Book book = readBookInfo(in);
+                    book.setStock(in.getInt());
+                    store.putBook(bookId, book);
+                    break;
+                }
+                case INC_STOCK:
+                    store.addStock(in.getInt(), in.getInt());
+                    break;
+                case REMOVE_BOOK:
+                    store.dropBook(in.getInt());
+                    break;
+                case MODIFY_BOOK: {
+                    int bookId = in.getInt();
+                    store.setBookInfo(bookId, readBookInfo(in));
+                    break;
+                }
+                case BORROW:
+                    store.openLoan(in.getInt(), in.getInt(), in.getLong());
+                    break;
+                case RETURN:
+                    store.closeLoan(in.getInt(), in.getInt(), in.getLong());
+                    break;
+                case REGISTER_CARD: {
+                    int cardId = in.getInt();
+                    store.putCard(cardId, readCardInfo(in));
+                    break;
+                }
+                case REMOVE_CARD:
+                    store.dropCard(in.getInt());
+                    break;
+                case MODIFY_CARD: {
+                    int cardId = in.getInt();
+                    store.setCardInfo(cardId, readCardInfo(in));
+                    break;
+                }
+                case RESET:
+                    store.clear();
+                    break;
+                case NEXT_IDS:
+                    store.clear();
+                    store.setNextIds(in.getInt(), in.getInt());
+                    break;
+                case LOAN:
+                    store.restoreLoan(in.getInt(), in.getInt(), in.getLong(), in.getLong());
+                    break;
+                case END:
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+        }
+        return end;
+    }
+
+    private static void writeBookInfo(DataOutputStream out, Book book) throws IOException {
+        writeString(out, book.getCategory());
+        writeString(out, book.getTitle());
+        writeString(out, book.getPress());
+        out.writeInt(book.getPublishYear());
+        writeString(out, book.getAuthor());
+        out.writeDouble(book.getPrice());
+    }
+
+    private static Book readBookInfo(ByteBuffer in) {
+        String category = readString(in);
+        String title = readString(in);
+        String press = readString(in);
+        int publishYear = in.getInt();
+        String author = readString(in);
+        double price = in.getDouble();
+        return new Book(category, title, press, publishYear, author, price, 0);
+    }
+
+    private static void writeCardInfo(DataOutputStream out, Card card) throws IOException {
+        writeString(out, card.getName());
+        writeString(out, card.getDepartment());
+        writeString(out, card.getType().name());
+    }
+
+    private static Card readCardInfo(ByteBuffer in) {
+        String name = readString(in);
+        String department = readString(in);
+        return new Card(0, name, department, Card.CardType.valueOf(readString(in)));
+    }
+
+    /* length-prefixed UTF-8, writeUTF stops at 64KB */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+}
@@ -4,8 +4,19 @@ import entities.Borrow;
 import entities.Card;
 import queries.ApiResult;
 import queries.BookQueryConditions;
+import queries.BookQueryResults;
+import queries.BorrowBatchResults;
+import queries.BorrowHistories;
+import queries.BorrowHistoryConditions;
+import queries.BorrowHistoryCursor;
+import queries.ImportSummary;
+import queries.RowSink;
+import queries.RowSource;
+import queries.StatsPeriod;
 
+import java.io.IOException;
 import java.sql.PreparedStatement;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -70,6 +81,51 @@ public interface LibraryManagementSystem {
      */
     ApiResult storeBook(List<Book> books);
 
+    /**
+     * store the books handed out by source, which may be far more than
+     * fit into memory or into one statement.
+     *
+     * if atomic, either all books are stored or, like {@link #storeBook(List)},
+     * none of them. otherwise books that already exist are skipped and the
+     * rest is committed batch by batch, so a failure only loses the books
+     * of the current batch.
+     *
+     * implementations should read and store the books in batches. this
+     * default one collects them first.
+     *
+     * @return an instance of {@link queries.ImportSummary} in ApiResult.payload
+     */
+    default ApiResult importBooks(RowSource<Book> source, boolean atomic) {
+        ImportSummary summary = new ImportSummary(atomic);
+        List<Book> books = new ArrayList<>();
+        try {
+            for (Book book = source.next(); book != null; book = source.next()) {
+                books.add(book);
+            }
+        } catch (IOException e) {
+            return new ApiResult(false, e.getMessage(), summary);
+        }
+        summary.addReceived(books.size());
+        if (atomic) {
+            summary.addBatch();
+            ApiResult result = storeBook(books);
+            if (!result.ok) {
+                return new ApiResult(false, result.message, summary);
+            }
+            summary.addInserted(books.size());
+            return new ApiResult(true, summary);
+        }
+        for (Book book : books) {
+            summary.addBatch();
+            if (storeBook(book).ok) {
+                summary.addInserted(1);
+            } else {
+                summary.addDuplicates(1);
+            }
+        }
+        return new ApiResult(true, summary);
+    }
+
     /**
      * remove this book from library system.
      *
@@ -100,6 +156,11 @@ public interface LibraryManagementSystem {
      *          the risk of SQL injection attack.
      *      (3) [*] if all else is equal, sort by book_id in
      *          ascending order!
+     *      (4) if conditions.pageSize is set, return at most that
+     *          many books. the next page starts after
+     *          conditions.cursor (keyset) or, without a cursor, after
+     *          skipping conditions.offset books. the cursor of the
+     *          next page is returned in BookQueryResults.nextCursor.
      *
      * @param conditions query conditions
      *
@@ -108,6 +169,33 @@ public interface LibraryManagementSystem {
      */
     ApiResult queryBook(BookQueryConditions conditions);
 
+    /**
+     * same as {@link #queryBook(BookQueryConditions)}, but the books are
+     * handed to sink instead of being returned in ApiResult.payload.
+     * sink.begin() is only called once the query has succeeded, so if
+     * a failed result is returned before that, nothing has been written.
+     *
+     * implementations should pass rows on as they are read. this
+     * default one runs the query first and replays the results.
+     */
+    default ApiResult queryBook(BookQueryConditions conditions, RowSink<Book> sink) {
+        ApiResult result = queryBook(conditions);
+        if (!result.ok) {
+            return result;
+        }
+        BookQueryResults results = (BookQueryResults) result.payload;
+        try {
+            sink.begin();
+            for (Book book : results.getResults()) {
+                sink.row(book);
+            }
+            sink.end(results.getNextCursor());
+        } catch (IOException e) {
+            return new ApiResult(false, e.getMessage());
+        }
+        return new ApiResult(true, null);
+    }
+
     /* Interface for borrow & return books */
 
     /**
@@ -128,6 +216,40 @@ public interface LibraryManagementSystem {
      */
     ApiResult returnBook(Borrow borrow);
 
+    /**
+     * borrow a stack of books at once. every item is checked like in
+     * {@link #borrowBook(Borrow)}; the items that pass are committed
+     * together in one transaction, the others are skipped and reported.
+     * this default one borrows the items one by one.
+     *
+     * @return the result of every item should be returned by ApiResult.payload
+     *         and should be an instance of {@link queries.BorrowBatchResults}
+     */
+    default ApiResult borrowBooks(List<Borrow> borrows) {
+        List<BorrowBatchResults.Item> items = new ArrayList<>(borrows.size());
+        for (Borrow borrow : borrows) {
+            ApiResult result = borrowBook(borrow);
+            items.add(new BorrowBatchResults.Item(borrow, result.ok ? null : result.message));
+        }
+        return new ApiResult(true, new BorrowBatchResults(items));
+    }
+
+    /**
+     * return a stack of books at once, the counterpart of
+     * {@link #borrowBooks(List)} for {@link #returnBook(Borrow)}.
+     *
+     * @return the result of every item should be returned by ApiResult.payload
+     *         and should be an instance of {@link queries.BorrowBatchResults}
+     */
+    default ApiResult returnBooks(List<Borrow> borrows) {
+        List<BorrowBatchResults.Item> items = new ArrayList<>(borrows.size());
+        for (Borrow borrow : borrows) {
+            ApiResult result = returnBook(borrow);
+            items.add(new BorrowBatchResults.Item(borrow, result.ok ? null : result.message));
+        }
+        return new ApiResult(true, new BorrowBatchResults(items));
+    }
+
     /**
      * list all borrow histories for a specific card.
      * the returned records should be sorted by borrow_time DESC, book_id ASC
@@ -138,6 +260,108 @@ public interface LibraryManagementSystem {
      */
     ApiResult showBorrowHistory(int cardId);
 
+    /**
+     * same as {@link #showBorrowHistory(int)}, but the records are handed
+     * to sink, see {@link #queryBook(BookQueryConditions, RowSink)}.
+     */
+    default ApiResult showBorrowHistory(int cardId, RowSink<BorrowHistories.Item> sink) {
+        ApiResult result = showBorrowHistory(cardId);
+        if (!result.ok) {
+            return result;
+        }
+        try {
+            sink.begin();
+            for (BorrowHistories.Item item : ((BorrowHistories) result.payload).getItems()) {
+                sink.row(item);
+            }
+            sink.end(null);
+        } catch (IOException e) {
+            return new ApiResult(false, e.getMessage());
+        }
+        return new ApiResult(true, null);
+    }
+
+    /**
+     * the records of a card's borrow history that match conditions,
+     * sorted like {@link #showBorrowHistory(int)}.
+     *
+     * if conditions.pageSize is set, return at most that many records.
+     * the next page starts after conditions.cursor, and its cursor is
+     * returned in BorrowHistories.nextCursor. implementations should
+     * make the cost depend on the page size only, not on the length of
+     * the history. this default one filters the whole history.
+     *
+     * @return query results should be returned by ApiResult.payload
+     *         and should be an instance of {@link queries.BorrowHistories}
+     */
+    default ApiResult showBorrowHistory(int cardId, BorrowHistoryConditions conditions) {
+        Integer pageSize = conditions.getPageSize();
+        if (pageSize != null && pageSize <= 0) {
+            return new ApiResult(false, "pageSize must be positive");
+        }
+        BorrowHistoryCursor cursor;
+        try {
+            cursor = conditions.decodeCursor();
+        } catch (IllegalArgumentException e) {
+            return new ApiResult(false, e.getMessage());
+        }
+        ApiResult result = showBorrowHistory(cardId);
+        if (!result.ok) {
+            return result;
+        }
+        List<BorrowHistories.Item> page = new ArrayList<>();
+        String nextCursor = null;
+        for (BorrowHistories.Item item : ((BorrowHistories) result.payload).getItems()) {
+            if (!conditions.matches(item.getBorrowTime(), item.getReturnTime())
+                    || (cursor != null && !cursor.isBefore(item.getBorrowTime(), item.getBookId()))) {
+                continue;
+            }
+            if (pageSize != null && page.size() == pageSize) {
+                BorrowHistories.Item last = page.get(page.size() - 1);
+                nextCursor = new BorrowHistoryCursor(last.getBorrowTime(), last.getBookId()).encode();
+                break;
+            }
+            page.add(item);
+        }
+        return new ApiResult(true, new BorrowHistories(page, nextCursor));
+    }
+
+    /**
+     * same as {@link #showBorrowHistory(int, BorrowHistoryConditions)}, but
+     * the records are handed to sink, see {@link #queryBook(BookQueryConditions, RowSink)}.
+     */
+    default ApiResult showBorrowHistory(int cardId, BorrowHistoryConditions conditions,
+                                        RowSink<BorrowHistories.Item> sink) {
+        ApiResult result = showBorrowHistory(cardId, conditions);
+        if (!result.ok) {
+            return result;
+        }
+        BorrowHistories histories = (BorrowHistories) result.payload;
+        try {
+            sink.begin();
+            for (BorrowHistories.Item item : histories.getItems()) {
+                sink.row(item);
+            }
+            sink.end(histories.getNextCursor());
+        } catch (IOException e) {
+            return new ApiResult(false, e.getMessage());
+        }
+        return new ApiResult(true, null);
+    }
+
+    /**
+     * the limit most borrowed books and the borrows and returns of every
+     * category in the period (a day, a month, a year or all time) that
+     * contains time. implementations keep counters for this instead of
+     * aggregating the borrow history at query time.
+     *
+     * @return the numbers should be returned by ApiResult.payload
+     *         and should be an instance of {@link queries.BorrowStats}
+     */
+    default ApiResult showBorrowStats(StatsPeriod period, long time, int limit) {
+        return new ApiResult(false, "borrow statistics are not supported");
+    }
+
     /**
      * create a new borrow card. do nothing and return failed if
      * the card already exists.
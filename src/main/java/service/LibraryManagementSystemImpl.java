@@ -3,30 +3,124 @@ import entities.Book;
 import entities.Borrow;
 import entities.Card;
 import queries.*;
+import utils.BorrowStrategy;
+import utils.CacheConfig;
 import utils.DBInitializer;
 import utils.DatabaseConnector;
+import utils.PooledConnection;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
 
 public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
+    private static final Logger log = Logger.getLogger(LibraryManagementSystemImpl.class.getName());
+    /* max book_ids in one IN list when loading books missing from the cache */
+    private static final int RESOLVE_BATCH_SIZE = 500;
+    /* an import logs its progress every this many batches */
+    private static final int IMPORT_LOG_INTERVAL = 100;
+    /* book_ids per query when the statistics are rebuilt */
+    private static final int STATS_CHUNK_SIZE = 5000;
+
     private final DatabaseConnector connector;
+    /* null if fuzzy conditions are always matched with LIKE */
+    private final BookTextIndex textIndex;
+    private final int maxIndexCandidates;
+    private final BorrowStrategy borrowStrategy;
+    /* null if book metadata is always read from the database */
+    private final BookCache bookCache;
+    /* null if borrow statistics are not kept */
+    private final BorrowStatistics statistics;
+    private final int maxBindParameters;
+    /* books per statement of an import, within the parameter limit */
+    private final int importBatchSize;
+    private final TransactionRetry retry;
 
     public LibraryManagementSystemImpl(DatabaseConnector connector) {
+        this(connector, connector.getConf().getSearch().isNgramIndex());
+    }
+
+    public LibraryManagementSystemImpl(DatabaseConnector connector, boolean useTextIndex) {
+        this(connector, useTextIndex, connector.getConf().getService().getBorrowStrategy());
+    }
+
+    public LibraryManagementSystemImpl(DatabaseConnector connector, boolean useTextIndex,
+                                       BorrowStrategy borrowStrategy) {
         this.connector = connector;
+        this.textIndex = useTextIndex ? new BookTextIndex() : null;
+        this.maxIndexCandidates = connector.getConf().getSearch().getMaxCandidates();
+        this.borrowStrategy = borrowStrategy;
+        CacheConfig cacheConf = connector.getConf().getCache();
+        this.bookCache = cacheConf.isEnabled() ? new BookCache(cacheConf) : null;
+        this.statistics = connector.getConf().getService().isStatistics() ? new BorrowStatistics() : null;
+        this.maxBindParameters = connector.getConf().getType().maxBindParameters();
+        this.importBatchSize = Math.min(connector.getConf().getService().getImportBatchSize(),
+                maxBindParameters / 7);
+        this.retry = new TransactionRetry(connector.getConf().getType(), connector.getConf().getService());
+    }
+
+    /* null if the cache is disabled */
+    public BookCache getBookCache() {
+        return bookCache;
+    }
+
+    public TransactionRetry getTransactionRetry() {
+        return retry;
+    }
+
+    /**
+     * load title, press and author of all books into the trigram index.
+     * until this is done (or the database is reset) fuzzy conditions
+     * are matched with LIKE.
+     */
+    public ApiResult buildTextIndex() {
+        if (textIndex == null) {
+            return new ApiResult(false, "text index is disabled");
+        }
+        return execute(conn -> {
+            textIndex.rebuild(() -> {
+                List<Book> books = new ArrayList<>();
+                try (PreparedStatement stmt = conn.getConnection().prepareStatement(
+                        "SELECT book_id, title, press, author FROM book")) {
+                    ResultSet rs = stmt.executeQuery();
+                    while (rs.next()) {
+                        Book book = new Book();
+                        book.setBookId(rs.getInt("book_id"));
+                        book.setTitle(rs.getString("title"));
+                        book.setPress(rs.getString("press"));
+                        book.setAuthor(rs.getString("author"));
+                        books.add(book);
+                    }
+                }
+                return books;
+            });
+            return new ApiResult(true, null);
+        });
     }
 
     @Override
     public ApiResult storeBook(Book book) {
-        Connection conn = connector.getConn();
-
-        try {
+        return execute(conn -> {
             // first check if the book already exists
             // we assume that two books are equal iff their category...author are equal
             String checkSql = "SELECT count(*) FROM book WHERE category = ? AND title = ? AND press = ? AND publish_year = ? AND author = ?";
-            PreparedStatement checkStmt = conn.prepareStatement(checkSql);
+            PreparedStatement checkStmt = conn.prepare(checkSql);
             checkStmt.setString(1, book.getCategory());
             checkStmt.setString(2, book.getTitle());
             checkStmt.setString(3, book.getPress());
@@ -39,7 +133,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // if the book does not exist, insert it
             String insertSql = "INSERT INTO book (category, title, press, publish_year, author, price, stock) VALUES (?, ?, ?, ?, ?, ?, ?)";
-            PreparedStatement insertStmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS);
+            PreparedStatement insertStmt = conn.prepare(insertSql, Statement.RETURN_GENERATED_KEYS);
             insertStmt.setString(1, book.getCategory());
             insertStmt.setString(2, book.getTitle());
             insertStmt.setString(3, book.getPress());
@@ -56,20 +150,23 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             }
 
             commit(conn);
+            if (bookCache != null) {
+                // a new id, unless auto-increment was reset after the book was cached
+                bookCache.invalidate(book.getBookId());
+            }
+            if (textIndex != null) {
+                textIndex.put(book);
+            }
             return new ApiResult(true, null);
-        } catch (Exception e) {
-            rollback(conn);
-            return new ApiResult(false, e.getMessage());
-        }
+        });
     }
 
     @Override
     public ApiResult incBookStock(int bookId, int deltaStock) {
-        Connection conn = connector.getConn();
-        try {
+        return execute(conn -> {
             // lock the row
             String checkSql = "SELECT stock FROM book WHERE book_id = ? FOR UPDATE";
-            PreparedStatement checkStmt = conn.prepareStatement(checkSql);
+            PreparedStatement checkStmt = conn.prepare(checkSql);
             checkStmt.setInt(1, bookId);
             
             ResultSet rs = checkStmt.executeQuery();
@@ -89,7 +186,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             
             // update the stock
             String updateSql = "UPDATE book SET stock = ? WHERE book_id = ?";
-            PreparedStatement updateStmt = conn.prepareStatement(updateSql);
+            PreparedStatement updateStmt = conn.prepare(updateSql);
             updateStmt.setInt(1, newStock);
             updateStmt.setInt(2, bookId);
             
@@ -98,10 +195,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             commit(conn);
             return new ApiResult(true, null);
             
-        } catch (Exception e) {
-            rollback(conn);
-            return new ApiResult(false, e.getMessage());
-        }
+        });
     }
 
     @Override
@@ -109,75 +203,242 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
         if (books == null || books.isEmpty()) {
             return new ApiResult(true, null);
         }
+        Iterator<Book> it = books.iterator();
+        ApiResult result = importBooks(() -> it.hasNext() ? it.next() : null, true);
+        return result.ok ? new ApiResult(true, null) : new ApiResult(false, result.message);
+    }
 
-        Connection conn = connector.getConn();
-        try {
-            // check duplicate books
-            StringBuilder checkSql = new StringBuilder(
-                "SELECT COUNT(*) FROM book WHERE (category, title, press, publish_year, author) IN ("
-            );
-            for (int i = 0; i < books.size(); i++) {
-                if (i > 0) checkSql.append(",");
-                checkSql.append("(?, ?, ?, ?, ?)");
+    @Override
+    public ApiResult importBooks(RowSource<Book> source, boolean atomic) {
+        ImportSummary summary = new ImportSummary(atomic);
+        return executeOnce(conn -> {
+            List<Book> batch = new ArrayList<>(importBatchSize);
+            // ids of the books stored by an atomic import, applied to the cache and index
+            // after commit. the books themselves are dropped with their batch
+            IntStream.Builder stored = IntStream.builder();
+            long pending = 0;
+            try {
+                for (Book book = source.next(); book != null; book = source.next()) {
+                    summary.addReceived(1);
+                    batch.add(book);
+                    if (batch.size() == importBatchSize) {
+                        if (!importBatch(conn, batch, atomic, summary, stored)) {
+                            rollback(conn);
+                            return new ApiResult(false, "新增图书与已存在图书重复", summary);
+                        }
+                        pending += atomic ? batch.size() : 0;
+                        batch.clear();
+                        if (summary.getBatches() % IMPORT_LOG_INTERVAL == 0) {
+                            log.info("Importing books: " + summary);
+                        }
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    if (!importBatch(conn, batch, atomic, summary, stored)) {
+                        rollback(conn);
+                        return new ApiResult(false, "新增图书与已存在图书重复", summary);
+                    }
+                    pending += atomic ? batch.size() : 0;
+                }
+            } catch (IOException | SQLException e) {
+                // a non-atomic import keeps the batches committed so far
+                rollback(conn);
+                return new ApiResult(false, e.getMessage(), summary);
+            }
+            if (atomic) {
+                commit(conn);
+                summary.addInserted(pending);
+                booksStored(conn, stored.build().toArray());
             }
-            checkSql.append(")");
+            log.info("Imported books: " + summary);
+            return new ApiResult(true, summary);
+        });
+    }
 
-            PreparedStatement checkStmt = conn.prepareStatement(checkSql.toString());
-            int paramIndex = 1;
-            for (Book book : books) {
-                checkStmt.setString(paramIndex++, book.getCategory());
-                checkStmt.setString(paramIndex++, book.getTitle());
-                checkStmt.setString(paramIndex++, book.getPress());
-                checkStmt.setInt(paramIndex++, book.getPublishYear());
-                checkStmt.setString(paramIndex++, book.getAuthor());
+    /**
+     * store one batch of an import. duplicates are looked up for the whole
+     * batch at once and the remaining books are inserted with one statement.
+     *
+     * @return false if the import is atomic and a book is a duplicate,
+     *         in which case nothing has been inserted
+     */
+    private boolean importBatch(PooledConnection conn, List<Book> batch, boolean atomic,
+                                ImportSummary summary, IntStream.Builder stored) throws SQLException {
+        summary.addBatch();
+        Set<BookKey> existing = findExistingBooks(conn, batch);
+        Set<BookKey> seen = new HashSet<>();
+        List<Book> fresh = new ArrayList<>(batch.size());
+        for (Book book : batch) {
+            BookKey key = BookKey.of(book);
+            if (!existing.contains(key) && seen.add(key)) {
+                fresh.add(book);
             }
+        }
+        summary.addDuplicates(batch.size() - fresh.size());
+        if (atomic) {
+            if (fresh.size() < batch.size()) {
+                return false;
+            }
+            insertBooks(conn, fresh);
+            fresh.forEach(b -> stored.add(b.getBookId()));
+            return true;
+        }
+        if (!fresh.isEmpty()) {
+            try {
+                insertBooks(conn, fresh);
+                conn.getConnection().commit();
+            } catch (SQLException e) {
+                // e.g. inserted concurrently, or equal to another book under the
+                // column collation. find the offending books one at a time
+                rollback(conn);
+                fresh = insertBooksOneByOne(conn, fresh, summary);
+            }
+        }
+        summary.addInserted(fresh.size());
+        booksStored(fresh);
+        return true;
+    }
 
-            ResultSet rs = checkStmt.executeQuery();
-            if (rs.next() && rs.getInt(1) > 0) {
+    private List<Book> insertBooksOneByOne(PooledConnection conn, List<Book> books,
+                                           ImportSummary summary) {
+        List<Book> inserted = new ArrayList<>();
+        for (Book book : books) {
+            try {
+                insertBooks(conn, List.of(book));
+                conn.getConnection().commit();
+                inserted.add(book);
+            } catch (SQLException e) {
                 rollback(conn);
-                return new ApiResult(false, "新增图书与已存在图书重复");
+                summary.addFailed(1);
             }
+        }
+        return inserted;
+    }
 
-            // bulk insert books
-            String insertSql = "INSERT INTO book (category, title, press, publish_year, author, price, stock) " +
-                              "VALUES (?, ?, ?, ?, ?, ?, ?)";
-            PreparedStatement insertStmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS);
+    /* the keys among books that are already stored */
+    private Set<BookKey> findExistingBooks(PooledConnection conn, List<Book> books) throws SQLException {
+        Set<BookKey> existing = new HashSet<>();
+        int chunkSize = maxBindParameters / 5;
+        for (int from = 0; from < books.size(); from += chunkSize) {
+            List<Book> chunk = books.subList(from, Math.min(books.size(), from + chunkSize));
+            StringBuilder sql = new StringBuilder("SELECT category, title, press, publish_year, author FROM book " +
+                    "WHERE (category, title, press, publish_year, author) IN (");
+            for (int i = 0; i < chunk.size(); i++) {
+                sql.append(i > 0 ? ", (?, ?, ?, ?, ?)" : "(?, ?, ?, ?, ?)");
+            }
+            sql.append(")");
+            PreparedStatement stmt = prepareBatch(conn, sql.toString(), chunk.size(), Statement.NO_GENERATED_KEYS);
+            try {
+                int paramIndex = 1;
+                for (Book book : chunk) {
+                    stmt.setString(paramIndex++, book.getCategory());
+                    stmt.setString(paramIndex++, book.getTitle());
+                    stmt.setString(paramIndex++, book.getPress());
+                    stmt.setInt(paramIndex++, book.getPublishYear());
+                    stmt.setString(paramIndex++, book.getAuthor());
+                }
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    existing.add(new BookKey(rs.getString(1), rs.getString(2), rs.getString(3),
+                            rs.getInt(4), rs.getString(5)));
+                }
+            } finally {
+                releaseBatch(stmt, chunk.size());
+            }
+        }
+        return existing;
+    }
 
+    /* one multi-row INSERT, stores the generated book_ids into books */
+    private void insertBooks(PooledConnection conn, List<Book> books) throws SQLException {
+        StringBuilder sql = new StringBuilder(
+                "INSERT INTO book (category, title, press, publish_year, author, price, stock) VALUES ");
+        for (int i = 0; i < books.size(); i++) {
+            sql.append(i > 0 ? ", (?, ?, ?, ?, ?, ?, ?)" : "(?, ?, ?, ?, ?, ?, ?)");
+        }
+        PreparedStatement stmt = prepareBatch(conn, sql.toString(), books.size(), Statement.RETURN_GENERATED_KEYS);
+        try {
+            int paramIndex = 1;
             for (Book book : books) {
-                insertStmt.setString(1, book.getCategory());
-                insertStmt.setString(2, book.getTitle());
-                insertStmt.setString(3, book.getPress());
-                insertStmt.setInt(4, book.getPublishYear());
-                insertStmt.setString(5, book.getAuthor());
-                insertStmt.setDouble(6, book.getPrice());
-                insertStmt.setInt(7, book.getStock());
-                insertStmt.addBatch();
+                stmt.setString(paramIndex++, book.getCategory());
+                stmt.setString(paramIndex++, book.getTitle());
+                stmt.setString(paramIndex++, book.getPress());
+                stmt.setInt(paramIndex++, book.getPublishYear());
+                stmt.setString(paramIndex++, book.getAuthor());
+                stmt.setDouble(paramIndex++, book.getPrice());
+                stmt.setInt(paramIndex++, book.getStock());
             }
-
-            insertStmt.executeBatch();
-
-            ResultSet generatedKeys = insertStmt.getGeneratedKeys();
+            stmt.executeUpdate();
+            ResultSet keys = stmt.getGeneratedKeys();
             int i = 0;
-            while (generatedKeys.next()) {
-                books.get(i++).setBookId(generatedKeys.getInt(1));
+            while (keys.next() && i < books.size()) {
+                books.get(i++).setBookId(keys.getInt(1));
             }
+        } finally {
+            releaseBatch(stmt, books.size());
+        }
+    }
 
-            commit(conn);
-            return new ApiResult(true, null);
+    /* statements for a full import batch have the same text every time, so only those are cached */
+    private PreparedStatement prepareBatch(PooledConnection conn, String sql, int rows,
+                                           int autoGeneratedKeys) throws SQLException {
+        if (rows == importBatchSize) {
+            return conn.prepare(sql, autoGeneratedKeys);
+        }
+        return conn.getConnection().prepareStatement(sql, autoGeneratedKeys);
+    }
 
-        } catch (Exception e) {
-            rollback(conn);
-            return new ApiResult(false, e.getMessage());
+    private void releaseBatch(PreparedStatement stmt, int rows) throws SQLException {
+        if (rows != importBatchSize) {
+            stmt.close();
+        }
+    }
+
+    /* apply committed new books to the cache and the index */
+    private void booksStored(List<Book> books) {
+        if (bookCache != null) {
+            // new ids, unless auto-increment was reset after the books were cached
+            books.forEach(b -> bookCache.invalidate(b.getBookId()));
+        }
+        if (textIndex != null) {
+            textIndex.putAll(books);
+        }
+    }
+
+    /**
+     * apply the books of a committed atomic import to the cache and the
+     * index. the index needs their text, which is read back in chunks, so
+     * the import never holds more than a batch of books. if that fails the
+     * index is dropped and fuzzy conditions are matched with LIKE until it
+     * is built again.
+     */
+    private void booksStored(PooledConnection conn, int[] bookIds) {
+        if (bookCache != null) {
+            // new ids, unless auto-increment was reset after the books were cached
+            for (int bookId : bookIds) {
+                bookCache.invalidate(bookId);
+            }
+        }
+        if (textIndex == null || !textIndex.isReady()) {
+            return;
+        }
+        try {
+            for (int from = 0; from < bookIds.length; from += RESOLVE_BATCH_SIZE) {
+                int[] chunk = Arrays.copyOfRange(bookIds, from, Math.min(bookIds.length, from + RESOLVE_BATCH_SIZE));
+                textIndex.putAll(new ArrayList<>(loadBooks(conn, chunk).values()));
+            }
+        } catch (SQLException e) {
+            log.warning("Failed to index imported books, fuzzy search uses LIKE: " + e.getMessage());
+            textIndex.invalidate();
         }
     }
 
     @Override
     public ApiResult removeBook(int bookId) {
-        Connection conn = connector.getConn();
-        try {
+        return execute(conn -> {
             // check if the book exists
             String checkBookSql = "SELECT book_id FROM book WHERE book_id = ?";
-            PreparedStatement checkBookStmt = conn.prepareStatement(checkBookSql);
+            PreparedStatement checkBookStmt = conn.prepare(checkBookSql);
             checkBookStmt.setInt(1, bookId);
             ResultSet bookRs = checkBookStmt.executeQuery();
             if (!bookRs.next()) {
@@ -187,7 +448,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // check if the book has unreturned records
             String checkBorrowSql = "SELECT COUNT(*) FROM borrow WHERE book_id = ? AND return_time = 0";
-            PreparedStatement checkBorrowStmt = conn.prepareStatement(checkBorrowSql);
+            PreparedStatement checkBorrowStmt = conn.prepare(checkBorrowSql);
             checkBorrowStmt.setInt(1, bookId);
             ResultSet borrowRs = checkBorrowStmt.executeQuery();
             if (borrowRs.next() && borrowRs.getInt(1) > 0) {
@@ -197,25 +458,30 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // remove the book
             String deleteBookSql = "DELETE FROM book WHERE book_id = ?";
-            PreparedStatement deleteBookStmt = conn.prepareStatement(deleteBookSql);
+            PreparedStatement deleteBookStmt = conn.prepare(deleteBookSql);
             deleteBookStmt.setInt(1, bookId);
             deleteBookStmt.executeUpdate();
 
             commit(conn);
+            if (bookCache != null) {
+                bookCache.invalidate(bookId);
+            }
+            if (textIndex != null) {
+                textIndex.remove(bookId);
+            }
+            if (statistics != null) {
+                statistics.removeBook(bookId);
+            }
             return new ApiResult(true, null);
-        } catch (Exception e) {
-            rollback(conn);
-            return new ApiResult(false, e.getMessage());
-        }
+        });
     }
 
     @Override
     public ApiResult modifyBookInfo(Book book) {
-        Connection conn = connector.getConn();
-        try {
+        return execute(conn -> {
             // 检查图书是否存在
             String checkExistSql = "SELECT stock FROM book WHERE book_id = ? FOR UPDATE";
-            PreparedStatement checkExistStmt = conn.prepareStatement(checkExistSql);
+            PreparedStatement checkExistStmt = conn.prepare(checkExistSql);
             checkExistStmt.setInt(1, book.getBookId());
             ResultSet existRs = checkExistStmt.executeQuery();
             if (!existRs.next()) {
@@ -225,7 +491,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // 检查修改后的信息是否与其他图书重复
             String checkDupSql = "SELECT count(*) FROM book WHERE category = ? AND title = ? AND press = ? AND publish_year = ? AND author = ? AND book_id != ?";
-            PreparedStatement checkDupStmt = conn.prepareStatement(checkDupSql);
+            PreparedStatement checkDupStmt = conn.prepare(checkDupSql);
             checkDupStmt.setString(1, book.getCategory());
             checkDupStmt.setString(2, book.getTitle());
             checkDupStmt.setString(3, book.getPress());
@@ -240,7 +506,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // 更新图书信息(不修改book_id和stock)
             String updateSql = "UPDATE book SET category = ?, title = ?, press = ?, publish_year = ?, author = ?, price = ? WHERE book_id = ?";
-            PreparedStatement updateStmt = conn.prepareStatement(updateSql);
+            PreparedStatement updateStmt = conn.prepare(updateSql);
             updateStmt.setString(1, book.getCategory());
             updateStmt.setString(2, book.getTitle());
             updateStmt.setString(3, book.getPress());
@@ -251,20 +517,45 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             updateStmt.executeUpdate();
 
             commit(conn);
+            if (bookCache != null) {
+                bookCache.invalidate(book.getBookId());
+            }
+            if (textIndex != null) {
+                textIndex.put(book);
+            }
             return new ApiResult(true, null);
-        } catch (Exception e) {
-            rollback(conn);
-            return new ApiResult(false, e.getMessage());
-        }
+        });
     }
 
     @Override
     public ApiResult queryBook(BookQueryConditions conditions) {
-        try {
+        RowCollector<Book> books = new RowCollector<>();
+        ApiResult result = queryBook(conditions, books);
+        if (!result.ok) {
+            return result;
+        }
+        return new ApiResult(true, new BookQueryResults(books.rows, books.nextCursor));
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, RowSink<Book> sink) {
+        // narrow fuzzy conditions to candidate book_ids with the trigram index
+        int[] candidates = matchTextIndex(conditions);
+        return executeOnce(conn -> {
+            // read before the first query, see BookCache.put
+            long generation = bookCache == null ? 0 : bookCache.generation();
+            Integer pageSize = conditions.getPageSize();
+            if ((pageSize != null && pageSize <= 0) || (conditions.getOffset() != null && conditions.getOffset() < 0)) {
+                return new ApiResult(false, "pageSize must be positive and offset must not be negative");
+            }
+            // an unpaged query streams whole rows, resolving it through the cache
+            // would hold every id in memory and flush the cache with the scan
+            boolean cached = bookCache != null && pageSize != null;
             StringBuilder sql = new StringBuilder();
             List<Object> params = new ArrayList<>();
             
-            sql.append("SELECT * FROM book WHERE 1=1 ");
+            // with the cache only the stock has to come from the database
+            sql.append(cached ? "SELECT book_id, stock FROM book WHERE 1=1 " : "SELECT * FROM book WHERE 1=1 ");
             
             // conditions
             if (conditions.getCategory() != null) {
@@ -305,6 +596,39 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 params.add(conditions.getMaxPrice());
             }
 
+            // the LIKEs above still decide, the candidates only spare the scan
+            if (candidates != null) {
+                sql.append("AND book_id IN (");
+                for (int i = 0; i < candidates.length; i++) {
+                    sql.append(i > 0 ? ", ?" : "?");
+                    params.add(candidates[i]);
+                }
+                sql.append(") ");
+            }
+
+            // keyset pagination: continue right after the last row of the previous page
+            Book.SortColumn sortBy = conditions.getSortBy() == null ? Book.SortColumn.BOOK_ID : conditions.getSortBy();
+            SortOrder sortOrder = conditions.getSortOrder() == SortOrder.ASC ? SortOrder.ASC : SortOrder.DESC;
+            if (conditions.getCursor() != null) {
+                BookQueryCursor cursor = BookQueryCursor.decode(conditions.getCursor());
+                if (cursor.getSortBy() != sortBy || cursor.getSortOrder() != sortOrder) {
+                    return new ApiResult(false, "cursor does not match the sort order");
+                }
+                String op = sortOrder == SortOrder.ASC ? ">" : "<";
+                if (sortBy == Book.SortColumn.BOOK_ID) {
+                    sql.append("AND book_id ").append(op).append(" ? ");
+                    params.add(cursor.getBookId());
+                } else {
+                    // ties on the sort column are broken by book_id ASC, see ORDER BY below
+                    String column = sortBy.getValue();
+                    sql.append("AND (").append(column).append(" ").append(op).append(" ? OR (")
+                            .append(column).append(" = ? AND book_id > ?)) ");
+                    params.add(cursor.getSortValue());
+                    params.add(cursor.getSortValue());
+                    params.add(cursor.getBookId());
+                }
+            }
+
             sql.append("ORDER BY ");
             if (conditions.getSortBy() != null) {
                 switch (conditions.getSortBy()) {
@@ -345,45 +669,92 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             if (conditions.getSortBy() != Book.SortColumn.BOOK_ID) {
                 sql.append(", book_id ASC");
             }
+
+            // fetch one extra row to know whether there is a next page
+            if (pageSize != null) {
+                int offset = conditions.getCursor() == null && conditions.getOffset() != null ? conditions.getOffset() : 0;
+                sql.append(connector.getConf().getType().limitClause(pageSize + 1, offset));
+            }
             
-            try (PreparedStatement stmt = connector.getConn().prepareStatement(sql.toString())) {
+            try (PreparedStatement stmt = conn.getConnection().prepareStatement(sql.toString())) {
+                stmt.setFetchSize(connector.getConf().getType().streamingFetchSize());
                 // set parameters
                 for (int i = 0; i < params.size(); i++) {
                     stmt.setObject(i + 1, params.get(i));
                 }
-                
-                ResultSet rs = stmt.executeQuery();
-                List<Book> books = new ArrayList<>();
-                while (rs.next()) {
-                    Book book = new Book();
-                    book.setBookId(rs.getInt("book_id"));
-                    book.setCategory(rs.getString("category"));
-                    book.setTitle(rs.getString("title"));
-                    book.setPress(rs.getString("press"));
-                    book.setPublishYear(rs.getInt("publish_year"));
-                    book.setAuthor(rs.getString("author"));
-                    book.setPrice(rs.getDouble("price"));
-                    book.setStock(rs.getInt("stock"));
-                    books.add(book);
+
+                BookReader reader;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!cached) {
+                        emitBooks(() -> rs.next() ? readBook(rs) : null, pageSize, sortBy, sortOrder, sink);
+                        return new ApiResult(true, null);
+                    }
+                    IntStream.Builder ids = IntStream.builder();
+                    IntStream.Builder stocks = IntStream.builder();
+                    while (rs.next()) {
+                        ids.add(rs.getInt("book_id"));
+                        stocks.add(rs.getInt("stock"));
+                    }
+                    int[] bookIds = ids.build().toArray();
+                    int[] bookStocks = stocks.build().toArray();
+                    Map<Integer, Book> books = resolveBooks(conn, bookIds, generation);
+                    int[] next = {0};
+                    reader = () -> {
+                        while (next[0] < bookIds.length) {
+                            // null if the book was deleted in between, without a consistent snapshot
+                            Book book = books.get(bookIds[next[0]]);
+                            int stock = bookStocks[next[0]++];
+                            if (book != null) {
+                                book.setStock(stock);
+                                return book;
+                            }
+                        }
+                        return null;
+                    };
                 }
-                
-                BookQueryResults results = new BookQueryResults(books);
-                
-                return new ApiResult(true, results);
+                emitBooks(reader, pageSize, sortBy, sortOrder, sink);
+                return new ApiResult(true, null);
             }
             
-        } catch (Exception e) {
-            return new ApiResult(false, e.getMessage());
+        });
+    }
+
+    /* reads the next book of a query, null after the last one */
+    @FunctionalInterface
+    private interface BookReader {
+        Book next() throws SQLException;
+    }
+
+    /* hand at most pageSize books to sink, and the cursor if there are more */
+    private static void emitBooks(BookReader reader, Integer pageSize, Book.SortColumn sortBy,
+                                  SortOrder sortOrder, RowSink<Book> sink) throws SQLException, IOException {
+        sink.begin();
+        Book last = null;
+        int count = 0;
+        String nextCursor = null;
+        Book book;
+        while ((book = reader.next()) != null) {
+            if (pageSize != null && count == pageSize) {
+                // the extra row only tells that there is a next page
+                nextCursor = BookQueryCursor.after(last, sortBy, sortOrder).encode();
+                break;
+            }
+            last = book;
+            sink.row(book);
+            count++;
         }
+        sink.end(nextCursor);
     }
 
     @Override
     public ApiResult borrowBook(Borrow borrow) {
-        Connection conn = connector.getConn();
-        try {
+        if (borrowStrategy == BorrowStrategy.CONDITIONAL) {
+            return borrowBookConditional(borrow);
+        }
+        return execute(conn -> {
 
             String checkCardSql = "SELECT card_id FROM card WHERE card_id = ?";
-            PreparedStatement checkCardStmt = conn.prepareStatement(checkCardSql);
+            PreparedStatement checkCardStmt = conn.prepare(checkCardSql);
             checkCardStmt.setInt(1, borrow.getCardId());
             ResultSet cardRs = checkCardStmt.executeQuery();
             if (!cardRs.next()) {
@@ -391,8 +762,8 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 return new ApiResult(false, "此卡不存在");
             }
 
-            String checkBookSql = "SELECT stock FROM book WHERE book_id = ? FOR UPDATE";
-            PreparedStatement checkBookStmt = conn.prepareStatement(checkBookSql);
+            String checkBookSql = "SELECT stock, category FROM book WHERE book_id = ? FOR UPDATE";
+            PreparedStatement checkBookStmt = conn.prepare(checkBookSql);
             checkBookStmt.setInt(1, borrow.getBookId());
             ResultSet bookRs = checkBookStmt.executeQuery();
             if (!bookRs.next()) {
@@ -407,7 +778,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // check if the book has been borrowed
             String checkBorrowSql = "SELECT return_time FROM borrow WHERE card_id = ? AND book_id = ? AND return_time = 0";
-            PreparedStatement checkBorrowStmt = conn.prepareStatement(checkBorrowSql);
+            PreparedStatement checkBorrowStmt = conn.prepare(checkBorrowSql);
             checkBorrowStmt.setInt(1, borrow.getCardId());
             checkBorrowStmt.setInt(2, borrow.getBookId());
             ResultSet borrowRs = checkBorrowStmt.executeQuery();
@@ -418,7 +789,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // insert the borrow record
             String insertSql = "INSERT INTO borrow (card_id, book_id, borrow_time, return_time) VALUES (?, ?, ?, 0)";
-            PreparedStatement insertStmt = conn.prepareStatement(insertSql);
+            PreparedStatement insertStmt = conn.prepare(insertSql);
             insertStmt.setInt(1, borrow.getCardId());
             insertStmt.setInt(2, borrow.getBookId());
             insertStmt.setLong(3, borrow.getBorrowTime());
@@ -426,25 +797,96 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // update the stock
             String updateStockSql = "UPDATE book SET stock = stock - 1 WHERE book_id = ?";
-            PreparedStatement updateStockStmt = conn.prepareStatement(updateStockSql);
+            PreparedStatement updateStockStmt = conn.prepare(updateStockSql);
             updateStockStmt.setInt(1, borrow.getBookId());
             updateStockStmt.executeUpdate();
 
             commit(conn);
+            countBorrow(conn, borrow.getBookId(), bookRs.getString("category"), borrow.getBorrowTime());
             return new ApiResult(true, null);
-        } catch (Exception e) {
-            rollback(conn);
-            return new ApiResult(false, e.getMessage());
+        });
+    }
+
+    /*
+     * reserve a copy with one conditional UPDATE, which also checks the card
+     * and the open loans, so the book row is only locked for the UPDATE, the
+     * INSERT and the commit. the checks are repeated one by one only when
+     * nothing was updated, to pick the same message as the locking path.
+     */
+    private ApiResult borrowBookConditional(Borrow borrow) {
+        return execute(conn -> {
+            String where = "book_id = ? AND stock > 0" +
+                    " AND EXISTS (SELECT 1 FROM card WHERE card_id = ?)" +
+                    " AND NOT EXISTS (SELECT 1 FROM borrow WHERE card_id = ? AND book_id = ? AND return_time = 0)";
+            // the statistics need the category, read with the UPDATE where the dialect allows
+            String returningSql = statistics == null ? null
+                    : connector.getConf().getType().updateReturning("book", "stock = stock - 1", where, "category");
+            String reserveSql = returningSql != null ? returningSql : "UPDATE book SET stock = stock - 1 WHERE " + where;
+            PreparedStatement reserveStmt = conn.prepare(reserveSql);
+            reserveStmt.setInt(1, borrow.getBookId());
+            reserveStmt.setInt(2, borrow.getCardId());
+            reserveStmt.setInt(3, borrow.getCardId());
+            reserveStmt.setInt(4, borrow.getBookId());
+            String category = null;
+            boolean reserved;
+            if (returningSql != null) {
+                ResultSet reservedRs = reserveStmt.executeQuery();
+                reserved = reservedRs.next();
+                category = reserved ? reservedRs.getString(1) : null;
+            } else {
+                reserved = reserveStmt.executeUpdate() > 0;
+            }
+            if (!reserved) {
+                rollback(conn);
+                return new ApiResult(false, borrowFailure(conn, borrow));
+            }
+
+            String insertSql = "INSERT INTO borrow (card_id, book_id, borrow_time, return_time) VALUES (?, ?, ?, 0)";
+            PreparedStatement insertStmt = conn.prepare(insertSql);
+            insertStmt.setInt(1, borrow.getCardId());
+            insertStmt.setInt(2, borrow.getBookId());
+            insertStmt.setLong(3, borrow.getBorrowTime());
+            insertStmt.executeUpdate();
+
+            commit(conn);
+            countBorrow(conn, borrow.getBookId(), category, borrow.getBorrowTime());
+            return new ApiResult(true, null);
+        });
+    }
+
+    /* why the conditional UPDATE of borrowBookConditional matched no row */
+    private String borrowFailure(PooledConnection conn, Borrow borrow) throws SQLException {
+        PreparedStatement checkCardStmt = conn.prepare("SELECT card_id FROM card WHERE card_id = ?");
+        checkCardStmt.setInt(1, borrow.getCardId());
+        if (!checkCardStmt.executeQuery().next()) {
+            return "此卡不存在";
+        }
+        PreparedStatement checkBookStmt = conn.prepare("SELECT stock FROM book WHERE book_id = ?");
+        checkBookStmt.setInt(1, borrow.getBookId());
+        ResultSet bookRs = checkBookStmt.executeQuery();
+        if (!bookRs.next()) {
+            return "图书不存在";
+        }
+        if (bookRs.getInt("stock") <= 0) {
+            return "图书库存不足";
         }
+        PreparedStatement checkBorrowStmt = conn.prepare(
+                "SELECT return_time FROM borrow WHERE card_id = ? AND book_id = ? AND return_time = 0");
+        checkBorrowStmt.setInt(1, borrow.getCardId());
+        checkBorrowStmt.setInt(2, borrow.getBookId());
+        if (checkBorrowStmt.executeQuery().next()) {
+            return "图书已被此卡借出，不能重复借书";
+        }
+        /* a copy was returned in the meantime, the UPDATE saw no stock */
+        return "图书库存不足";
     }
 
     @Override
     public ApiResult returnBook(Borrow borrow) {
-        Connection conn = connector.getConn();
-        try {
+        return execute(conn -> {
             // check if the borrow record exists
             String checkBorrowSql = "SELECT borrow_time FROM borrow WHERE card_id = ? AND book_id = ? AND return_time = 0";
-            PreparedStatement checkBorrowStmt = conn.prepareStatement(checkBorrowSql);
+            PreparedStatement checkBorrowStmt = conn.prepare(checkBorrowSql);
             checkBorrowStmt.setInt(1, borrow.getCardId());
             checkBorrowStmt.setInt(2, borrow.getBookId());
             ResultSet borrowRs = checkBorrowStmt.executeQuery();
@@ -460,93 +902,573 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
                 return new ApiResult(false, "归还时间无效");
             }
 
-            // update the borrow record
-            String updateBorrowSql = "UPDATE borrow SET return_time = ? WHERE card_id = ? AND book_id = ? AND borrow_time = ?";
-            PreparedStatement updateBorrowStmt = conn.prepareStatement(updateBorrowSql);
+            // update the stock first, books are locked before borrow records
+            String updateStockSql = "UPDATE book SET stock = stock + 1 WHERE book_id = ?";
+            PreparedStatement updateStockStmt = conn.prepare(updateStockSql);
+            updateStockStmt.setInt(1, borrow.getBookId());
+            updateStockStmt.executeUpdate();
+
+            // update the borrow record, unless a concurrent return got it first
+            String updateBorrowSql = "UPDATE borrow SET return_time = ? WHERE card_id = ? AND book_id = ? AND borrow_time = ? AND return_time = 0";
+            PreparedStatement updateBorrowStmt = conn.prepare(updateBorrowSql);
             updateBorrowStmt.setLong(1, borrow.getReturnTime());
             updateBorrowStmt.setInt(2, borrow.getCardId());
             updateBorrowStmt.setInt(3, borrow.getBookId());
             updateBorrowStmt.setLong(4, borrowTime);
-            updateBorrowStmt.executeUpdate();
-
-            // update the stock
-            String updateStockSql = "UPDATE book SET stock = stock + 1 WHERE book_id = ?";
-            PreparedStatement updateStockStmt = conn.prepareStatement(updateStockSql);
-            updateStockStmt.setInt(1, borrow.getBookId());
-            updateStockStmt.executeUpdate();
+            if (updateBorrowStmt.executeUpdate() == 0) {
+                rollback(conn);
+                return new ApiResult(false, "此卡没有借阅此书或已归还");
+            }
 
             commit(conn);
+            countReturn(conn, borrow.getBookId(), null, borrow.getReturnTime());
             return new ApiResult(true, null);
-        } catch (Exception e) {
-            rollback(conn);
+        });
+    }
+
+    /*
+     * the checks of borrowBook run once for the whole batch, with one query
+     * per kind of check. the books are locked in ascending book_id order,
+     * whatever the order of the request, so that concurrent batches (and
+     * single borrows, which lock one book) cannot deadlock on them.
+     */
+    @Override
+    public ApiResult borrowBooks(List<Borrow> borrows) {
+        return execute(conn -> {
+            Set<Integer> cards = findExistingCards(conn, borrows);
+            Map<Integer, String> categories = new HashMap<>();
+            Map<Integer, Integer> stocks = lockBooks(conn, borrows, categories);
+            Map<Long, Long> openLoans = findOpenLoans(conn, borrows);
+            List<BorrowBatchResults.Item> items = new ArrayList<>(borrows.size());
+            List<Borrow> accepted = new ArrayList<>();
+            SortedMap<Integer, Integer> deltas = new TreeMap<>();
+            for (Borrow borrow : borrows) {
+                Integer stock = stocks.get(borrow.getBookId());
+                long loan = loanKey(borrow.getCardId(), borrow.getBookId());
+                String message = null;
+                if (!cards.contains(borrow.getCardId())) {
+                    message = "此卡不存在";
+                } else if (stock == null) {
+                    message = "图书不存在";
+                } else if (stock <= 0) {
+                    message = "图书库存不足";
+                } else if (openLoans.containsKey(loan)) {
+                    message = "图书已被此卡借出，不能重复借书";
+                } else {
+                    // later items of the batch see this one
+                    stocks.put(borrow.getBookId(), stock - 1);
+                    openLoans.put(loan, borrow.getBorrowTime());
+                    deltas.merge(borrow.getBookId(), -1, Integer::sum);
+                    accepted.add(borrow);
+                }
+                items.add(new BorrowBatchResults.Item(borrow, message));
+            }
+            if (!accepted.isEmpty()) {
+                PreparedStatement insertStmt = conn.prepare(
+                        "INSERT INTO borrow (card_id, book_id, borrow_time, return_time) VALUES (?, ?, ?, 0)");
+                for (Borrow borrow : accepted) {
+                    insertStmt.setInt(1, borrow.getCardId());
+                    insertStmt.setInt(2, borrow.getBookId());
+                    insertStmt.setLong(3, borrow.getBorrowTime());
+                    insertStmt.addBatch();
+                }
+                executeBatch(insertStmt);
+                updateStocks(conn, deltas);
+            }
+            commit(conn);
+            for (Borrow borrow : accepted) {
+                countBorrow(conn, borrow.getBookId(), categories.get(borrow.getBookId()), borrow.getBorrowTime());
+            }
+            return new ApiResult(true, new BorrowBatchResults(items));
+        });
+    }
+
+    /* the counterpart of borrowBooks, with the same lock order */
+    @Override
+    public ApiResult returnBooks(List<Borrow> borrows) {
+        return execute(conn -> {
+            Map<Integer, String> categories = new HashMap<>();
+            lockBooks(conn, borrows, categories);
+            Map<Long, Long> openLoans = findOpenLoans(conn, borrows);
+            List<BorrowBatchResults.Item> items = new ArrayList<>(borrows.size());
+            List<Borrow> accepted = new ArrayList<>();
+            SortedMap<Integer, Integer> deltas = new TreeMap<>();
+            PreparedStatement updateBorrowStmt = conn.prepare(
+                    "UPDATE borrow SET return_time = ? WHERE card_id = ? AND book_id = ? AND borrow_time = ?");
+            for (Borrow borrow : borrows) {
+                long loan = loanKey(borrow.getCardId(), borrow.getBookId());
+                Long borrowTime = openLoans.get(loan);
+                String message = null;
+                if (borrowTime == null) {
+                    message = "此卡没有借阅此书或已归还";
+                } else if (borrow.getReturnTime() <= borrowTime) {
+                    message = "归还时间无效";
+                } else {
+                    openLoans.remove(loan);
+                    deltas.merge(borrow.getBookId(), 1, Integer::sum);
+                    updateBorrowStmt.setLong(1, borrow.getReturnTime());
+                    updateBorrowStmt.setInt(2, borrow.getCardId());
+                    updateBorrowStmt.setInt(3, borrow.getBookId());
+                    updateBorrowStmt.setLong(4, borrowTime);
+                    updateBorrowStmt.addBatch();
+                    accepted.add(borrow);
+                }
+                items.add(new BorrowBatchResults.Item(borrow, message));
+            }
+            if (!accepted.isEmpty()) {
+                executeBatch(updateBorrowStmt);
+                updateStocks(conn, deltas);
+            }
+            commit(conn);
+            for (Borrow borrow : accepted) {
+                countReturn(conn, borrow.getBookId(), categories.get(borrow.getBookId()), borrow.getReturnTime());
+            }
+            return new ApiResult(true, new BorrowBatchResults(items));
+        });
+    }
+
+    /* the card_ids of borrows that exist */
+    private Set<Integer> findExistingCards(PooledConnection conn, List<Borrow> borrows) throws SQLException {
+        List<Integer> cardIds = borrows.stream().map(Borrow::getCardId).distinct().toList();
+        Set<Integer> existing = new HashSet<>();
+        for (int from = 0; from < cardIds.size(); from += maxBindParameters) {
+            List<Integer> chunk = cardIds.subList(from, Math.min(cardIds.size(), from + maxBindParameters));
+            String sql = "SELECT card_id FROM card WHERE card_id IN (" + placeholders(chunk.size(), "?") + ")";
+            try (PreparedStatement stmt = conn.getConnection().prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setInt(i + 1, chunk.get(i));
+                }
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    existing.add(rs.getInt(1));
+                }
+            }
+        }
+        return existing;
+    }
+
+    /*
+     * lock the books of borrows in ascending book_id order, returns the
+     * stock of each existing one and puts its category into categories
+     */
+    private Map<Integer, Integer> lockBooks(PooledConnection conn, List<Borrow> borrows,
+                                            Map<Integer, String> categories) throws SQLException {
+        List<Integer> bookIds = borrows.stream().map(Borrow::getBookId).distinct().sorted().toList();
+        Map<Integer, Integer> stocks = new HashMap<>();
+        for (int from = 0; from < bookIds.size(); from += maxBindParameters) {
+            List<Integer> chunk = bookIds.subList(from, Math.min(bookIds.size(), from + maxBindParameters));
+            String sql = "SELECT book_id, stock, category FROM book WHERE book_id IN (" + placeholders(chunk.size(), "?") + ")" +
+                    " ORDER BY book_id FOR UPDATE";
+            try (PreparedStatement stmt = conn.getConnection().prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setInt(i + 1, chunk.get(i));
+                }
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    stocks.put(rs.getInt(1), rs.getInt(2));
+                    categories.put(rs.getInt(1), rs.getString(3));
+                }
+            }
+        }
+        return stocks;
+    }
+
+    /*
+     * the open loans among the (card_id, book_id) pairs of borrows, as
+     * loanKey -> borrow_time. they are locked, the books of borrows must
+     * be locked before.
+     */
+    private Map<Long, Long> findOpenLoans(PooledConnection conn, List<Borrow> borrows) throws SQLException {
+        List<Long> loans = borrows.stream().map(b -> loanKey(b.getCardId(), b.getBookId())).distinct().toList();
+        Map<Long, Long> open = new HashMap<>();
+        int chunkSize = maxBindParameters / 2;
+        for (int from = 0; from < loans.size(); from += chunkSize) {
+            List<Long> chunk = loans.subList(from, Math.min(loans.size(), from + chunkSize));
+            String sql = "SELECT card_id, book_id, borrow_time FROM borrow WHERE (card_id, book_id) IN (" +
+                    placeholders(chunk.size(), "(?, ?)") + ") AND return_time = 0 FOR UPDATE";
+            try (PreparedStatement stmt = conn.getConnection().prepareStatement(sql)) {
+                int paramIndex = 1;
+                for (long loan : chunk) {
+                    stmt.setInt(paramIndex++, (int) (loan >>> 32));
+                    stmt.setInt(paramIndex++, (int) loan);
+                }
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    open.put(loanKey(rs.getInt(1), rs.getInt(2)), rs.getLong(3));
+                }
+            }
+        }
+        return open;
+    }
+
+    /* add the deltas to the stock, in ascending book_id order like lockBooks */
+    private void updateStocks(PooledConnection conn, SortedMap<Integer, Integer> deltas) throws SQLException {
+        PreparedStatement stmt = conn.prepare("UPDATE book SET stock = stock + ? WHERE book_id = ?");
+        for (Map.Entry<Integer, Integer> delta : deltas.entrySet()) {
+            stmt.setInt(1, delta.getValue());
+            stmt.setInt(2, delta.getKey());
+            stmt.addBatch();
+        }
+        executeBatch(stmt);
+    }
+
+    /* statements from conn.prepare are reused, so a failed batch must not stay behind */
+    private static void executeBatch(PreparedStatement stmt) throws SQLException {
+        try {
+            stmt.executeBatch();
+        } finally {
+            stmt.clearBatch();
+        }
+    }
+
+    private static long loanKey(int cardId, int bookId) {
+        return ((long) cardId << 32) | (bookId & 0xffffffffL);
+    }
+
+    /* n comma separated copies of placeholder */
+    private static String placeholders(int n, String placeholder) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(i > 0 ? ", " : "").append(placeholder);
+        }
+        return sb.toString();
+    }
+
+    /* count a committed borrow in the statistics, the category is looked up if it is null */
+    private void countBorrow(PooledConnection conn, int bookId, String category, long borrowTime) {
+        if (statistics == null) {
+            return;
+        }
+        category = category != null ? category : categoryOf(conn, bookId);
+        if (category != null) {
+            statistics.recordBorrow(bookId, category, borrowTime);
+        }
+    }
+
+    private void countReturn(PooledConnection conn, int bookId, String category, long returnTime) {
+        if (statistics == null) {
+            return;
+        }
+        category = category != null ? category : categoryOf(conn, bookId);
+        if (category != null) {
+            statistics.recordReturn(category, returnTime);
+        }
+    }
+
+    /*
+     * null if the book is gone. this runs after the commit, so a failure
+     * only costs the statistics one count: thrown, it would fail (or retry)
+     * a borrow that already happened.
+     */
+    private String categoryOf(PooledConnection conn, int bookId) {
+        if (bookCache != null) {
+            Book book = bookCache.get(bookId);
+            if (book != null) {
+                return book.getCategory();
+            }
+        }
+        try {
+            PreparedStatement stmt = conn.prepare("SELECT category FROM book WHERE book_id = ?");
+            stmt.setInt(1, bookId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getString(1) : null;
+        } catch (SQLException e) {
+            log.warning("Failed to count a borrow of book " + bookId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public ApiResult showBorrowStats(StatsPeriod period, long time, int limit) {
+        if (statistics == null) {
+            return new ApiResult(false, "borrow statistics are disabled");
+        }
+        if (limit <= 0) {
+            return new ApiResult(false, "limit must be positive");
+        }
+        List<BorrowStats.BookCount> top = statistics.topBooks(period, time, limit);
+        List<BorrowStats.CategoryCount> categories = statistics.categories(period, time);
+        long[] range = statistics.range(period, time);
+        return execute(conn -> {
+            // read before the first query, see BookCache.put
+            long generation = bookCache == null ? 0 : bookCache.generation();
+            int[] bookIds = top.stream().mapToInt(BorrowStats.BookCount::getBookId).toArray();
+            Map<Integer, Book> books = bookCache != null ? resolveBooks(conn, bookIds, generation) : loadBooks(conn, bookIds);
+            for (BorrowStats.BookCount count : top) {
+                Book book = books.get(count.getBookId());
+                if (book != null) {
+                    count.setCategory(book.getCategory());
+                    count.setTitle(book.getTitle());
+                    count.setAuthor(book.getAuthor());
+                }
+            }
+            return new ApiResult(true, new BorrowStats(period, range[0], range[1], top, categories));
+        });
+    }
+
+    /* the books with the given ids, read from the database */
+    private Map<Integer, Book> loadBooks(PooledConnection conn, int[] bookIds) throws SQLException {
+        Map<Integer, Book> books = new HashMap<>();
+        if (bookIds.length == 0) {
+            return books;
+        }
+        String sql = "SELECT * FROM book WHERE book_id IN (" + placeholders(bookIds.length, "?") + ")";
+        try (PreparedStatement stmt = conn.getConnection().prepareStatement(sql)) {
+            for (int i = 0; i < bookIds.length; i++) {
+                stmt.setInt(i + 1, bookIds[i]);
+            }
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                Book book = readBook(rs);
+                books.put(book.getBookId(), book);
+            }
+        }
+        return books;
+    }
+
+    /**
+     * count every record of the borrow table into the statistics. the
+     * book_ids are split into chunks that are read in parallel, each with
+     * its own connection. meant for startup: borrows and returns that
+     * commit while this runs may be counted twice or not at all.
+     */
+    public ApiResult rebuildStatistics() {
+        if (statistics == null) {
+            return new ApiResult(false, "borrow statistics are disabled");
+        }
+        statistics.clear();
+        ApiResult bounds = execute(conn -> {
+            ResultSet rs = conn.prepare("SELECT MIN(book_id), MAX(book_id) FROM borrow").executeQuery();
+            rs.next();
+            return new ApiResult(true, rs.getObject(1) == null ? null : new int[] {rs.getInt(1), rs.getInt(2)});
+        });
+        if (!bounds.ok || bounds.payload == null) {
+            return bounds;
+        }
+        int[] range = (int[]) bounds.payload;
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                connector.getConf().getPool().getMaxSize()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<ApiResult>> chunks = new ArrayList<>();
+            for (long from = range[0]; from <= range[1]; from += STATS_CHUNK_SIZE) {
+                int first = (int) from;
+                int last = (int) Math.min(from + STATS_CHUNK_SIZE - 1, range[1]);
+                chunks.add(pool.submit(() -> execute(conn -> countBorrows(conn, first, last))));
+            }
+            for (Future<ApiResult> chunk : chunks) {
+                ApiResult result = chunk.get();
+                if (!result.ok) {
+                    return result;
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
             return new ApiResult(false, e.getMessage());
+        } finally {
+            pool.shutdownNow();
         }
+        return new ApiResult(true, null);
+    }
+
+    /* count the borrow records of the books from first to last */
+    private ApiResult countBorrows(PooledConnection conn, int first, int last) throws SQLException {
+        PreparedStatement stmt = conn.prepare("SELECT b.book_id, bk.category, b.borrow_time, b.return_time " +
+                "FROM borrow b JOIN book bk ON b.book_id = bk.book_id WHERE b.book_id BETWEEN ? AND ?");
+        stmt.setFetchSize(connector.getConf().getType().streamingFetchSize());
+        stmt.setInt(1, first);
+        stmt.setInt(2, last);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                String category = rs.getString(2);
+                statistics.recordBorrow(rs.getInt(1), category, rs.getLong(3));
+                long returnTime = rs.getLong(4);
+                if (returnTime != 0) {
+                    statistics.recordReturn(category, returnTime);
+                }
+            }
+        }
+        return new ApiResult(true, null);
     }
 
     @Override
     public ApiResult showBorrowHistory(int cardId) {
+        return showBorrowHistory(cardId, new BorrowHistoryConditions());
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId, RowSink<BorrowHistories.Item> sink) {
+        return showBorrowHistory(cardId, new BorrowHistoryConditions(), sink);
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId, BorrowHistoryConditions conditions) {
+        RowCollector<BorrowHistories.Item> items = new RowCollector<>();
+        ApiResult result = showBorrowHistory(cardId, conditions, items);
+        if (!result.ok) {
+            return result;
+        }
+        return new ApiResult(true, new BorrowHistories(items.rows, items.nextCursor));
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId, BorrowHistoryConditions conditions,
+                                       RowSink<BorrowHistories.Item> sink) {
+        Integer pageSize = conditions.getPageSize();
+        if (pageSize != null && pageSize <= 0) {
+            return new ApiResult(false, "pageSize must be positive");
+        }
+        BorrowHistoryCursor cursor;
         try {
+            cursor = conditions.decodeCursor();
+        } catch (IllegalArgumentException e) {
+            return new ApiResult(false, e.getMessage());
+        }
+        return executeOnce(conn -> {
+            // read before the first query, see BookCache.put
+            long generation = bookCache == null ? 0 : bookCache.generation();
             // check if the card exists
             String checkCardSql = "SELECT count(*) FROM card WHERE card_id = ?";
-            PreparedStatement checkCardStmt = connector.getConn().prepareStatement(checkCardSql);
+            PreparedStatement checkCardStmt = conn.prepare(checkCardSql);
             checkCardStmt.setInt(1, cardId);
             ResultSet checkCardRs = checkCardStmt.executeQuery();
             if (!checkCardRs.next()) {
                 return new ApiResult(false, "此卡不存在");
             }
+            // one row more than a page tells whether there is a next one
+            String where = historyWhere(conditions, cursor);
+            String orderAndLimit = " ORDER BY b.borrow_time DESC, b.book_id ASC" +
+                    (pageSize == null ? "" : connector.getConf().getType().limitClause(pageSize + 1, 0));
+            if (bookCache != null && pageSize != null) {
+                return showBorrowHistoryCached(conn, cardId, conditions, cursor,
+                        "SELECT b.book_id, b.borrow_time, b.return_time FROM borrow b" + where + orderAndLimit,
+                        generation, sink);
+            }
             String sql = "SELECT b.*, bk.category, bk.title, bk.press, bk.publish_year, " +
                         "bk.author, bk.price, bk.stock " +
                         "FROM borrow b " +
-                        "JOIN book bk ON b.book_id = bk.book_id " +
-                        "WHERE b.card_id = ? " +
-                        "ORDER BY b.borrow_time DESC, b.book_id ASC";
+                        "JOIN book bk ON b.book_id = bk.book_id" +
+                        where + orderAndLimit;
             
-            try (PreparedStatement stmt = connector.getConn().prepareStatement(sql)) {
-                stmt.setInt(1, cardId);
-                ResultSet rs = stmt.executeQuery();
-                
-                List<BorrowHistories.Item> items = new ArrayList<>();
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setFetchSize(connector.getConf().getType().streamingFetchSize());
+            bindHistoryConditions(stmt, cardId, conditions, cursor);
+            try (ResultSet rs = stmt.executeQuery()) {
+                sink.begin();
+                int count = 0;
+                Borrow last = null;
+                String nextCursor = null;
                 while (rs.next()) {
-                    Book book = new Book();
-                    book.setBookId(rs.getInt("book_id"));
-                    book.setCategory(rs.getString("category"));
-                    book.setTitle(rs.getString("title"));
-                    book.setPress(rs.getString("press"));
-                    book.setPublishYear(rs.getInt("publish_year"));
-                    book.setAuthor(rs.getString("author"));
-                    book.setPrice(rs.getDouble("price"));
-                    book.setStock(rs.getInt("stock"));
-                    
+                    if (pageSize != null && count == pageSize) {
+                        nextCursor = new BorrowHistoryCursor(last.getBorrowTime(), last.getBookId()).encode();
+                        break;
+                    }
+                    Book book = readBook(rs);
+
                     Borrow borrow = new Borrow();
                     borrow.setCardId(cardId);
                     borrow.setBookId(rs.getInt("book_id"));
-                    
                     borrow.setBorrowTime(rs.getLong("borrow_time"));
-                    
+
                     long returnTime = rs.getLong("return_time");
                     if (!rs.wasNull()) {
                         borrow.setReturnTime(returnTime);
                     }
-                    
-                    BorrowHistories.Item item = new BorrowHistories.Item(cardId, book, borrow);
-                    items.add(item);
+
+                    sink.row(new BorrowHistories.Item(cardId, book, borrow));
+                    count++;
+                    last = borrow;
                 }
-                
-                BorrowHistories histories = new BorrowHistories(items);
-                return new ApiResult(true, histories);
+                sink.end(nextCursor);
             }
-        } catch (Exception e) {
-            return new ApiResult(false, e.getMessage());
+            return new ApiResult(true, null);
+        });
+    }
+
+    /*
+     * the borrow records of a page come from the database, the book
+     * metadata from the cache. the page is read before its books are
+     * resolved on the same connection, so a whole history, which may be
+     * any length, streams through the join above instead.
+     */
+    private ApiResult showBorrowHistoryCached(PooledConnection conn, int cardId, BorrowHistoryConditions conditions,
+                                              BorrowHistoryCursor cursor, String sql, long generation,
+                                              RowSink<BorrowHistories.Item> sink) throws SQLException, IOException {
+        PreparedStatement stmt = conn.prepare(sql);
+        bindHistoryConditions(stmt, cardId, conditions, cursor);
+        List<Borrow> borrows = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                Borrow borrow = new Borrow(rs.getInt("book_id"), cardId);
+                borrow.setBorrowTime(rs.getLong("borrow_time"));
+                borrow.setReturnTime(rs.getLong("return_time"));
+                borrows.add(borrow);
+            }
+        }
+        String nextCursor = null;
+        Integer pageSize = conditions.getPageSize();
+        if (pageSize != null && borrows.size() > pageSize) {
+            borrows = borrows.subList(0, pageSize);
+            Borrow last = borrows.get(pageSize - 1);
+            nextCursor = new BorrowHistoryCursor(last.getBorrowTime(), last.getBookId()).encode();
+        }
+        int[] bookIds = borrows.stream().mapToInt(Borrow::getBookId).distinct().toArray();
+        Map<Integer, Book> books = resolveBooks(conn, bookIds, generation);
+        sink.begin();
+        for (Borrow borrow : borrows) {
+            Book book = books.get(borrow.getBookId());
+            if (book != null) {
+                sink.row(new BorrowHistories.Item(cardId, book, borrow));
+            }
+        }
+        sink.end(nextCursor);
+        return new ApiResult(true, null);
+    }
+
+    /*
+     * the WHERE clause of a history query on "borrow b". the window and
+     * the cursor are ranges on the borrow_history index, whose order is
+     * the order of the history, so a page reads just its own rows.
+     */
+    private static String historyWhere(BorrowHistoryConditions conditions, BorrowHistoryCursor cursor) {
+        StringBuilder where = new StringBuilder(" WHERE b.card_id = ?");
+        if (conditions.isOpenOnly()) {
+            where.append(" AND b.return_time = 0");
+        }
+        if (conditions.getFrom() != null) {
+            where.append(" AND b.borrow_time >= ?");
+        }
+        if (conditions.getTo() != null) {
+            where.append(" AND b.borrow_time <= ?");
+        }
+        if (cursor != null) {
+            where.append(" AND (b.borrow_time < ? OR (b.borrow_time = ? AND b.book_id > ?))");
+        }
+        return where.toString();
+    }
+
+    private static void bindHistoryConditions(PreparedStatement stmt, int cardId, BorrowHistoryConditions conditions,
+                                              BorrowHistoryCursor cursor) throws SQLException {
+        int i = 1;
+        stmt.setInt(i++, cardId);
+        if (conditions.getFrom() != null) {
+            stmt.setLong(i++, conditions.getFrom());
+        }
+        if (conditions.getTo() != null) {
+            stmt.setLong(i++, conditions.getTo());
+        }
+        if (cursor != null) {
+            stmt.setLong(i++, cursor.getBorrowTime());
+            stmt.setLong(i++, cursor.getBorrowTime());
+            stmt.setInt(i, cursor.getBookId());
         }
     }
 
     @Override
     public ApiResult registerCard(Card card) {
-        Connection conn = connector.getConn();
-        try {
+        return execute(conn -> {
             // check if the card already exists
             String checkSql = "SELECT count(*) FROM card WHERE name = ? AND department = ? AND type = ?";
-            PreparedStatement checkStmt = conn.prepareStatement(checkSql);
+            PreparedStatement checkStmt = conn.prepare(checkSql);
             checkStmt.setString(1, card.getName());
             checkStmt.setString(2, card.getDepartment());
             checkStmt.setString(3, card.getType().name());
@@ -559,7 +1481,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // insert the new card
             String insertSql = "INSERT INTO card (name, department, type) VALUES (?, ?, ?)";
-            PreparedStatement insertStmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS);
+            PreparedStatement insertStmt = conn.prepare(insertSql, Statement.RETURN_GENERATED_KEYS);
             insertStmt.setString(1, card.getName());
             insertStmt.setString(2, card.getDepartment());
             insertStmt.setString(3, card.getType().name());
@@ -572,20 +1494,16 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             commit(conn);
             return new ApiResult(true, null);
-        } catch (Exception e) {
-            rollback(conn);
-            return new ApiResult(false, e.getMessage());
-        }
+        });
     }
 
     @Override
     public ApiResult removeCard(int cardId) {
-        Connection conn = connector.getConn();
-        try {
+        return execute(conn -> {
             // check if the card has unreturned books
 
             String checkBorrowSql = "SELECT count(*) FROM borrow WHERE card_id = ? AND return_time = 0";
-            PreparedStatement checkBorrowStmt = conn.prepareStatement(checkBorrowSql);
+            PreparedStatement checkBorrowStmt = conn.prepare(checkBorrowSql);
             checkBorrowStmt.setInt(1, cardId);
             ResultSet borrowRs = checkBorrowStmt.executeQuery();
             
@@ -596,7 +1514,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // remove the card
             String deleteSql = "DELETE FROM card WHERE card_id = ?";
-            PreparedStatement deleteStmt = conn.prepareStatement(deleteSql);
+            PreparedStatement deleteStmt = conn.prepare(deleteSql);
             deleteStmt.setInt(1, cardId);
             int affectedRows = deleteStmt.executeUpdate();
             
@@ -607,18 +1525,15 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             commit(conn);
             return new ApiResult(true, null);
-        } catch (Exception e) {
-            rollback(conn);
-            return new ApiResult(false, e.getMessage());
-        }
+        });
     }
 
     @Override
     public ApiResult showCards() {
-        try {
+        return execute(conn -> {
             // query all cards and sort by card_id
             String sql = "SELECT card_id, name, department, type FROM card ORDER BY card_id ASC";
-            PreparedStatement stmt = connector.getConn().prepareStatement(sql);
+            PreparedStatement stmt = conn.prepare(sql);
             ResultSet rs = stmt.executeQuery();
 
             List<Card> cards = new ArrayList<>();
@@ -632,18 +1547,16 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
             }
 
             return new ApiResult(true, new CardList(cards));
-        } catch (Exception e) {
-            return new ApiResult(false, e.getMessage());
-        }
+        });
     }
 
     
     @Override
     public ApiResult modifyCardInfo(Card card) {
-        Connection conn = connector.getConn();
-        try {
-            String checkSql = "SELECT count(*) FROM card WHERE card_id = ? FOR UPDATE";
-            PreparedStatement checkExistStmt = conn.prepareStatement(checkSql);
+        return execute(conn -> {
+            // no aggregate: h2 and postgresql reject FOR UPDATE on one, and count(*) always has a row
+            String checkSql = "SELECT card_id FROM card WHERE card_id = ? FOR UPDATE";
+            PreparedStatement checkExistStmt = conn.prepare(checkSql);
             checkExistStmt.setInt(1, card.getCardId());
             ResultSet checkRs = checkExistStmt.executeQuery();
             if (!checkRs.next()) {
@@ -653,7 +1566,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // check if duplicated
             String checkDupSql = "SELECT count(*) FROM card WHERE name = ? AND department = ? AND type = ?";
-            PreparedStatement checkDupStmt = conn.prepareStatement(checkDupSql);
+            PreparedStatement checkDupStmt = conn.prepare(checkDupSql);
             checkDupStmt.setString(1, card.getName());
             checkDupStmt.setString(2, card.getDepartment());
             checkDupStmt.setString(3, card.getType().name());
@@ -665,7 +1578,7 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             // update card info
             String updateSql = "UPDATE card SET name = ?, department = ?, type = ? WHERE card_id = ?";
-            PreparedStatement updateStmt = conn.prepareStatement(updateSql);
+            PreparedStatement updateStmt = conn.prepare(updateSql);
             updateStmt.setString(1, card.getName());
             updateStmt.setString(2, card.getDepartment());
             updateStmt.setString(3, card.getType().name());
@@ -674,48 +1587,221 @@ public class LibraryManagementSystemImpl implements LibraryManagementSystem {
 
             commit(conn);
             return new ApiResult(true, null);
-        } catch (Exception e) {
-            rollback(conn);
-            return new ApiResult(false, e.getMessage());
-        }
+        });
     }
 
     @Override
     public ApiResult resetDatabase() {
-        Connection conn = connector.getConn();
-        try {
-            Statement stmt = conn.createStatement();
-            DBInitializer initializer = connector.getConf().getType().getDbInitializer();
-            stmt.addBatch(initializer.sqlDropBorrow());
-            stmt.addBatch(initializer.sqlDropBook());
-            stmt.addBatch(initializer.sqlDropCard());
-            stmt.addBatch(initializer.sqlCreateCard());
-            stmt.addBatch(initializer.sqlCreateBook());
-            stmt.addBatch(initializer.sqlCreateBorrow());
-            stmt.executeBatch();
+        return execute(conn -> {
+            try (Statement stmt = conn.getConnection().createStatement()) {
+                DBInitializer initializer = connector.getConf().getType().getDbInitializer();
+                stmt.addBatch(initializer.sqlDropBorrow());
+                stmt.addBatch(initializer.sqlDropBook());
+                stmt.addBatch(initializer.sqlDropCard());
+                stmt.addBatch(initializer.sqlCreateCard());
+                stmt.addBatch(initializer.sqlCreateBook());
+                stmt.addBatch(initializer.sqlCreateBorrow());
+                stmt.addBatch(initializer.sqlCreateOpenLoanByBookIndex());
+                stmt.addBatch(initializer.sqlCreateBorrowHistoryIndex());
+                stmt.addBatch(initializer.sqlCreateOpenBorrowHistoryIndex());
+                stmt.executeBatch();
+            }
             commit(conn);
-        } catch (Exception e) {
-            rollback(conn);
-            return new ApiResult(false, e.getMessage());
+            // statements cached against the old tables must be prepared again
+            connector.invalidateStatements();
+            if (bookCache != null) {
+                bookCache.clear();
+            }
+            if (textIndex != null) {
+                textIndex.reset();
+            }
+            if (statistics != null) {
+                statistics.clear();
+            }
+            return new ApiResult(true, null);
+        });
+    }
+
+    /* the columns that make a book unique */
+    private record BookKey(String category, String title, String press, int publishYear, String author) {
+        static BookKey of(Book book) {
+            return new BookKey(book.getCategory(), book.getTitle(), book.getPress(),
+                    book.getPublishYear(), book.getAuthor());
         }
-        return new ApiResult(true, null);
     }
 
-    private void rollback(Connection conn) {
+    /**
+     * book_ids that may match the fuzzy conditions, a superset of what the
+     * LIKEs of the query return as long as the index holds every book, see
+     * {@link BookTextIndex}. null if the database has to do all the
+     * matching, which includes an empty result: the index cannot tell
+     * "nothing matches" from a book it never saw.
+     */
+    private int[] matchTextIndex(BookQueryConditions conditions) {
+        if (textIndex == null) {
+            return null;
+        }
+        int[] titleIds = textIndex.search(BookTextIndex.Field.TITLE, conditions.getTitle());
+        int[] pressIds = textIndex.search(BookTextIndex.Field.PRESS, conditions.getPress());
+        int[] authorIds = textIndex.search(BookTextIndex.Field.AUTHOR, conditions.getAuthor());
+        int[] candidates = BookTextIndex.intersect(BookTextIndex.intersect(titleIds, pressIds), authorIds);
+        if (candidates == null || candidates.length == 0 || candidates.length > maxIndexCandidates) {
+            // not selective enough for an IN list, let the database use LIKE alone
+            return null;
+        }
+        return candidates;
+    }
+
+    /* a unit of work run on one leased connection */
+    @FunctionalInterface
+    private interface Transaction {
+        ApiResult run(PooledConnection conn) throws Exception;
+    }
+
+    /**
+     * lease a connection, run the transaction on it and give the
+     * connection back. any exception rolls the transaction back; if it
+     * was a deadlock or another transient conflict, the transaction runs
+     * again on a new lease as {@link TransactionRetry} allows, so it must
+     * not have effects outside the database before it commits.
+     *
+     * to keep deadlocks rare in the first place, transactions lock book
+     * rows before borrow rows, and several books in ascending book_id.
+     */
+    private ApiResult execute(Transaction trx) {
+        retry.started();
+        for (int attempt = 1; ; attempt++) {
+            ApiResult result;
+            Exception failure = null;
+            PooledConnection pooled;
+            try {
+                pooled = connector.lease();
+            } catch (SQLException e) {
+                return new ApiResult(false, e.getMessage());
+            }
+            try (pooled) {
+                try {
+                    result = trx.run(pooled);
+                } catch (Exception e) {
+                    rollback(pooled);
+                    failure = e;
+                    result = new ApiResult(false, e.getMessage());
+                }
+            }
+            // the connection is back in the pool while waiting
+            if (failure == null || !retry.retry(failure, attempt)) {
+                return result;
+            }
+        }
+    }
+
+    /*
+     * execute without retries, for transactions that hand rows to a sink
+     * or take them from a source: those cannot be replayed.
+     */
+    private ApiResult executeOnce(Transaction trx) {
+        PooledConnection pooled;
         try {
-            conn.rollback();
-        } catch (Exception e) {
-            e.printStackTrace();
+            pooled = connector.lease();
+        } catch (SQLException e) {
+            return new ApiResult(false, e.getMessage());
+        }
+        try (pooled) {
+            try {
+                return trx.run(pooled);
+            } catch (Exception e) {
+                rollback(pooled);
+                return new ApiResult(false, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * metadata (stock 0) of the given books, from the cache where possible
+     * and from the database otherwise. books loaded here are cached unless
+     * an invalidation happened after generation was read.
+     */
+    private Map<Integer, Book> resolveBooks(PooledConnection conn, int[] bookIds, long generation) throws SQLException {
+        Map<Integer, Book> books = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (int bookId : bookIds) {
+            if (books.containsKey(bookId)) {
+                continue;
+            }
+            Book book = bookCache.get(bookId);
+            if (book == null) {
+                missing.add(bookId);
+            }
+            books.put(bookId, book);
+        }
+        for (int from = 0; from < missing.size(); from += RESOLVE_BATCH_SIZE) {
+            List<Integer> batch = missing.subList(from, Math.min(missing.size(), from + RESOLVE_BATCH_SIZE));
+            StringBuilder sql = new StringBuilder("SELECT * FROM book WHERE book_id IN (");
+            for (int i = 0; i < batch.size(); i++) {
+                sql.append(i > 0 ? ", ?" : "?");
+            }
+            sql.append(")");
+            try (PreparedStatement stmt = conn.getConnection().prepareStatement(sql.toString())) {
+                for (int i = 0; i < batch.size(); i++) {
+                    stmt.setInt(i + 1, batch.get(i));
+                }
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    Book book = readBook(rs);
+                    bookCache.put(book, generation);
+                    book.setStock(0);
+                    books.put(book.getBookId(), book);
+                }
+            }
         }
+        return books;
     }
 
-    private void commit(Connection conn) {
+    private static Book readBook(ResultSet rs) throws SQLException {
+        Book book = new Book();
+        book.setBookId(rs.getInt("book_id"));
+        book.setCategory(rs.getString("category"));
+        book.setTitle(rs.getString("title"));
+        book.setPress(rs.getString("press"));
+        book.setPublishYear(rs.getInt("publish_year"));
+        book.setAuthor(rs.getString("author"));
+        book.setPrice(rs.getDouble("price"));
+        book.setStock(rs.getInt("stock"));
+        return book;
+    }
+
+    /* keeps the streamed rows for the list-returning variants */
+    private static final class RowCollector<T> implements RowSink<T> {
+        private final List<T> rows = new ArrayList<>();
+        private String nextCursor;
+
+        @Override
+        public void begin() {
+        }
+
+        @Override
+        public void row(T row) {
+            rows.add(row);
+        }
+
+        @Override
+        public void end(String nextCursor) {
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    private void rollback(PooledConnection conn) {
         try {
-            conn.commit();
+            conn.getConnection().rollback();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    /* a failed commit is thrown, it may be a serialization failure worth a retry */
+    private void commit(PooledConnection conn) throws SQLException {
+        conn.getConnection().commit();
+    }
+
 
 }
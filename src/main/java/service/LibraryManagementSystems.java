@@ -0,0 +1,26 @@
+package service;
+
+import utils.DatabaseConnector;
+import utils.DatabaseType;
+
+/**
+ * picks the LibraryManagementSystem for the configured database type.
+ */
+public final class LibraryManagementSystems {
+
+    private LibraryManagementSystems() {
+    }
+
+    /**
+     * the library behind connector. with type "memory" this is the
+     * in-process database named by "db", which every call with the
+     * same name shares and which is recovered from the "memory" section's
+     * data directory, otherwise a {@link LibraryManagementSystemImpl}.
+     */
+    public static LibraryManagementSystem open(DatabaseConnector connector) {
+        if (connector.getConf().getType() == DatabaseType.MEMORY) {
+            return InMemoryLibraryManagementSystem.named(connector.getConf().getDB(), connector.getConf().getMemory());
+        }
+        return new LibraryManagementSystemImpl(connector);
+    }
+}
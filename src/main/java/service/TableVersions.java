@@ -0,0 +1,58 @@
+package service;
+
+import utils.BodyFormat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * version counters of the book and card tables, bumped by
+ * {@link VersionedLibraryManagementSystem} after every call that may have
+ * changed them. a listing read at some version is still what the client
+ * has as long as the version did not move, which is what the entity tags
+ * of GET /book and GET /card are made of.
+ *
+ * the counters start over with every server, so the tags also carry the
+ * start time of this one. like the book cache, this only sees writes made
+ * through this server.
+ */
+public final class TableVersions {
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong books = new AtomicLong();
+    private final AtomicLong cards = new AtomicLong();
+
+    /* books, including their stock, which every borrow and return changes */
+    public long getBookVersion() {
+        return books.get();
+    }
+
+    public long getCardVersion() {
+        return cards.get();
+    }
+
+    void bumpBooks() {
+        books.incrementAndGet();
+    }
+
+    void bumpCards() {
+        cards.incrementAndGet();
+    }
+
+    /**
+     * a weak entity tag for a listing read at version with the given
+     * query parameters, sent in format. read the version before the
+     * listing, so that a write racing with it makes the tag older rather
+     * than the rows.
+     */
+    public String etag(char table, long version, Map<String, String> params, BodyFormat format) {
+        CRC32 crc = new CRC32();
+        crc.update(new TreeMap<>(params).toString().getBytes(StandardCharsets.UTF_8));
+        return "W/\"" + table + '-' + epoch + '-' + version + '-' + Long.toHexString(crc.getValue())
+                + '-' + format.name().toLowerCase(Locale.ROOT) + '"';
+    }
+}
@@ -0,0 +1,110 @@
+package service;
+
+import utils.DatabaseType;
+import utils.ServiceConfig;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * when and how long to wait before a transaction that failed with a
+ * transient error (deadlock victim, serialization failure, lock wait
+ * timeout) is run again, and how often that happened.
+ *
+ * a retry waits a random time up to backoff * 2^(retry - 1), capped at
+ * maxBackoff, so that the transactions that collided do not collide
+ * again. retries also draw from a budget that every transaction adds
+ * ratio to, so under a storm of conflicts at most that share of extra
+ * transactions is run and the rest fail fast instead of piling up.
+ *
+ * the wait sleeps the thread that runs the request. on the "dispatcher"
+ * executor that is the one thread serving every connection, so the server
+ * turns the backoff off there and retries run at once.
+ */
+public final class TransactionRetry {
+
+    /* retries that may be spent before any transaction paid into the budget */
+    private static final double MIN_BUDGET = 10;
+    private static final double MAX_BUDGET = 100;
+
+    private final DatabaseType type;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final double budgetRatio;
+    /* false to run retries without waiting */
+    private volatile boolean backoff = true;
+    /* guarded by this */
+    private double budget = MIN_BUDGET;
+
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder aborts = new LongAdder();
+
+    public TransactionRetry(DatabaseType type, ServiceConfig conf) {
+        this(type, conf.getRetries(), conf.getRetryBackoff(), conf.getRetryMaxBackoff(), conf.getRetryBudget());
+    }
+
+    public TransactionRetry(DatabaseType type, int maxRetries, long backoffMillis, long maxBackoffMillis,
+                            double budgetRatio) {
+        this.type = type;
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.budgetRatio = budgetRatio;
+    }
+
+    public void setBackoff(boolean enabled) {
+        backoff = enabled;
+    }
+
+    /* a transaction is about to run for the first time */
+    public void started() {
+        synchronized (this) {
+            budget = Math.min(MAX_BUDGET, budget + budgetRatio);
+        }
+    }
+
+    /**
+     * whether the transaction that failed with e on its attempt-th run
+     * (counting from 1) should run again. waits out the backoff before it
+     * says yes, so call it without holding a connection.
+     */
+    public boolean retry(Exception e, int attempt) {
+        if (!type.isTransient(e)) {
+            return false;
+        }
+        if (attempt > maxRetries || !withdraw()) {
+            aborts.increment();
+            return false;
+        }
+        retries.increment();
+        long cap = backoff ? Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 20)) : 0;
+        if (cap > 0) {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized boolean withdraw() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    /* transactions run again after a transient failure */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /* transient failures given up on, because of the retry limit or the budget */
+    public long getAborts() {
+        return aborts.sum();
+    }
+}
@@ -0,0 +1,157 @@
+package service;
+
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import queries.ApiResult;
+import queries.BookQueryConditions;
+import queries.BorrowHistories;
+import queries.BorrowHistoryConditions;
+import queries.RowSink;
+import queries.RowSource;
+import queries.StatsPeriod;
+
+import java.util.List;
+
+/**
+ * bumps the book or card version of {@link TableVersions} after every
+ * call into the delegate that may have changed that table, whether it
+ * succeeded or not: a failed batch may still have committed some rows.
+ * reads are passed through untouched.
+ */
+public class VersionedLibraryManagementSystem implements LibraryManagementSystem {
+
+    private final LibraryManagementSystem delegate;
+    private final TableVersions versions;
+
+    public VersionedLibraryManagementSystem(LibraryManagementSystem delegate, TableVersions versions) {
+        this.delegate = delegate;
+        this.versions = versions;
+    }
+
+    private ApiResult books(ApiResult result) {
+        versions.bumpBooks();
+        return result;
+    }
+
+    private ApiResult cards(ApiResult result) {
+        versions.bumpCards();
+        return result;
+    }
+
+    @Override
+    public ApiResult storeBook(Book book) {
+        return books(delegate.storeBook(book));
+    }
+
+    @Override
+    public ApiResult incBookStock(int bookId, int deltaStock) {
+        return books(delegate.incBookStock(bookId, deltaStock));
+    }
+
+    @Override
+    public ApiResult storeBook(List<Book> books) {
+        return books(delegate.storeBook(books));
+    }
+
+    @Override
+    public ApiResult importBooks(RowSource<Book> source, boolean atomic) {
+        return books(delegate.importBooks(source, atomic));
+    }
+
+    @Override
+    public ApiResult removeBook(int bookId) {
+        return books(delegate.removeBook(bookId));
+    }
+
+    @Override
+    public ApiResult modifyBookInfo(Book book) {
+        return books(delegate.modifyBookInfo(book));
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions) {
+        return delegate.queryBook(conditions);
+    }
+
+    @Override
+    public ApiResult queryBook(BookQueryConditions conditions, RowSink<Book> sink) {
+        return delegate.queryBook(conditions, sink);
+    }
+
+    /* borrows and returns change the stock of the books */
+    @Override
+    public ApiResult borrowBook(Borrow borrow) {
+        return books(delegate.borrowBook(borrow));
+    }
+
+    @Override
+    public ApiResult returnBook(Borrow borrow) {
+        return books(delegate.returnBook(borrow));
+    }
+
+    @Override
+    public ApiResult borrowBooks(List<Borrow> borrows) {
+        return books(delegate.borrowBooks(borrows));
+    }
+
+    @Override
+    public ApiResult returnBooks(List<Borrow> borrows) {
+        return books(delegate.returnBooks(borrows));
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId) {
+        return delegate.showBorrowHistory(cardId);
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId, RowSink<BorrowHistories.Item> sink) {
+        return delegate.showBorrowHistory(cardId, sink);
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId, BorrowHistoryConditions conditions) {
+        return delegate.showBorrowHistory(cardId, conditions);
+    }
+
+    @Override
+    public ApiResult showBorrowHistory(int cardId, BorrowHistoryConditions conditions,
+                                       RowSink<BorrowHistories.Item> sink) {
+        return delegate.showBorrowHistory(cardId, conditions, sink);
+    }
+
+    @Override
+    public ApiResult showBorrowStats(StatsPeriod period, long time, int limit) {
+        return delegate.showBorrowStats(period, time, limit);
+    }
+
+    @Override
+    public ApiResult registerCard(Card card) {
+        return cards(delegate.registerCard(card));
+    }
+
+    /* a card with open loans cannot be removed, so the books are not affected */
+    @Override
+    public ApiResult removeCard(int cardId) {
+        return cards(delegate.removeCard(cardId));
+    }
+
+    @Override
+    public ApiResult modifyCardInfo(Card card) {
+        return cards(delegate.modifyCardInfo(card));
+    }
+
+    @Override
+    public ApiResult showCards() {
+        return delegate.showCards();
+    }
+
+    @Override
+    public ApiResult resetDatabase() {
+        ApiResult result = delegate.resetDatabase();
+        versions.bumpBooks();
+        versions.bumpCards();
+        return result;
+    }
+}
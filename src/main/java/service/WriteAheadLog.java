@@ -0,0 +1,361 @@
+package service;
+
+import utils.SyncMode;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * an append-only log of checksummed records, split into numbered segment
+ * files "wal-<generation>.log" so that the part a snapshot covers can be
+ * deleted as a whole.
+ *
+ * every record is framed as [length][crc32][payload]. appending only
+ * copies the frame into a buffer, which is written and fsynced by group
+ * commit: one fsync covers every record appended before it, so concurrent
+ * writers share it instead of paying for one each.
+ */
+final class WriteAheadLog implements Closeable {
+
+    private static final Logger log = Logger.getLogger(WriteAheadLog.class.getName());
+
+    static final String PREFIX = "wal-";
+    static final String SUFFIX = ".log";
+    private static final int HEADER = 8;
+    /* anything longer is garbage, not a record */
+    private static final int MAX_RECORD = 64 << 20;
+
+    /* reads the payload of one record */
+    @FunctionalInterface
+    interface RecordHandler {
+        void accept(ByteBuffer payload) throws IOException;
+    }
+
+    private final Path dir;
+    private final SyncMode syncMode;
+    /* null with sync mode "always", where the writers fsync themselves */
+    private final ScheduledExecutorService flusher;
+
+    /* guarded by this */
+    private Buffer pending = new Buffer();
+    private long appended;
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER);
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition synced = syncLock.newCondition();
+    /* guarded by syncLock */
+    private Buffer spare = new Buffer();
+    private FileChannel channel;
+    private long generation;
+    /* set under syncLock, read without it by writers checking for a failure */
+    private volatile IOException failure;
+    /* sequence number of the last record on disk, and of the last one before the current segment */
+    private volatile long durable;
+    private volatile long rotatedAt;
+
+    WriteAheadLog(Path dir, long generation, SyncMode syncMode, long fsyncInterval) throws IOException {
+        this.dir = dir;
+        this.generation = generation;
+        this.syncMode = syncMode;
+        this.channel = open(dir, generation);
+        if (syncMode == SyncMode.ALWAYS) {
+            flusher = null;
+        } else {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "wal-flusher");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleAtFixedRate(this::flush, fsyncInterval, fsyncInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * add a record to the log. it is not on disk before
+     * {@link #await} returns for the sequence number returned here.
+     */
+    synchronized long append(byte[] payload) {
+        crc.reset();
+        crc.update(payload);
+        header.clear();
+        header.putInt(payload.length).putInt((int) crc.getValue());
+        pending.write(header.array(), 0, HEADER);
+        pending.writeBytes(payload);
+        return ++appended;
+    }
+
+    /* wait until record seq is as durable as the sync mode promises */
+    void await(long seq) throws IOException {
+        if (seq <= durable) {
+            return;
+        }
+        switch (syncMode) {
+            case ALWAYS:
+                sync(seq);
+                break;
+            case GROUP:
+                syncLock.lock();
+                try {
+                    while (durable < seq) {
+                        checkFailure();
+                        synced.awaitUninterruptibly();
+                    }
+                } finally {
+                    syncLock.unlock();
+                }
+                break;
+            case INTERVAL:
+            default:
+                syncLock.lock();
+                try {
+                    checkFailure();
+                } finally {
+                    syncLock.unlock();
+                }
+        }
+    }
+
+    /* the error that stopped the log, null while it works. it never recovers */
+    IOException getFailure() {
+        return failure;
+    }
+
+    /* whether records were appended since the last rotation */
+    synchronized boolean hasNewRecords() {
+        return appended > rotatedAt;
+    }
+
+    /**
+     * fsync everything and continue in a new segment, so that a snapshot
+     * of the state right now can replace every segment before it.
+     *
+     * @return the generation of the new segment
+     */
+    long rotate() throws IOException {
+        syncLock.lock();
+        try {
+            sync(Long.MAX_VALUE);
+            FileChannel next = open(dir, generation + 1);
+            channel.close();
+            channel = next;
+            generation++;
+            rotatedAt = durable;
+            return generation;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        syncLock.lock();
+        try {
+            sync(Long.MAX_VALUE);
+            channel.close();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /* the group fsync of the flusher thread */
+    private void flush() {
+        try {
+            sync(Long.MAX_VALUE);
+        } catch (IOException e) {
+            log.severe("Failed to write the log: " + e.getMessage());
+        }
+    }
+
+    /* write and fsync everything appended so far, unless record seq is already on disk */
+    private void sync(long seq) throws IOException {
+        syncLock.lock();
+        try {
+            checkFailure();
+            if (seq <= durable) {
+                return;
+            }
+            Buffer batch;
+            long upTo;
+            synchronized (this) {
+                batch = pending;
+                pending = spare;
+                upTo = appended;
+            }
+            spare = batch;
+            if (upTo == durable) {
+                return;
+            }
+            try {
+                ByteBuffer bytes = batch.view();
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                // the records are lost, so is everything after them
+                failure = e;
+                synced.signalAll();
+                throw e;
+            }
+            batch.reset();
+            durable = upTo;
+            synced.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /* needs syncLock */
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("the log failed earlier: " + failure.getMessage(), failure);
+        }
+    }
+
+    private static FileChannel open(Path dir, long generation) throws IOException {
+        return FileChannel.open(file(dir, PREFIX, generation, SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    static Path file(Path dir, String prefix, long generation, String suffix) {
+        return dir.resolve(String.format("%s%016d%s", prefix, generation, suffix));
+    }
+
+    /* generations of the files named prefix + generation + suffix in dir, ascending */
+    static List<Long> generations(Path dir, String prefix, String suffix) throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(f -> {
+                String name = f.getFileName().toString();
+                if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                    try {
+                        result.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                    } catch (NumberFormatException e) {
+                        // not one of ours
+                    }
+                }
+            });
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * pass every record of file to handler, in order.
+     *
+     * a torn or garbled record ends the file. in the last segment that is
+     * what a crash in the middle of a write leaves behind, so the file is
+     * cut off there; anywhere else it means the data is damaged.
+     *
+     * @return the number of records read
+     */
+    static long replay(Path file, boolean last, RecordHandler handler) throws IOException {
+        long size = Files.size(file);
+        long valid = 0;
+        long records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            CRC32 checksum = new CRC32();
+            byte[] payload = new byte[1024];
+            while (size - valid >= HEADER) {
+                int length = in.readInt();
+                int expected = in.readInt();
+                if (length < 0 || length > MAX_RECORD || length > size - valid - HEADER) {
+                    break;
+                }
+                if (payload.length < length) {
+                    payload = new byte[Math.max(length, payload.length * 2)];
+                }
+                in.readFully(payload, 0, length);
+                checksum.reset();
+                checksum.update(payload, 0, length);
+                if ((int) checksum.getValue() != expected) {
+                    break;
+                }
+                handler.accept(ByteBuffer.wrap(payload, 0, length));
+                valid += HEADER + length;
+                records++;
+            }
+        }
+        if (valid < size) {
+            if (!last) {
+                throw new IOException("Damaged record in " + file + " at byte " + valid);
+            }
+            log.warning("Dropping " + (size - valid) + " bytes of a torn write at the end of " + file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+                channel.force(false);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * write records to target in the format of the log, all or nothing:
+     * they go to a temporary file first, which is renamed when it is on disk.
+     */
+    static void writeAtomically(Path target, List<byte[]> records) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        ByteBuffer head = ByteBuffer.allocate(HEADER);
+        CRC32 checksum = new CRC32();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (byte[] record : records) {
+                checksum.reset();
+                checksum.update(record);
+                head.clear();
+                head.putInt(record.length).putInt((int) checksum.getValue()).flip();
+                ByteBuffer[] frame = {head, ByteBuffer.wrap(record)};
+                while (frame[1].hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+            channel.force(false);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // make the rename itself durable
+        try (FileChannel parent = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+            parent.force(true);
+        } catch (IOException e) {
+            // not every platform can fsync a directory
+        }
+    }
+
+    /* a ByteArrayOutputStream that can be written out without a copy */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(1 << 16);
+        }
+
+        ByteBuffer view() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
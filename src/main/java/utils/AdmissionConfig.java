@@ -0,0 +1,91 @@
+package utils;
+
+import java.util.Map;
+
+/**
+ * settings of the admission control in front of the /book, /card and
+ * /borrow routes, parsed from the "admission" section of
+ * "resources/application.yaml". every route gets its own limiter.
+ * off by default, since a waiting request blocks its thread.
+ */
+public final class AdmissionConfig {
+
+    private final boolean enabled;
+    /* requests of one route handled at once, the starting point in adaptive mode */
+    private final int limit;
+    /* requests of one route waiting for a slot, more are rejected at once */
+    private final int queueSize;
+    /* milliseconds a request may wait for a slot */
+    private final long maxWait;
+    /* seconds, sent as Retry-After with a 503 */
+    private final int retryAfter;
+    /* whether the limit follows the latency of the route */
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+
+    public AdmissionConfig(Map<String, Object> section) {
+        Map<String, Object> map = section == null ? Map.of() : section;
+        enabled = (Boolean) map.getOrDefault("enabled", false);
+        limit = ((Number) map.getOrDefault("limit", 64)).intValue();
+        queueSize = ((Number) map.getOrDefault("queueSize", 128)).intValue();
+        maxWait = ((Number) map.getOrDefault("maxWait", 1000)).longValue();
+        retryAfter = ((Number) map.getOrDefault("retryAfter", 1)).intValue();
+        adaptive = (Boolean) map.getOrDefault("adaptive", false);
+        minLimit = ((Number) map.getOrDefault("minLimit", 4)).intValue();
+        maxLimit = ((Number) map.getOrDefault("maxLimit", 256)).intValue();
+        if (limit <= 0 || queueSize < 0 || maxWait < 0 || retryAfter < 0) {
+            throw new IllegalArgumentException("admission.limit must be positive, admission.queueSize," +
+                    " admission.maxWait and admission.retryAfter must not be negative.");
+        }
+        if (minLimit <= 0 || minLimit > limit || limit > maxLimit) {
+            throw new IllegalArgumentException("admission.minLimit <= admission.limit <= admission.maxLimit must hold" +
+                    " and admission.minLimit must be positive.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "utils.AdmissionConfig: {" + "enabled=" + enabled +
+                ", limit=" + limit +
+                ", queueSize=" + queueSize +
+                ", maxWait=" + maxWait +
+                ", retryAfter=" + retryAfter +
+                ", adaptive=" + adaptive +
+                ", minLimit=" + minLimit +
+                ", maxLimit=" + maxLimit +
+                '}';
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public long getMaxWait() {
+        return maxWait;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+}
@@ -0,0 +1,90 @@
+package utils;
+
+import java.util.List;
+
+/**
+ * the encodings of request and response bodies. JSON is what browsers get;
+ * Smile and CBOR are binary encodings of the same data model for batch
+ * clients that pull whole catalogs, smaller and cheaper to parse.
+ */
+public enum BodyFormat {
+    JSON("application/json", "application/json; charset=utf-8"),
+    SMILE("application/x-jackson-smile", "application/x-jackson-smile"),
+    CBOR("application/cbor", "application/cbor");
+
+    BodyFormat(String mediaType, String contentType) {
+        this.mediaType = mediaType;
+        this.contentType = contentType;
+    }
+
+    /**
+     * the format of a request body with this Content-Type. anything but
+     * Smile or CBOR is read as JSON, as before there was a choice.
+     */
+    public static BodyFormat ofContentType(String contentType) {
+        if (contentType == null) {
+            return JSON;
+        }
+        int end = contentType.indexOf(';');
+        String mediaType = (end < 0 ? contentType : contentType.substring(0, end)).trim();
+        for (BodyFormat format : values()) {
+            if (format.mediaType.equalsIgnoreCase(mediaType)) {
+                return format;
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * the format of the response for a client sending these Accept headers.
+     * a binary format is only chosen if it is named and preferred over JSON,
+     * which the wildcards stand for too; JSON wins any tie.
+     */
+    public static BodyFormat negotiate(List<String> accept) {
+        if (accept == null) {
+            return JSON;
+        }
+        double json = -1;
+        double best = 0;
+        BodyFormat binary = null;
+        for (String header : accept) {
+            for (String element : header.split(",")) {
+                String[] parts = element.split(";");
+                String mediaType = parts[0].trim().toLowerCase();
+                double q = 1;
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=") || param.startsWith("Q=")) {
+                        try {
+                            q = Double.parseDouble(param.substring(2).trim());
+                        } catch (NumberFormatException e) {
+                            q = 0;
+                        }
+                    }
+                }
+                if (mediaType.equals(JSON.mediaType) || mediaType.equals("*/*") || mediaType.equals("application/*")) {
+                    json = Math.max(json, q);
+                } else if (mediaType.equals(SMILE.mediaType) || mediaType.equals(CBOR.mediaType)) {
+                    if (q > best) {
+                        best = q;
+                        binary = mediaType.equals(SMILE.mediaType) ? SMILE : CBOR;
+                    }
+                }
+            }
+        }
+        return binary != null && best > json ? binary : JSON;
+    }
+
+    /* e.g. "application/cbor", without parameters */
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    /* the Content-Type header of a body in this format */
+    public String getContentType() {
+        return contentType;
+    }
+
+    private final String mediaType;
+    private final String contentType;
+}
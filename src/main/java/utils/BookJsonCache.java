@@ -0,0 +1,159 @@
+package utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import entities.Book;
+import queries.BorrowHistories;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the UTF-8 JSON of the metadata of books, i.e. category, title, press,
+ * publish year, author and price, keyed by book_id. a Book or
+ * BorrowHistories.Item is written by splicing its cached fragment between
+ * the fields that change, such as stock, so rows are not serialized field
+ * by field through Jackson. the output is byte for byte what Jackson writes.
+ *
+ * an entry is only used while the row's metadata equals the one it was
+ * made from, so a change the cache was not told about costs a miss, never
+ * a stale response. {@link #invalidate} a book after modifying or removing
+ * it anyway, so the old JSON does not linger. once maxSize books are cached
+ * the others are serialized on every request.
+ */
+public final class BookJsonCache {
+    private static final byte[] BOOK_ID = bytes("{\"bookId\":");
+    private static final byte[] STOCK = bytes(",\"stock\":");
+    private static final byte[] CARD_ID = bytes("{\"cardId\":");
+    private static final byte[] ITEM_BOOK_ID = bytes(",\"bookId\":");
+    private static final byte[] BORROW_TIME = bytes(",\"borrowTime\":");
+    private static final byte[] RETURN_TIME = bytes(",\"returnTime\":");
+
+    private final int maxSize;
+    private final ConcurrentHashMap<Integer, Fragment> fragments = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public BookJsonCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /* the metadata a fragment was made from, and the fragment: "category":...,"price":... */
+    private static final class Fragment {
+        private final String category;
+        private final String title;
+        private final String press;
+        private final int publishYear;
+        private final String author;
+        private final double price;
+        private final byte[] json;
+
+        private Fragment(String category, String title, String press, int publishYear,
+                         String author, double price, byte[] json) {
+            this.category = category;
+            this.title = title;
+            this.press = press;
+            this.publishYear = publishYear;
+            this.author = author;
+            this.price = price;
+            this.json = json;
+        }
+
+        private boolean matches(String category, String title, String press, int publishYear,
+                                String author, double price) {
+            return publishYear == this.publishYear
+                    && Double.compare(price, this.price) == 0
+                    && Objects.equals(title, this.title)
+                    && Objects.equals(author, this.author)
+                    && Objects.equals(press, this.press)
+                    && Objects.equals(category, this.category);
+        }
+    }
+
+    /* append book as JsonUtil would write it */
+    public void appendBook(Book book, JsonBytes out) {
+        out.append(BOOK_ID).append(book.getBookId()).append((byte) ',');
+        out.append(fragment(book.getBookId(), book.getCategory(), book.getTitle(), book.getPress(),
+                book.getPublishYear(), book.getAuthor(), book.getPrice()));
+        out.append(STOCK).append(book.getStock()).append((byte) '}');
+    }
+
+    /* append item as JsonUtil would write it */
+    public void appendItem(BorrowHistories.Item item, JsonBytes out) {
+        out.append(CARD_ID).append(item.getCardId()).append(ITEM_BOOK_ID).append(item.getBookId()).append((byte) ',');
+        out.append(fragment(item.getBookId(), item.getCategory(), item.getTitle(), item.getPress(),
+                item.getPublishYear(), item.getAuthor(), item.getPrice()));
+        out.append(BORROW_TIME).append(item.getBorrowTime());
+        out.append(RETURN_TIME).append(item.getReturnTime()).append((byte) '}');
+    }
+
+    private byte[] fragment(int bookId, String category, String title, String press, int publishYear,
+                            String author, double price) {
+        Fragment fragment = fragments.get(bookId);
+        if (fragment != null && fragment.matches(category, title, press, publishYear, author, price)) {
+            hits.increment();
+            return fragment.json;
+        }
+        misses.increment();
+        byte[] json = serialize(category, title, press, publishYear, author, price);
+        if (fragment != null || fragments.size() < maxSize) {
+            fragments.put(bookId, new Fragment(category, title, press, publishYear, author, price, json));
+        }
+        return json;
+    }
+
+    private static byte[] serialize(String category, String title, String press, int publishYear,
+                                    String author, double price) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+        try (JsonGenerator generator = JsonUtil.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("category", category);
+            generator.writeStringField("title", title);
+            generator.writeStringField("press", press);
+            generator.writeNumberField("publishYear", publishYear);
+            generator.writeStringField("author", author);
+            generator.writeNumberField("price", price);
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to serialize book metadata", e);
+        }
+        byte[] object = out.toByteArray();
+        // without the braces, so it can be spliced into a bigger object
+        return Arrays.copyOfRange(object, 1, object.length - 1);
+    }
+
+    public void invalidate(int bookId) {
+        fragments.remove(bookId);
+    }
+
+    public void clear() {
+        fragments.clear();
+    }
+
+    public int size() {
+        return fragments.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /* share of rows written from a cached fragment, 0 before the first row */
+    public double getHitRatio() {
+        long h = hits.sum();
+        long m = misses.sum();
+        return h + m == 0 ? 0 : (double) h / (h + m);
+    }
+
+    private static byte[] bytes(String ascii) {
+        return ascii.getBytes(StandardCharsets.US_ASCII);
+    }
+}
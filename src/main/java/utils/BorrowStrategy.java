@@ -0,0 +1,30 @@
+package utils;
+
+/**
+ * how borrowBook reserves a copy of the book.
+ */
+public enum BorrowStrategy {
+    /* lock the book row with SELECT ... FOR UPDATE, check, insert, then decrement */
+    LOCKING("locking"),
+    /* decrement with a single conditional UPDATE and check the affected rows */
+    CONDITIONAL("conditional");
+
+    BorrowStrategy(String typeName) {
+        this.typeName = typeName;
+    }
+
+    public static BorrowStrategy instance(String typeName) throws IllegalArgumentException {
+        for (BorrowStrategy type : BorrowStrategy.values()) {
+            if (type.typeName.equals(typeName.toLowerCase())) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Invalid borrow strategy name.");
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    private final String typeName;
+}
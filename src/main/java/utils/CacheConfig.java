@@ -0,0 +1,62 @@
+package utils;
+
+import java.util.Map;
+
+/**
+ * settings of the in-process book metadata cache, parsed from the
+ * "cache" section of "resources/application.yaml". off by default, since
+ * the cache misses writes that do not go through this server.
+ */
+public final class CacheConfig {
+
+    private final boolean enabled;
+    /* max number of cached books */
+    private final int maxSize;
+    /* milliseconds an entry stays valid, 0 means forever */
+    private final long ttl;
+    private final EvictionPolicy eviction;
+    /* keep the JSON of book metadata for GET /book and GET /borrow, up to maxSize books */
+    private final boolean fragments;
+
+    public CacheConfig(Map<String, Object> section) {
+        Map<String, Object> map = section == null ? Map.of() : section;
+        enabled = (Boolean) map.getOrDefault("enabled", false);
+        maxSize = ((Number) map.getOrDefault("maxSize", 10000)).intValue();
+        ttl = ((Number) map.getOrDefault("ttl", 300000)).longValue();
+        eviction = EvictionPolicy.instance((String) map.getOrDefault("eviction", "lru"));
+        fragments = (Boolean) map.getOrDefault("fragments", true);
+        if (maxSize <= 0 || ttl < 0) {
+            throw new IllegalArgumentException("cache.maxSize must be positive and cache.ttl must not be negative.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "utils.CacheConfig: {" + "enabled=" + enabled +
+                ", maxSize=" + maxSize +
+                ", ttl=" + ttl +
+                ", eviction=" + eviction +
+                ", fragments=" + fragments +
+                '}';
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public EvictionPolicy getEviction() {
+        return eviction;
+    }
+
+    public boolean isFragments() {
+        return fragments;
+    }
+}
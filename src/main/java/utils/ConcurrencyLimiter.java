@@ -0,0 +1,170 @@
+package utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * lets at most limit callers in at once and up to queueSize more wait
+ * for a slot, in arrival order. anyone beyond that, or waiting longer
+ * than allowed, is turned away, so that a slow backend sheds load early
+ * instead of letting every request pile up and time out together.
+ *
+ * in adaptive mode the limit is recomputed after every call from its
+ * service time, in the spirit of the gradient limiters: the ratio of a
+ * long term average latency to a short term one shrinks the limit when
+ * calls get slower than usual (queueing somewhere behind us), and a
+ * headroom of sqrt(limit) lets it grow while they do not.
+ */
+public final class ConcurrencyLimiter {
+
+    /* weight of a new sample in the short and long term average service time */
+    private static final double SHORT_ALPHA = 0.1;
+    private static final double LONG_ALPHA = 0.002;
+    /* latency may rise by this factor over the long term average before the limit drops */
+    private static final double TOLERANCE = 1.5;
+    /* weight of the newly computed limit against the current one */
+    private static final double SMOOTHING = 0.2;
+
+    private final int queueSize;
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+
+    /* fair, so that signalled waiters are not overtaken by new arrivals */
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition slotFree = lock.newCondition();
+    /* guarded by lock */
+    private double limit;
+    private int inFlight;
+    private int waiting;
+    private double shortRtt;
+    private double longRtt;
+
+    private final LongAdder rejected = new LongAdder();
+
+    public ConcurrencyLimiter(int limit, int queueSize, boolean adaptive, int minLimit, int maxLimit) {
+        this.limit = limit;
+        this.queueSize = queueSize;
+        this.adaptive = adaptive;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    public ConcurrencyLimiter(AdmissionConfig conf) {
+        this(conf.getLimit(), conf.getQueueSize(), conf.isAdaptive(), conf.getMinLimit(), conf.getMaxLimit());
+    }
+
+    /**
+     * take a slot, waiting up to maxWait for one if the queue has room.
+     * every true must be followed by exactly one {@link #release}.
+     *
+     * @return false if the caller was turned away
+     */
+    public boolean acquire(long maxWait, TimeUnit unit) throws InterruptedException {
+        lock.lock();
+        try {
+            if (waiting == 0 && inFlight < (int) limit) {
+                inFlight++;
+                return true;
+            }
+            if (waiting >= queueSize) {
+                rejected.increment();
+                return false;
+            }
+            waiting++;
+            try {
+                long nanos = unit.toNanos(maxWait);
+                while (inFlight >= (int) limit) {
+                    if (nanos <= 0) {
+                        rejected.increment();
+                        return false;
+                    }
+                    nanos = slotFree.awaitNanos(nanos);
+                }
+                inFlight++;
+                return true;
+            } finally {
+                waiting--;
+                if (inFlight < (int) limit) {
+                    // a slot this waiter did not take, e.g. after a timeout
+                    slotFree.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* give back a slot taken by acquire, serviceNanos is how long the caller held it */
+    public void release(long serviceNanos) {
+        lock.lock();
+        try {
+            if (adaptive) {
+                adapt(serviceNanos);
+            }
+            inFlight--;
+            if (inFlight < (int) limit) {
+                slotFree.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* needs lock */
+    private void adapt(long serviceNanos) {
+        double rtt = Math.max(serviceNanos, 1);
+        if (longRtt == 0) {
+            shortRtt = rtt;
+            longRtt = rtt;
+            return;
+        }
+        shortRtt += SHORT_ALPHA * (rtt - shortRtt);
+        longRtt += LONG_ALPHA * (rtt - longRtt);
+        if (longRtt > 2 * shortRtt) {
+            // latency dropped for good, don't let the old average hold the limit up forever
+            longRtt = 0.95 * longRtt + 0.05 * shortRtt;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        double next = limit * gradient + Math.sqrt(limit);
+        if (next > limit && inFlight < limit / 2) {
+            // not using what we have, no reason to ask for more
+            next = limit;
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, (1 - SMOOTHING) * limit + SMOOTHING * next));
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* callers turned away so far, because the queue was full or they waited too long */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
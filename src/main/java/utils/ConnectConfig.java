@@ -16,15 +16,24 @@ public final class ConnectConfig {
     private final String password;
     private final String db;
     private final DatabaseType type;
+    private final PoolConfig pool;
+    private final ServerConfig server;
+    private final SearchConfig search;
+    private final ServiceConfig service;
+    private final CacheConfig cache;
+    private final MemoryConfig memory;
+    private final AdmissionConfig admission;
 
     public ConnectConfig() throws FileNotFoundException, NullPointerException, ClassNotFoundException {
-        URL res = ConnectConfig.class.getClassLoader().getResource("application.yaml");
-        if (res == null) {
-            throw new NullPointerException();
-        }
-        BufferedReader br = new BufferedReader(new FileReader(res.getPath()));
-        Yaml yaml = new Yaml();
-        Map<String, Object> objectMap = yaml.load(br);
+        this(load());
+    }
+
+    /**
+     * build the config from an already parsed map with the same
+     * layout as "resources/application.yaml".
+     */
+    @SuppressWarnings("unchecked")
+    public ConnectConfig(Map<String, Object> objectMap) throws ClassNotFoundException {
         /* initialize all configures */
         host = (String)objectMap.getOrDefault("host", "localhost");
         port = (String)objectMap.getOrDefault("port", "3306");
@@ -32,8 +41,27 @@ public final class ConnectConfig {
         password = (String)objectMap.getOrDefault("password", "");
         db = (String)objectMap.getOrDefault("db", "library");
         type = DatabaseType.instance((String)objectMap.getOrDefault("type", "mysql"));
+        pool = new PoolConfig((Map<String, Object>)objectMap.get("pool"));
+        server = new ServerConfig((Map<String, Object>)objectMap.get("server"));
+        search = new SearchConfig((Map<String, Object>)objectMap.get("search"));
+        service = new ServiceConfig((Map<String, Object>)objectMap.get("service"));
+        cache = new CacheConfig((Map<String, Object>)objectMap.get("cache"));
+        memory = new MemoryConfig((Map<String, Object>)objectMap.get("memory"));
+        admission = new AdmissionConfig((Map<String, Object>)objectMap.get("admission"));
         /* load database connect driver */
-        Class.forName(type.getDriverName());
+        if (type.getDriverName() != null) {
+            Class.forName(type.getDriverName());
+        }
+    }
+
+    private static Map<String, Object> load() throws FileNotFoundException, NullPointerException {
+        URL res = ConnectConfig.class.getClassLoader().getResource("application.yaml");
+        if (res == null) {
+            throw new NullPointerException();
+        }
+        BufferedReader br = new BufferedReader(new FileReader(res.getPath()));
+        Yaml yaml = new Yaml();
+        return yaml.load(br);
     }
 
     @Override
@@ -44,6 +72,13 @@ public final class ConnectConfig {
                 ", password='" + password + '\'' +
                 ", db='" + db + '\'' +
                 ", type='" + type.toString() + '\'' +
+                ", pool=" + pool.toString() +
+                ", server=" + server.toString() +
+                ", search=" + search.toString() +
+                ", service=" + service.toString() +
+                ", cache=" + cache.toString() +
+                ", memory=" + memory.toString() +
+                ", admission=" + admission.toString() +
                 '}';
     }
 
@@ -70,4 +105,32 @@ public final class ConnectConfig {
     public DatabaseType getType() {
         return type;
     }
+
+    public PoolConfig getPool() {
+        return pool;
+    }
+
+    public ServerConfig getServer() {
+        return server;
+    }
+
+    public SearchConfig getSearch() {
+        return search;
+    }
+
+    public ServiceConfig getService() {
+        return service;
+    }
+
+    public CacheConfig getCache() {
+        return cache;
+    }
+
+    public MemoryConfig getMemory() {
+        return memory;
+    }
+
+    public AdmissionConfig getAdmission() {
+        return admission;
+    }
 }
@@ -9,4 +9,14 @@ public interface DBInitializer {
     String sqlCreateCard();
     String sqlCreateBorrow();
 
+    /*
+     * the access paths to open loans (return_time = 0), so that checking
+     * for an outstanding loan of a card or a book is a lookup no matter
+     * how long the history of returned loans is. those of a card come
+     * from the open history index, which leads with the card's open loans.
+     */
+    String sqlCreateOpenLoanByBookIndex();
+    String sqlCreateBorrowHistoryIndex();
+    String sqlCreateOpenBorrowHistoryIndex();
+
 }
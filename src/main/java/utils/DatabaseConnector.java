@@ -3,53 +3,355 @@ package utils;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
 
+/**
+ * a bounded pool of database connections.
+ *
+ * callers lease a {@link PooledConnection} per operation and give it back
+ * by closing it, so independent transactions run on their own connections.
+ * idle connections are kept in LIFO order, validated on borrow, and closed
+ * by a background evictor once they exceed maxLifetime or idleTimeout.
+ */
 public class DatabaseConnector {
 
+    private static final Logger log = Logger.getLogger(DatabaseConnector.class.getName());
+    /* connections given back within this window skip validation on borrow */
+    private static final long VALIDATION_BYPASS_WINDOW = 500;
+
     private final ConnectConfig conf;
-    private Connection conn;
+    private final PoolConfig poolConf;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    /* head is the most recently used connection */
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>();
+    /* number of physical connections, leased + idle + being opened */
+    private int total = 0;
+    private int leased = 0;
+    private boolean open = false;
+    private ScheduledExecutorService evictor;
+
+    /* prepared statement cache counters across all connections */
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+    /* bumped when cached statements must not be reused, e.g. after the schema is rebuilt */
+    private final AtomicLong statementEpoch = new AtomicLong();
 
     public DatabaseConnector(ConnectConfig conf) {
         this.conf = conf;
+        this.poolConf = conf.getPool();
     }
 
     public boolean connect() {
-        if (conn != null) {
-            return false;
+        lock.lock();
+        try {
+            if (open) {
+                return false;
+            }
+            open = true;
+        } finally {
+            lock.unlock();
+        }
+        if (conf.getType().getDriverName() == null) {
+            /* nothing to connect to, the library keeps its data in memory */
+            return true;
         }
         try {
-            String url = conf.getType().url(conf.getHost(), conf.getPort(), conf.getDB());
-            conn = DriverManager.getConnection(url, conf.getUser(), conf.getPassword());
-            if (conn != null) {
-                /* Note: you need to connect & release trx explicitly */
-                conn.setAutoCommit(false);
-                return true;
+            /* open minIdle connections eagerly, which also checks the config */
+            fill();
+            if (poolConf.getMinIdle() == 0) {
+                lease().close();
             }
         } catch (Exception e) {
             e.printStackTrace();
+            release();
+            return false;
         }
-        return false;
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        evictor.scheduleWithFixedDelay(this::evict, poolConf.getEvictionInterval(),
+                poolConf.getEvictionInterval(), TimeUnit.MILLISECONDS);
+        return true;
     }
 
     public boolean release() {
-        if (conn == null) {
-            return false;
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            if (!open) {
+                return false;
+            }
+            open = false;
+            toClose = new ArrayList<>(idle);
+            total -= idle.size();
+            idle.clear();
+            /* wake up waiters so that they fail fast */
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        /* leased connections are closed when they are given back */
+        toClose.forEach(PooledConnection::closePhysical);
+        return true;
+    }
+
+    /**
+     * lease a connection from the pool, waiting up to connectionTimeout
+     * if all connections are in use. the returned connection has
+     * auto-commit disabled and must be closed to give it back.
+     */
+    public PooledConnection lease() throws SQLException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(poolConf.getConnectionTimeout());
+        while (true) {
+            PooledConnection pc = null;
+            boolean create = false;
+            lock.lock();
+            try {
+                while (true) {
+                    if (!open) {
+                        throw new SQLException("Connection pool is not open.");
+                    }
+                    pc = idle.pollFirst();
+                    if (pc != null) {
+                        break;
+                    }
+                    if (total < poolConf.getMaxSize()) {
+                        total++;
+                        create = true;
+                        break;
+                    }
+                    if (remaining <= 0) {
+                        throw new SQLTransientConnectionException(String.format(
+                                "Timed out after %d ms waiting for a connection, pool size %d.",
+                                poolConf.getConnectionTimeout(), total));
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+                leased++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection.", e);
+            } finally {
+                lock.unlock();
+            }
+
+            if (create) {
+                try {
+                    pc = newConnection();
+                } catch (SQLException e) {
+                    discard(null);
+                    throw e;
+                }
+            } else if (!isUsable(pc)) {
+                discard(pc);
+                continue;
+            }
+            pc.markLeased(statementEpoch.get());
+            return pc;
         }
+    }
+
+    void giveBack(PooledConnection pc) {
+        boolean healthy = true;
         try {
-            conn.close();
-            conn = null;
-            return true;
+            /* never hand an open transaction to the next caller */
+            pc.raw().rollback();
         } catch (SQLException e) {
-            e.printStackTrace();
+            healthy = false;
         }
-        return false;
+        lock.lock();
+        try {
+            leased--;
+            if (healthy && open && !isExpired(pc, System.currentTimeMillis())) {
+                pc.touch();
+                idle.addFirst(pc);
+                available.signal();
+                return;
+            }
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        pc.closePhysical();
     }
 
-    public Connection getConn() {
-        return conn;
+    /**
+     * drop the prepared statements cached by every connection. each
+     * connection clears its cache the next time it is leased.
+     */
+    public void invalidateStatements() {
+        statementEpoch.incrementAndGet();
     }
 
     public ConnectConfig getConf() {
         return conf;
     }
+
+    public long getStatementCacheHits() {
+        return statementHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementMisses.get();
+    }
+
+    /* number of connections currently leased out */
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return leased;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* number of connections waiting in the pool */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private PooledConnection newConnection() throws SQLException {
+        String url = conf.getType().url(conf.getHost(), conf.getPort(), conf.getDB());
+        if (url == null) {
+            throw new SQLException("A " + conf.getType().getTypeName() + " database has no connections.");
+        }
+        Connection conn = DriverManager.getConnection(url, conf.getUser(), conf.getPassword());
+        /* Note: you need to connect & release trx explicitly */
+        conn.setAutoCommit(false);
+        StatementCache statements = new StatementCache(conn, poolConf.getStatementCacheSize(),
+                statementHits, statementMisses);
+        return new PooledConnection(this, conn, statements, statementEpoch.get());
+    }
+
+    private boolean isUsable(PooledConnection pc) {
+        long now = System.currentTimeMillis();
+        if (isExpired(pc, now)) {
+            return false;
+        }
+        if (now - pc.getLastUsedAt() < VALIDATION_BYPASS_WINDOW) {
+            return true;
+        }
+        try {
+            return pc.raw().isValid(poolConf.getValidationTimeout());
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isExpired(PooledConnection pc, long now) {
+        return poolConf.getMaxLifetime() > 0 && now - pc.getCreatedAt() >= poolConf.getMaxLifetime();
+    }
+
+    /* drop a leased slot (and its connection, if any) from the pool */
+    private void discard(PooledConnection pc) {
+        lock.lock();
+        try {
+            leased--;
+            total--;
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (pc != null) {
+            pc.closePhysical();
+        }
+    }
+
+    private void evict() {
+        List<PooledConnection> toClose = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            /* walk from the least recently used end */
+            Iterator<PooledConnection> it = idle.descendingIterator();
+            while (it.hasNext()) {
+                PooledConnection pc = it.next();
+                boolean idleTooLong = poolConf.getIdleTimeout() > 0
+                        && now - pc.getLastUsedAt() >= poolConf.getIdleTimeout()
+                        && idle.size() > poolConf.getMinIdle();
+                if (isExpired(pc, now) || idleTooLong) {
+                    it.remove();
+                    total--;
+                    toClose.add(pc);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!toClose.isEmpty()) {
+            log.info("Evicted " + toClose.size() + " idle connections.");
+        }
+        toClose.forEach(PooledConnection::closePhysical);
+        try {
+            fill();
+        } catch (SQLException e) {
+            log.warning("Failed to refill connection pool: " + e.getMessage());
+        }
+    }
+
+    /* top the pool up to minIdle idle connections */
+    private void fill() throws SQLException {
+        while (true) {
+            lock.lock();
+            try {
+                if (!open || idle.size() >= poolConf.getMinIdle() || total >= poolConf.getMaxSize()) {
+                    return;
+                }
+                total++;
+            } finally {
+                lock.unlock();
+            }
+            PooledConnection pc;
+            try {
+                pc = newConnection();
+            } catch (SQLException e) {
+                lock.lock();
+                try {
+                    total--;
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+                throw e;
+            }
+            lock.lock();
+            try {
+                if (open) {
+                    idle.addLast(pc);
+                    available.signal();
+                    continue;
+                }
+                total--;
+            } finally {
+                lock.unlock();
+            }
+            pc.closePhysical();
+            return;
+        }
+    }
 }
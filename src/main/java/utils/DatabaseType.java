@@ -1,10 +1,16 @@
 package utils;
 
+import java.sql.SQLException;
+
 public enum DatabaseType {
     MYSQL("mysql", "com.mysql.cj.jdbc.Driver", new MysqlInitializer()),
     // TODO: to be updated
     POSTGRES("postgresql", "org.postgresql.Driver", new MysqlInitializer()),
-    SQLSERVER("sqlserver", "com.microsoft.sqlserver.jdbc.SQLServerDriver", new SqlServerInitializer());
+    SQLSERVER("sqlserver", "com.microsoft.sqlserver.jdbc.SQLServerDriver", new SqlServerInitializer()),
+    /* in-memory h2 in mysql mode, a stand-in for benchmarks; the driver is not shipped */
+    H2("h2", "org.h2.Driver", new MysqlInitializer()),
+    /* no database at all, see service.InMemoryLibraryManagementSystem */
+    MEMORY("memory", null, null);
 
     DatabaseType(String typeName, String driverName, DBInitializer dbInitializer) {
         this.typeName = typeName;
@@ -25,12 +31,138 @@ public enum DatabaseType {
             case SQLSERVER:
                 return String.format("jdbc:sqlserver://%s:%s;DatabaseName=%s;encrypt=false", host, port, db);
             case MYSQL:
+                /* use server-side prepared statements, so that statements cached
+                   by the pool are parsed only once by the server */
+                return String.format("jdbc:%s://%s:%s/%s?useServerPrepStmts=true", typeName, host, port, db);
             case POSTGRES:
                 return String.format("jdbc:%s://%s:%s/%s", typeName, host, port, db);
+            case H2:
+                /* host and port are ignored, the database lives as long as the jvm */
+                return String.format("jdbc:h2:mem:%s;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1", db);
+            case MEMORY:
+                return null;
         }
         return null;
     }
 
+    /**
+     * the dialect's clause to skip `offset` rows and return at most
+     * `limit` rows. must follow an ORDER BY clause.
+     */
+    public String limitClause(int limit, int offset) {
+        switch (this) {
+            case SQLSERVER:
+                return String.format(" OFFSET %d ROWS FETCH NEXT %d ROWS ONLY", offset, limit);
+            case MYSQL:
+            case POSTGRES:
+            case H2:
+            default:
+                return String.format(" LIMIT %d OFFSET %d", limit, offset);
+        }
+    }
+
+    /**
+     * fetch size that makes the driver hand out rows of a large result
+     * while they arrive instead of reading the whole result first.
+     */
+    public int streamingFetchSize() {
+        switch (this) {
+            case MYSQL:
+                /* connector/j streams row by row only for this magic value */
+                return Integer.MIN_VALUE;
+            case POSTGRES:
+                /* fetched through a cursor, needs auto-commit off */
+                return 256;
+            case SQLSERVER:
+            case H2:
+            default:
+                /* sql server streams with its default adaptive buffering */
+                return 0;
+        }
+    }
+
+    /**
+     * an UPDATE of table that also hands back column of the updated rows
+     * as a result set, to save reading them again. null if the dialect
+     * cannot do both in one statement.
+     */
+    public String updateReturning(String table, String set, String where, String column) {
+        switch (this) {
+            case POSTGRES:
+                return String.format("UPDATE %s SET %s WHERE %s RETURNING %s", table, set, where, column);
+            case SQLSERVER:
+                return String.format("UPDATE %s SET %s OUTPUT inserted.%s WHERE %s", table, set, column, where);
+            case H2:
+                return String.format("SELECT %s FROM FINAL TABLE (UPDATE %s SET %s WHERE %s)", column, table, set, where);
+            case MYSQL:
+            default:
+                /* no RETURNING in mysql */
+                return null;
+        }
+    }
+
+    /**
+     * max parameters bound to one statement, which limits the rows of
+     * a multi-row INSERT or of an IN list.
+     */
+    public int maxBindParameters() {
+        switch (this) {
+            case SQLSERVER:
+                /* the server rejects more than 2100, keep some headroom */
+                return 2000;
+            case POSTGRES:
+                return 32767;
+            case MYSQL:
+            case H2:
+            default:
+                return 65535;
+        }
+    }
+
+    /**
+     * whether e (or an SQLException it was caused by) means the transaction
+     * was rolled back because of a conflict with another one, i.e. running
+     * it again may well succeed: a deadlock victim, a serialization failure
+     * or a lock wait timeout. lost connections are not included, since the
+     * transaction may have committed before the connection went away.
+     */
+    public boolean isTransient(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (!(t instanceof SQLException sql)) {
+                continue;
+            }
+            for (SQLException s = sql; s != null; s = s.getNextException()) {
+                if (isTransient(s.getSQLState(), s.getErrorCode())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isTransient(String sqlState, int errorCode) {
+        /* serialization failure, the standard code of a deadlock victim as well */
+        if ("40001".equals(sqlState)) {
+            return true;
+        }
+        switch (this) {
+            case MYSQL:
+                /* ER_LOCK_DEADLOCK, ER_LOCK_WAIT_TIMEOUT */
+                return errorCode == 1213 || errorCode == 1205;
+            case POSTGRES:
+                /* deadlock_detected, lock_not_available */
+                return "40P01".equals(sqlState) || "55P03".equals(sqlState);
+            case SQLSERVER:
+                /* chosen as deadlock victim, lock request timeout */
+                return errorCode == 1205 || errorCode == 1222;
+            case H2:
+                /* lock timeout, concurrent update in another transaction */
+                return "HYT00".equals(sqlState) || errorCode == 90131;
+            default:
+                return false;
+        }
+    }
+
     public static DatabaseType instance(String typeName) throws IllegalArgumentException {
         for (DatabaseType type : DatabaseType.values()) {
             if (type.typeName.equals(typeName.toLowerCase())) {
@@ -0,0 +1,30 @@
+package utils;
+
+/**
+ * which entry a full cache drops to make room.
+ */
+public enum EvictionPolicy {
+    /* the least recently used entry */
+    LRU("lru"),
+    /* the least frequently used entry, the least recently used among equals */
+    LFU("lfu");
+
+    EvictionPolicy(String typeName) {
+        this.typeName = typeName;
+    }
+
+    public static EvictionPolicy instance(String typeName) throws IllegalArgumentException {
+        for (EvictionPolicy type : EvictionPolicy.values()) {
+            if (type.typeName.equals(typeName.toLowerCase())) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Invalid eviction policy name.");
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    private final String typeName;
+}
@@ -0,0 +1,76 @@
+package utils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * how the http server runs its handlers.
+ */
+public enum ExecutorType {
+    /* run every handler on the jdk's single dispatcher thread */
+    DISPATCHER("dispatcher"),
+    /* a new virtual thread per request */
+    VIRTUAL("virtual"),
+    /* a bounded pool of platform threads with a bounded queue */
+    POOL("pool");
+
+    private static final Logger log = Logger.getLogger(ExecutorType.class.getName());
+
+    ExecutorType(String typeName) {
+        this.typeName = typeName;
+    }
+
+    /**
+     * create the executor behind this mode, or null for DISPATCHER.
+     */
+    public ExecutorService create(ServerConfig conf) {
+        switch (this) {
+            case VIRTUAL:
+                return newVirtualThreadPerTaskExecutor();
+            case POOL:
+                AtomicInteger seq = new AtomicInteger();
+                /* when the queue is full the dispatcher runs the request itself,
+                   which stops it from accepting more until a worker frees up */
+                return new ThreadPoolExecutor(conf.getThreads(), conf.getThreads(),
+                        60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(conf.getQueueCapacity()),
+                        r -> new Thread(r, "http-worker-" + seq.incrementAndGet()),
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+            case DISPATCHER:
+            default:
+                return null;
+        }
+    }
+
+    public static ExecutorType instance(String typeName) throws IllegalArgumentException {
+        for (ExecutorType type : ExecutorType.values()) {
+            if (type.typeName.equals(typeName.toLowerCase())) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Invalid executor type name.");
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    /* looked up reflectively since we still compile for jdk 17 */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warning("Virtual threads require JDK 21+, falling back to a platform thread per request.");
+            AtomicInteger seq = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> new Thread(r, "http-request-" + seq.incrementAndGet()));
+        }
+    }
+
+    private final String typeName;
+}
@@ -1,60 +1,148 @@
 package utils;
 
-import java.util.Map;
-import java.net.URLDecoder;
-import java.util.HashMap;  
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.logging.Logger;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
-import java.io.OutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 public class HttpUtil {
     private static final Logger log = Logger.getLogger(HttpUtil.class.getName());
 
-    public static Map<String, String> extractParams(String query) {
-        Map<String, String> params = new HashMap<>();
-        try {
-            if (query != null && !query.isEmpty()) {
-                String[] pairs = query.split("&");
-                for (String pair : pairs) {
-                    String[] keyValue = pair.split("=", 2);
-                    if (keyValue.length == 2) {
-                        String key = URLDecoder.decode(keyValue[0], "UTF-8");
-                        String value = URLDecoder.decode(keyValue[1], "UTF-8");
-                        params.put(key, value);
-                    } else if (keyValue.length == 1) {
-                        String key = URLDecoder.decode(keyValue[0], "UTF-8");
-                        params.put(key, "");
-                    }
-                }
-            }
-        } catch (Exception e) {
-            log.severe("Failed to extract params from query: " + query);
-            throw new RuntimeException("Failed to extract params from query", e);
-        }
-        return params;
+    /* larger buffers are left to the gc instead of being pooled */
+    private static final int MAX_POOLED_BUFFER = 256 * 1024;
+    private static final ArrayBlockingQueue<ByteArrayOutputStream> buffers = new ArrayBlockingQueue<>(64);
+    /* null until the server configures it, i.e. no compression */
+    private static volatile ResponseCompression compression;
+    /* whether Smile and CBOR bodies are accepted and offered, see BodyFormat */
+    private static volatile boolean binaryFormats = false;
+
+    public static void setCompression(ResponseCompression responseCompression) {
+        compression = responseCompression;
+    }
+
+    public static void setBinaryFormats(boolean enabled) {
+        binaryFormats = enabled;
+    }
+
+    /* the format of the request body, JSON unless binary formats are enabled */
+    public static BodyFormat requestFormat(HttpExchange exchange) {
+        return binaryFormats ? BodyFormat.ofContentType(exchange.getRequestHeaders().getFirst("Content-Type"))
+                : BodyFormat.JSON;
     }
 
-    public static void jsonResponse(HttpExchange exchange, Object obj) {
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        String response = JsonUtil.toJson(obj);
-        try (OutputStream outputStream = exchange.getResponseBody()) {
-            outputStream.write(response.getBytes());
-            outputStream.close(); 
+    /**
+     * send obj as the JSON (or negotiated binary) body of a response with
+     * the given status.
+     * a body below the compression threshold is encoded into a pooled
+     * buffer first, so the response carries a Content-Length instead of
+     * being chunked; a larger one is compressed while it is encoded if
+     * the client accepts gzip or deflate.
+     */
+    public static void jsonResponse(HttpExchange exchange, int code, Object obj) {
+        ResponseBody body = openBody(exchange, code, false);
+        try {
+            JsonUtil.write(body, obj, body.getFormat());
+            body.close();
         } catch (IOException e) {
+            if (!body.isCommitted()) {
+                body.discard();
+            }
             log.severe("Failed to write response: " + e.getMessage());
             throw new RuntimeException("Failed to write response", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * the body of a response with the given status, in the format and
+     * compressed as the request negotiated. a streamed body is sent chunked
+     * from its first write unless it is to be compressed, otherwise the
+     * whole body is held back for a Content-Length. closing it completes
+     * the response.
+     */
+    public static ResponseBody openBody(HttpExchange exchange, int code, boolean streamed) {
+        ResponseCompression coding = compression;
+        ResponseCompression.Encoding encoding = null;
+        if (coding != null && coding.isEnabled()) {
+            encoding = coding.negotiate(exchange.getRequestHeaders().get("Accept-Encoding"));
+        }
+        BodyFormat format = responseFormat(exchange);
+        exchange.getResponseHeaders().set("Content-Type", format.getContentType());
+        int threshold = encoding != null ? coding.getMinSize() : streamed ? 0 : Integer.MAX_VALUE;
+        return new ResponseBody(exchange, code, format, coding, encoding, threshold);
+    }
+
+    /**
+     * the format of the response body as the request negotiated it. also
+     * sets the Vary header naming the request headers the body depends
+     * on, which a 304 standing for the body has to carry as well.
+     */
+    public static BodyFormat responseFormat(HttpExchange exchange) {
+        Headers responseHeaders = exchange.getResponseHeaders();
+        ResponseCompression coding = compression;
+        boolean compressing = coding != null && coding.isEnabled();
+        if (binaryFormats) {
+            responseHeaders.set("Vary", compressing ? "Accept, Accept-Encoding" : "Accept");
+            return BodyFormat.negotiate(exchange.getRequestHeaders().get("Accept"));
         }
+        if (compressing) {
+            responseHeaders.set("Vary", "Accept-Encoding");
+        }
+        return BodyFormat.JSON;
+    }
+
+    /**
+     * answer 304 Not Modified if the request's If-None-Match holds etag,
+     * otherwise tag the response that is about to be sent with it and
+     * return false. "no-cache" makes browsers ask again on every poll
+     * instead of guessing how long the listing stays fresh.
+     */
+    public static boolean notModified(HttpExchange exchange, String etag) throws IOException {
+        Headers responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.set("ETag", etag);
+        responseHeaders.set("Cache-Control", "no-cache");
+        responseFormat(exchange);
+        List<String> ifNoneMatch = exchange.getRequestHeaders().get("If-None-Match");
+        if (ifNoneMatch == null || !matches(ifNoneMatch, etag)) {
+            return false;
+        }
+        exchange.sendResponseHeaders(304, -1);
         exchange.close();
+        return true;
     }
 
-    public static <T> T jsonRequest(HttpExchange exchange, Class<T> requestType) {
-        try {
-            String requestBody = new String(exchange.getRequestBody().readAllBytes(), "UTF-8");
-            return JsonUtil.fromJson(requestBody, requestType);
-        } catch (IOException e) {
-            log.severe("Failed to read request body: " + e.getMessage());
-            throw new RuntimeException("Failed to read request body", e);
+    /* weak comparison, as If-None-Match asks for */
+    private static boolean matches(List<String> ifNoneMatch, String etag) {
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String header : ifNoneMatch) {
+            for (String tag : header.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*") || (tag.startsWith("W/") ? tag.substring(2) : tag).equals(opaque)) {
+                    return true;
+                }
+            }
         }
+        return false;
+    }
+
+    static ByteArrayOutputStream takeBuffer() {
+        ByteArrayOutputStream buffer = buffers.poll();
+        return buffer != null ? buffer : new ByteArrayOutputStream(8192);
+    }
+
+    static void releaseBuffer(ByteArrayOutputStream buffer) {
+        if (buffer.size() <= MAX_POOLED_BUFFER) {
+            buffer.reset();
+            buffers.offer(buffer);
+        }
+    }
+
+    /* the request body mapped to requestType, read as it arrives in the format of its Content-Type */
+    public static <T> T jsonRequest(HttpExchange exchange, Class<T> requestType) {
+        return JsonUtil.read(exchange.getRequestBody(), requestType, requestFormat(exchange));
     }
 }
@@ -0,0 +1,83 @@
+package utils;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the executor handed to the http server. it tracks how many requests
+ * are waiting for a worker and how many handlers are running, so that
+ * the thread and connection pool sizes can be tuned.
+ */
+public class InstrumentedExecutor implements Executor {
+
+    private final ExecutorType type;
+    /* null means run on the calling (dispatcher) thread */
+    private final ExecutorService delegate;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peakActive = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+
+    public InstrumentedExecutor(ServerConfig conf) {
+        this.type = conf.getExecutor();
+        this.delegate = type.create(conf);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        queued.incrementAndGet();
+        Runnable task = () -> {
+            queued.decrementAndGet();
+            peakActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                command.run();
+            } finally {
+                active.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        };
+        if (delegate == null) {
+            task.run();
+        } else {
+            delegate.execute(task);
+        }
+    }
+
+    public void shutdown() {
+        if (delegate == null) {
+            return;
+        }
+        delegate.shutdown();
+        try {
+            delegate.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public ExecutorType getType() {
+        return type;
+    }
+
+    /* requests accepted by the server but not yet picked up by a worker */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /* handlers currently running */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getPeakActiveCount() {
+        return peakActive.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+}
@@ -0,0 +1,83 @@
+package utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * a growable buffer of UTF-8 JSON, for rows assembled from pre-serialized
+ * fragments. unlike ByteArrayOutputStream it is not synchronized and can
+ * append numbers without making strings of them.
+ */
+public final class JsonBytes {
+    private byte[] bytes;
+    private int size = 0;
+
+    public JsonBytes(int capacity) {
+        this.bytes = new byte[capacity];
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+
+    public JsonBytes append(byte b) {
+        ensure(1);
+        bytes[size++] = b;
+        return this;
+    }
+
+    public JsonBytes append(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, bytes, size, b.length);
+        size += b.length;
+        return this;
+    }
+
+    /* the decimal digits of value, like Long.toString */
+    public JsonBytes append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(Long.toString(value).getBytes(StandardCharsets.US_ASCII));
+        }
+        ensure(20);
+        if (value < 0) {
+            bytes[size++] = '-';
+            value = -value;
+        }
+        int end = size + digits(value);
+        for (int p = end - 1; p >= size; p--) {
+            bytes[p] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size = end;
+        return this;
+    }
+
+    private static int digits(long value) {
+        int n = 1;
+        while (value >= 10) {
+            value /= 10;
+            n++;
+        }
+        return n;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+}
@@ -1,14 +1,60 @@
 package utils;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 public class JsonUtil {
     private static final Logger log = Logger.getLogger(JsonUtil.class.getName());
     // https://fasterxml.github.io/jackson-databind/javadoc/2.6/com/fasterxml/jackson/databind/ObjectMapper.html
     // 官方文档指出，ObjectMapper是thread-safe的，因此，不需要每次都new ObjectMapper()，使用单例模式
-    private static final ObjectMapper objectMapper = new ObjectMapper();
-    
+    /* generator buffers come from a shared pool instead of a thread local,
+       so they are reused by virtual threads as well */
+    private static final ObjectMapper objectMapper = tuned(JsonFactory.builder()
+            .recyclerPool(JsonRecyclerPools.sharedConcurrentDequePool())
+            .build());
+    /* one mapper per body format, all with the same settings */
+    private static final Map<BodyFormat, ObjectMapper> mappers = new EnumMap<>(BodyFormat.class);
+    private static final Map<BodyFormat, ObjectWriter> writers = new EnumMap<>(BodyFormat.class);
+
+    static {
+        mappers.put(BodyFormat.JSON, objectMapper);
+        mappers.put(BodyFormat.SMILE, tuned(SmileFactory.builder()
+                .recyclerPool(JsonRecyclerPools.sharedConcurrentDequePool())
+                .build()));
+        mappers.put(BodyFormat.CBOR, tuned(CBORFactory.builder()
+                .recyclerPool(JsonRecyclerPools.sharedConcurrentDequePool())
+                .build()));
+        mappers.forEach((format, mapper) ->
+                writers.put(format, mapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)));
+    }
+
+    /* getters, setters and constructors are called through generated lambdas instead of reflection */
+    private static ObjectMapper tuned(JsonFactory factory) {
+        return new ObjectMapper(factory).registerModule(new BlackbirdModule());
+    }
+
+    /* the mapper of a body format, e.g. to compare it with a plain one */
+    public static ObjectMapper mapper(BodyFormat format) {
+        return mappers.get(format);
+    }
+
     public static String toJson(Object obj) {
         try {
             return objectMapper.writeValueAsString(obj);
@@ -18,6 +64,42 @@ public class JsonUtil {
         }
     }
 
+    /* write obj to out in format, without building a String first. out is left open */
+    public static void write(OutputStream out, Object obj, BodyFormat format) throws IOException {
+        writers.get(format).writeValue(out, obj);
+    }
+
+    /* a UTF-8 generator on out that can also write whole objects */
+    public static JsonGenerator createGenerator(OutputStream out) throws IOException {
+        return objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+    }
+
+    /* a generator writing format to out that can also write whole objects */
+    public static JsonGenerator createGenerator(OutputStream out, BodyFormat format) throws IOException {
+        return mappers.get(format).getFactory().createGenerator(out, JsonEncoding.UTF8);
+    }
+
+    /* a parser reading format from in, for bodies too large to read at once */
+    public static JsonParser createParser(InputStream in, BodyFormat format) throws IOException {
+        return mappers.get(format).getFactory().createParser(in);
+    }
+
+    /**
+     * read the value at the current token of parser and map it to valueType.
+     * the whole value is consumed even if it cannot be mapped, so parsing
+     * can go on with the next one.
+     *
+     * @throws IllegalArgumentException if the value does not match valueType
+     */
+    public static <T> T readElement(JsonParser parser, Class<T> valueType) throws IOException {
+        JsonNode node = objectMapper.readTree(parser);
+        try {
+            return objectMapper.treeToValue(node, valueType);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e.getOriginalMessage(), e);
+        }
+    }
+
     public static <T> T fromJson(String json, Class<T> valueType) {
         try {
             return objectMapper.readValue(json, valueType);
@@ -26,4 +108,14 @@ public class JsonUtil {
             throw new RuntimeException("Failed to convert JSON string to object" + e.getMessage());
         }
     }
+
+    /* read a value in format straight from in, without building a String first */
+    public static <T> T read(InputStream in, Class<T> valueType, BodyFormat format) {
+        try {
+            return mappers.get(format).readValue(in, valueType);
+        } catch (Exception e) {
+            log.severe("Failed to convert " + format + " body to object: " + e.getMessage());
+            throw new RuntimeException("Failed to convert " + format + " body to object: " + e.getMessage());
+        }
+    }
 }
@@ -0,0 +1,109 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * a lock-free latency histogram in the style of HdrHistogram.
+ *
+ * latencies are kept in microseconds, in buckets that are linear below 8us
+ * and split every power of two into 8 sub-buckets above, i.e. within 12.5%
+ * of the recorded value up to about 12 days. recording only increments
+ * counters, it never allocates or blocks.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    /* values from 2^MAX_EXPONENT us on land in the last bucket */
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = SUB_COUNT + (MAX_EXPONENT - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * record one call that started at startNanos (from System.nanoTime).
+     */
+    public void record(long startNanos, boolean error) {
+        long micros = Math.max(0, (System.nanoTime() - startNanos) / 1000);
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        if (error) {
+            errors.incrementAndGet();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public double getSumSeconds() {
+        return sumMicros.get() / 1e6;
+    }
+
+    /**
+     * number of recorded latencies of at most `seconds`. a bucket is
+     * counted once all of its values are within the bound.
+     */
+    public long countAtMost(double seconds) {
+        long bound = (long) (seconds * 1e6);
+        long n = 0;
+        for (int i = 0; i < BUCKETS && upperBound(i) <= bound; i++) {
+            n += counts.get(i);
+        }
+        return n;
+    }
+
+    /* the latency in seconds below which a share q of the calls completed */
+    public double quantile(double q) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1, rank)) {
+                return upperBound(i) / 1e6;
+            }
+        }
+        return upperBound(BUCKETS - 1) / 1e6;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_COUNT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return SUB_COUNT + (exponent - SUB_BITS) * SUB_COUNT + sub;
+    }
+
+    /* the largest value in microseconds that falls into bucket i */
+    static long upperBound(int i) {
+        if (i < SUB_COUNT) {
+            return i;
+        }
+        int exponent = (i - SUB_COUNT) / SUB_COUNT + SUB_BITS;
+        int sub = (i - SUB_COUNT) % SUB_COUNT;
+        long width = 1L << (exponent - SUB_BITS);
+        return ((long) (SUB_COUNT + sub) << (exponent - SUB_BITS)) + width - 1;
+    }
+}
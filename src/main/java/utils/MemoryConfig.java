@@ -0,0 +1,58 @@
+package utils;
+
+import java.util.Map;
+
+/**
+ * persistence of the "memory" database type, parsed from the "memory"
+ * section of "resources/application.yaml".
+ */
+public final class MemoryConfig {
+
+    /* directory of the log and the snapshots, empty to keep nothing on disk */
+    private final String dataDir;
+    private final SyncMode syncMode;
+    /* milliseconds between group fsyncs, unused with sync mode "always" */
+    private final long fsyncInterval;
+    /* milliseconds between snapshots, 0 to only take one on shutdown */
+    private final long snapshotInterval;
+
+    public MemoryConfig(Map<String, Object> section) {
+        Map<String, Object> map = section == null ? Map.of() : section;
+        dataDir = (String) map.getOrDefault("dataDir", "");
+        syncMode = SyncMode.instance((String) map.getOrDefault("syncMode", "always"));
+        fsyncInterval = ((Number) map.getOrDefault("fsyncInterval", 5)).longValue();
+        snapshotInterval = ((Number) map.getOrDefault("snapshotInterval", 600000)).longValue();
+        if (fsyncInterval <= 0 || snapshotInterval < 0) {
+            throw new IllegalArgumentException("memory.fsyncInterval must be positive and memory.snapshotInterval must not be negative.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "utils.MemoryConfig: {" + "dataDir='" + dataDir + '\'' +
+                ", syncMode=" + syncMode +
+                ", fsyncInterval=" + fsyncInterval +
+                ", snapshotInterval=" + snapshotInterval +
+                '}';
+    }
+
+    public boolean isPersistent() {
+        return dataDir != null && !dataDir.isEmpty();
+    }
+
+    public String getDataDir() {
+        return dataDir;
+    }
+
+    public SyncMode getSyncMode() {
+        return syncMode;
+    }
+
+    public long getFsyncInterval() {
+        return fsyncInterval;
+    }
+
+    public long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+}
@@ -0,0 +1,127 @@
+package utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * the metrics served by GET /metrics. histograms and gauges are created
+ * once at startup and handed to the code that updates them, so nothing
+ * is looked up by name while requests are served.
+ */
+public final class MetricsRegistry {
+
+    /* bucket bounds in seconds of the exported histograms */
+    private static final double[] BOUNDS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025,
+        0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+    private final Map<String, Gauge> gauges = new LinkedHashMap<>();
+    private final Map<String, GaugeFamily> gaugeFamilies = new LinkedHashMap<>();
+
+    private static final class Family {
+        private final String help;
+        private final String label;
+        private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+
+        private Family(String help, String label) {
+            this.help = help;
+            this.label = label;
+        }
+    }
+
+    private record Gauge(String help, DoubleSupplier value) {}
+
+    private record GaugeFamily(String help, String label, Map<String, DoubleSupplier> values) {}
+
+    /**
+     * the histogram of name{label="value"}, created on first use. exported
+     * as name_seconds (histogram), name_quantile_seconds and name_errors_total.
+     */
+    public synchronized LatencyHistogram histogram(String name, String help, String label, String value) {
+        Family family = families.computeIfAbsent(name, k -> new Family(help, label));
+        return family.histograms.computeIfAbsent(value, k -> new LatencyHistogram());
+    }
+
+    /* a value read when the metrics are scraped */
+    public synchronized void gauge(String name, String help, DoubleSupplier value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    /* a value of name{label="value"} read when the metrics are scraped */
+    public synchronized void gauge(String name, String help, String label, String value, DoubleSupplier supplier) {
+        gaugeFamilies.computeIfAbsent(name, k -> new GaugeFamily(help, label, new LinkedHashMap<>()))
+                .values().put(value, supplier);
+    }
+
+    /* everything in the prometheus text format, version 0.0.4 */
+    public synchronized String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Family> e : families.entrySet()) {
+            writeFamily(out, e.getKey(), e.getValue());
+        }
+        for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            out.append("# HELP ").append(e.getKey()).append(' ').append(e.getValue().help()).append('\n');
+            out.append("# TYPE ").append(e.getKey()).append(" gauge\n");
+            out.append(e.getKey()).append(' ').append(format(e.getValue().value().getAsDouble())).append('\n');
+        }
+        for (Map.Entry<String, GaugeFamily> e : gaugeFamilies.entrySet()) {
+            GaugeFamily family = e.getValue();
+            out.append("# HELP ").append(e.getKey()).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(e.getKey()).append(" gauge\n");
+            for (Map.Entry<String, DoubleSupplier> v : family.values().entrySet()) {
+                out.append(e.getKey()).append('{').append(family.label()).append("=\"").append(v.getKey())
+                        .append("\"} ").append(format(v.getValue().getAsDouble())).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeFamily(StringBuilder out, String name, Family family) {
+        String seconds = name + "_seconds";
+        out.append("# HELP ").append(seconds).append(' ').append(family.help).append(", latency\n");
+        out.append("# TYPE ").append(seconds).append(" histogram\n");
+        for (Map.Entry<String, LatencyHistogram> e : family.histograms.entrySet()) {
+            String labels = family.label + "=\"" + e.getKey() + "\"";
+            LatencyHistogram h = e.getValue();
+            /* count first, so that buckets never exceed it while calls are being recorded */
+            long count = h.getCount();
+            for (double bound : BOUNDS) {
+                out.append(seconds).append("_bucket{").append(labels).append(",le=\"").append(format(bound))
+                        .append("\"} ").append(Math.min(count, h.countAtMost(bound))).append('\n');
+            }
+            out.append(seconds).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append('\n');
+            out.append(seconds).append("_sum{").append(labels).append("} ").append(format(h.getSumSeconds())).append('\n');
+            out.append(seconds).append("_count{").append(labels).append("} ").append(count).append('\n');
+        }
+
+        String quantiles = name + "_quantile_seconds";
+        out.append("# HELP ").append(quantiles).append(' ').append(family.help).append(", latency quantiles\n");
+        out.append("# TYPE ").append(quantiles).append(" gauge\n");
+        for (Map.Entry<String, LatencyHistogram> e : family.histograms.entrySet()) {
+            for (double q : QUANTILES) {
+                out.append(quantiles).append('{').append(family.label).append("=\"").append(e.getKey())
+                        .append("\",quantile=\"").append(format(q)).append("\"} ")
+                        .append(format(e.getValue().quantile(q))).append('\n');
+            }
+        }
+
+        String errors = name + "_errors_total";
+        out.append("# HELP ").append(errors).append(' ').append(family.help).append(", failed calls\n");
+        out.append("# TYPE ").append(errors).append(" counter\n");
+        for (Map.Entry<String, LatencyHistogram> e : family.histograms.entrySet()) {
+            out.append(errors).append('{').append(family.label).append("=\"").append(e.getKey()).append("\"} ")
+                    .append(e.getValue().getErrors()).append('\n');
+        }
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
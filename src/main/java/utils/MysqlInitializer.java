@@ -58,4 +58,22 @@ public class MysqlInitializer implements DBInitializer {
                 "  foreign key (`book_id`) references `book`(`book_id`) on delete cascade on update cascade\n" +
                 ") engine=innodb charset=utf8mb4;";
     }
+
+    /* also serves the foreign key on book_id */
+    @Override
+    public String sqlCreateOpenLoanByBookIndex() {
+        return "create index `borrow_open_by_book` on `borrow` (`book_id`, `return_time`);";
+    }
+
+    /* in the order of the history, so a page is a range scan; desc is ignored before MySQL 8 */
+    @Override
+    public String sqlCreateBorrowHistoryIndex() {
+        return "create index `borrow_history` on `borrow` (`card_id`, `borrow_time` desc, `book_id`, `return_time`);";
+    }
+
+    /* no partial indexes here, so return_time goes right after the card; also finds the open loans of a card */
+    @Override
+    public String sqlCreateOpenBorrowHistoryIndex() {
+        return "create index `borrow_open_history` on `borrow` (`card_id`, `return_time`, `borrow_time` desc, `book_id`);";
+    }
 }
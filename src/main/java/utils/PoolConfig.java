@@ -0,0 +1,88 @@
+package utils;
+
+import java.util.Map;
+
+/**
+ * settings of the connection pool, parsed from the "pool" section
+ * of "resources/application.yaml". durations are in milliseconds
+ * unless noted otherwise.
+ */
+public final class PoolConfig {
+
+    /* max number of physical connections, leased or idle */
+    private final int maxSize;
+    /* number of idle connections the evictor keeps warm */
+    private final int minIdle;
+    /* max time a caller waits for a lease before giving up */
+    private final long connectionTimeout;
+    /* connections older than this are closed instead of reused */
+    private final long maxLifetime;
+    /* idle connections above minIdle are closed after this */
+    private final long idleTimeout;
+    /* timeout in seconds passed to Connection.isValid() on borrow */
+    private final int validationTimeout;
+    /* how often the evictor runs */
+    private final long evictionInterval;
+    /* prepared statements cached per connection, 0 disables the cache */
+    private final int statementCacheSize;
+
+    public PoolConfig(Map<String, Object> section) {
+        Map<String, Object> map = section == null ? Map.of() : section;
+        maxSize = ((Number) map.getOrDefault("maxSize", 10)).intValue();
+        minIdle = Math.min(((Number) map.getOrDefault("minIdle", 1)).intValue(), maxSize);
+        connectionTimeout = ((Number) map.getOrDefault("connectionTimeout", 30000)).longValue();
+        maxLifetime = ((Number) map.getOrDefault("maxLifetime", 1800000)).longValue();
+        idleTimeout = ((Number) map.getOrDefault("idleTimeout", 600000)).longValue();
+        validationTimeout = ((Number) map.getOrDefault("validationTimeout", 5)).intValue();
+        evictionInterval = ((Number) map.getOrDefault("evictionInterval", 30000)).longValue();
+        statementCacheSize = ((Number) map.getOrDefault("statementCacheSize", 64)).intValue();
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("pool.maxSize must be positive.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "utils.PoolConfig: {" + "maxSize=" + maxSize +
+                ", minIdle=" + minIdle +
+                ", connectionTimeout=" + connectionTimeout +
+                ", maxLifetime=" + maxLifetime +
+                ", idleTimeout=" + idleTimeout +
+                ", validationTimeout=" + validationTimeout +
+                ", evictionInterval=" + evictionInterval +
+                ", statementCacheSize=" + statementCacheSize +
+                '}';
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public int getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    public long getEvictionInterval() {
+        return evictionInterval;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+}
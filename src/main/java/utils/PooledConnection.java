@@ -0,0 +1,98 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * a physical connection leased from {@link DatabaseConnector}.
+ * closing it gives the connection back to the pool instead of
+ * closing the socket, so use it with try-with-resources.
+ */
+public final class PooledConnection implements AutoCloseable {
+
+    private final DatabaseConnector owner;
+    private final Connection conn;
+    private final StatementCache statements;
+    private final long createdAt;
+    /* last time the connection was given back, used by validation & eviction */
+    private long lastUsedAt;
+    private boolean leased;
+    /* statement epoch of the pool when the cache was last valid */
+    private long epoch;
+
+    PooledConnection(DatabaseConnector owner, Connection conn, StatementCache statements, long epoch) {
+        this.owner = owner;
+        this.conn = conn;
+        this.statements = statements;
+        this.epoch = epoch;
+        this.createdAt = System.currentTimeMillis();
+        this.lastUsedAt = createdAt;
+    }
+
+    public Connection getConnection() {
+        if (!leased) {
+            throw new IllegalStateException("Connection has been given back to the pool.");
+        }
+        return conn;
+    }
+
+    /**
+     * prepare a statement through the per-connection cache. the
+     * statement is owned by the cache, so do not close it.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return statements.prepare(sql);
+    }
+
+    /**
+     * like {@link #prepare(String)}, with {@link java.sql.Statement#RETURN_GENERATED_KEYS}
+     * or {@link java.sql.Statement#NO_GENERATED_KEYS}.
+     */
+    public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        return statements.prepare(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public void close() {
+        if (leased) {
+            leased = false;
+            statements.release();
+            owner.giveBack(this);
+        }
+    }
+
+    Connection raw() {
+        return conn;
+    }
+
+    void markLeased(long currentEpoch) {
+        if (epoch != currentEpoch) {
+            /* the schema has been rebuilt since these statements were prepared */
+            statements.clear();
+            epoch = currentEpoch;
+        }
+        leased = true;
+    }
+
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    long getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    void touch() {
+        lastUsedAt = System.currentTimeMillis();
+    }
+
+    void closePhysical() {
+        statements.clear();
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * the parameters of a raw (still percent-encoded) query string.
+ *
+ * the query is scanned once for the bounds of its name=value pairs, no
+ * substrings are cut out of it. a value is decoded when it is asked for,
+ * and only if it has a '%' or '+' in it. the typed getters parse numbers
+ * and enum names straight from the query, so getInt("pageSize", 100)
+ * allocates nothing.
+ *
+ * like the HashMap it replaces, a name that occurs twice has the last
+ * value, and pairs without a name are ignored.
+ *
+ * @see #getInt(String, int)
+ */
+public class QueryString {
+    /* per pair: name start, name end, value start, value end, flags */
+    private static final int FIELDS = 5;
+    private static final int NAME_ESCAPED = 1;
+    private static final int VALUE_ESCAPED = 2;
+    private static final int[] NO_PAIRS = new int[0];
+
+    private final String query;
+    private int[] pairs = NO_PAIRS;
+    private int size = 0;
+
+    /* query is the raw query of a URI, null if it has none */
+    public QueryString(String query) {
+        this.query = query == null ? "" : query;
+        parse();
+    }
+
+    private void parse() {
+        int length = query.length();
+        int start = 0;
+        while (start < length) {
+            int nameEnd = -1;
+            int flags = 0;
+            int end = start;
+            for (; end < length; end++) {
+                char c = query.charAt(end);
+                if (c == '&') {
+                    break;
+                }
+                if (c == '=' && nameEnd < 0) {
+                    nameEnd = end;
+                } else if (c == '%' || c == '+') {
+                    flags |= nameEnd < 0 ? NAME_ESCAPED : VALUE_ESCAPED;
+                }
+            }
+            if (nameEnd < 0) {
+                nameEnd = end;
+            }
+            if (nameEnd > start) {
+                add(start, nameEnd, Math.min(nameEnd + 1, end), end, flags);
+            }
+            start = end + 1;
+        }
+    }
+
+    private void add(int nameStart, int nameEnd, int valueStart, int valueEnd, int flags) {
+        if (pairs.length == size * FIELDS) {
+            int[] grown = new int[Math.max(8, size * 2) * FIELDS];
+            System.arraycopy(pairs, 0, grown, 0, pairs.length);
+            pairs = grown;
+        }
+        int i = size++ * FIELDS;
+        pairs[i] = nameStart;
+        pairs[i + 1] = nameEnd;
+        pairs[i + 2] = valueStart;
+        pairs[i + 3] = valueEnd;
+        pairs[i + 4] = flags;
+    }
+
+    /* the offset of the last pair called name in pairs, or -1 */
+    private int find(String name) {
+        for (int i = (size - 1) * FIELDS; i >= 0; i -= FIELDS) {
+            int start = pairs[i];
+            int length = pairs[i + 1] - start;
+            if ((pairs[i + 4] & NAME_ESCAPED) != 0) {
+                if (decode(start, start + length).equals(name)) {
+                    return i;
+                }
+            } else if (length == name.length() && query.regionMatches(start, name, 0, length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean has(String name) {
+        return find(name) >= 0;
+    }
+
+    /* the number of pairs, counting names that occur twice twice */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * the decoded value of name, "" if it has no '=', null if it is absent.
+     *
+     * @throws IllegalArgumentException if the value has a broken percent escape
+     */
+    public String get(String name) {
+        int i = find(name);
+        return i < 0 ? null : value(i);
+    }
+
+    private String value(int i) {
+        int start = pairs[i + 2];
+        int end = pairs[i + 3];
+        return (pairs[i + 4] & VALUE_ESCAPED) != 0 ? decode(start, end) : query.substring(start, end);
+    }
+
+    /**
+     * @throws NumberFormatException if the value of name is not an int
+     */
+    public int getInt(String name, int defaultValue) {
+        int i = find(name);
+        if (i < 0) {
+            return defaultValue;
+        }
+        long value = parseLong(i);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("out of range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * @throws NumberFormatException if the value of name is not a long
+     */
+    public long getLong(String name, long defaultValue) {
+        int i = find(name);
+        return i < 0 ? defaultValue : parseLong(i);
+    }
+
+    /**
+     * @throws NumberFormatException if the value of name is not a number
+     */
+    public double getDouble(String name, double defaultValue) {
+        int i = find(name);
+        return i < 0 ? defaultValue : Double.parseDouble(value(i));
+    }
+
+    /**
+     * the constant of type named by the value of name, compared exactly
+     * like Enum.valueOf.
+     *
+     * @throws IllegalArgumentException if type has no such constant
+     */
+    public <E extends Enum<E>> E getEnum(String name, Class<E> type, E defaultValue) {
+        int i = find(name);
+        if (i < 0) {
+            return defaultValue;
+        }
+        if ((pairs[i + 4] & VALUE_ESCAPED) != 0) {
+            return Enum.valueOf(type, value(i));
+        }
+        int start = pairs[i + 2];
+        int length = pairs[i + 3] - start;
+        for (E constant : type.getEnumConstants()) {
+            String constantName = constant.name();
+            if (constantName.length() == length && query.regionMatches(start, constantName, 0, length)) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("No enum constant " + type.getSimpleName() + "." + value(i));
+    }
+
+    /* a decimal long read from the value of pair i, like Long.parseLong */
+    private long parseLong(int i) {
+        if ((pairs[i + 4] & VALUE_ESCAPED) != 0) {
+            return Long.parseLong(value(i));
+        }
+        int start = pairs[i + 2];
+        int end = pairs[i + 3];
+        if (start == end) {
+            throw new NumberFormatException("empty");
+        }
+        boolean negative = false;
+        char first = query.charAt(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++start == end) {
+                throw new NumberFormatException("sign only");
+            }
+        }
+        // accumulated negatively, which also holds Long.MIN_VALUE
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyLimit = limit / 10;
+        long result = 0;
+        for (int p = start; p < end; p++) {
+            int digit = query.charAt(p) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("not a digit");
+            }
+            if (result < multiplyLimit || result * 10 < limit + digit) {
+                throw new NumberFormatException("out of range");
+            }
+            result = result * 10 - digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /* query[start, end) with '+' as space and %XX as UTF-8 bytes, like URLDecoder */
+    private String decode(int start, int end) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(end - start);
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int p = start; p < end; p++) {
+            char c = query.charAt(p);
+            if (c == '%') {
+                bytes.reset();
+                while (p < end && query.charAt(p) == '%') {
+                    if (p + 2 >= end) {
+                        throw new IllegalArgumentException("incomplete escape in query");
+                    }
+                    int high = Character.digit(query.charAt(p + 1), 16);
+                    int low = Character.digit(query.charAt(p + 2), 16);
+                    if (high < 0 || low < 0) {
+                        throw new IllegalArgumentException("illegal escape in query");
+                    }
+                    bytes.write(high << 4 | low);
+                    p += 3;
+                }
+                sb.append(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+                p--;
+            } else {
+                sb.append(c == '+' ? ' ' : c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * all parameters decoded, for logging and cache keys.
+     *
+     * @throws IllegalArgumentException if a name or value has a broken percent escape
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new HashMap<>(size * 2);
+        for (int i = 0; i < size * FIELDS; i += FIELDS) {
+            int start = pairs[i];
+            int end = pairs[i + 1];
+            String name = (pairs[i + 4] & NAME_ESCAPED) != 0 ? decode(start, end) : query.substring(start, end);
+            map.put(name, value(i));
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return query;
+    }
+}
@@ -0,0 +1,119 @@
+package utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * the body of a response, opened by {@link HttpUtil#openBody}.
+ *
+ * the first threshold bytes are held back in a pooled buffer. a body
+ * that ends within them is sent as it is, with a Content-Length; once a
+ * body grows past them the headers go out and it is streamed chunked,
+ * compressed if a coding was negotiated. the headers are therefore not
+ * sent before the first write past the threshold or close.
+ */
+public final class ResponseBody extends OutputStream {
+
+    private final HttpExchange exchange;
+    private final int code;
+    private final BodyFormat format;
+    private final ResponseCompression compression;
+    /* null for no compression */
+    private final ResponseCompression.Encoding encoding;
+    private final int threshold;
+    /* the bytes held back, null once they are sent */
+    private ByteArrayOutputStream pending;
+    /* where the body goes once the headers are sent */
+    private OutputStream out;
+    private boolean closed;
+
+    ResponseBody(HttpExchange exchange, int code, BodyFormat format, ResponseCompression compression,
+                 ResponseCompression.Encoding encoding, int threshold) {
+        this.exchange = exchange;
+        this.code = code;
+        this.format = format;
+        this.compression = compression;
+        this.encoding = encoding;
+        this.threshold = threshold;
+        this.pending = HttpUtil.takeBuffer();
+    }
+
+    /* the format negotiated for the body, the Content-Type is already set */
+    public BodyFormat getFormat() {
+        return format;
+    }
+
+    /* whether the headers were sent, after which the status cannot change any more */
+    public boolean isCommitted() {
+        return out != null;
+    }
+
+    /* drop what was written so far, without responding. only before the headers are sent */
+    public void discard() {
+        if (out != null) {
+            throw new IllegalStateException("response already committed");
+        }
+        if (pending != null) {
+            HttpUtil.releaseBuffer(pending);
+            pending = null;
+        }
+        closed = true;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("response body closed");
+        }
+        if (out != null) {
+            out.write(b, off, len);
+            return;
+        }
+        pending.write(b, off, len);
+        if (pending.size() >= threshold) {
+            commit(encoding, 0);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (out == null) {
+            // all of it fits below the threshold
+            commit(null, pending.size() == 0 ? -1 : pending.size());
+        }
+        out.close();
+    }
+
+    private void commit(ResponseCompression.Encoding coding, long length) throws IOException {
+        if (coding != null) {
+            exchange.getResponseHeaders().set("Content-Encoding", coding.getToken());
+        }
+        exchange.sendResponseHeaders(code, length);
+        OutputStream raw = exchange.getResponseBody();
+        out = coding == null ? raw : compression.compress(raw, coding);
+        try {
+            pending.writeTo(out);
+        } finally {
+            HttpUtil.releaseBuffer(pending);
+            pending = null;
+        }
+    }
+}
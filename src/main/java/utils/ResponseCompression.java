@@ -0,0 +1,238 @@
+package utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * gzip and deflate content coding of response bodies, chosen from the
+ * Accept-Encoding header of the request.
+ *
+ * bodies are compressed while they are written, through Deflaters taken
+ * from a pool and reset for the next response, so neither the compressed
+ * body nor a new Deflater (with its native memory) is needed per response.
+ */
+public final class ResponseCompression {
+
+    public enum Encoding {
+        GZIP("gzip"),
+        DEFLATE("deflate");
+
+        private final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+
+        public String getToken() {
+            return token;
+        }
+    }
+
+    private static final int POOL_SIZE = 64;
+    private static final int BUFFER_SIZE = 8192;
+    /* magic, method deflate, no flags, no mtime, no extra flags, unknown os */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final boolean enabled;
+    private final int minSize;
+    private final int level;
+    /* raw deflate streams for gzip, which has its own header and trailer */
+    private final ArrayBlockingQueue<Deflater> gzipDeflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+    /* zlib streams, which is what http calls deflate */
+    private final ArrayBlockingQueue<Deflater> zlibDeflaters = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder deflateNanos = new LongAdder();
+
+    public ResponseCompression(ServerConfig conf) {
+        this(conf.isCompression(), conf.getCompressionMinSize(), conf.getCompressionLevel());
+    }
+
+    public ResponseCompression(boolean enabled, int minSize, int level) {
+        this.enabled = enabled;
+        this.minSize = minSize;
+        this.level = level;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /* bodies shorter than this are sent as they are */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * the coding to use for a client sending these Accept-Encoding
+     * headers, or null for none. codings with q=0 are refused, gzip wins
+     * a tie with deflate, and "*" stands for any coding not listed.
+     */
+    public Encoding negotiate(List<String> acceptEncoding) {
+        if (!enabled || acceptEncoding == null) {
+            return null;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String header : acceptEncoding) {
+            for (String element : header.split(",")) {
+                String[] parts = element.split(";");
+                String coding = parts[0].trim().toLowerCase();
+                double q = 1;
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=") || param.startsWith("Q=")) {
+                        try {
+                            q = Double.parseDouble(param.substring(2).trim());
+                        } catch (NumberFormatException e) {
+                            q = 0;
+                        }
+                    }
+                }
+                switch (coding) {
+                    case "gzip", "x-gzip" -> gzip = Math.max(gzip, q);
+                    case "deflate" -> deflate = Math.max(deflate, q);
+                    case "*" -> any = Math.max(any, q);
+                    default -> {
+                    }
+                }
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? Encoding.GZIP : Encoding.DEFLATE;
+    }
+
+    /**
+     * a stream compressing everything written to it into out. closing
+     * it finishes the coding, closes out and puts the Deflater back.
+     */
+    public OutputStream compress(OutputStream out, Encoding encoding) throws IOException {
+        ArrayBlockingQueue<Deflater> pool = encoding == Encoding.GZIP ? gzipDeflaters : zlibDeflaters;
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(level, encoding == Encoding.GZIP);
+        }
+        return new CompressingStream(out, deflater, pool, encoding == Encoding.GZIP);
+    }
+
+    /* responses compressed so far */
+    public long getResponses() {
+        return responses.sum();
+    }
+
+    /* body bytes before compression */
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    /* body bytes sent after compression, gzip header and trailer included */
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    public long getBytesSaved() {
+        return getBytesIn() - getBytesOut();
+    }
+
+    /* time spent inside Deflater.deflate, which is all cpu */
+    public double getCpuSeconds() {
+        return deflateNanos.sum() / 1e9;
+    }
+
+    private final class CompressingStream extends DeflaterOutputStream {
+        private final ArrayBlockingQueue<Deflater> pool;
+        private final CRC32 crc;
+        private long written;
+        private long nanos;
+        private boolean released;
+
+        private CompressingStream(OutputStream out, Deflater deflater, ArrayBlockingQueue<Deflater> pool,
+                                  boolean gzip) throws IOException {
+            super(out, deflater, BUFFER_SIZE);
+            this.pool = pool;
+            this.crc = gzip ? new CRC32() : null;
+            if (gzip) {
+                out.write(GZIP_HEADER);
+                written = GZIP_HEADER.length;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            if (crc != null) {
+                crc.update(b, off, len);
+            }
+        }
+
+        /* called by write and finish whenever the deflater has output */
+        @Override
+        protected void deflate() throws IOException {
+            long start = System.nanoTime();
+            int len = def.deflate(buf, 0, buf.length);
+            nanos += System.nanoTime() - start;
+            if (len > 0) {
+                out.write(buf, 0, len);
+                written += len;
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (def.finished()) {
+                return;
+            }
+            super.finish();
+            if (crc != null) {
+                byte[] trailer = new byte[8];
+                writeIntLE(trailer, 0, (int) crc.getValue());
+                writeIntLE(trailer, 4, (int) def.getBytesRead());
+                out.write(trailer);
+                written += trailer.length;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    released = true;
+                    responses.increment();
+                    bytesIn.add(def.getBytesRead());
+                    bytesOut.add(written);
+                    deflateNanos.add(nanos);
+                    def.reset();
+                    if (!pool.offer(def)) {
+                        def.end();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void writeIntLE(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+}
@@ -0,0 +1,36 @@
+package utils;
+
+import java.util.Map;
+
+/**
+ * settings of the in-memory book search index, parsed from the
+ * "search" section of "resources/application.yaml".
+ */
+public final class SearchConfig {
+
+    /* narrow fuzzy title/press/author conditions with the trigram index, see service.BookTextIndex */
+    private final boolean ngramIndex;
+    /* above this many matches, fall back to LIKE instead of a book_id IN list */
+    private final int maxCandidates;
+
+    public SearchConfig(Map<String, Object> section) {
+        Map<String, Object> map = section == null ? Map.of() : section;
+        ngramIndex = (Boolean) map.getOrDefault("ngramIndex", false);
+        maxCandidates = ((Number) map.getOrDefault("maxCandidates", 1000)).intValue();
+    }
+
+    @Override
+    public String toString() {
+        return "utils.SearchConfig: {" + "ngramIndex=" + ngramIndex +
+                ", maxCandidates=" + maxCandidates +
+                '}';
+    }
+
+    public boolean isNgramIndex() {
+        return ngramIndex;
+    }
+
+    public int getMaxCandidates() {
+        return maxCandidates;
+    }
+}
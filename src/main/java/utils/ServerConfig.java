@@ -0,0 +1,99 @@
+package utils;
+
+import java.util.Map;
+
+/**
+ * settings of the embedded http server, parsed from the "server"
+ * section of "resources/application.yaml".
+ */
+public final class ServerConfig {
+
+    private final int port;
+    /* max pending tcp connections, 0 means the system default */
+    private final int backlog;
+    private final ExecutorType executor;
+    /* worker threads, only used by the "pool" executor */
+    private final int threads;
+    /* requests waiting for a worker, only used by the "pool" executor */
+    private final int queueCapacity;
+    /* gzip/deflate for clients that accept it */
+    private final boolean compression;
+    /* bodies shorter than this many bytes are not compressed */
+    private final int compressionMinSize;
+    /* 1 (fastest) to 9 (smallest) */
+    private final int compressionLevel;
+    /* Smile and CBOR bodies for clients that ask for them, see BodyFormat */
+    private final boolean binaryFormats;
+
+    public ServerConfig(Map<String, Object> section) {
+        Map<String, Object> map = section == null ? Map.of() : section;
+        port = ((Number) map.getOrDefault("port", 8000)).intValue();
+        backlog = ((Number) map.getOrDefault("backlog", 0)).intValue();
+        executor = ExecutorType.instance((String) map.getOrDefault("executor", "dispatcher"));
+        threads = ((Number) map.getOrDefault("threads", Runtime.getRuntime().availableProcessors() * 2)).intValue();
+        queueCapacity = ((Number) map.getOrDefault("queueCapacity", 256)).intValue();
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("server.threads and server.queueCapacity must be positive.");
+        }
+        compression = (Boolean) map.getOrDefault("compression", true);
+        compressionMinSize = ((Number) map.getOrDefault("compressionMinSize", 1024)).intValue();
+        compressionLevel = ((Number) map.getOrDefault("compressionLevel", 6)).intValue();
+        binaryFormats = (Boolean) map.getOrDefault("binaryFormats", false);
+        if (compressionMinSize < 0) {
+            throw new IllegalArgumentException("server.compressionMinSize must not be negative.");
+        }
+        if (compressionLevel < 1 || compressionLevel > 9) {
+            throw new IllegalArgumentException("server.compressionLevel must be between 1 and 9.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "utils.ServerConfig: {" + "port=" + port +
+                ", backlog=" + backlog +
+                ", executor=" + executor +
+                ", threads=" + threads +
+                ", queueCapacity=" + queueCapacity +
+                ", compression=" + compression +
+                ", compressionMinSize=" + compressionMinSize +
+                ", compressionLevel=" + compressionLevel +
+                ", binaryFormats=" + binaryFormats +
+                '}';
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public ExecutorType getExecutor() {
+        return executor;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public boolean isBinaryFormats() {
+        return binaryFormats;
+    }
+}
@@ -0,0 +1,81 @@
+package utils;
+
+import java.util.Map;
+
+/**
+ * settings of the library service itself, parsed from the "service"
+ * section of "resources/application.yaml".
+ */
+public final class ServiceConfig {
+
+    private final BorrowStrategy borrowStrategy;
+    /* books checked and inserted per statement by a bulk import */
+    private final int importBatchSize;
+    /* whether borrow counters for GET /stats are kept in memory */
+    private final boolean statistics;
+    /* times a transaction that failed with a deadlock or serialization failure is run again */
+    private final int retries;
+    /* milliseconds, the random wait before a retry is at most retryBackoff * 2^(retry - 1) */
+    private final long retryBackoff;
+    private final long retryMaxBackoff;
+    /* retries allowed per transaction run, on average */
+    private final double retryBudget;
+
+    public ServiceConfig(Map<String, Object> section) {
+        Map<String, Object> map = section == null ? Map.of() : section;
+        borrowStrategy = BorrowStrategy.instance((String) map.getOrDefault("borrowStrategy", "conditional"));
+        importBatchSize = (int) map.getOrDefault("importBatchSize", 500);
+        if (importBatchSize <= 0) {
+            throw new IllegalArgumentException("service.importBatchSize must be positive.");
+        }
+        statistics = (Boolean) map.getOrDefault("statistics", true);
+        retries = ((Number) map.getOrDefault("retries", 3)).intValue();
+        retryBackoff = ((Number) map.getOrDefault("retryBackoff", 5)).longValue();
+        retryMaxBackoff = ((Number) map.getOrDefault("retryMaxBackoff", 200)).longValue();
+        retryBudget = ((Number) map.getOrDefault("retryBudget", 0.2)).doubleValue();
+        if (retries < 0 || retryBackoff < 0 || retryMaxBackoff < 0 || retryBudget < 0) {
+            throw new IllegalArgumentException("service.retries, service.retryBackoff, service.retryMaxBackoff" +
+                    " and service.retryBudget must not be negative.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "utils.ServiceConfig: {" + "borrowStrategy=" + borrowStrategy +
+                ", importBatchSize=" + importBatchSize +
+                ", statistics=" + statistics +
+                ", retries=" + retries +
+                ", retryBackoff=" + retryBackoff +
+                ", retryMaxBackoff=" + retryMaxBackoff +
+                ", retryBudget=" + retryBudget +
+                '}';
+    }
+
+    public BorrowStrategy getBorrowStrategy() {
+        return borrowStrategy;
+    }
+
+    public int getImportBatchSize() {
+        return importBatchSize;
+    }
+
+    public boolean isStatistics() {
+        return statistics;
+    }
+
+    public int getRetries() {
+        return retries;
+    }
+
+    public long getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    public long getRetryMaxBackoff() {
+        return retryMaxBackoff;
+    }
+
+    public double getRetryBudget() {
+        return retryBudget;
+    }
+}
@@ -58,4 +58,22 @@ public class SqlServerInitializer implements DBInitializer {
                 "    foreign key (book_id) references book(book_id) on delete cascade on update cascade\n" +
                 ");";
     }
+
+    /* filtered indexes only hold the open loans, so they stay small */
+    @Override
+    public String sqlCreateOpenLoanByBookIndex() {
+        return "create index borrow_open_by_book on borrow (book_id) where return_time = 0;";
+    }
+
+    /* in the order of the history, so a page is a range scan */
+    @Override
+    public String sqlCreateBorrowHistoryIndex() {
+        return "create index borrow_history on borrow (card_id, borrow_time desc, book_id) include (return_time);";
+    }
+
+    /* also finds the open loans of a card */
+    @Override
+    public String sqlCreateOpenBorrowHistoryIndex() {
+        return "create index borrow_open_history on borrow (card_id, borrow_time desc, book_id) where return_time = 0;";
+    }
 }
@@ -0,0 +1,95 @@
+package utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * prepared statements of one physical connection, keyed by sql text.
+ *
+ * statements handed out by the cache are owned by it: callers must not
+ * close them. the least recently used statement is closed once the cache
+ * is full, and all statements are closed with the connection. a capacity
+ * of 0 disables caching; statements are then closed when the connection
+ * is given back to the pool.
+ */
+public final class StatementCache {
+
+    private final Connection conn;
+    private final int capacity;
+    /* pool-wide counters, shared by the caches of all connections */
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    /* access-ordered, so the eldest entry is the least recently used one */
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    /* statements prepared while caching is disabled */
+    private final List<PreparedStatement> uncached = new ArrayList<>();
+
+    StatementCache(Connection conn, int capacity, AtomicLong hits, AtomicLong misses) {
+        this.conn = conn;
+        this.capacity = capacity;
+        this.hits = hits;
+        this.misses = misses;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        if (capacity <= 0) {
+            misses.incrementAndGet();
+            PreparedStatement stmt = conn.prepareStatement(sql, autoGeneratedKeys);
+            uncached.add(stmt);
+            return stmt;
+        }
+        String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+        PreparedStatement stmt = statements.get(key);
+        if (stmt != null) {
+            hits.incrementAndGet();
+            stmt.clearParameters();
+            return stmt;
+        }
+        misses.incrementAndGet();
+        stmt = conn.prepareStatement(sql, autoGeneratedKeys);
+        statements.put(key, stmt);
+        if (statements.size() > capacity) {
+            Iterator<PreparedStatement> eldest = statements.values().iterator();
+            close(eldest.next());
+            eldest.remove();
+        }
+        return stmt;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    /* called when the connection is given back to the pool */
+    void release() {
+        uncached.forEach(StatementCache::close);
+        uncached.clear();
+    }
+
+    /* close every statement, e.g. before the connection is closed */
+    void clear() {
+        release();
+        statements.values().forEach(StatementCache::close);
+        statements.clear();
+    }
+
+    private static void close(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
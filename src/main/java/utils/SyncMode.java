@@ -0,0 +1,39 @@
+package utils;
+
+/**
+ * when a write to the log of the memory database is fsynced, relative
+ * to the call that made it returning.
+ */
+public enum SyncMode {
+    /*
+     * every call waits for an fsync of its write before it returns. calls
+     * arriving during an fsync are committed together by the next one.
+     */
+    ALWAYS("always"),
+    /*
+     * calls wait for the next group fsync, which runs every fsyncInterval.
+     * fewer fsyncs than "always", but every call waits up to the interval
+     */
+    GROUP("group"),
+    /* calls return at once, a crash loses up to fsyncInterval of writes */
+    INTERVAL("interval");
+
+    SyncMode(String typeName) {
+        this.typeName = typeName;
+    }
+
+    public static SyncMode instance(String typeName) throws IllegalArgumentException {
+        for (SyncMode type : SyncMode.values()) {
+            if (type.typeName.equals(typeName.toLowerCase())) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Invalid sync mode name.");
+    }
+
+    public String getTypeName() {
+        return typeName;
+    }
+
+    private final String typeName;
+}
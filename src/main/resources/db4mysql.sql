@@ -33,4 +33,12 @@ create table `borrow` (
   primary key (`card_id`, `book_id`, `borrow_time`),
   foreign key (`card_id`) references `card`(`card_id`) on delete cascade on update cascade,
   foreign key (`book_id`) references `book`(`book_id`) on delete cascade on update cascade
-) engine=innodb charset=utf8mb4;
\ No newline at end of file
+) engine=innodb charset=utf8mb4;
+
+-- open loans (return_time = 0) of a book are found without scanning the history
+create index `borrow_open_by_book` on `borrow` (`book_id`, `return_time`);
+
+-- a page of a card's history, in borrow_time desc, book_id order, is a range of these;
+-- the second one also finds the open loans of a card
+create index `borrow_history` on `borrow` (`card_id`, `borrow_time` desc, `book_id`, `return_time`);
+create index `borrow_open_history` on `borrow` (`card_id`, `return_time`, `borrow_time` desc, `book_id`);
@@ -33,4 +33,12 @@ create table borrow (
     primary key (card_id, book_id, borrow_time),
     foreign key (card_id) references card(card_id) on delete cascade on update cascade,
     foreign key (book_id) references book(book_id) on delete cascade on update cascade
-);
\ No newline at end of file
+);
+
+-- open loans (return_time = 0) of a book are found without scanning the history
+create index borrow_open_by_book on borrow (book_id) where return_time = 0;
+
+-- a page of a card's history, in borrow_time desc, book_id order, is a range of these;
+-- the second one also finds the open loans of a card
+create index borrow_history on borrow (card_id, borrow_time desc, book_id) include (return_time);
+create index borrow_open_history on borrow (card_id, borrow_time desc, book_id) where return_time = 0;
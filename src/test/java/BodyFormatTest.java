@@ -0,0 +1,59 @@
+import entities.Book;
+import org.junit.Assert;
+import org.junit.Test;
+import queries.BookQueryResults;
+import utils.BodyFormat;
+import utils.JsonUtil;
+import utils.RandomData;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BodyFormatTest {
+
+    @Test
+    public void negotiateTest() {
+        Assert.assertEquals(BodyFormat.JSON, BodyFormat.negotiate(null));
+        Assert.assertEquals(BodyFormat.JSON, BodyFormat.negotiate(List.of("*/*")));
+        Assert.assertEquals(BodyFormat.SMILE, BodyFormat.negotiate(List.of("application/x-jackson-smile")));
+        Assert.assertEquals(BodyFormat.CBOR, BodyFormat.negotiate(List.of("application/cbor, application/json;q=0.9")));
+        Assert.assertEquals(BodyFormat.CBOR, BodyFormat.negotiate(List.of("application/x-jackson-smile;q=0.5",
+                "application/cbor;q=0.8", "*/*;q=0.1")));
+        /* JSON wins a tie, also through a wildcard */
+        Assert.assertEquals(BodyFormat.JSON, BodyFormat.negotiate(List.of("application/cbor, application/*")));
+        Assert.assertEquals(BodyFormat.JSON, BodyFormat.negotiate(List.of("application/cbor;q=0")));
+        Assert.assertEquals(BodyFormat.SMILE, BodyFormat.ofContentType("application/x-jackson-smile"));
+        Assert.assertEquals(BodyFormat.CBOR, BodyFormat.ofContentType("Application/CBOR; charset=binary"));
+        Assert.assertEquals(BodyFormat.JSON, BodyFormat.ofContentType("text/plain"));
+        Assert.assertEquals(BodyFormat.JSON, BodyFormat.ofContentType(null));
+    }
+
+    /* every format reads back what it wrote, and the binary ones are smaller */
+    @Test
+    public void roundTripTest() throws IOException {
+        List<Book> list = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            Book book = RandomData.randomBook();
+            book.setBookId(i);
+            list.add(book);
+        }
+        BookQueryResults books = new BookQueryResults(list, "cursor");
+        String json = JsonUtil.toJson(books);
+        for (BodyFormat format : BodyFormat.values()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonUtil.write(out, books, format);
+            BookQueryResults read = JsonUtil.read(new ByteArrayInputStream(out.toByteArray()),
+                    BookQueryResults.class, format);
+            Assert.assertEquals(json, JsonUtil.toJson(read));
+            if (format == BodyFormat.JSON) {
+                Assert.assertEquals(json, out.toString(StandardCharsets.UTF_8));
+            } else {
+                Assert.assertTrue(out.size() < json.length());
+            }
+        }
+    }
+}
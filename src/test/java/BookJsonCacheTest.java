@@ -0,0 +1,79 @@
+import entities.Book;
+import entities.Card;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import queries.ApiResult;
+import queries.BorrowHistories;
+import service.InMemoryLibraryManagementSystem;
+import utils.BookJsonCache;
+import utils.JsonBytes;
+import utils.JsonUtil;
+import utils.MemoryConfig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+public class BookJsonCacheTest {
+
+    private InMemoryLibraryManagementSystem library;
+
+    @Before
+    public void open() throws IOException {
+        /* without a data directory nothing reaches the disk */
+        library = InMemoryLibraryManagementSystem.open(new MemoryConfig(Map.of()));
+    }
+
+    @After
+    public void close() throws IOException {
+        library.close();
+    }
+
+    @Test
+    public void spliceTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 50, 2, 20);
+        BookJsonCache fragments = new BookJsonCache(40);
+        /* spliced rows are what Jackson writes, on the first and on later calls */
+        for (int round = 0; round < 2; round++) {
+            for (Book book : my.books) {
+                JsonBytes out = new JsonBytes(16);
+                fragments.appendBook(book, out);
+                Assert.assertEquals(JsonUtil.toJson(book), new String(out.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+        Assert.assertEquals(40, fragments.size());
+        Assert.assertEquals(40, fragments.getHits());
+        for (Card card : my.cards) {
+            ApiResult history = library.showBorrowHistory(card.getCardId());
+            Assert.assertTrue(history.ok);
+            for (BorrowHistories.Item item : ((BorrowHistories) history.payload).getItems()) {
+                JsonBytes out = new JsonBytes(16);
+                fragments.appendItem(item, out);
+                Assert.assertEquals(JsonUtil.toJson(item), new String(out.toByteArray(), StandardCharsets.UTF_8));
+            }
+        }
+
+        /* a changed book is never written from its old JSON, told or not */
+        Book book = my.books.get(0).clone();
+        book.setTitle("a \"quoted\" title\n");
+        book.setPrice(-0.0);
+        book.setStock(Integer.MIN_VALUE);
+        long misses = fragments.getMisses();
+        JsonBytes out = new JsonBytes(16);
+        fragments.appendBook(book, out);
+        Assert.assertEquals(JsonUtil.toJson(book), new String(out.toByteArray(), StandardCharsets.UTF_8));
+        Assert.assertEquals(misses + 1, fragments.getMisses());
+        fragments.invalidate(book.getBookId());
+        Assert.assertEquals(39, fragments.size());
+    }
+
+    @Test
+    public void numbersTest() {
+        JsonBytes numbers = new JsonBytes(1);
+        numbers.append(Long.MIN_VALUE).append((byte) ',').append(0).append((byte) ',').append(Long.MAX_VALUE);
+        Assert.assertEquals(Long.MIN_VALUE + ",0," + Long.MAX_VALUE,
+                new String(numbers.toByteArray(), StandardCharsets.US_ASCII));
+    }
+}
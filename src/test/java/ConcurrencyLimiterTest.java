@@ -0,0 +1,59 @@
+import org.junit.Assert;
+import org.junit.Test;
+import utils.ConcurrencyLimiter;
+
+import java.util.concurrent.TimeUnit;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void queueTest() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, false, 1, 2);
+        Assert.assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(limiter.acquire(0, TimeUnit.MILLISECONDS));
+        /* the third waits in the queue, the fourth finds it full */
+        boolean[] admitted = new boolean[1];
+        Thread waiter = new Thread(() -> {
+            try {
+                admitted[0] = limiter.acquire(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        while (limiter.getWaiting() == 0) {
+            Thread.sleep(1);
+        }
+        Assert.assertFalse(limiter.acquire(10, TimeUnit.SECONDS));
+        limiter.release(1_000_000);
+        waiter.join();
+        Assert.assertTrue(admitted[0]);
+        Assert.assertEquals(2, limiter.getInFlight());
+        /* an empty queue, but no slot within the wait */
+        Assert.assertFalse(limiter.acquire(10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(2, limiter.getRejected());
+        limiter.release(1_000_000);
+        limiter.release(1_000_000);
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    /* fully used at a steady latency the limit grows, when calls slow down it shrinks */
+    @Test
+    public void adaptiveTest() throws InterruptedException {
+        ConcurrencyLimiter adaptive = new ConcurrencyLimiter(10, 0, true, 2, 50);
+        for (int i = 0; i < 300; i++) {
+            while (adaptive.acquire(0, TimeUnit.MILLISECONDS)) {
+                // take every free slot
+            }
+            adaptive.release(1_000_000);
+        }
+        int grown = adaptive.getLimit();
+        Assert.assertTrue(grown > 10);
+        for (int i = 0; i < 50 && adaptive.getInFlight() > 0; i++) {
+            adaptive.release(20_000_000);
+            adaptive.acquire(0, TimeUnit.MILLISECONDS);
+        }
+        Assert.assertTrue(adaptive.getLimit() < grown);
+        Assert.assertTrue(adaptive.getLimit() >= 2);
+    }
+}
@@ -0,0 +1,101 @@
+import entities.Book;
+import entities.Borrow;
+import entities.Card;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import queries.*;
+import service.InMemoryLibraryManagementSystem;
+import service.LibraryManagementSystem;
+import utils.MemoryConfig;
+import utils.RandomData;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+public class InMemoryRecoveryTest {
+
+    /* the data directory, deleted after each test */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recoveryTest() throws IOException {
+        Path dir = folder.newFolder("library-memory").toPath();
+        MemoryConfig conf = new MemoryConfig(Map.of("dataDir", dir.toString(), "syncMode", "always",
+                "snapshotInterval", 0));
+        InMemoryLibraryManagementSystem first = InMemoryLibraryManagementSystem.open(conf);
+        MyLibrary my = MyLibrary.createLibrary(first, 50, 10, 100);
+        Assert.assertTrue(first.incBookStock(my.books.get(0).getBookId(), 5).ok);
+        Assert.assertTrue(first.removeBook(my.books.get(1).getBookId()).ok);
+        Book b2 = my.books.get(2);
+        b2.setTitle(b2.getTitle() + " (2nd edition)");
+        Assert.assertTrue(first.modifyBookInfo(b2).ok);
+        Card c0 = my.cards.get(0);
+        c0.setDepartment(c0.getDepartment() + " Lab");
+        Assert.assertTrue(first.modifyCardInfo(c0).ok);
+        Assert.assertTrue(first.removeCard(my.cards.get(1).getCardId()).ok);
+        Borrow open = new Borrow(my.books.get(3), c0);
+        open.resetBorrowTime();
+        Assert.assertTrue(first.borrowBook(open).ok);
+        String state = dump(first);
+
+        /* "crash" without closing: only the log is there to replay */
+        InMemoryLibraryManagementSystem second = InMemoryLibraryManagementSystem.open(conf);
+        Assert.assertEquals(state, dump(second));
+        // ids of removed rows are not reused
+        Card c = RandomData.randomCard();
+        Assert.assertTrue(second.registerCard(c).ok);
+        Assert.assertEquals(11, c.getCardId());
+        Assert.assertFalse(second.removeBook(my.books.get(3).getBookId()).ok);
+        state = dump(second);
+        /* closing takes a snapshot that replaces every log segment */
+        second.close();
+        InMemoryLibraryManagementSystem third = InMemoryLibraryManagementSystem.open(conf);
+        Assert.assertEquals(state, dump(third));
+        try (Stream<Path> files = Files.list(dir)) {
+            Assert.assertEquals(1, files.filter(f -> f.toString().endsWith(".snap")).count());
+        }
+
+        /* a torn write at the end of the log is dropped */
+        Borrow back = new Borrow(my.books.get(3), c0);
+        back.setBorrowTime(open.getBorrowTime());
+        back.setReturnTime(open.getBorrowTime() + 1);
+        Assert.assertTrue(third.returnBook(back).ok);
+        state = dump(third);
+        Path last;
+        try (Stream<Path> files = Files.list(dir)) {
+            last = files.filter(f -> f.toString().endsWith(".log")).max(Comparator.naturalOrder()).orElseThrow();
+        }
+        Files.write(last, "torn".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        InMemoryLibraryManagementSystem fourth = InMemoryLibraryManagementSystem.open(conf);
+        Assert.assertEquals(state, dump(fourth));
+        fourth.close();
+    }
+
+    /* every book, card and borrow history of library as text */
+    private static String dump(LibraryManagementSystem library) {
+        StringBuilder sb = new StringBuilder();
+        BookQueryConditions all = new BookQueryConditions();
+        all.setSortOrder(SortOrder.ASC);
+        ApiResult books = library.queryBook(all);
+        Assert.assertTrue(books.ok);
+        ((BookQueryResults) books.payload).getResults().forEach(b -> sb.append(b).append('\n'));
+        ApiResult cards = library.showCards();
+        Assert.assertTrue(cards.ok);
+        for (Card card : ((CardList) cards.payload).getCards()) {
+            sb.append(card).append('\n');
+            ApiResult history = library.showBorrowHistory(card.getCardId());
+            Assert.assertTrue(history.ok);
+            ((BorrowHistories) history.payload).getItems().forEach(i -> sb.append(i).append('\n'));
+        }
+        return sb.toString();
+    }
+}
@@ -9,8 +9,11 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import queries.*;
+import service.BookCache;
+import service.InMemoryLibraryManagementSystem;
 import service.LibraryManagementSystem;
 import service.LibraryManagementSystemImpl;
+import service.LibraryManagementSystems;
 import utils.ConnectConfig;
 import utils.DatabaseConnector;
 import utils.RandomData;
@@ -40,7 +43,7 @@ public class LibraryTest {
         try {
             // connect to database
             connector = new DatabaseConnector(connectConfig);
-            library = new LibraryManagementSystemImpl(connector);
+            library = LibraryManagementSystems.open(connector);
             System.out.println("Successfully init class BookTest.");
         } catch (Exception e) {
             e.printStackTrace();
@@ -260,6 +263,55 @@ public class LibraryTest {
         }
     }
 
+    @Test
+    public void importBooksTest() {
+        /* more books than fit into one batch, some already stored */
+        int nOps = 1200;
+        Set<Book> bookSet = new HashSet<>();
+        while (bookSet.size() < nOps) {
+            bookSet.add(RandomData.randomBook());
+        }
+        List<Book> books = new ArrayList<>(bookSet);
+        List<Book> existing = new ArrayList<>(books.subList(0, 10));
+        Assert.assertTrue(library.storeBook(existing).ok);
+        /* ... and some twice in the import */
+        List<Book> imported = new ArrayList<>();
+        for (Book b : books) {
+            imported.add(b.clone());
+        }
+        for (int i = 0; i < 5; i++) {
+            imported.add(books.get(20 + i).clone());
+        }
+        Collections.shuffle(imported);
+        /* an atomic import fails as a whole */
+        Iterator<Book> it1 = imported.iterator();
+        ApiResult atomicResult = library.importBooks(() -> it1.hasNext() ? it1.next() : null, true);
+        Assert.assertFalse(atomicResult.ok);
+        Assert.assertEquals(existing.size(), ((BookQueryResults) library.queryBook(new BookQueryConditions()).payload).getCount());
+        /* otherwise the duplicates are skipped */
+        Iterator<Book> it2 = imported.iterator();
+        ApiResult result = library.importBooks(() -> it2.hasNext() ? it2.next() : null, false);
+        Assert.assertTrue(result.ok);
+        ImportSummary summary = (ImportSummary) result.payload;
+        Assert.assertEquals(imported.size(), summary.getReceived());
+        Assert.assertEquals(nOps - existing.size(), summary.getInserted());
+        Assert.assertEquals(existing.size() + 5, summary.getDuplicates());
+        Assert.assertTrue(summary.getBatches() > 1);
+        ApiResult queryResult = library.queryBook(new BookQueryConditions());
+        Assert.assertTrue(queryResult.ok);
+        BookQueryResults selectedResults = (BookQueryResults) queryResult.payload;
+        Assert.assertEquals(nOps, selectedResults.getCount());
+        Set<String> expected = new HashSet<>();
+        for (Book b : books) {
+            b.setBookId(0);
+            expected.add(b.toString());
+        }
+        for (Book b : selectedResults.getResults()) {
+            b.setBookId(0);
+            Assert.assertTrue(expected.contains(b.toString()));
+        }
+    }
+
     @Test
     public void removeBookTest() {
         /* simply insert some data to database */
@@ -446,6 +498,100 @@ public class LibraryTest {
         }
     }
 
+    @Test
+    public void queryBookPaginationTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 500, 0, 0);
+        for (Book.SortColumn sortBy : Book.SortColumn.values()) {
+            BookQueryConditions c = new BookQueryConditions();
+            c.setSortBy(sortBy);
+            c.setSortOrder(SortOrder.random());
+            List<Book> expectedResults = verifyQueryResult(my.books, c);
+            /* walk through all pages with the keyset cursor */
+            int pageSize = RandomUtils.nextInt(7, 60);
+            c.setPageSize(pageSize);
+            List<Book> pagedResults = new ArrayList<>();
+            String cursor = null;
+            do {
+                c.setCursor(cursor);
+                ApiResult queryResult = library.queryBook(c);
+                Assert.assertTrue(queryResult.ok);
+                BookQueryResults page = (BookQueryResults) queryResult.payload;
+                Assert.assertTrue(page.getCount() <= pageSize);
+                pagedResults.addAll(page.getResults());
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+            Assert.assertEquals(expectedResults.size(), pagedResults.size());
+            for (int i = 0; i < expectedResults.size(); i++) {
+                Assert.assertEquals(expectedResults.get(i).toString(), pagedResults.get(i).toString());
+            }
+            /* offset fallback returns the same pages */
+            c.setCursor(null);
+            c.setOffset(pageSize);
+            ApiResult queryResult = library.queryBook(c);
+            Assert.assertTrue(queryResult.ok);
+            BookQueryResults page = (BookQueryResults) queryResult.payload;
+            for (int i = 0; i < page.getCount(); i++) {
+                Assert.assertEquals(expectedResults.get(pageSize + i).toString(), page.getResults().get(i).toString());
+            }
+        }
+    }
+
+    @Test
+    public void bookCacheTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 100, 1, 0);
+        BookQueryConditions all = new BookQueryConditions();
+        all.setSortOrder(SortOrder.ASC);
+        // only paged queries go through the cache
+        all.setPageSize(200);
+        /* the first query fills the cache, later ones must still see every write */
+        assertQueryResult(verifyQueryResult(my.books, all), library.queryBook(all));
+        // metadata changes
+        Book b0 = my.books.get(0);
+        b0.setTitle(b0.getTitle() + " (2nd edition)");
+        b0.setPrice(b0.getPrice() + 1);
+        Assert.assertTrue(library.modifyBookInfo(b0).ok);
+        assertQueryResult(verifyQueryResult(my.books, all), library.queryBook(all));
+        // stock changes
+        Book b1 = my.books.get(1);
+        Borrow borrow = new Borrow(b1, my.cards.get(0));
+        borrow.resetBorrowTime();
+        Assert.assertTrue(library.borrowBook(borrow).ok);
+        b1.setStock(b1.getStock() - 1);
+        Assert.assertTrue(library.incBookStock(b0.getBookId(), 3).ok);
+        b0.setStock(b0.getStock() + 3);
+        assertQueryResult(verifyQueryResult(my.books, all), library.queryBook(all));
+        // borrow histories show the cached metadata
+        b1.setTitle(b1.getTitle() + " (revised)");
+        Assert.assertTrue(library.modifyBookInfo(b1).ok);
+        ApiResult historyResult = library.showBorrowHistory(my.cards.get(0).getCardId());
+        Assert.assertTrue(historyResult.ok);
+        BorrowHistories histories = (BorrowHistories) historyResult.payload;
+        Assert.assertEquals(1, histories.getCount());
+        Assert.assertEquals(b1.getTitle(), histories.getItems().get(0).getTitle());
+        // removal
+        Assert.assertTrue(library.removeBook(my.books.get(2).getBookId()).ok);
+        my.books.remove(2);
+        assertQueryResult(verifyQueryResult(my.books, all), library.queryBook(all));
+        BookCache cache = library instanceof LibraryManagementSystemImpl impl ? impl.getBookCache() : null;
+        if (cache != null) {
+            Assert.assertTrue(cache.getHits() > 0);
+            /* an unpaged query streams past the cache */
+            long hits = cache.getHits();
+            assertQueryResult(verifyQueryResult(my.books, new BookQueryConditions()),
+                    library.queryBook(new BookQueryConditions()));
+            Assert.assertEquals(hits, cache.getHits());
+        }
+    }
+
+    private void assertQueryResult(List<Book> expectedResults, ApiResult queryResult) {
+        Assert.assertTrue(queryResult.ok);
+        BookQueryResults results = (BookQueryResults) queryResult.payload;
+        Assert.assertEquals(expectedResults.size(), results.getCount());
+        for (int i = 0; i < expectedResults.size(); i++) {
+            Assert.assertEquals(expectedResults.get(i).toString(), results.getResults().get(i).toString());
+        }
+    }
+
     @Test
     public void borrowAndReturnBookTest() {
         /* insert some books & cards & borrow histories to database */
@@ -586,6 +732,264 @@ public class LibraryTest {
         }
     }
 
+    @Test
+    public void borrowHistoryPaginationTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 60, 1, 0);
+        Card card = my.cards.get(0);
+        for (int i = 0; i < my.books.size(); i++) {
+            // every borrow time is shared by three books, so the cursor has to break ties
+            Borrow borrow = new Borrow(my.books.get(i), card);
+            borrow.setBorrowTime(1000 + i / 3 * 10);
+            Assert.assertTrue(library.borrowBook(borrow).ok);
+            if (i % 2 == 0) {
+                borrow.setReturnTime(borrow.getBorrowTime() + 1);
+                Assert.assertTrue(library.returnBook(borrow).ok);
+            }
+        }
+        ApiResult fullResult = library.showBorrowHistory(card.getCardId());
+        Assert.assertTrue(fullResult.ok);
+        List<BorrowHistories.Item> full = ((BorrowHistories) fullResult.payload).getItems();
+        Assert.assertEquals(my.books.size(), full.size());
+        for (int k = 0; k < 8; k++) {
+            BorrowHistoryConditions c = new BorrowHistoryConditions();
+            if (k % 2 == 1) {
+                c.setOpenOnly(true);
+            }
+            if (k >= 4) {
+                c.setFrom(1000L + RandomUtils.nextInt(0, 100));
+                c.setTo(c.getFrom() + RandomUtils.nextInt(0, 100));
+            }
+            List<String> expected = full.stream()
+                    .filter(item -> c.matches(item.getBorrowTime(), item.getReturnTime()))
+                    .map(BorrowHistories.Item::toString)
+                    .collect(Collectors.toList());
+            /* walk through all pages with the keyset cursor */
+            int pageSize = RandomUtils.nextInt(1, 8);
+            c.setPageSize(pageSize);
+            List<String> paged = new ArrayList<>();
+            String cursor = null;
+            do {
+                c.setCursor(cursor);
+                ApiResult result = library.showBorrowHistory(card.getCardId(), c);
+                Assert.assertTrue(result.ok);
+                BorrowHistories page = (BorrowHistories) result.payload;
+                Assert.assertTrue(page.getCount() <= pageSize);
+                page.getItems().forEach(item -> paged.add(item.toString()));
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+            Assert.assertEquals(expected, paged);
+        }
+        /* bad arguments */
+        BorrowHistoryConditions c = new BorrowHistoryConditions();
+        c.setPageSize(0);
+        Assert.assertFalse(library.showBorrowHistory(card.getCardId(), c).ok);
+        c.setPageSize(10);
+        c.setCursor("not a cursor");
+        Assert.assertFalse(library.showBorrowHistory(card.getCardId(), c).ok);
+    }
+
+    @Test
+    public void borrowAndReturnBatchTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 4, 2, 0);
+        List<Book> books = my.books;
+        Card c0 = my.cards.get(0);
+        Card c1 = my.cards.get(1);
+        // book 0 has one copy, the others three
+        for (int i = 0; i < books.size(); i++) {
+            int stock = i == 0 ? 1 : 3;
+            Assert.assertTrue(library.incBookStock(books.get(i).getBookId(), stock - books.get(i).getStock()).ok);
+            books.get(i).setStock(stock);
+        }
+        Borrow old = new Borrow(books.get(3), c0);
+        old.setBorrowTime(50);
+        Assert.assertTrue(library.borrowBook(old).ok);
+        /* borrow: items in the order of the request, later ones see earlier ones */
+        List<Borrow> borrows = new ArrayList<>();
+        borrows.add(new Borrow(books.get(2), c0));                   // ok
+        borrows.add(new Borrow(books.get(0), c0));                   // ok, takes the only copy
+        borrows.add(new Borrow(books.get(0), c1));                   // out of stock
+        borrows.add(new Borrow(books.get(1).getBookId(), -1));       // no such card
+        borrows.add(new Borrow(-1, c1.getCardId()));                 // no such book
+        borrows.add(new Borrow(books.get(2), c0));                   // borrowed earlier in the batch
+        borrows.add(new Borrow(books.get(3), c0));                   // borrowed before the batch
+        borrows.add(new Borrow(books.get(1), c1));                   // ok
+        for (Borrow borrow : borrows) {
+            borrow.setBorrowTime(100);
+        }
+        boolean[] expectedOk = {true, true, false, false, false, false, false, true};
+        ApiResult result = library.borrowBooks(borrows);
+        Assert.assertTrue(result.ok);
+        BorrowBatchResults results = (BorrowBatchResults) result.payload;
+        Assert.assertEquals(borrows.size(), results.getCount());
+        Assert.assertEquals(3, results.getSucceeded());
+        for (int i = 0; i < expectedOk.length; i++) {
+            BorrowBatchResults.Item item = results.getItems().get(i);
+            Assert.assertEquals(borrows.get(i).getBookId(), item.getBookId());
+            Assert.assertEquals(expectedOk[i], item.isOk());
+            Assert.assertEquals(expectedOk[i], item.getMessage() == null);
+        }
+        int[] expectedStock = {0, 2, 2, 2};
+        Map<Integer, Integer> stocks = stocks();
+        for (int i = 0; i < books.size(); i++) {
+            Assert.assertEquals(expectedStock[i], (int) stocks.get(books.get(i).getBookId()));
+        }
+        /* return */
+        List<Borrow> returns = new ArrayList<>();
+        returns.add(new Borrow(books.get(0), c0));                   // ok
+        returns.add(new Borrow(books.get(0), c0));                   // returned earlier in the batch
+        returns.add(new Borrow(books.get(2), c1));                   // not borrowed by this card
+        returns.add(new Borrow(books.get(1), c1));                   // return time before borrow time
+        returns.add(new Borrow(books.get(3), c0));                   // ok, borrowed before
+        returns.add(new Borrow(books.get(2), c0));                   // ok
+        for (Borrow borrow : returns) {
+            borrow.setReturnTime(200);
+        }
+        returns.get(3).setReturnTime(100);
+        expectedOk = new boolean[]{true, false, false, false, true, true};
+        result = library.returnBooks(returns);
+        Assert.assertTrue(result.ok);
+        results = (BorrowBatchResults) result.payload;
+        Assert.assertEquals(3, results.getSucceeded());
+        for (int i = 0; i < expectedOk.length; i++) {
+            Assert.assertEquals(expectedOk[i], results.getItems().get(i).isOk());
+        }
+        expectedStock = new int[]{1, 2, 3, 3};
+        stocks = stocks();
+        for (int i = 0; i < books.size(); i++) {
+            Assert.assertEquals(expectedStock[i], (int) stocks.get(books.get(i).getBookId()));
+        }
+        ApiResult history = library.showBorrowHistory(c0.getCardId());
+        Assert.assertTrue(history.ok);
+        for (BorrowHistories.Item item : ((BorrowHistories) history.payload).getItems()) {
+            Assert.assertEquals(200, item.getReturnTime());
+        }
+        /* an empty batch is fine */
+        result = library.borrowBooks(new ArrayList<>());
+        Assert.assertTrue(result.ok);
+        Assert.assertEquals(0, ((BorrowBatchResults) result.payload).getCount());
+    }
+
+    @Test
+    public void parallelBorrowBatchTest() {
+        int nThreads = 8;
+        int nRounds = 10;
+        MyLibrary my = MyLibrary.createLibrary(library, 20, nThreads, 0);
+        for (Book book : my.books) {
+            Assert.assertTrue(library.incBookStock(book.getBookId(), nThreads - book.getStock()).ok);
+        }
+        /* every thread borrows and returns all books, each time in another order */
+        List<DatabaseConnector> connectors = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < nThreads; t++) {
+            DatabaseConnector connector = new DatabaseConnector(connectConfig);
+            Assert.assertTrue(connector.connect());
+            connectors.add(connector);
+            LibraryManagementSystem lms = LibraryManagementSystems.open(connector);
+            Card card = my.cards.get(t);
+            threads.add(new Thread(() -> {
+                for (int round = 0; round < nRounds; round++) {
+                    List<Book> order = new ArrayList<>(my.books);
+                    Collections.shuffle(order);
+                    List<Borrow> borrows = new ArrayList<>();
+                    for (Book book : order) {
+                        Borrow borrow = new Borrow(book, card);
+                        borrow.setBorrowTime(round * 10 + 1);
+                        borrow.setReturnTime(round * 10 + 2);
+                        borrows.add(borrow);
+                    }
+                    for (ApiResult result : List.of(lms.borrowBooks(borrows), lms.returnBooks(borrows))) {
+                        if (!result.ok) {
+                            failures.add(result.message);
+                        } else if (((BorrowBatchResults) result.payload).getSucceeded() != borrows.size()) {
+                            failures.add(((BorrowBatchResults) result.payload).getItems().toString());
+                        }
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        Assert.assertEquals(List.of(), failures);
+        Map<Integer, Integer> stocks = stocks();
+        for (Book book : my.books) {
+            Assert.assertEquals(nThreads, (int) stocks.get(book.getBookId()));
+        }
+        for (DatabaseConnector connector : connectors) {
+            Assert.assertTrue(connector.release());
+        }
+    }
+
+    @Test
+    public void borrowStatsTest() {
+        MyLibrary my = MyLibrary.createLibrary(library, 3, 3, 0);
+        List<Book> books = new ArrayList<>(my.books);
+        books.sort(Comparator.comparingInt(Book::getBookId));
+        for (Book book : books) {
+            Assert.assertTrue(library.incBookStock(book.getBookId(), 5 - book.getStock()).ok);
+        }
+        Book a = books.get(0), b = books.get(1), c = books.get(2);
+        Card c0 = my.cards.get(0), c1 = my.cards.get(1), c2 = my.cards.get(2);
+        long dec31 = millis(2023, 12, 31), jan1 = millis(2024, 1, 1), jan10 = millis(2024, 1, 10),
+                jan11 = millis(2024, 1, 11), jan20 = millis(2024, 1, 20), feb5 = millis(2024, 2, 5),
+                feb6 = millis(2024, 2, 6);
+        borrowAndReturn(a, c0, dec31, jan1);
+        borrowAndReturn(a, c0, jan10, jan11);
+        borrowAndReturn(a, c1, jan20, 0);
+        borrowAndReturn(b, c2, jan10, feb6);
+        // the batch path counts as well
+        Borrow borrowC = new Borrow(c, c0);
+        borrowC.setBorrowTime(feb5);
+        Assert.assertTrue(library.borrowBooks(List.of(borrowC)).ok);
+
+        Assert.assertEquals(List.of(a.getBookId() + ":2", b.getBookId() + ":1"), top(StatsPeriod.MONTH, jan20, 10));
+        Assert.assertEquals(List.of(c.getBookId() + ":1"), top(StatsPeriod.MONTH, feb6, 10));
+        Assert.assertEquals(List.of(a.getBookId() + ":2", b.getBookId() + ":1", c.getBookId() + ":1"),
+                top(StatsPeriod.YEAR, feb5, 10));
+        Assert.assertEquals(List.of(a.getBookId() + ":2"), top(StatsPeriod.YEAR, feb5, 1));
+        Assert.assertEquals(List.of(a.getBookId() + ":1"), top(StatsPeriod.YEAR, dec31, 10));
+        Assert.assertEquals(List.of(a.getBookId() + ":1", b.getBookId() + ":1"), top(StatsPeriod.DAY, jan10, 10));
+        Assert.assertEquals(List.of(a.getBookId() + ":3", b.getBookId() + ":1", c.getBookId() + ":1"),
+                top(StatsPeriod.ALL, 0, 10));
+
+        BorrowStats january = stats(library, StatsPeriod.MONTH, jan10);
+        Assert.assertEquals(millis(2024, 1, 1) - 12 * 3600_000L, january.getFrom());
+        Assert.assertEquals(millis(2024, 2, 1) - 12 * 3600_000L, january.getTo());
+        Assert.assertEquals(a.getTitle(), january.getBooks().get(0).getTitle());
+        Assert.assertEquals(3, january.getCategories().stream().mapToLong(BorrowStats.CategoryCount::getBorrows).sum());
+        Assert.assertEquals(2, january.getCategories().stream().mapToLong(BorrowStats.CategoryCount::getReturns).sum());
+        Assert.assertFalse(library.showBorrowStats(StatsPeriod.ALL, 0, 0).ok);
+
+        /* counting the borrow table again gives the same numbers */
+        List<String> before = new ArrayList<>();
+        for (StatsPeriod period : StatsPeriod.values()) {
+            for (long time : new long[]{dec31, jan10, feb5}) {
+                before.add(stats(library, period, time).getBooks() + " " + stats(library, period, time).getCategories());
+            }
+        }
+        if (library instanceof LibraryManagementSystemImpl) {
+            Assert.assertTrue(((LibraryManagementSystemImpl) library).rebuildStatistics().ok);
+        } else if (library instanceof InMemoryLibraryManagementSystem) {
+            ((InMemoryLibraryManagementSystem) library).rebuildStatistics();
+        }
+        List<String> after = new ArrayList<>();
+        for (StatsPeriod period : StatsPeriod.values()) {
+            for (long time : new long[]{dec31, jan10, feb5}) {
+                after.add(stats(library, period, time).getBooks() + " " + stats(library, period, time).getCategories());
+            }
+        }
+        Assert.assertEquals(before, after);
+        /* a reset forgets everything */
+        Assert.assertTrue(library.resetDatabase().ok);
+        Assert.assertEquals(List.of(), top(StatsPeriod.ALL, 0, 10));
+    }
+
     @Test
     public void parallelBorrowBookTest() {
         int nThreads = BorrowThread.nThreads;
@@ -600,7 +1004,7 @@ public class LibraryTest {
             DatabaseConnector connector = new DatabaseConnector(connectConfig);
             Assert.assertTrue(connector.connect());
             connectors.add(connector);
-            libraries.add(new LibraryManagementSystemImpl(connector));
+            libraries.add(LibraryManagementSystems.open(connector));
         }
         /* start all threads */
         List<BorrowThread> borrowThreads = new ArrayList<>();
@@ -704,6 +1108,45 @@ public class LibraryTest {
         }
     }
 
+    private static long millis(int year, int month, int day) {
+        return java.time.LocalDate.of(year, month, day).atTime(12, 0)
+                .atZone(java.time.ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /* borrow book with card, and return it unless returnTime is 0 */
+    private void borrowAndReturn(Book book, Card card, long borrowTime, long returnTime) {
+        Borrow borrow = new Borrow(book, card);
+        borrow.setBorrowTime(borrowTime);
+        Assert.assertTrue(library.borrowBook(borrow).ok);
+        if (returnTime != 0) {
+            borrow.setReturnTime(returnTime);
+            Assert.assertTrue(library.returnBook(borrow).ok);
+        }
+    }
+
+    private static BorrowStats stats(LibraryManagementSystem library, StatsPeriod period, long time) {
+        ApiResult result = library.showBorrowStats(period, time, 10);
+        Assert.assertTrue(result.message, result.ok);
+        return (BorrowStats) result.payload;
+    }
+
+    /* "book_id:borrows" of the most borrowed books */
+    private List<String> top(StatsPeriod period, long time, int limit) {
+        ApiResult result = library.showBorrowStats(period, time, limit);
+        Assert.assertTrue(result.message, result.ok);
+        return ((BorrowStats) result.payload).getBooks().stream()
+                .map(count -> count.getBookId() + ":" + count.getBorrows())
+                .collect(Collectors.toList());
+    }
+
+    /* book_id -> stock of every book */
+    private Map<Integer, Integer> stocks() {
+        ApiResult books = library.queryBook(new BookQueryConditions());
+        Assert.assertTrue(books.ok);
+        return ((BookQueryResults) books.payload).getResults().stream()
+                .collect(Collectors.toMap(Book::getBookId, Book::getStock));
+    }
+
     private List<Book> verifyQueryResult(List<Book> books, BookQueryConditions conditions) {
         Stream<Book> stream = books.stream();
         if (conditions.getCategory() != null) {
@@ -0,0 +1,56 @@
+import entities.Book;
+import org.junit.Assert;
+import org.junit.Test;
+import handlers.BadRequestException;
+import handlers.RouteParams;
+import handlers.Router;
+import queries.SortOrder;
+import utils.QueryString;
+
+import java.util.Map;
+
+public class QueryStringTest {
+
+    @Test
+    public void parseTest() {
+        QueryString query = new QueryString("title=Data%20Base+System&pageSize=20&&flag&=x&sortBy=PRICE"
+                + "&category=%E8%AE%A1%E7%AE%97%E6%9C%BA&time=-9223372036854775808&pageSize=30&price=1.5&bad=%E8%A");
+        Assert.assertEquals("Data Base System", query.get("title"));
+        Assert.assertEquals("计算机", query.get("category"));
+        Assert.assertEquals("", query.get("flag"));
+        Assert.assertTrue(query.has("flag"));
+        Assert.assertNull(query.get("missing"));
+        Assert.assertEquals(9, query.size());
+        /* the last of two wins */
+        Assert.assertEquals(30, query.getInt("pageSize", 100));
+        Assert.assertEquals(100, query.getInt("offset", 100));
+        Assert.assertEquals(Long.MIN_VALUE, query.getLong("time", 0));
+        Assert.assertEquals(1.5, query.getDouble("price", 0), 0);
+        Assert.assertEquals(Book.SortColumn.PRICE, query.getEnum("sortBy", Book.SortColumn.class, null));
+        Assert.assertEquals(SortOrder.DESC, query.getEnum("sortOrder", SortOrder.class, SortOrder.DESC));
+        Assert.assertThrows(IllegalArgumentException.class, () -> query.getEnum("title", SortOrder.class, null));
+        Assert.assertThrows(NumberFormatException.class, () -> query.getInt("title", 0));
+        Assert.assertThrows(NumberFormatException.class, () -> query.getInt("time", 0));
+        Assert.assertThrows(NumberFormatException.class, () -> query.getInt("flag", 0));
+        Assert.assertThrows(IllegalArgumentException.class, () -> query.get("bad"));
+        Assert.assertEquals(Map.of("a", "1", "b c", "2"), new QueryString("a=1&b%20c=2").toMap());
+        Assert.assertEquals(0, new QueryString(null).size());
+        Assert.assertThrows(NumberFormatException.class,
+                () -> new QueryString("n=9223372036854775808").getLong("n", 0));
+        Assert.assertEquals(Integer.MAX_VALUE, new QueryString("n=%2B2147483647").getInt("n", 0));
+    }
+
+    /* handlers see the failures as 400s naming the parameter */
+    @Test
+    public void badRequestTest() {
+        RouteParams params = new Router().get("/book", (exchange, p) -> { }).match("/book")
+                .params("pageSize=x&sortOrder=UP");
+        BadRequestException e = Assert.assertThrows(BadRequestException.class, () -> params.getInt("pageSize", 100));
+        Assert.assertEquals("pageSize", e.getError().getParameter());
+        Assert.assertEquals("integer", e.getError().getExpected());
+        e = Assert.assertThrows(BadRequestException.class, () -> params.getEnum("sortOrder", SortOrder.class, null));
+        Assert.assertEquals("SortOrder", e.getError().getExpected());
+        e = Assert.assertThrows(BadRequestException.class, () -> params.getLong("cardId"));
+        Assert.assertEquals("present", e.getError().getExpected());
+    }
+}
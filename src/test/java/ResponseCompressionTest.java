@@ -0,0 +1,67 @@
+import entities.Book;
+import org.junit.Assert;
+import org.junit.Test;
+import utils.JsonUtil;
+import utils.RandomData;
+import utils.ResponseCompression;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class ResponseCompressionTest {
+
+    @Test
+    public void negotiateTest() {
+        ResponseCompression compression = new ResponseCompression(true, 1024, 6);
+        Assert.assertEquals(ResponseCompression.Encoding.GZIP, compression.negotiate(List.of("gzip, deflate, br")));
+        Assert.assertEquals(ResponseCompression.Encoding.DEFLATE, compression.negotiate(List.of("gzip;q=0.5, deflate")));
+        Assert.assertEquals(ResponseCompression.Encoding.DEFLATE, compression.negotiate(List.of("gzip;q=0", "*")));
+        Assert.assertEquals(ResponseCompression.Encoding.GZIP, compression.negotiate(List.of("*;q=0.1")));
+        Assert.assertNull(compression.negotiate(List.of("br, identity")));
+        Assert.assertNull(compression.negotiate(List.of("*;q=0")));
+        Assert.assertNull(compression.negotiate(null));
+        Assert.assertNull(new ResponseCompression(false, 0, 6).negotiate(List.of("gzip")));
+    }
+
+    @Test
+    public void compressTest() throws IOException {
+        ResponseCompression compression = new ResponseCompression(true, 1024, 6);
+        List<Book> books = new ArrayList<>();
+        for (int i = 1; i <= 200; i++) {
+            Book book = RandomData.randomBook();
+            book.setBookId(i);
+            books.add(book);
+        }
+        byte[] json = JsonUtil.toJson(books).getBytes(StandardCharsets.UTF_8);
+        long saved = 0;
+        /* the second round reuses the deflaters the first one gave back */
+        for (int round = 0; round < 2; round++) {
+            for (ResponseCompression.Encoding encoding : ResponseCompression.Encoding.values()) {
+                ByteArrayOutputStream sent = new ByteArrayOutputStream();
+                try (OutputStream out = compression.compress(sent, encoding)) {
+                    // written in pieces like a streamed body
+                    for (int off = 0; off < json.length; off += 1000) {
+                        out.write(json, off, Math.min(1000, json.length - off));
+                    }
+                }
+                InputStream in = new ByteArrayInputStream(sent.toByteArray());
+                in = encoding == ResponseCompression.Encoding.GZIP
+                        ? new GZIPInputStream(in) : new InflaterInputStream(in);
+                Assert.assertArrayEquals(json, in.readAllBytes());
+                Assert.assertTrue(sent.size() < json.length);
+                saved += json.length - sent.size();
+            }
+        }
+        Assert.assertEquals(4, compression.getResponses());
+        Assert.assertEquals(4L * json.length, compression.getBytesIn());
+        Assert.assertEquals(saved, compression.getBytesSaved());
+    }
+}
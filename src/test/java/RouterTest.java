@@ -0,0 +1,45 @@
+import org.junit.Assert;
+import org.junit.Test;
+import handlers.BadRequestException;
+import handlers.RouteParams;
+import handlers.Router;
+
+public class RouterTest {
+
+    @Test
+    public void routeTest() {
+        Router.Endpoint list = (exchange, params) -> { };
+        Router.Endpoint store = (exchange, params) -> { };
+        Router.Endpoint info = (exchange, params) -> { };
+        Router.Endpoint remove = (exchange, params) -> { };
+        Router router = new Router()
+                .get("/book", list)
+                .post("/book", store)
+                .put("/book/info", info)
+                .delete("/book/{bookId}", remove);
+        Assert.assertSame(list, router.match("/book").endpoint("GET"));
+        Assert.assertSame(store, router.match("/book/").endpoint("POST"));
+        Assert.assertEquals("GET, POST", router.match("/book").allow());
+        Assert.assertNull(router.match("/book").endpoint("PUT"));
+        /* a literal segment wins over {bookId} */
+        Assert.assertSame(info, router.match("/book/info").endpoint("PUT"));
+        Assert.assertNull(router.match("/book/info").endpoint("DELETE"));
+        Router.Match byId = router.match("/book/42");
+        Assert.assertSame(remove, byId.endpoint("DELETE"));
+        Assert.assertEquals(42, byId.params(null).pathInt("bookId"));
+        Assert.assertThrows(BadRequestException.class, () -> router.match("/book/x").params(null).pathInt("bookId"));
+        Assert.assertNull(router.match("/"));
+        Assert.assertNull(router.match("/books"));
+        Assert.assertNull(router.match("/book/42/stock"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> router.get("/book", list));
+        Assert.assertThrows(IllegalArgumentException.class, () -> router.put("/book/{id}/stock", info));
+
+        RouteParams params = router.match("/book").params("title=Data%20Base&pageSize=20&minPrice=x&sortBy=");
+        Assert.assertEquals("Data Base", params.get("title"));
+        Assert.assertEquals(20, params.getInt("pageSize", 100));
+        Assert.assertEquals(100, params.getInt("offset", 100));
+        Assert.assertEquals("", params.get("sortBy"));
+        Assert.assertThrows(BadRequestException.class, () -> params.getDouble("minPrice"));
+        Assert.assertThrows(BadRequestException.class, () -> params.getInt("cardId"));
+    }
+}
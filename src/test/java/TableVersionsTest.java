@@ -0,0 +1,67 @@
+import entities.Borrow;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import queries.BookQueryConditions;
+import service.InMemoryLibraryManagementSystem;
+import service.LibraryManagementSystem;
+import service.TableVersions;
+import service.VersionedLibraryManagementSystem;
+import utils.BodyFormat;
+import utils.MemoryConfig;
+
+import java.io.IOException;
+import java.util.Map;
+
+public class TableVersionsTest {
+
+    private InMemoryLibraryManagementSystem library;
+
+    @Before
+    public void open() throws IOException {
+        /* without a data directory nothing reaches the disk */
+        library = InMemoryLibraryManagementSystem.open(new MemoryConfig(Map.of()));
+    }
+
+    @After
+    public void close() throws IOException {
+        library.close();
+    }
+
+    @Test
+    public void versionTest() {
+        TableVersions versions = new TableVersions();
+        LibraryManagementSystem versioned = new VersionedLibraryManagementSystem(library, versions);
+        MyLibrary my = MyLibrary.createLibrary(versioned, 10, 2, 0);
+        long books = versions.getBookVersion();
+        long cards = versions.getCardVersion();
+        Assert.assertTrue(books > 0 && cards > 0);
+        String tag = versions.etag('b', books, Map.of("pageSize", "10", "sortBy", "TITLE"), BodyFormat.JSON);
+        Assert.assertEquals(tag, versions.etag('b', books, Map.of("sortBy", "TITLE", "pageSize", "10"), BodyFormat.JSON));
+        Assert.assertNotEquals(tag, versions.etag('b', books, Map.of("pageSize", "20", "sortBy", "TITLE"), BodyFormat.JSON));
+        /* the same listing in another format is another representation */
+        Assert.assertNotEquals(tag, versions.etag('b', books, Map.of("pageSize", "10", "sortBy", "TITLE"), BodyFormat.CBOR));
+
+        /* reads change nothing */
+        Assert.assertTrue(versioned.queryBook(new BookQueryConditions()).ok);
+        Assert.assertTrue(versioned.showCards().ok);
+        Assert.assertEquals(books, versions.getBookVersion());
+        Assert.assertEquals(cards, versions.getCardVersion());
+
+        /* a borrow changes the stock shown in the book list, not the cards */
+        Borrow borrow = new Borrow(my.books.get(0), my.cards.get(0));
+        borrow.resetBorrowTime();
+        Assert.assertTrue(versioned.borrowBook(borrow).ok);
+        Assert.assertTrue(versions.getBookVersion() > books);
+        Assert.assertEquals(cards, versions.getCardVersion());
+        Assert.assertNotEquals(tag, versions.etag('b', versions.getBookVersion(),
+                Map.of("pageSize", "10", "sortBy", "TITLE"), BodyFormat.JSON));
+
+        /* failed writes count too */
+        books = versions.getBookVersion();
+        Assert.assertFalse(versioned.removeCard(my.cards.get(0).getCardId()).ok);
+        Assert.assertTrue(versions.getCardVersion() > cards);
+        Assert.assertEquals(books, versions.getBookVersion());
+    }
+}
@@ -0,0 +1,64 @@
+import org.junit.Assert;
+import org.junit.Test;
+import service.TransactionRetry;
+import utils.DatabaseType;
+
+import java.sql.SQLException;
+
+public class TransactionRetryTest {
+
+    private final SQLException deadlock = new SQLException("Deadlock found when trying to get lock", "40001", 1213);
+    private final SQLException lockTimeout = new SQLException("Lock wait timeout exceeded", "HY000", 1205);
+    private final SQLException duplicate = new SQLException("Duplicate entry", "23000", 1062);
+
+    @Test
+    public void transientTest() {
+        Assert.assertTrue(DatabaseType.MYSQL.isTransient(deadlock));
+        Assert.assertTrue(DatabaseType.MYSQL.isTransient(lockTimeout));
+        Assert.assertTrue(DatabaseType.MYSQL.isTransient(new RuntimeException(deadlock)));
+        Assert.assertFalse(DatabaseType.MYSQL.isTransient(duplicate));
+        Assert.assertFalse(DatabaseType.MYSQL.isTransient(new SQLException("Communications link failure", "08S01")));
+        Assert.assertTrue(DatabaseType.POSTGRES.isTransient(new SQLException("deadlock detected", "40P01")));
+        Assert.assertFalse(DatabaseType.POSTGRES.isTransient(lockTimeout));
+        Assert.assertTrue(DatabaseType.SQLSERVER.isTransient(new SQLException("deadlock victim", "40001", 1205)));
+        Assert.assertTrue(DatabaseType.H2.isTransient(new SQLException("Timeout trying to lock table", "HYT00", 50200)));
+    }
+
+    /* up to 2 retries per transaction, no waiting */
+    @Test
+    public void budgetTest() {
+        TransactionRetry retry = new TransactionRetry(DatabaseType.MYSQL, 2, 0, 0, 0);
+        retry.started();
+        Assert.assertFalse(retry.retry(duplicate, 1));
+        Assert.assertTrue(retry.retry(deadlock, 1));
+        Assert.assertTrue(retry.retry(deadlock, 2));
+        Assert.assertFalse(retry.retry(deadlock, 3));
+        Assert.assertEquals(2, retry.getRetries());
+        Assert.assertEquals(1, retry.getAborts());
+        /* transactions pay nothing into the budget, so it runs dry after the initial 10 retries */
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(retry.retry(deadlock, 1));
+        }
+        Assert.assertFalse(retry.retry(deadlock, 1));
+        Assert.assertEquals(10, retry.getRetries());
+        Assert.assertEquals(2, retry.getAborts());
+        /* every transaction adds its share */
+        TransactionRetry paid = new TransactionRetry(DatabaseType.MYSQL, 2, 0, 0, 0.5);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(paid.retry(deadlock, 1));
+        }
+        Assert.assertFalse(paid.retry(deadlock, 1));
+        paid.started();
+        paid.started();
+        Assert.assertTrue(paid.retry(deadlock, 1));    }
+
+    /* without backoff even a long wait is skipped, as on the dispatcher */
+    @Test
+    public void noBackoffTest() {
+        TransactionRetry dispatcher = new TransactionRetry(DatabaseType.MYSQL, 2, 60_000, 60_000, 0);
+        dispatcher.setBackoff(false);
+        long t0 = System.nanoTime();
+        Assert.assertTrue(dispatcher.retry(deadlock, 1));
+        Assert.assertTrue(System.nanoTime() - t0 < 10_000_000_000L);
+    }
+}